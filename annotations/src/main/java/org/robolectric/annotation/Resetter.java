@@ -18,4 +18,19 @@ import java.lang.annotation.Target;
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
-public @interface Resetter {}
+public @interface Resetter {
+
+  /**
+   * Whether the resetter only needs to run if the shadow was used since the last reset, when usage
+   * tracking is enabled by the {@code robolectric.resetters.trackUsage} system property. A shadow
+   * is used if it or its targeted class was loaded, one of its shadow methods was called, or an
+   * instance of its targeted class was created.
+   *
+   * <p>Only set this if every piece of state the resetter clears can only change through such a
+   * use. In particular, it must not be set if the resetter clears static state of the targeted
+   * class that unshadowed framework code can change, e.g. the queues of {@code QueuedWork} that
+   * {@code SharedPreferences.Editor.apply()} fills, or if the shadow has instance or static methods
+   * other than shadow methods that change its static state.
+   */
+  boolean onlyIfUsed() default false;
+}
@@ -2,6 +2,7 @@ package org.robolectric.integrationtests.room;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -32,4 +33,29 @@ public final class UserDatabaseTest {
 
     assertThat(dao.getAllUsers()).hasSize(1);
   }
+
+  @Ignore("Re-enable when performing a benchmark.")
+  @Test
+  @SQLiteMode(SQLiteMode.Mode.LEGACY)
+  public void insertAndQueryBenchmark_usingLegacySQLite() {
+    UserDatabase db = UserDatabase.getInstance(RuntimeEnvironment.getApplication());
+    UserDao dao = db.userDao();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 10_000; i++) {
+      User user = new User();
+      user.id = i;
+      user.username = "username" + i;
+      user.email = "username" + i + "@example.com";
+      dao.insert(user);
+    }
+    long inserted = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      assertThat(dao.getAllUsers()).hasSize(10_000);
+    }
+    long queried = System.nanoTime();
+
+    System.err.println("10,000 inserts: " + (inserted - start) / 1_000_000 + " ms");
+    System.err.println("100 queries of 10,000 rows: " + (queried - inserted) / 1_000_000 + " ms");
+  }
 }
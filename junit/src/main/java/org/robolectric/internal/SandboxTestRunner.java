@@ -163,14 +163,19 @@ public class SandboxTestRunner extends BlockJUnit4ClassRunner {
     ImmutableList.Builder<FrameworkMethod> result = ImmutableList.builder();
     for (Map.Entry<Sandbox, List<FrameworkMethod>> entry : methodsBySandbox.entrySet()) {
       List<FrameworkMethod> methods = entry.getValue();
-      Sandbox sandbox = ensureSandboxIsAlive(entry.getKey(), methods.get(0));
-      configureSandbox(sandbox, methods.get(0));
-      sandbox.runOnMainThreadWithClassLoader(
-          () -> {
-            result.addAll(
-                (List<FrameworkMethod>)
-                    runInSandbox(sandbox, methods.get(0), unused -> mapper.map(sandbox, methods)));
-          });
+      Sandbox sandbox = acquireLiveSandbox(entry.getKey(), methods.get(0));
+      try {
+        configureSandbox(sandbox, methods.get(0));
+        sandbox.runOnMainThreadWithClassLoader(
+            () -> {
+              result.addAll(
+                  (List<FrameworkMethod>)
+                      runInSandbox(
+                          sandbox, methods.get(0), unused -> mapper.map(sandbox, methods)));
+            });
+      } finally {
+        sandbox.release();
+      }
     }
     return result.build();
   }
@@ -197,6 +202,13 @@ public class SandboxTestRunner extends BlockJUnit4ClassRunner {
   private Statement sandboxGroupingClassBlock(RunNotifier notifier) {
     List<FrameworkMethod> children =
         ReflectionHelpers.callInstanceMethod(this, "getFilteredChildren");
+    List<FrameworkMethod> methodsToRun = new ArrayList<>();
+    for (FrameworkMethod method : children) {
+      if (!isIgnored(method)) {
+        methodsToRun.add(method);
+      }
+    }
+    prewarmSandboxes(methodsToRun);
     // Use a linked hashmap as a slight improvement to run tests in the order of getChildren.
     Map<Sandbox, List<FrameworkMethod>> methodsBySandbox = new LinkedHashMap<>();
     for (FrameworkMethod method : children) {
@@ -225,21 +237,27 @@ public class SandboxTestRunner extends BlockJUnit4ClassRunner {
         // generating nested statement for all the tests in each sandboxes
         for (Map.Entry<Sandbox, List<FrameworkMethod>> entry : methodsBySandbox.entrySet()) {
           FrameworkMethod firstMethod = entry.getValue().get(0);
-          Sandbox sandbox = ensureSandboxIsAlive(entry.getKey(), firstMethod);
-
-          Statement statement = childrenInvoker(entry.getValue(), notifier);
+          // Acquire the sandbox until the group is done, so that another runner sharing the
+          // sandbox manager can't evict it before the group starts running on its main thread.
+          Sandbox sandbox = acquireLiveSandbox(entry.getKey(), firstMethod);
+          try {
+            Statement statement = childrenInvoker(entry.getValue(), notifier);
 
-          Class<?> bootstrappedTestClass = sandbox.bootstrappedClass(getTestClass().getJavaClass());
+            Class<?> bootstrappedTestClass =
+                sandbox.bootstrappedClass(getTestClass().getJavaClass());
 
-          HelperTestRunner helperTestRunner = getCachedHelperTestRunner(bootstrappedTestClass);
-          statement = helperTestRunner.withBeforeClasses(statement);
-          statement = helperTestRunner.withAfterClasses(statement);
+            HelperTestRunner helperTestRunner = getCachedHelperTestRunner(bootstrappedTestClass);
+            statement = helperTestRunner.withBeforeClasses(statement);
+            statement = helperTestRunner.withAfterClasses(statement);
 
-          statement = withClassRules(statement, bootstrappedTestClass);
+            statement = withClassRules(statement, bootstrappedTestClass);
 
-          // Use the first method to setup a sandbox and invoke everything in that sandbox
-          Statement statementsOfTestGroup = inSandboxThread(sandbox, firstMethod, statement);
-          statementsOfTestGroup.evaluate();
+            // Use the first method to setup a sandbox and invoke everything in that sandbox
+            Statement statementsOfTestGroup = inSandboxThread(sandbox, firstMethod, statement);
+            statementsOfTestGroup.evaluate();
+          } finally {
+            sandbox.release();
+          }
         }
       }
     };
@@ -299,19 +317,28 @@ public class SandboxTestRunner extends BlockJUnit4ClassRunner {
 
   protected void afterClass() {}
 
+  /**
+   * Called with the methods that are about to be run, in order, before their sandboxes are
+   * requested. Subclasses may start building those sandboxes in the background.
+   */
+  protected void prewarmSandboxes(List<FrameworkMethod> methods) {}
+
   @Nonnull
   protected Sandbox getSandbox(FrameworkMethod method) {
     InstrumentationConfiguration instrumentationConfiguration = createClassLoaderConfig(method);
     return new Sandbox(instrumentationConfiguration, new UrlResourceProvider(), classInstrumentor);
   }
 
-  /** Returns a sandbox for the given method. If the sandbox is shutdown, returns a new sandbox. */
+  /**
+   * Acquires the given sandbox (see {@link Sandbox#tryAcquire()}), or if it is shutdown, a new
+   * sandbox for the given method. The caller must release it.
+   */
   // TODO: Evicting sandboxes in these use cases is inefficient seeing as we are retaining the
   //  sandboxes in the methodsBySandox map, seems like it would be better to first group by key
   //  rather than creating the sandbox?
-  private Sandbox ensureSandboxIsAlive(Sandbox sandbox, FrameworkMethod method) {
-    if (sandbox.isShutdown()) {
-      return getSandbox(method);
+  private Sandbox acquireLiveSandbox(Sandbox sandbox, FrameworkMethod method) {
+    while (!sandbox.tryAcquire()) {
+      sandbox = getSandbox(method);
     }
     return sandbox;
   }
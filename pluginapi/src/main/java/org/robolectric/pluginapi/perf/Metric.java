@@ -64,6 +64,11 @@ public class Metric {
     this.count++;
   }
 
+  /** Adds the given amount to the count. */
+  public synchronized void incrementCount(int delta) {
+    this.count += delta;
+  }
+
   /** Sets the count to the given value, overwriting any previous count. */
   public synchronized void recordCount(int count) {
     this.count = count;
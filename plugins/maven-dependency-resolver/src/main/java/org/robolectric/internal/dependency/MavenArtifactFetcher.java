@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
@@ -30,7 +31,7 @@ import org.robolectric.util.Logger;
 
 /**
  * Class responsible for fetching artifacts from Maven. This uses a thread pool of size two in order
- * to parallelize downloads.
+ * to parallelize downloads. Different artifacts may be fetched concurrently.
  */
 @SuppressWarnings("UnstableApiUsage")
 public class MavenArtifactFetcher {
@@ -41,7 +42,6 @@ public class MavenArtifactFetcher {
   private final int proxyPort;
   private final File localRepositoryDir;
   private final ExecutorService executorService;
-  private File stagingRepositoryDir;
 
   public MavenArtifactFetcher(
       String repositoryUrl,
@@ -60,76 +60,90 @@ public class MavenArtifactFetcher {
     this.executorService = executorService;
   }
 
-  @SuppressWarnings({"FutureTransformAsync", "NullArgumentForNonNullParameter"})
+  /**
+   * Fetches the artifact into the local repository, unless it is already there.
+   *
+   * <p>Files are downloaded into a staging directory inside the local repository, and only moved to
+   * their final location once their checksums have been validated. Files left in the staging
+   * directory by an interrupted fetch are resumed if the server supports it.
+   *
+   * <p>Callers must make sure that the same artifact is not fetched concurrently.
+   */
   public void fetchArtifact(MavenJarArtifact artifact) {
     // Assume that if the file exists in the local repository, it has been fetched successfully.
     if (new File(localRepositoryDir, artifact.jarPath()).exists()) {
       Logger.info(String.format("Found %s in local maven repository", artifact));
       return;
     }
-    this.stagingRepositoryDir = Files.createTempDir();
-    this.stagingRepositoryDir.deleteOnExit();
+    File stagingRepositoryDir = getStagingRepositoryDir();
+    boolean resuming = new File(stagingRepositoryDir, artifact.jarPath()).exists();
     try {
-      createArtifactSubdirectory(artifact, stagingRepositoryDir);
-      Futures.whenAllSucceed(
-              fetchToStagingRepository(artifact.pomSha512Path()),
-              fetchToStagingRepository(artifact.pomPath()),
-              fetchToStagingRepository(artifact.jarSha512Path()),
-              fetchToStagingRepository(artifact.jarPath()))
-          .callAsync(
-              () -> {
-                // double check that the artifact has not been installed
-                if (new File(localRepositoryDir, artifact.jarPath()).exists()) {
-                  removeArtifactFiles(stagingRepositoryDir, artifact);
-                  return Futures.immediateFuture(null);
-                }
-                createArtifactSubdirectory(artifact, localRepositoryDir);
-                ValidationResult pomResult =
-                    validateStagedFiles(artifact.pomPath(), artifact.pomSha512Path());
-                if (!pomResult.isSuccess()) {
-                  throw new AssertionError(
-                      "SHA-512 mismatch for POM file for "
-                          + artifact
-                          + ", expected SHA-512="
-                          + pomResult.expectedHashCode()
-                          + ", actual SHA-512="
-                          + pomResult.calculatedHashCode());
-                }
-                ValidationResult jarResult =
-                    validateStagedFiles(artifact.jarPath(), artifact.jarSha512Path());
-                if (!jarResult.isSuccess()) {
-                  throw new AssertionError(
-                      "SHA-512 mismatch for POM file for "
-                          + artifact
-                          + ", expected SHA-512="
-                          + jarResult.expectedHashCode()
-                          + ", actual SHA-512="
-                          + jarResult.calculatedHashCode());
-                }
-                Logger.info(
-                    String.format(
-                        "Checksums validated, moving artifact %s to local maven directory",
-                        artifact));
-                commitFromStaging(artifact.pomSha512Path());
-                commitFromStaging(artifact.pomPath());
-                commitFromStaging(artifact.jarSha512Path());
-                commitFromStaging(artifact.jarPath());
-                removeArtifactFiles(stagingRepositoryDir, artifact);
-                return Futures.immediateFuture(null);
-              },
-              executorService)
-          .get();
+      try {
+        fetchThroughStagingRepository(artifact, stagingRepositoryDir);
+      } catch (ExecutionException e) {
+        if (!resuming || !(e.getCause() instanceof ChecksumMismatchException)) {
+          throw e;
+        }
+        // The files left by a previous fetch were stale, so start over.
+        Logger.info(String.format("Discarding partially fetched files for %s", artifact));
+        removeArtifactFiles(stagingRepositoryDir, artifact);
+        fetchThroughStagingRepository(artifact, stagingRepositoryDir);
+      }
     } catch (InterruptedException | ExecutionException | IOException e) {
       if (e instanceof InterruptedException) {
         Thread.currentThread().interrupt(); // Restore the interrupted status
       }
-      removeArtifactFiles(stagingRepositoryDir, artifact);
+      if (e.getCause() instanceof ChecksumMismatchException) {
+        removeArtifactFiles(stagingRepositoryDir, artifact);
+      }
+      // Other staged files are kept, so that the next attempt can resume fetching them.
       removeArtifactFiles(localRepositoryDir, artifact);
       Logger.error("Failed to fetch maven artifact " + artifact, e);
       throw new AssertionError("Failed to fetch maven artifact " + artifact, e);
     }
   }
 
+  @SuppressWarnings({"FutureTransformAsync", "NullArgumentForNonNullParameter"})
+  private void fetchThroughStagingRepository(MavenJarArtifact artifact, File stagingRepositoryDir)
+      throws InterruptedException, ExecutionException, IOException {
+    createArtifactSubdirectory(artifact, stagingRepositoryDir);
+    Futures.whenAllSucceed(
+            fetchToStagingRepository(stagingRepositoryDir, artifact.pomSha512Path()),
+            fetchToStagingRepository(stagingRepositoryDir, artifact.pomPath()),
+            fetchToStagingRepository(stagingRepositoryDir, artifact.jarSha512Path()),
+            fetchToStagingRepository(stagingRepositoryDir, artifact.jarPath()))
+        .callAsync(
+            () -> {
+              // double check that the artifact has not been installed
+              if (new File(localRepositoryDir, artifact.jarPath()).exists()) {
+                removeArtifactFiles(stagingRepositoryDir, artifact);
+                return Futures.immediateFuture(null);
+              }
+              createArtifactSubdirectory(artifact, localRepositoryDir);
+              validateStagedFiles(
+                  stagingRepositoryDir, artifact, artifact.pomPath(), artifact.pomSha512Path());
+              validateStagedFiles(
+                  stagingRepositoryDir, artifact, artifact.jarPath(), artifact.jarSha512Path());
+              Logger.info(
+                  String.format(
+                      "Checksums validated, moving artifact %s to local maven directory",
+                      artifact));
+              // The jar is moved last, as its presence marks the artifact as fetched.
+              commitFromStaging(stagingRepositoryDir, artifact.pomSha512Path());
+              commitFromStaging(stagingRepositoryDir, artifact.pomPath());
+              commitFromStaging(stagingRepositoryDir, artifact.jarSha512Path());
+              commitFromStaging(stagingRepositoryDir, artifact.jarPath());
+              return Futures.immediateFuture(null);
+            },
+            executorService)
+        .get();
+  }
+
+  /** Returns the directory where files are downloaded before being validated. */
+  protected File getStagingRepositoryDir() {
+    return new File(localRepositoryDir, ".robolectric-staging");
+  }
+
   private void removeArtifactFiles(File repositoryDir, MavenJarArtifact artifact) {
     new File(repositoryDir, artifact.jarPath()).delete();
     new File(repositoryDir, artifact.jarSha512Path()).delete();
@@ -137,10 +151,27 @@ public class MavenArtifactFetcher {
     new File(repositoryDir, artifact.pomSha512Path()).delete();
   }
 
-  private ValidationResult validateStagedFiles(String filePath, String sha512Path)
+  private static void validateStagedFiles(
+      File stagingRepositoryDir, MavenJarArtifact artifact, String filePath, String sha512Path)
       throws IOException {
-    File tempFile = new File(this.stagingRepositoryDir, filePath);
-    File sha512File = new File(this.stagingRepositoryDir, sha512Path);
+    ValidationResult result = validateStagedFiles(stagingRepositoryDir, filePath, sha512Path);
+    if (!result.isSuccess()) {
+      throw new ChecksumMismatchException(
+          "SHA-512 mismatch for "
+              + filePath
+              + " of "
+              + artifact
+              + ", expected SHA-512="
+              + result.expectedHashCode()
+              + ", actual SHA-512="
+              + result.calculatedHashCode());
+    }
+  }
+
+  private static ValidationResult validateStagedFiles(
+      File stagingRepositoryDir, String filePath, String sha512Path) throws IOException {
+    File tempFile = new File(stagingRepositoryDir, filePath);
+    File sha512File = new File(stagingRepositoryDir, sha512Path);
 
     HashCode expected =
         HashCode.fromString(new String(Files.asByteSource(sha512File).read(), UTF_8));
@@ -149,6 +180,13 @@ public class MavenArtifactFetcher {
     return ValidationResult.create(expected.equals(actual), expected.toString(), actual.toString());
   }
 
+  /** Thrown when a staged file doesn't match its checksum. */
+  private static final class ChecksumMismatchException extends IOException {
+    ChecksumMismatchException(String message) {
+      super(message);
+    }
+  }
+
   @AutoValue
   abstract static class ValidationResult {
     abstract boolean isSuccess();
@@ -184,9 +222,9 @@ public class MavenArtifactFetcher {
     }
   }
 
-  private ListenableFuture<Void> fetchToStagingRepository(String path) {
+  private ListenableFuture<Void> fetchToStagingRepository(File stagingRepositoryDir, String path) {
     URL remoteUrl = getRemoteUrl(path);
-    File destination = new File(this.stagingRepositoryDir, path);
+    File destination = new File(stagingRepositoryDir, path);
     return createFetchToFileTask(remoteUrl, destination);
   }
 
@@ -197,13 +235,14 @@ public class MavenArtifactFetcher {
         this.executorService);
   }
 
-  private void commitFromStaging(String path) throws IOException {
-    File source = new File(this.stagingRepositoryDir, path);
+  private void commitFromStaging(File stagingRepositoryDir, String path) throws IOException {
+    File source = new File(stagingRepositoryDir, path);
     File destination = new File(this.localRepositoryDir, path);
     Files.move(source, destination);
   }
 
   static class FetchToFileTask implements AsyncCallable<Void> {
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     private final URL remoteURL;
     private final File localFile;
@@ -248,9 +287,26 @@ public class MavenArtifactFetcher {
         connection.setRequestProperty("Authorization", "Basic " + encoded);
       }
 
-      Logger.info("Transferring " + remoteURL);
+      // Resume a previous, interrupted transfer if possible.
+      long resumeFrom = localFile.length();
+      boolean append = false;
+      if (resumeFrom > 0 && connection instanceof HttpURLConnection) {
+        connection.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+        int responseCode = ((HttpURLConnection) connection).getResponseCode();
+        if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+          // The file was already complete. If it isn't, its checksum validation will fail.
+          ((HttpURLConnection) connection).disconnect();
+          return Futures.immediateFuture(null);
+        }
+        append = responseCode == HttpURLConnection.HTTP_PARTIAL;
+      }
+
+      Logger.info(
+          append
+              ? "Resuming transfer of " + remoteURL + " at " + resumeFrom
+              : "Transferring " + remoteURL);
       try (InputStream inputStream = connection.getInputStream();
-          FileOutputStream outputStream = new FileOutputStream(localFile)) {
+          FileOutputStream outputStream = new FileOutputStream(localFile, append)) {
         ByteStreams.copy(inputStream, outputStream);
         // Ensure all contents are written to disk.
         outputStream.flush();
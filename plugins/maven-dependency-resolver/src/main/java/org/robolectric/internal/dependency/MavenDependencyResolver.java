@@ -1,6 +1,7 @@
 package org.robolectric.internal.dependency;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -10,8 +11,12 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -39,6 +44,13 @@ import org.xml.sax.SAXException;
  */
 public class MavenDependencyResolver implements DependencyResolver {
 
+  /**
+   * In-process locks by lock file path. {@link FileChannel#lock()} only excludes other processes
+   * and throws if this process already holds the lock, so threads of this process that fetch the
+   * same artifact must wait for each other first.
+   */
+  private static final ConcurrentMap<String, Object> IN_PROCESS_LOCKS = new ConcurrentHashMap<>();
+
   private final MavenArtifactFetcher mavenArtifactFetcher;
   private final File localRepositoryDir;
 
@@ -75,18 +87,24 @@ public class MavenDependencyResolver implements DependencyResolver {
    * Get an array of local artifact URLs for the given dependencies. The order of the URLs is
    * guaranteed to be the same as the input order of dependencies, i.e., urls[i] is the local
    * artifact URL for dependencies[i].
+   *
+   * <p>Artifacts that are already in the local repository are used without locking. Missing
+   * artifacts are fetched in parallel, each while holding a lock specific to that artifact, so that
+   * processes fetching different artifacts don't wait for each other.
    */
   @SuppressWarnings("NewApi")
   public URL[] getLocalArtifactUrls(DependencyJar... dependencies) {
     List<MavenJarArtifact> artifacts = new ArrayList<>(dependencies.length);
-    whileLocked(
-        () -> {
-          for (DependencyJar dependencyJar : dependencies) {
-            MavenJarArtifact artifact = new MavenJarArtifact(dependencyJar);
-            artifacts.add(artifact);
-            mavenArtifactFetcher.fetchArtifact(artifact);
-          }
-        });
+    List<MavenJarArtifact> missingArtifacts = new ArrayList<>();
+    for (DependencyJar dependencyJar : dependencies) {
+      MavenJarArtifact artifact = new MavenJarArtifact(dependencyJar);
+      artifacts.add(artifact);
+      // The jar is only moved to the local repository once it has been verified.
+      if (!new File(localRepositoryDir, artifact.jarPath()).exists()) {
+        missingArtifacts.add(artifact);
+      }
+    }
+    fetchArtifacts(missingArtifacts);
     URL[] urls = new URL[dependencies.length];
     try {
       for (int i = 0; i < artifacts.size(); i++) {
@@ -99,21 +117,65 @@ public class MavenDependencyResolver implements DependencyResolver {
     return urls;
   }
 
-  private void whileLocked(Runnable runnable) {
-    File lockFile = createLockFile();
-    try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw")) {
-      try (FileChannel channel = raf.getChannel()) {
-        try (FileLock ignored = channel.lock()) {
-          runnable.run();
-        }
+  private void fetchArtifacts(List<MavenJarArtifact> artifacts) {
+    if (artifacts.isEmpty()) {
+      return;
+    } else if (artifacts.size() == 1) {
+      fetchArtifact(artifacts.get(0));
+      return;
+    }
+    ExecutorService executorService = Executors.newFixedThreadPool(artifacts.size());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (MavenJarArtifact artifact : artifacts) {
+        futures.add(executorService.submit(() -> fetchArtifact(artifact)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
       }
-    } catch (IOException e) {
-      throw new IllegalStateException("Couldn't create lock file " + lockFile, e);
+    } catch (ExecutionException e) {
+      // Rethrow the fetcher's own failure, e.g. an AssertionError for a checksum mismatch.
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while fetching " + artifacts, e);
     } finally {
-      lockFile.delete();
+      executorService.shutdownNow();
+    }
+  }
+
+  private void fetchArtifact(MavenJarArtifact artifact) {
+    whileLocked(createLockFile(artifact), () -> mavenArtifactFetcher.fetchArtifact(artifact));
+  }
+
+  private static void whileLocked(File lockFile, Runnable runnable) {
+    synchronized (IN_PROCESS_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), k -> new Object())) {
+      try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw")) {
+        try (FileChannel channel = raf.getChannel()) {
+          try (FileLock ignored = channel.lock()) {
+            runnable.run();
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Couldn't create lock file " + lockFile, e);
+      } finally {
+        lockFile.delete();
+      }
     }
   }
 
+  /**
+   * Returns the lock file held while fetching the given artifact, next to {@link
+   * #createLockFile()}.
+   */
+  protected File createLockFile(MavenJarArtifact artifact) {
+    File lockFile = createLockFile();
+    return new File(
+        lockFile.getParentFile(),
+        lockFile.getName() + "-" + artifact.toString().replaceAll("[^A-Za-z0-9._-]", "_"));
+  }
+
   protected File createLockFile() {
     return new File(System.getProperty("user.home"), ".robolectric-download-lock");
   }
@@ -6,12 +6,19 @@ import com.google.common.truth.Truth.assertThat
 import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
+import com.sun.net.httpserver.HttpServer
 import java.io.File
 import java.io.IOException
+import java.net.InetSocketAddress
 import java.net.MalformedURLException
 import java.net.URL
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.Callable
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CyclicBarrier
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
@@ -21,9 +28,11 @@ import org.junit.runners.JUnit4
 @RunWith(JUnit4::class)
 class MavenDependencyResolverTest {
   private lateinit var localRepositoryDir: File
+  private lateinit var lockDir: File
   private lateinit var executorService: ExecutorService
   private lateinit var mavenDependencyResolver: MavenDependencyResolver
   private lateinit var mavenArtifactFetcher: TestMavenArtifactFetcher
+  private val lockedArtifacts: MutableList<String> = CopyOnWriteArrayList()
 
   @Before
   @Throws(Exception::class)
@@ -31,6 +40,8 @@ class MavenDependencyResolverTest {
     executorService = MoreExecutors.newDirectExecutorService()
     localRepositoryDir = Files.createTempDir()
     localRepositoryDir.deleteOnExit()
+    lockDir = Files.createTempDir()
+    lockDir.deleteOnExit()
     mavenArtifactFetcher =
       TestMavenArtifactFetcher(
         REPOSITORY_URL,
@@ -59,6 +70,8 @@ class MavenDependencyResolverTest {
   fun localArtifactUrl_placesFilesCorrectlyForMultipleURL() {
     mavenDependencyResolver.getLocalArtifactUrls(*successCases)
     assertThat(mavenArtifactFetcher.numRequests).isEqualTo(4 * successCases.size)
+    assertThat(lockedArtifacts)
+      .containsExactlyElementsIn(successCases.map { MavenJarArtifact(it).toString() })
     for (dependencyJar in successCases) {
       val artifact = MavenJarArtifact(dependencyJar)
       checkJarArtifact(artifact)
@@ -122,6 +135,116 @@ class MavenDependencyResolverTest {
     assertThat(artifactFile.exists()).isTrue()
     mavenDependencyResolver.getLocalArtifactUrl(dependencyJar)
     assertThat(mavenArtifactFetcher.numRequests).isEqualTo(0)
+    assertThat(lockedArtifacts).isEmpty()
+  }
+
+  @Throws(Exception::class)
+  @Test
+  fun localArtifactUrl_concurrentResolvers_fetchSameArtifactOnce() {
+    val dependencyJar = successCases[0]
+    // Keeps the first fetch holding its lock until the other resolver tries to take it.
+    mavenArtifactFetcher.fetchDelayMillis = 100
+    val resolvers = listOf(mavenDependencyResolver, TestMavenDependencyResolver())
+    val barrier = CyclicBarrier(resolvers.size)
+    val executor = Executors.newFixedThreadPool(resolvers.size)
+    try {
+      val futures =
+        resolvers.map { resolver ->
+          executor.submit(
+            Callable {
+              barrier.await()
+              resolver.getLocalArtifactUrl(dependencyJar)
+            }
+          )
+        }
+      val urls = futures.map { it.get() }
+      assertThat(urls[1]).isEqualTo(urls[0])
+    } finally {
+      executor.shutdownNow()
+    }
+    assertThat(mavenArtifactFetcher.numRequests).isEqualTo(4)
+    checkJarArtifact(MavenJarArtifact(dependencyJar))
+  }
+
+  @Throws(Exception::class)
+  @Test
+  fun fetchArtifact_resumesPartialDownload() {
+    val artifact = MavenJarArtifact(successCases[0])
+    val stagedJar = File(localRepositoryDir, ".robolectric-staging/" + artifact.jarPath())
+    Files.createParentDirs(stagedJar)
+    Files.write("$artifact jar".toByteArray(StandardCharsets.UTF_8), stagedJar)
+    val rangeHeaders: MutableList<String> = CopyOnWriteArrayList()
+    val server = startHttpServer(rangeHeaders)
+    try {
+      newHttpFetcher(server).fetchArtifact(artifact)
+    } finally {
+      server.stop(0)
+    }
+    checkJarArtifact(artifact)
+    assertThat(rangeHeaders).containsExactly("bytes=${"$artifact jar".length}-")
+    assertThat(stagedJar.exists()).isFalse()
+  }
+
+  @Throws(Exception::class)
+  @Test
+  fun fetchArtifact_stalePartialDownload_startsOver() {
+    val artifact = MavenJarArtifact(successCases[1])
+    val stagedJar = File(localRepositoryDir, ".robolectric-staging/" + artifact.jarPath())
+    Files.createParentDirs(stagedJar)
+    Files.write("stale contents".toByteArray(StandardCharsets.UTF_8), stagedJar)
+    val rangeHeaders: MutableList<String> = CopyOnWriteArrayList()
+    val server = startHttpServer(rangeHeaders)
+    try {
+      newHttpFetcher(server).fetchArtifact(artifact)
+    } finally {
+      server.stop(0)
+    }
+    checkJarArtifact(artifact)
+    assertThat(rangeHeaders).containsExactly("bytes=${"stale contents".length}-")
+  }
+
+  private fun newHttpFetcher(server: HttpServer): TestMavenArtifactFetcher {
+    return TestMavenArtifactFetcher(
+      "http://localhost:${server.address.port}/",
+      null,
+      null,
+      null,
+      0,
+      localRepositoryDir,
+      executorService,
+    )
+  }
+
+  /** Starts a server for the test repository that supports range requests. */
+  private fun startHttpServer(rangeHeaders: MutableList<String>): HttpServer {
+    val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+    server.createContext("/") { exchange ->
+      try {
+        val file = File(REPOSITORY_DIR, exchange.requestURI.path.removePrefix("/"))
+        val range = exchange.requestHeaders.getFirst("Range")
+        if (!file.isFile) {
+          exchange.sendResponseHeaders(404, -1)
+        } else if (range == null) {
+          val contents = file.readBytes()
+          exchange.sendResponseHeaders(200, contents.size.toLong())
+          exchange.responseBody.write(contents)
+        } else {
+          rangeHeaders.add(range)
+          val contents = file.readBytes()
+          val start = range.removePrefix("bytes=").removeSuffix("-").toInt()
+          if (start >= contents.size) {
+            exchange.sendResponseHeaders(416, -1)
+          } else {
+            exchange.sendResponseHeaders(206, (contents.size - start).toLong())
+            exchange.responseBody.write(contents, start, contents.size - start)
+          }
+        }
+      } finally {
+        exchange.close()
+      }
+    }
+    server.start()
+    return server
   }
 
   @Throws(Exception::class)
@@ -160,12 +283,17 @@ class MavenDependencyResolverTest {
       return executorService
     }
 
+    override fun createLockFile(artifact: MavenJarArtifact): File {
+      lockedArtifacts.add(artifact.toString())
+      return super.createLockFile(artifact)
+    }
+
     override fun createLockFile(): File {
-      return try {
-        File.createTempFile("MavenDependencyResolverTest", null)
-      } catch (e: IOException) {
-        throw AssertionError(e)
-      }
+      return File(lockDir, "download-lock")
+    }
+
+    override fun getLocalRepositoryDir(): File {
+      return this@MavenDependencyResolverTest.localRepositoryDir
     }
   }
 
@@ -188,15 +316,18 @@ class MavenDependencyResolverTest {
       localRepositoryDir,
       executorService,
     ) {
-    var numRequests = 0
-      private set
+    private val requestCount = AtomicInteger()
+    @Volatile var fetchDelayMillis = 0L
+    val numRequests: Int
+      get() = requestCount.get()
 
     override fun createFetchToFileTask(remoteUrl: URL, tempFile: File): ListenableFuture<Void> {
       return Futures.submitAsync(
         object : FetchToFileTask(remoteUrl, tempFile, null, null, null, 0) {
           @Throws(Exception::class)
           override fun call(): ListenableFuture<Void> {
-            numRequests += 1
+            requestCount.incrementAndGet()
+            Thread.sleep(fetchDelayMillis)
             return super.call()
           }
         },
@@ -22,6 +22,7 @@ dependencies {
   testImplementation(libs.junit4)
   testImplementation(libs.mockito)
   testImplementation(libs.mockito.subclass)
+  testImplementation(libs.truth)
 }
 
 val androidAllMavenLocal =
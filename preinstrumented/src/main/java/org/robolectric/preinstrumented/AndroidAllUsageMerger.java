@@ -0,0 +1,119 @@
+package org.robolectric.preinstrumented;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.robolectric.internal.bytecode.AndroidAllUsage;
+
+/**
+ * Merges the android-all usage recordings of the shards of a test suite into the {@code
+ * --packages_to_keep} and {@code --resources_to_keep} files of {@link JarInstrumentor}, so that it
+ * emits an instrumented android-all jar with only the packages and resources the suite uses.
+ *
+ * <p>Recordings are written by tests run with the {@code robolectric.androidAllUsageDirectory}
+ * system property set; see {@link AndroidAllUsage}. The arguments may be recording files, or
+ * directories that are searched for recordings. Since the recordings of different android-all jars
+ * are written to different subdirectories, pass the subdirectory of the jar to be instrumented.
+ *
+ * <p>The framework resources are always kept, since Robolectric's asset managers read them straight
+ * from the android-all jar rather than through the sandbox class loader, so recordings don't see
+ * them.
+ */
+public class AndroidAllUsageMerger {
+  /** Resources and directories read from the android-all jar without the sandbox class loader. */
+  @VisibleForTesting
+  static final ImmutableList<String> RESOURCES_TO_ALWAYS_KEEP =
+      ImmutableList.of("assets/", "build.prop", "res/", "resources.arsc");
+
+  public static void main(String[] args) throws IOException {
+    new AndroidAllUsageMerger().processCommandLine(args);
+  }
+
+  @VisibleForTesting
+  void processCommandLine(String[] args) throws IOException {
+    Path packagesToKeepFile = null;
+    Path resourcesToKeepFile = null;
+    List<Path> inputs = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--packages_to_keep=")) {
+        packagesToKeepFile = Paths.get(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.startsWith("--resources_to_keep=")) {
+        resourcesToKeepFile = Paths.get(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.startsWith("--")) {
+        System.err.println("Unknown flag: " + arg);
+        exit(1);
+        return;
+      } else {
+        inputs.add(Paths.get(arg));
+      }
+    }
+    if (packagesToKeepFile == null || resourcesToKeepFile == null || inputs.isEmpty()) {
+      System.err.println(
+          "Usage: AndroidAllUsageMerger"
+              + " --packages_to_keep=file path to write the package list to"
+              + " --resources_to_keep=file path to write the resource list to"
+              + " <recording file or directory>...");
+      exit(1);
+      return;
+    }
+
+    AndroidAllUsage usage = merge(inputs);
+    if (usage.getPackageNames().isEmpty()) {
+      System.err.println("No android-all classes were recorded in " + inputs);
+      exit(1);
+      return;
+    }
+    Files.write(packagesToKeepFile, usage.getPackageNames(), UTF_8);
+    Files.write(resourcesToKeepFile, usage.getResourceNames(), UTF_8);
+  }
+
+  /**
+   * Returns the union of the given recordings, those in the given directories, and the resources to
+   * always keep.
+   */
+  @VisibleForTesting
+  static AndroidAllUsage merge(List<Path> inputs) throws IOException {
+    AndroidAllUsage merged = new AndroidAllUsage();
+    for (String resourceName : RESOURCES_TO_ALWAYS_KEEP) {
+      merged.addResource(resourceName);
+    }
+    for (Path input : inputs) {
+      if (Files.isDirectory(input)) {
+        List<Path> recordings;
+        try (Stream<Path> files = Files.walk(input)) {
+          recordings =
+              files
+                  .filter(
+                      file ->
+                          Files.isRegularFile(file)
+                              && file.getFileName()
+                                  .toString()
+                                  .endsWith(AndroidAllUsage.RECORDING_SUFFIX))
+                  .sorted()
+                  .collect(Collectors.toList());
+        }
+        for (Path recording : recordings) {
+          merged.addAll(AndroidAllUsage.read(recording));
+        }
+      } else {
+        merged.addAll(AndroidAllUsage.read(input));
+      }
+    }
+    return merged;
+  }
+
+  /** Calls {@link System#exit(int)}. Overridden during tests to avoid exiting during tests. */
+  @VisibleForTesting
+  protected void exit(int status) {
+    System.exit(status);
+  }
+}
@@ -5,18 +5,29 @@ import static java.nio.file.Files.newOutputStream;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -24,6 +35,7 @@ import java.util.zip.ZipEntry;
 import org.robolectric.config.AndroidConfigurer;
 import org.robolectric.interceptors.AndroidInterceptors;
 import org.robolectric.internal.bytecode.ClassDetails;
+import org.robolectric.internal.bytecode.ClassHierarchyIndex;
 import org.robolectric.internal.bytecode.ClassInstrumentor;
 import org.robolectric.internal.bytecode.ClassNodeProvider;
 import org.robolectric.internal.bytecode.InstrumentationConfiguration;
@@ -36,6 +48,8 @@ public class JarInstrumentor {
 
   private static final int ONE_MB = 1024 * 1024;
 
+  private static final int PENDING_ENTRIES_PER_THREAD = 64;
+
   private static final Injector INJECTOR = new Injector.Builder().build();
 
   private final ClassInstrumentor classInstrumentor;
@@ -48,6 +62,8 @@ public class JarInstrumentor {
   private ImmutableSet<String> resourceFilesToKeep = ImmutableSet.of();
   private ImmutableSet<String> resourceDirsToKeep = ImmutableSet.of();
 
+  private int threads = Runtime.getRuntime().availableProcessors();
+
   public static void main(String[] args) throws IOException, ClassNotFoundException {
     new JarInstrumentor().processCommandLine(args);
   }
@@ -69,6 +85,7 @@ public class JarInstrumentor {
           "Usage: JarInstrumentor"
               + " [--packages_to_keep=file path containing package list]"
               + " [--resources_to_keep=file path containing resource list]"
+              + " [--threads=number of worker threads, defaults to the number of processors]"
               + " <source jar> <dest jar> ");
       exit(1);
     }
@@ -84,7 +101,9 @@ public class JarInstrumentor {
           return;
         }
         hasPackagesToKeepFile = true;
-        packagesToKeep = ImmutableSet.copyOf(Files.readLines(packagesToKeepFile, UTF_8));
+        packagesToKeep =
+            ImmutableSet.copyOf(
+                Iterables.filter(Files.readLines(packagesToKeepFile, UTF_8), s -> !s.isEmpty()));
         Preconditions.checkState(!packagesToKeep.isEmpty(), "Package files must be non-empty.");
       } else if (arg.startsWith("--resources_to_keep=")) {
         File resourcesToKeepFile = new File(arg.substring(arg.indexOf('=') + 1));
@@ -93,15 +112,25 @@ public class JarInstrumentor {
           exit(1);
           return;
         }
-        List<String> resourceFiles = Files.readLines(resourcesToKeepFile, UTF_8);
+        Iterable<String> resourceFiles =
+            Iterables.filter(Files.readLines(resourcesToKeepFile, UTF_8), s -> !s.isEmpty());
         resourceFilesToKeep =
             ImmutableSet.copyOf(Iterables.filter(resourceFiles, s -> !s.endsWith("/")));
         resourceDirsToKeep =
             ImmutableSet.copyOf(Iterables.filter(resourceFiles, s -> s.endsWith("/")));
         Preconditions.checkState(
-            !resourceFilesToKeep.isEmpty() && !resourceDirsToKeep.isEmpty(),
-            "Resource files and directories must be specified.");
+            !resourceFilesToKeep.isEmpty() || !resourceDirsToKeep.isEmpty(),
+            "Resource files or directories must be specified.");
         hasResourcesToKeepFile = true;
+      } else if (arg.startsWith("--threads=")) {
+        String threadsValue = arg.substring(arg.indexOf('=') + 1);
+        Integer parsedThreads = Ints.tryParse(threadsValue);
+        if (parsedThreads == null || parsedThreads < 1) {
+          System.err.println("Invalid number of threads: " + threadsValue);
+          exit(1);
+          return;
+        }
+        threads = parsedThreads;
       } else if (arg.startsWith("--")) {
         System.err.println("Unknown flag: " + arg);
         exit(1);
@@ -121,9 +150,19 @@ public class JarInstrumentor {
     System.exit(status);
   }
 
+  /** Returns the number of worker threads that instrument classes. */
+  @VisibleForTesting
+  int getThreads() {
+    return threads;
+  }
+
   /**
    * Performs the JAR instrumentation.
    *
+   * <p>Classes are instrumented in parallel on {@link #threads} worker threads, but entries are
+   * always written to the destination JAR in the order of the source JAR so that the output is
+   * deterministic.
+   *
    * @param sourceJarFile The source JAR to process.
    * @param destJarFile The destination JAR with the instrumented method calls.
    */
@@ -133,15 +172,14 @@ public class JarInstrumentor {
     long startNs = System.nanoTime();
     JarFile jarFile = new JarFile(sourceJarFile);
     ClassNodeProvider classNodeProvider =
-        new ClassNodeProvider() {
+        new ClassNodeProvider(ClassHierarchyIndex.forJar(sourceJarFile.toPath())) {
           @Override
           protected byte[] getClassBytes(String className) throws ClassNotFoundException {
             return JarInstrumentor.getClassBytes(className, jarFile);
           }
         };
 
-    int nonClassCount = 0;
-    int classCount = 0;
+    Stats stats = new Stats();
 
     // get the jar's SDK version
     try {
@@ -150,6 +188,11 @@ public class JarInstrumentor {
       throw new AssertionError("Unable to get Android SDK version from Jar file", e);
     }
 
+    ExecutorService executorService = Executors.newFixedThreadPool(threads, workerThreadFactory());
+    // Bound the number of entries held in memory while waiting to be written.
+    int maxPendingEntries = threads * PENDING_ENTRIES_PER_THREAD;
+    Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+
     try (JarOutputStream jarOut =
         new JarOutputStream(
             new BufferedOutputStream(newOutputStream(destJarFile.toPath()), ONE_MB))) {
@@ -164,7 +207,8 @@ public class JarInstrumentor {
         }
         if (name.endsWith("/")) {
           // Copy directories
-          jarOut.putNextEntry(createJarEntry(jarEntry));
+          pendingEntries.add(
+              new PendingEntry(jarEntry, false, CompletableFuture.completedFuture(new byte[0])));
         } else if (name.endsWith(".class")) {
           String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
 
@@ -176,22 +220,12 @@ public class JarInstrumentor {
             }
           }
 
-          try {
-            byte[] classBytes = getClassBytes(className, jarFile);
-            ClassDetails classDetails = new ClassDetails(classBytes);
-            byte[] outBytes = classBytes;
-            if (instrumentationConfiguration.shouldInstrument(classDetails)) {
-              outBytes =
-                  classInstrumentor.instrument(
-                      classDetails, instrumentationConfiguration, classNodeProvider);
-            }
-            jarOut.putNextEntry(createJarEntry(jarEntry));
-            jarOut.write(outBytes);
-            classCount++;
-          } catch (NegativeArraySizeException e) {
-            System.err.println(
-                "Skipping instrumenting due to NegativeArraySizeException for class: " + className);
-          }
+          pendingEntries.add(
+              new PendingEntry(
+                  jarEntry,
+                  true,
+                  executorService.submit(
+                      () -> instrumentClass(className, jarFile, classNodeProvider, stats))));
         } else {
           boolean shouldKeep = true;
           if (hasResourcesToKeepFile) {
@@ -204,21 +238,120 @@ public class JarInstrumentor {
             }
           }
           if (shouldKeep) {
-            jarOut.putNextEntry(createJarEntry(jarEntry));
-            ByteStreams.copy(jarFile.getInputStream(jarEntry), jarOut);
-            nonClassCount++;
+            pendingEntries.add(
+                new PendingEntry(
+                    jarEntry,
+                    false,
+                    executorService.submit(() -> readEntry(jarFile, jarEntry, stats))));
           }
         }
+
+        while (pendingEntries.size() > maxPendingEntries) {
+          writeEntry(pendingEntries.remove(), jarOut, stats);
+        }
+      }
+
+      while (!pendingEntries.isEmpty()) {
+        writeEntry(pendingEntries.remove(), jarOut, stats);
       }
+    } finally {
+      executorService.shutdownNow();
     }
 
     long elapsedNs = System.nanoTime() - startNs;
     System.out.printf(
         Locale.getDefault(),
         "Wrote %d classes and %d resources in %1.2f seconds%n",
-        classCount,
-        nonClassCount,
+        stats.classCount,
+        stats.nonClassCount,
         elapsedNs / 1000000000.0);
+    System.out.printf(
+        Locale.getDefault(),
+        "Used %d threads: read %1.2f s, instrument %1.2f s (summed across threads), write %1.2f"
+            + " s%n",
+        threads,
+        stats.readNs.get() / 1000000000.0,
+        stats.instrumentNs.get() / 1000000000.0,
+        stats.writeNs / 1000000000.0);
+  }
+
+  /**
+   * Reads and, if necessary, instruments a class. Runs on a worker thread.
+   *
+   * @return the bytes to write, or null if the class should be skipped
+   */
+  private byte[] instrumentClass(
+      String className, JarFile jarFile, ClassNodeProvider classNodeProvider, Stats stats)
+      throws ClassNotFoundException {
+    long startNs = System.nanoTime();
+    byte[] classBytes = getClassBytes(className, jarFile);
+    long readDoneNs = System.nanoTime();
+    stats.readNs.addAndGet(readDoneNs - startNs);
+    try {
+      ClassDetails classDetails = new ClassDetails(classBytes);
+      if (instrumentationConfiguration.shouldInstrument(classDetails)) {
+        return classInstrumentor.instrument(
+            classDetails, instrumentationConfiguration, classNodeProvider);
+      }
+      return classBytes;
+    } catch (NegativeArraySizeException e) {
+      System.err.println(
+          "Skipping instrumenting due to NegativeArraySizeException for class: " + className);
+      return null;
+    } finally {
+      stats.instrumentNs.addAndGet(System.nanoTime() - readDoneNs);
+    }
+  }
+
+  /** Reads a non-class entry. Runs on a worker thread. */
+  private static byte[] readEntry(JarFile jarFile, JarEntry jarEntry, Stats stats)
+      throws IOException {
+    long startNs = System.nanoTime();
+    try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
+      return ByteStreams.toByteArray(inputStream);
+    } finally {
+      stats.readNs.addAndGet(System.nanoTime() - startNs);
+    }
+  }
+
+  /** Waits for a pending entry to be processed, then writes it to the destination JAR. */
+  private static void writeEntry(PendingEntry pendingEntry, JarOutputStream jarOut, Stats stats)
+      throws IOException, ClassNotFoundException {
+    byte[] contents;
+    try {
+      contents = pendingEntry.contents.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while instrumenting " + pendingEntry.jarEntry, e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), ClassNotFoundException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException("Failed to process " + pendingEntry.jarEntry, e.getCause());
+    }
+    if (contents == null) {
+      return;
+    }
+
+    long startNs = System.nanoTime();
+    jarOut.putNextEntry(createJarEntry(pendingEntry.jarEntry));
+    jarOut.write(contents);
+    stats.writeNs += System.nanoTime() - startNs;
+
+    if (pendingEntry.isClass) {
+      stats.classCount++;
+    } else if (!pendingEntry.jarEntry.isDirectory()) {
+      stats.nonClassCount++;
+    }
+  }
+
+  private static ThreadFactory workerThreadFactory() {
+    AtomicInteger threadCount = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "JarInstrumentor-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private static byte[] getClassBytes(String className, JarFile jarFile)
@@ -251,4 +384,27 @@ public class JarInstrumentor {
   private int getJarAndroidSDKVersion(JarFile jarFile) throws IOException {
     return new VersionCalculator().calculateSdkInfo(jarFile).apiLevel;
   }
+
+  /** A source JAR entry whose output bytes may still be being computed. */
+  private static class PendingEntry {
+    final JarEntry jarEntry;
+    final boolean isClass;
+    final Future<byte[]> contents;
+
+    PendingEntry(JarEntry jarEntry, boolean isClass, Future<byte[]> contents) {
+      this.jarEntry = jarEntry;
+      this.isClass = isClass;
+      this.contents = contents;
+    }
+  }
+
+  /** Counts and per-phase timings for a single {@link #instrumentJar} run. */
+  private static class Stats {
+    final AtomicLong readNs = new AtomicLong();
+    final AtomicLong instrumentNs = new AtomicLong();
+    // Only accessed from the writing thread.
+    long writeNs;
+    int classCount;
+    int nonClassCount;
+  }
 }
@@ -0,0 +1,184 @@
+package org.robolectric.preinstrumented;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.robolectric.internal.bytecode.AndroidAllUsage;
+import org.robolectric.internal.bytecode.ClassInstrumentor;
+import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+import org.robolectric.internal.bytecode.SandboxClassLoader;
+import org.robolectric.internal.bytecode.UrlResourceProvider;
+
+/** Tests for {@link AndroidAllUsageMerger} */
+@RunWith(JUnit4.class)
+public class AndroidAllUsageMergerTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void processCommandLine_writesUnionOfRecordings() throws Exception {
+    Path recordings = tempFolder.newFolder("android-all.jar").toPath();
+    AndroidAllUsage shard1 = new AndroidAllUsage();
+    shard1.addClass("android.app.Activity");
+    shard1.addClass("android.os.Looper");
+    shard1.addResource("build.prop");
+    shard1.writeTo(recordings.resolve("shard1" + AndroidAllUsage.RECORDING_SUFFIX));
+    AndroidAllUsage shard2 = new AndroidAllUsage();
+    shard2.addClass("android.app.Application");
+    shard2.addClass("android.view.View");
+    shard2.addResource("fonts/");
+    shard2.writeTo(recordings.resolve("nested/shard2" + AndroidAllUsage.RECORDING_SUFFIX));
+    Files.write(recordings.resolve("unrelated.txt"), "not a recording".getBytes(UTF_8));
+    Path packagesToKeep = tempFolder.getRoot().toPath().resolve("packages");
+    Path resourcesToKeep = tempFolder.getRoot().toPath().resolve("resources");
+
+    new AndroidAllUsageMerger() {
+      @Override
+      protected void exit(int status) {
+        throw new AssertionError("exit(" + status + ")");
+      }
+    }.processCommandLine(
+        new String[] {
+          "--packages_to_keep=" + packagesToKeep,
+          "--resources_to_keep=" + resourcesToKeep,
+          recordings.toString()
+        });
+
+    assertThat(Files.readAllLines(packagesToKeep, UTF_8))
+        .containsExactly("android.app", "android.os", "android.view")
+        .inOrder();
+    assertThat(Files.readAllLines(resourcesToKeep, UTF_8))
+        .containsExactly("assets/", "build.prop", "fonts/", "res/", "resources.arsc")
+        .inOrder();
+  }
+
+  @Test
+  public void recordedUsage_buildsJarWithUsedClassesAndFrameworkResources() throws Exception {
+    byte[] resourcesArsc = {1, 2, 3};
+    Path androidAllJar =
+        writeJar(
+            "android-all.jar",
+            ImmutableMap.<String, byte[]>builder()
+                .put(
+                    "build.prop",
+                    "ro.build.version.codename=REL\nro.build.version.sdk=33\n".getBytes(UTF_8))
+                .put("resources.arsc", resourcesArsc)
+                .put("res/values/strings.xml", "<resources/>".getBytes(UTF_8))
+                .put("assets/images/android-logo-mask.png", new byte[] {4})
+                .put("fonts/Roboto-Regular.ttf", new byte[] {5})
+                .put("usr/share/unused.txt", new byte[] {6})
+                .put("android/app/Used.class", emptyClass("android/app/Used"))
+                .put("android/widget/Unused.class", emptyClass("android/widget/Unused"))
+                .build());
+    Path recordings = tempFolder.newFolder("recordings").toPath();
+
+    // Record a test run that loads one class and reads one resource through the sandbox.
+    System.setProperty("robolectric.androidAllUsageDirectory", recordings.toString());
+    try {
+      SandboxClassLoader sandboxClassLoader =
+          new SandboxClassLoader(
+              ClassLoader.getSystemClassLoader(),
+              InstrumentationConfiguration.newBuilder().addInstrumentedPackage("android.").build(),
+              new UrlResourceProvider(androidAllJar.toUri().toURL()),
+              new ClassInstrumentor());
+      sandboxClassLoader.loadClass("android.app.Used");
+      assertThat(sandboxClassLoader.getResource("fonts/Roboto-Regular.ttf")).isNotNull();
+      sandboxClassLoader.close();
+    } finally {
+      System.clearProperty("robolectric.androidAllUsageDirectory");
+    }
+
+    Path packagesToKeep = tempFolder.getRoot().toPath().resolve("packages");
+    Path resourcesToKeep = tempFolder.getRoot().toPath().resolve("resources");
+    new AndroidAllUsageMerger()
+        .processCommandLine(
+            new String[] {
+              "--packages_to_keep=" + packagesToKeep,
+              "--resources_to_keep=" + resourcesToKeep,
+              recordings.resolve("android-all.jar").toString()
+            });
+    Path slimJar = tempFolder.getRoot().toPath().resolve("android-all-instrumented.jar");
+    new JarInstrumentor()
+        .processCommandLine(
+            new String[] {
+              "--packages_to_keep=" + packagesToKeep,
+              "--resources_to_keep=" + resourcesToKeep,
+              androidAllJar.toString(),
+              slimJar.toString()
+            });
+
+    try (URLClassLoader slimClassLoader =
+        new URLClassLoader(new URL[] {slimJar.toUri().toURL()}, null)) {
+      assertThat(slimClassLoader.getResource("android/app/Used.class")).isNotNull();
+      assertThat(slimClassLoader.getResource("android/widget/Unused.class")).isNull();
+      assertThat(slimClassLoader.getResource("fonts/Roboto-Regular.ttf")).isNotNull();
+      assertThat(slimClassLoader.getResource("usr/share/unused.txt")).isNull();
+      // Framework resources are read from the jar directly, so they're kept without a recording.
+      assertThat(slimClassLoader.getResource("res/values/strings.xml")).isNotNull();
+      assertThat(slimClassLoader.getResource("assets/images/android-logo-mask.png")).isNotNull();
+      try (InputStream in = slimClassLoader.getResourceAsStream("resources.arsc")) {
+        assertThat(ByteStreams.toByteArray(in)).isEqualTo(resourcesArsc);
+      }
+    }
+  }
+
+  private Path writeJar(String name, Map<String, byte[]> entries) throws Exception {
+    Path jar = tempFolder.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        jarOut.putNextEntry(new JarEntry(entry.getKey()));
+        jarOut.write(entry.getValue());
+      }
+    }
+    return jar;
+  }
+
+  private static byte[] emptyClass(String internalName) {
+    ClassWriter classWriter = new ClassWriter(0);
+    classWriter.visit(
+        Opcodes.V11, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    classWriter.visitEnd();
+    return classWriter.toByteArray();
+  }
+
+  @Test
+  public void processCommandLine_noRecordedClasses_exits() throws Exception {
+    Path recording =
+        tempFolder.getRoot().toPath().resolve("empty" + AndroidAllUsage.RECORDING_SUFFIX);
+    new AndroidAllUsage().writeTo(recording);
+    int[] exitStatus = {0};
+
+    new AndroidAllUsageMerger() {
+      @Override
+      protected void exit(int status) {
+        exitStatus[0] = status;
+      }
+    }.processCommandLine(
+        new String[] {
+          "--packages_to_keep=" + tempFolder.getRoot().toPath().resolve("packages"),
+          "--resources_to_keep=" + tempFolder.getRoot().toPath().resolve("resources"),
+          recording.toString()
+        });
+
+    assertThat(exitStatus[0]).isEqualTo(1);
+    assertThat(Files.exists(tempFolder.getRoot().toPath().resolve("packages"))).isFalse();
+  }
+}
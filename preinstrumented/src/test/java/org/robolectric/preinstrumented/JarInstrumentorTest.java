@@ -1,19 +1,35 @@
 package org.robolectric.preinstrumented;
 
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 /** Test for {@link JarInstrumentor}. */
 @RunWith(JUnit4.class)
 public class JarInstrumentorTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
 
   private JarInstrumentor spyDummyInstrumentor;
 
@@ -47,4 +63,86 @@ public class JarInstrumentorTest {
     verify(spyDummyInstrumentor, never()).instrumentJar(any(File.class), any(File.class));
     verify(spyDummyInstrumentor).exit(1);
   }
+
+  @Test
+  public void processCommandLine_threads() throws Exception {
+    spyDummyInstrumentor.processCommandLine(new String[] {"--threads=3", "source.jar", "dest.jar"});
+    verify(spyDummyInstrumentor).instrumentJar(new File("source.jar"), new File("dest.jar"));
+    assertThat(spyDummyInstrumentor.getThreads()).isEqualTo(3);
+  }
+
+  @Test
+  public void instrumentJar_outputDoesNotDependOnThreads() throws Exception {
+    Path sourceJar = tempFolder.getRoot().toPath().resolve("android-all.jar");
+    try (JarOutputStream jarOut = new JarOutputStream(Files.newOutputStream(sourceJar))) {
+      jarOut.putNextEntry(new JarEntry("build.prop"));
+      jarOut.write("ro.build.version.codename=REL\nro.build.version.sdk=33\n".getBytes(UTF_8));
+      for (int i = 0; i < 200; i++) {
+        String superName = i % 10 == 0 ? "java/lang/Object" : "android/test/Class" + (i - 1);
+        jarOut.putNextEntry(new JarEntry("android/test/Class" + i + ".class"));
+        jarOut.write(classWithMethod("android/test/Class" + i, superName));
+        jarOut.putNextEntry(new JarEntry("android/test/resource" + i + ".txt"));
+        jarOut.write(("resource " + i).getBytes(UTF_8));
+      }
+    }
+    Path singleThreadedJar = tempFolder.getRoot().toPath().resolve("single.jar");
+    Path multiThreadedJar = tempFolder.getRoot().toPath().resolve("multi.jar");
+
+    new JarInstrumentor()
+        .processCommandLine(
+            new String[] {"--threads=1", sourceJar.toString(), singleThreadedJar.toString()});
+    new JarInstrumentor()
+        .processCommandLine(
+            new String[] {"--threads=8", sourceJar.toString(), multiThreadedJar.toString()});
+
+    assertThat(entryNames(multiThreadedJar)).isEqualTo(entryNames(singleThreadedJar));
+    assertThat(entryNames(singleThreadedJar)).hasSize(401);
+    assertThat(Files.readAllBytes(multiThreadedJar))
+        .isEqualTo(Files.readAllBytes(singleThreadedJar));
+  }
+
+  private static List<String> entryNames(Path jar) throws Exception {
+    try (JarFile jarFile = new JarFile(jar.toFile())) {
+      return jarFile.stream().map(JarEntry::getName).collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] classWithMethod(String internalName, String superName) {
+    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    classWriter.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, internalName, null, superName, null);
+    MethodVisitor method =
+        classWriter.visitMethod(Opcodes.ACC_PUBLIC, "getValue", "()I", null, null);
+    method.visitCode();
+    method.visitLdcInsn(internalName.length());
+    method.visitInsn(Opcodes.IRETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    classWriter.visitEnd();
+    return classWriter.toByteArray();
+  }
+
+  @Test
+  public void processCommandLine_invalidThreads() throws Exception {
+    spyDummyInstrumentor.processCommandLine(new String[] {"--threads=0", "source.jar", "dest.jar"});
+    verify(spyDummyInstrumentor, never()).instrumentJar(any(File.class), any(File.class));
+    verify(spyDummyInstrumentor).exit(1);
+  }
+
+  @Test
+  public void processCommandLine_resourceFilesOnly() throws Exception {
+    File packagesToKeep = tempFolder.newFile("packages");
+    Files.write(packagesToKeep.toPath(), Arrays.asList("android.app"), UTF_8);
+    File resourcesToKeep = tempFolder.newFile("resources");
+    Files.write(resourcesToKeep.toPath(), Arrays.asList("build.prop", ""), UTF_8);
+
+    spyDummyInstrumentor.processCommandLine(
+        new String[] {
+          "--packages_to_keep=" + packagesToKeep,
+          "--resources_to_keep=" + resourcesToKeep,
+          "source.jar",
+          "dest.jar"
+        });
+
+    verify(spyDummyInstrumentor).instrumentJar(new File("source.jar"), new File("dest.jar"));
+  }
 }
@@ -7,6 +7,7 @@ import static com.google.common.collect.Sets.newTreeSet;
 
 import com.google.auto.common.MoreTypes;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimaps;
 import java.util.ArrayList;
@@ -20,12 +21,14 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ElementVisitor;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
@@ -33,7 +36,10 @@ import javax.lang.model.type.TypeVisitor;
 import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.SimpleElementVisitor8;
 import javax.lang.model.util.SimpleTypeVisitor8;
+import org.robolectric.annotation.Filter;
+import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.Resetter;
 import org.robolectric.shadow.api.ShadowPicker;
 
 /** Model describing the Robolectric source file. */
@@ -521,6 +527,10 @@ public class RobolectricModel {
       return actualTypeReferent + paramUseStr;
     }
 
+    public TypeElement getShadowType() {
+      return shadowType;
+    }
+
     public String getShadowName() {
       return shadowType.getQualifiedName().toString();
     }
@@ -555,6 +565,19 @@ public class RobolectricModel {
   }
 
   public static class ResetterInfo {
+    /** Types whose instances can't be changed, for which a static final field is constant. */
+    private static final ImmutableSet<String> IMMUTABLE_TYPES =
+        ImmutableSet.of(
+            "java.lang.Boolean",
+            "java.lang.Byte",
+            "java.lang.Character",
+            "java.lang.Class",
+            "java.lang.Double",
+            "java.lang.Float",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Short",
+            "java.lang.String");
 
     private final TypeElement shadowType;
     private final ExecutableElement executableElement;
@@ -577,8 +600,54 @@ public class RobolectricModel {
       return shadowType.getAnnotation(Implements.class);
     }
 
-    public String getMethodCall() {
-      return shadowTypeReferent + "." + executableElement.getSimpleName() + "();";
+    /** Returns a method reference to the resetter, e.g. {@code ShadowThing::reset}. */
+    public String getMethodReference() {
+      return shadowTypeReferent + "::" + executableElement.getSimpleName();
+    }
+
+    /**
+     * Returns whether the resetter only needs to run if the shadow was used since the last reset.
+     * This requires the resetter to opt in with {@link Resetter#onlyIfUsed()}; even then, it is
+     * false if the shadow declares static methods other than shadow methods and resetters, e.g.
+     * setters called directly by tests, or non-private static fields that tests could change, i.e.
+     * that aren't final or are of a mutable type.
+     */
+    public boolean isUsageTrackable() {
+      Resetter resetter = executableElement.getAnnotation(Resetter.class);
+      if (resetter == null || !resetter.onlyIfUsed()) {
+        return false;
+      }
+      for (ExecutableElement method : ElementFilter.methodsIn(shadowType.getEnclosedElements())) {
+        if (method.getModifiers().contains(Modifier.STATIC)
+            && !method.getModifiers().contains(Modifier.PRIVATE)
+            && method.getAnnotation(Implementation.class) == null
+            && method.getAnnotation(Filter.class) == null
+            && method.getAnnotation(Resetter.class) == null) {
+          return false;
+        }
+      }
+      for (VariableElement field : ElementFilter.fieldsIn(shadowType.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC)
+            && !modifiers.contains(Modifier.PRIVATE)
+            && !(modifiers.contains(Modifier.FINAL) && isImmutableType(field.asType()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isImmutableType(TypeMirror type) {
+      if (type.getKind().isPrimitive()) {
+        return true;
+      }
+      if (type.getKind() != TypeKind.DECLARED) {
+        // E.g. arrays.
+        return false;
+      }
+      TypeElement typeElement = MoreTypes.asTypeElement(type);
+      return typeElement.getKind() == ElementKind.ENUM
+          || IMMUTABLE_TYPES.contains(typeElement.getQualifiedName().toString());
     }
 
     public String getShadowClassName() {
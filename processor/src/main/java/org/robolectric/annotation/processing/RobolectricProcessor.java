@@ -19,6 +19,7 @@ import javax.lang.model.element.TypeElement;
 import org.robolectric.annotation.processing.generator.Generator;
 import org.robolectric.annotation.processing.generator.JavadocJsonGenerator;
 import org.robolectric.annotation.processing.generator.ServiceLoaderGenerator;
+import org.robolectric.annotation.processing.generator.ShadowDispatchTableGenerator;
 import org.robolectric.annotation.processing.generator.ShadowProviderGenerator;
 import org.robolectric.annotation.processing.validator.FilterValidator;
 import org.robolectric.annotation.processing.validator.ImplementationValidator;
@@ -127,6 +128,7 @@ public class RobolectricProcessor extends AbstractProcessor {
           new ShadowProviderGenerator(
               model, processingEnv, shadowPackage, shouldInstrumentPackages, priority));
       generators.add(new ServiceLoaderGenerator(processingEnv, shadowPackage));
+      generators.add(new ShadowDispatchTableGenerator(model, processingEnv, shadowPackage));
       if (jsonDocsEnabled) {
         generators.add(new JavadocJsonGenerator(model, processingEnv, jsonDocsDir));
       }
@@ -0,0 +1,181 @@
+package org.robolectric.annotation.processing.generator;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import org.robolectric.annotation.ClassName;
+import org.robolectric.annotation.Filter;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.processing.RobolectricModel;
+import org.robolectric.annotation.processing.RobolectricModel.ShadowInfo;
+import org.robolectric.internal.ShadowDispatchTable;
+import org.robolectric.internal.ShadowDispatchTable.ShadowMethod;
+
+/**
+ * Generator that creates the {@link ShadowDispatchTable} for a shadow package, which lets the
+ * runtime find shadow methods without reflectively scanning each shadow class.
+ */
+public class ShadowDispatchTableGenerator extends Generator {
+  private final Filer filer;
+  private final Messager messager;
+  private final Elements elements;
+  private final Types types;
+  private final RobolectricModel model;
+  private final String shadowPackage;
+
+  public ShadowDispatchTableGenerator(
+      RobolectricModel model, ProcessingEnvironment environment, String shadowPackage) {
+    this.filer = environment.getFiler();
+    this.messager = environment.getMessager();
+    this.elements = environment.getElementUtils();
+    this.types = environment.getTypeUtils();
+    this.model = model;
+    this.shadowPackage = shadowPackage;
+  }
+
+  @Override
+  public void generate() {
+    if (shadowPackage == null) {
+      return;
+    }
+
+    try {
+      FileObject file =
+          filer.createResource(
+              StandardLocation.CLASS_OUTPUT,
+              "",
+              ShadowDispatchTable.getResourceName(shadowPackage));
+      try (Writer writer =
+          new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+        buildTable().writeTo(writer);
+      }
+    } catch (IOException e) {
+      messager.printMessage(Diagnostic.Kind.ERROR, "Failed to write shadow dispatch table: " + e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  ShadowDispatchTable buildTable() {
+    Map<String, List<ShadowMethod>> methodsByShadow = new LinkedHashMap<>();
+    for (ShadowInfo shadowInfo : model.getAllShadowTypes()) {
+      TypeElement shadowType = shadowInfo.getShadowType();
+      List<ShadowMethod> methods = new ArrayList<>();
+      for (ExecutableElement method : ElementFilter.methodsIn(shadowType.getEnclosedElements())) {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.PROTECTED)) {
+          methods.add(toShadowMethod(method));
+        }
+      }
+      methodsByShadow.put(shadowInfo.getShadowBinaryName(), methods);
+    }
+    return new ShadowDispatchTable(methodsByShadow);
+  }
+
+  private ShadowMethod toShadowMethod(ExecutableElement method) {
+    Implementation implementation = method.getAnnotation(Implementation.class);
+    Filter filter = method.getAnnotation(Filter.class);
+
+    List<String> aliases = new ArrayList<>();
+    if (implementation != null) {
+      addAlias(aliases, implementation.methodName());
+    }
+    if (filter != null) {
+      addAlias(aliases, filter.methodName());
+    }
+
+    List<String> parameterTypes = new ArrayList<>();
+    List<String> parameterClassNames = new ArrayList<>();
+    for (VariableElement parameter : method.getParameters()) {
+      parameterTypes.add(getClassName(types.erasure(parameter.asType())));
+      ClassName className = parameter.getAnnotation(ClassName.class);
+      parameterClassNames.add(className == null ? null : className.value());
+    }
+
+    // Matches the SDK range checked by AndroidSdkShadowMatcher.
+    int minSdk = -1;
+    int maxSdk = -1;
+    if (filter != null) {
+      minSdk = filter.minSdk();
+      maxSdk = filter.maxSdk();
+    } else if (implementation != null) {
+      minSdk = implementation.minSdk();
+      maxSdk = implementation.maxSdk();
+    }
+
+    return new ShadowMethod(
+        method.getSimpleName().toString(),
+        aliases,
+        parameterTypes,
+        parameterClassNames,
+        minSdk,
+        maxSdk,
+        implementation != null,
+        filter != null);
+  }
+
+  private static void addAlias(List<String> aliases, String methodName) {
+    String alias = methodName.trim();
+    if (!alias.isEmpty() && !aliases.contains(alias)) {
+      aliases.add(alias);
+    }
+  }
+
+  /** Returns the name of an erased type, in the form returned by {@link Class#getName()}. */
+  private String getClassName(TypeMirror type) {
+    switch (type.getKind()) {
+      case ARRAY:
+        return "[" + getDescriptor(((ArrayType) type).getComponentType());
+      case DECLARED:
+        return elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+      default:
+        return type.toString();
+    }
+  }
+
+  private String getDescriptor(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "Z";
+      case BYTE:
+        return "B";
+      case CHAR:
+        return "C";
+      case SHORT:
+        return "S";
+      case INT:
+        return "I";
+      case LONG:
+        return "J";
+      case FLOAT:
+        return "F";
+      case DOUBLE:
+        return "D";
+      case ARRAY:
+        return "[" + getDescriptor(((ArrayType) type).getComponentType());
+      default:
+        return "L" + getClassName(type) + ";";
+    }
+  }
+}
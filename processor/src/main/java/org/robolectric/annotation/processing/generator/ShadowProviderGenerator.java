@@ -190,13 +190,29 @@ public class ShadowProviderGenerator extends Generator {
       }
       String shadowClass = resetterInfo.getShadowClassName();
       String actualBinaryName = resetterInfo.getActualBinaryName();
+      if (resetterInfo.isUsageTrackable()) {
+        writer.println(
+            "    if (classTracker.needsReset(\""
+                + shadowClass
+                + "\", \""
+                + actualBinaryName
+                + "\")) {");
+      } else {
+        writer.println(
+            "    if (classTracker.isClassLoaded(\""
+                + shadowClass
+                + "\") || classTracker.isClassLoaded(\""
+                + actualBinaryName
+                + "\")) {");
+      }
       writer.println(
-          "    if (classTracker.isClassLoaded(\""
+          "      "
+              + ifClause
+              + "classTracker.runResetter(\""
               + shadowClass
-              + "\") || classTracker.isClassLoaded(\""
-              + actualBinaryName
-              + "\")) {");
-      writer.println("      " + ifClause + resetterInfo.getMethodCall());
+              + "\", "
+              + resetterInfo.getMethodReference()
+              + ");");
       writer.println("    }");
     }
     writer.println("  }");
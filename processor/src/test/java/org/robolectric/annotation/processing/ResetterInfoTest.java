@@ -0,0 +1,146 @@
+package org.robolectric.annotation.processing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Iterables;
+import com.google.testing.compile.CompilationRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Resetter;
+import org.robolectric.annotation.processing.RobolectricModel.ResetterInfo;
+
+/** Tests for {@link ResetterInfo} */
+@RunWith(JUnit4.class)
+public class ResetterInfoTest {
+  @Rule public final CompilationRule compilation = new CompilationRule();
+
+  @Test
+  public void isUsageTrackable_onlyShadowMethodsAndConstants() {
+    assertThat(resetterInfo(ShadowTrackable.class).isUsageTrackable()).isTrue();
+  }
+
+  @Test
+  public void isUsageTrackable_notOptedIn() {
+    assertThat(resetterInfo(ShadowNotOptedIn.class).isUsageTrackable()).isFalse();
+  }
+
+  @Test
+  public void isUsageTrackable_staticSetter() {
+    assertThat(resetterInfo(ShadowWithStaticSetter.class).isUsageTrackable()).isFalse();
+  }
+
+  @Test
+  public void isUsageTrackable_nonFinalStaticField() {
+    assertThat(resetterInfo(ShadowWithNonFinalField.class).isUsageTrackable()).isFalse();
+  }
+
+  @Test
+  public void isUsageTrackable_finalStaticFieldOfMutableType() {
+    assertThat(resetterInfo(ShadowWithMutableConstant.class).isUsageTrackable()).isFalse();
+    assertThat(resetterInfo(ShadowWithArrayConstant.class).isUsageTrackable()).isFalse();
+  }
+
+  private ResetterInfo resetterInfo(Class<?> shadowClass) {
+    TypeElement shadowType =
+        compilation.getElements().getTypeElement(shadowClass.getCanonicalName());
+    ExecutableElement resetter =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                ElementFilter.methodsIn(shadowType.getEnclosedElements()),
+                method -> method.getAnnotation(Resetter.class) != null));
+    return new ResetterInfo(shadowType, resetter);
+  }
+
+  /** A shadow whose static state only its shadow methods can change. */
+  public static class ShadowTrackable {
+    public static final int MAX = 10;
+    public static final String NAME = "name";
+    public static final TimeUnit UNIT = TimeUnit.SECONDS;
+    protected static final Class<?> TYPE = Object.class;
+    private static int count;
+
+    @SuppressWarnings("unused")
+    private static final List<String> values = new ArrayList<>();
+
+    @Implementation
+    protected static void increment() {
+      count++;
+    }
+
+    @SuppressWarnings("unused")
+    private static void helper() {}
+
+    @Resetter(onlyIfUsed = true)
+    public static void reset() {
+      count = 0;
+    }
+  }
+
+  /** A shadow whose resetter didn't opt in to usage tracking. */
+  public static class ShadowNotOptedIn {
+    private static int count;
+
+    @Implementation
+    protected static void increment() {
+      count++;
+    }
+
+    @Resetter
+    public static void reset() {
+      count = 0;
+    }
+  }
+
+  /** A shadow with a static method that tests can call directly. */
+  public static class ShadowWithStaticSetter {
+    private static int count;
+
+    public static void setCount(int count) {
+      ShadowWithStaticSetter.count = count;
+    }
+
+    @Resetter(onlyIfUsed = true)
+    public static void reset() {
+      count = 0;
+    }
+  }
+
+  /** A shadow with a static field that tests can assign directly. */
+  public static class ShadowWithNonFinalField {
+    public static int count;
+
+    @Resetter(onlyIfUsed = true)
+    public static void reset() {
+      count = 0;
+    }
+  }
+
+  /** A shadow with a constant that tests can modify directly. */
+  public static class ShadowWithMutableConstant {
+    public static final List<String> VALUES = new ArrayList<>();
+
+    @Resetter(onlyIfUsed = true)
+    public static void reset() {
+      VALUES.clear();
+    }
+  }
+
+  /** A shadow with an array constant that tests can modify directly. */
+  public static class ShadowWithArrayConstant {
+    static final int[] VALUES = new int[1];
+
+    @Resetter(onlyIfUsed = true)
+    public static void reset() {
+      VALUES[0] = 0;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package org.robolectric.annotation.processing.generator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaFileObjects.forResource;
+import static org.robolectric.annotation.processing.Utils.DEFAULT_OPTS;
+import static org.robolectric.annotation.processing.Utils.SHADOW_CLASSTRACKER_SOURCE;
+import static org.robolectric.annotation.processing.Utils.SHADOW_EXTRACTOR_SOURCE;
+import static org.robolectric.annotation.processing.Utils.SHADOW_PROVIDER_SOURCE;
+
+import com.google.testing.compile.Compilation;
+import java.io.Reader;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.annotation.processing.RobolectricProcessor;
+import org.robolectric.internal.ShadowDispatchTable;
+import org.robolectric.internal.ShadowDispatchTable.ShadowMethod;
+
+/** Tests for {@link ShadowDispatchTableGenerator} */
+@RunWith(JUnit4.class)
+public class ShadowDispatchTableGeneratorTest {
+
+  @Test
+  public void generatesTableOfShadowMethods() throws Exception {
+    Compilation compilation =
+        javac()
+            .withProcessors(new RobolectricProcessor(DEFAULT_OPTS))
+            .compile(
+                SHADOW_PROVIDER_SOURCE,
+                SHADOW_CLASSTRACKER_SOURCE,
+                SHADOW_EXTRACTOR_SOURCE,
+                forResource(
+                    "org/robolectric/annotation/processing/shadows/ShadowDispatchDummy.java"));
+    assertThat(compilation).succeeded();
+
+    ShadowDispatchTable table = readTable(compilation);
+    List<ShadowMethod> methods =
+        table.getMethods("org.robolectric.annotation.processing.shadows.ShadowDispatchDummy");
+    assertThat(methods).hasSize(4);
+
+    ShadowMethod run = methods.get(0);
+    assertThat(run.name).isEqualTo("run");
+    assertThat(run.aliases).isEmpty();
+    assertThat(run.parameterTypes).isEmpty();
+    assertThat(run.minSdk).isEqualTo(-1);
+    assertThat(run.maxSdk).isEqualTo(-1);
+    assertThat(run.isImplementation).isTrue();
+    assertThat(run.isFilter).isFalse();
+
+    ShadowMethod take = methods.get(1);
+    assertThat(take.name).isEqualTo("takeAlias");
+    assertThat(take.aliases).containsExactly("take");
+    assertThat(take.parameterTypes)
+        .containsExactly("int", "java.lang.Object", "[[Ljava.lang.String;")
+        .inOrder();
+    assertThat(take.parameterClassNames)
+        .containsExactly(null, "com.example.objects.Private", null)
+        .inOrder();
+    assertThat(take.minSdk).isEqualTo(21);
+    assertThat(take.maxSdk).isEqualTo(33);
+
+    ShadowMethod filtered = methods.get(2);
+    assertThat(filtered.name).isEqualTo("filtered");
+    assertThat(filtered.parameterTypes).containsExactly("[J", "java.util.Map").inOrder();
+    assertThat(filtered.minSdk).isEqualTo(24);
+    assertThat(filtered.isImplementation).isFalse();
+    assertThat(filtered.isFilter).isTrue();
+
+    // Public methods are listed, like the reflective scan does, but private ones aren't.
+    ShadowMethod helper = methods.get(3);
+    assertThat(helper.name).isEqualTo("helper");
+    assertThat(helper.isImplementation).isFalse();
+    assertThat(helper.isFilter).isFalse();
+  }
+
+  private static ShadowDispatchTable readTable(Compilation compilation) throws Exception {
+    JavaFileObject file =
+        compilation
+            .generatedFile(
+                StandardLocation.CLASS_OUTPUT,
+                // DEFAULT_OPTS configures org.robolectric as the shadow package.
+                ShadowDispatchTable.getResourceName("org.robolectric"))
+            .get();
+    try (Reader reader = file.openReader(true)) {
+      return ShadowDispatchTable.read(reader);
+    }
+  }
+}
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.when;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import javax.annotation.processing.ProcessingEnvironment;
@@ -50,22 +51,47 @@ public class ShadowProviderGeneratorTest {
         .contains(
             "if (org.robolectric.RuntimeEnvironment.getApiLevel() >= 19 &&"
                 + " org.robolectric.RuntimeEnvironment.getApiLevel() <= 20)"
-                + " ShadowThing.reset19To20();");
+                + " classTracker.runResetter(\"ShadowThing\", ShadowThing::reset19To20);");
     assertThat(writer.toString())
         .contains(
             "if (org.robolectric.RuntimeEnvironment.getApiLevel() >= 21)"
-                + " ShadowThing.resetMin21();");
+                + " classTracker.runResetter(\"ShadowThing\", ShadowThing::resetMin21);");
     assertThat(writer.toString())
         .contains(
             "if (org.robolectric.RuntimeEnvironment.getApiLevel() <= 18)"
-                + " ShadowThing.resetMax18();");
+                + " classTracker.runResetter(\"ShadowThing\", ShadowThing::resetMax18);");
+  }
+
+  @Test
+  public void resettersOfUsageTrackableShadowsAskWhetherResetIsNeeded() {
+    when(model.getVisibleShadowTypes()).thenReturn(Collections.emptyList());
+
+    ResetterInfo tracked = resetterInfo("ShadowTracked", -1, -1, "reset");
+    when(tracked.getActualBinaryName()).thenReturn("Tracked");
+    when(tracked.isUsageTrackable()).thenReturn(true);
+    ResetterInfo untracked = resetterInfo("ShadowUntracked", -1, -1, "reset");
+    when(untracked.getActualBinaryName()).thenReturn("Untracked");
+    when(model.getResetters()).thenReturn(Arrays.asList(tracked, untracked));
+
+    generator.generate(new PrintWriter(writer));
+
+    assertThat(writer.toString())
+        .contains("if (classTracker.needsReset(\"ShadowTracked\", \"Tracked\")) {");
+    assertThat(writer.toString())
+        .contains("classTracker.runResetter(\"ShadowTracked\", ShadowTracked::reset);");
+    assertThat(writer.toString())
+        .contains(
+            "if (classTracker.isClassLoaded(\"ShadowUntracked\")"
+                + " || classTracker.isClassLoaded(\"Untracked\")) {");
+    assertThat(writer.toString())
+        .contains("classTracker.runResetter(\"ShadowUntracked\", ShadowUntracked::reset);");
   }
 
   private ResetterInfo resetterInfo(String shadowName, int minSdk, int maxSdk, String methodName) {
     ResetterInfo resetterInfo = mock(ResetterInfo.class);
     when(resetterInfo.getMinSdk()).thenReturn(minSdk);
     when(resetterInfo.getMaxSdk()).thenReturn(maxSdk);
-    when(resetterInfo.getMethodCall()).thenReturn(shadowName + "." + methodName + "();");
+    when(resetterInfo.getMethodReference()).thenReturn(shadowName + "::" + methodName);
     when(resetterInfo.getShadowClassName()).thenReturn(shadowName);
     return resetterInfo;
   }
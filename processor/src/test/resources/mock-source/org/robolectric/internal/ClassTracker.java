@@ -3,4 +3,12 @@ package org.robolectric.internal;
 /** Interface for tracking loaded classes. */
 public interface ClassTracker {
   boolean isClassLoaded(String className);
+
+  default boolean needsReset(String shadowClassName, String actualClassName) {
+    return isClassLoaded(shadowClassName) || isClassLoaded(actualClassName);
+  }
+
+  default void runResetter(String shadowClassName, Runnable resetter) {
+    resetter.run();
+  }
 }
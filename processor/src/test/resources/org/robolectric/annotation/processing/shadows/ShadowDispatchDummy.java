@@ -0,0 +1,27 @@
+package org.robolectric.annotation.processing.shadows;
+
+import com.example.objects.Dummy;
+import java.util.Map;
+import org.robolectric.annotation.ClassName;
+import org.robolectric.annotation.Filter;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+@Implements(Dummy.class)
+public class ShadowDispatchDummy {
+  @Implementation
+  protected void run() {}
+
+  @Implementation(minSdk = 21, maxSdk = 33, methodName = "take")
+  protected static Object takeAlias(
+      int count, @ClassName("com.example.objects.Private") Object thing, String[][] names) {
+    return null;
+  }
+
+  @Filter(minSdk = 24)
+  protected void filtered(long[] values, Map<String, Integer> map) {}
+
+  public void helper() {}
+
+  private void hidden() {}
+}
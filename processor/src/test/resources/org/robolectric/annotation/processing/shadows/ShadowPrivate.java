@@ -6,7 +6,7 @@ import org.robolectric.annotation.Resetter;
 /** A Shadow that implements a private class name */
 @Implements(className = "com.example.objects.Private")
 public class ShadowPrivate {
-  @Resetter
+  @Resetter(onlyIfUsed = true)
   public static void resetMethod() {
   }
 }
@@ -1,7 +1,15 @@
 package org.robolectric.res.android;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.robolectric.util.PerfStatsCollector;
 
 /**
  * A global cache for ApkAssets (framework and app resources). This cache is shared between
@@ -12,21 +20,121 @@ import java.util.HashMap;
  * growing in size, and an increasing number of sandbox parameters, the memory usage did not scale
  * well as test suites increased in size.
  *
- * <p>Currently the items in this cache are not made available for GC. However, it would definitely
- * be possible to have a per-sdk-level reference counting mechanism where an item could be freed if
- * all sandboxes referencing that item are collected.
+ * <p>Each entry tracks the owners (typically sandbox class loaders) that are using it. When the
+ * last owner is {@link #release released} or garbage collected, the native ApkAssets object is
+ * unregistered so that it can be collected. If the {@code robolectric.softApkAssetsCache} system
+ * property is set to true, released ApkAssets are kept softly reachable instead, and are reused if
+ * another sandbox asks for them before the garbage collector reclaims them.
  */
 public final class ApkAssetsCache {
 
-  private static final HashMap<Key, Long> cachedApkAssetsPtrs = new HashMap<>();
+  static final String SOFT_CACHE_PROPERTY = "robolectric.softApkAssetsCache";
 
-  public static void put(String path, boolean system, int apiLevel, long ptr) {
-    cachedApkAssetsPtrs.put(Key.newInstance(path, system, system ? apiLevel : 0), ptr);
+  private static final boolean SOFT_CACHE_ENABLED = Boolean.getBoolean(SOFT_CACHE_PROPERTY);
+
+  private static final Map<Key, Entry> cachedApkAssets = new HashMap<>();
+
+  private static final Map<Key, SoftReference<CppApkAssets>> releasedApkAssets = new HashMap<>();
+
+  /**
+   * Returns the native pointer of the cached ApkAssets for the given path, recording {@code owner}
+   * as one of its users, or -1 if there is none.
+   */
+  public static synchronized long get(String path, boolean system, int apiLevel, Object owner) {
+    Key key = Key.newInstance(path, system, system ? apiLevel : 0);
+    Entry entry = cachedApkAssets.get(key);
+    if (entry == null) {
+      entry = revive(key);
+      if (entry == null) {
+        return -1;
+      }
+    }
+    entry.owners.add(owner);
+    return entry.ptr;
   }
 
-  public static long get(String path, boolean system, int apiLevel) {
-    return cachedApkAssetsPtrs.getOrDefault(
-        Key.newInstance(path, system, system ? apiLevel : 0), -1L);
+  /**
+   * Caches the ApkAssets with the given native pointer, recording {@code owner} as one of its
+   * users.
+   *
+   * <p>If ApkAssets for the same path were cached concurrently by another owner, those are kept
+   * instead; the given pointer is then unregistered and the cached one returned.
+   *
+   * @return the native pointer of the cached ApkAssets
+   */
+  public static synchronized long putIfAbsent(
+      String path, boolean system, int apiLevel, long ptr, Object owner) {
+    Key key = Key.newInstance(path, system, system ? apiLevel : 0);
+    Entry entry = cachedApkAssets.get(key);
+    if (entry == null) {
+      CppApkAssets apkAssets = Registries.NATIVE_APK_ASSETS_REGISTRY.getNativeObject(ptr);
+      entry = new Entry(ptr, apkAssets.getResourcesTableSize());
+      cachedApkAssets.put(key, entry);
+      releasedApkAssets.remove(key);
+      recordResidentBytes();
+    } else if (entry.ptr != ptr) {
+      Registries.NATIVE_APK_ASSETS_REGISTRY.unregister(ptr);
+    }
+    entry.owners.add(owner);
+    return entry.ptr;
+  }
+
+  /**
+   * Removes {@code owner} from the users of all cached ApkAssets, and releases any ApkAssets that
+   * are no longer used.
+   */
+  public static synchronized void release(Object owner) {
+    Iterator<Map.Entry<Key, Entry>> iterator = cachedApkAssets.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, Entry> mapEntry = iterator.next();
+      Entry entry = mapEntry.getValue();
+      entry.owners.remove(owner);
+      // Owners that were garbage collected without being released are also dropped here.
+      if (entry.owners.isEmpty()) {
+        iterator.remove();
+        CppApkAssets apkAssets = Registries.NATIVE_APK_ASSETS_REGISTRY.unregister(entry.ptr);
+        if (SOFT_CACHE_ENABLED) {
+          releasedApkAssets.put(mapEntry.getKey(), new SoftReference<>(apkAssets));
+        }
+        PerfStatsCollector.getInstance().incrementCount("releaseApkAssets");
+      }
+    }
+    releasedApkAssets.values().removeIf(ref -> ref.get() == null);
+    recordResidentBytes();
+  }
+
+  /** Returns the estimated number of bytes held by each cached ApkAssets. */
+  public static synchronized ImmutableMap<Key, Long> getResidentBytes() {
+    ImmutableMap.Builder<Key, Long> residentBytes = ImmutableMap.builder();
+    for (Map.Entry<Key, Entry> mapEntry : cachedApkAssets.entrySet()) {
+      residentBytes.put(mapEntry.getKey(), mapEntry.getValue().residentBytes);
+    }
+    return residentBytes.buildOrThrow();
+  }
+
+  private static Entry revive(Key key) {
+    SoftReference<CppApkAssets> ref = releasedApkAssets.remove(key);
+    CppApkAssets apkAssets = ref == null ? null : ref.get();
+    if (apkAssets == null) {
+      return null;
+    }
+    Entry entry =
+        new Entry(
+            Registries.NATIVE_APK_ASSETS_REGISTRY.register(apkAssets),
+            apkAssets.getResourcesTableSize());
+    cachedApkAssets.put(key, entry);
+    PerfStatsCollector.getInstance().incrementCount("reviveApkAssets");
+    recordResidentBytes();
+    return entry;
+  }
+
+  private static void recordResidentBytes() {
+    long total = 0;
+    for (Entry entry : cachedApkAssets.values()) {
+      total += entry.residentBytes;
+    }
+    PerfStatsCollector.getInstance()
+        .recordCount("cachedApkAssetsKilobytes", (int) Math.min(total / 1024, Integer.MAX_VALUE));
   }
 
   /** The cache key for this cache. */
@@ -43,5 +151,17 @@ public final class ApkAssetsCache {
     }
   }
 
+  private static final class Entry {
+    final long ptr;
+    final long residentBytes;
+    // Weakly held, so that owners which are never released don't leak.
+    final Set<Object> owners = Collections.newSetFromMap(new WeakHashMap<>());
+
+    Entry(long ptr, long residentBytes) {
+      this.ptr = ptr;
+      this.residentBytes = residentBytes;
+    }
+  }
+
   private ApkAssetsCache() {}
 }
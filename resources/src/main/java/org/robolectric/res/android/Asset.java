@@ -12,6 +12,7 @@ import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Locale;
@@ -118,6 +119,15 @@ public abstract class Asset {
    */
   public abstract byte[] getBuffer(boolean wordAligned);
 
+  /*
+   * Get a read-only buffer with the entire contents of the file, positioned at its start.
+   * Unlike getBuffer(), this may be backed by a memory mapping rather than the heap.
+   */
+  public ByteBuffer getByteBuffer(boolean wordAligned) {
+    byte[] buf = getBuffer(wordAligned);
+    return buf == null ? null : ByteBuffer.wrap(buf);
+  }
+
   /*
    * Get the total amount of data that can be read.
    */
@@ -729,7 +739,10 @@ public abstract class Asset {
       mLength = dataMap.getDataLength();
       assert (mOffset == 0);
 
-      mBuf = dataMap.getDataPtr();
+      // Mappable data is only read onto the heap if someone asks for it as an array.
+      if (!dataMap.isMappable()) {
+        mBuf = dataMap.getDataPtr();
+      }
 
       return NO_ERROR;
     }
@@ -751,7 +764,7 @@ public abstract class Asset {
          * using the buffer or because what they're doing has appropriate
          * performance needs and access patterns.
          */
-        if (mBuf == null) getBuffer(false);
+        if (mBuf == null && mMap == null) getBuffer(false);
       }
 
       /* adjust count if we're near EOF */
@@ -766,7 +779,7 @@ public abstract class Asset {
         /* copy from mapped area */
         // printf("map read\n");
         // memcpy(buf, (String)mMap.getDataPtr() + mOffset, count);
-        System.arraycopy(mMap.getDataPtr(), Math.toIntExact(mOffset), buf, bufOffset, count);
+        mMap.readData(Math.toIntExact(mOffset), buf, bufOffset, count);
         actual = count;
       } else if (mBuf != null) {
         /* copy from buffer */
@@ -867,6 +880,14 @@ public abstract class Asset {
      * level and we'd be using a different object, but we didn't, so we
      * deal with it here.
      */
+    @Override
+    public ByteBuffer getByteBuffer(boolean wordAligned) {
+      if (mBuf == null && mMap != null) {
+        return mMap.getDataBuffer();
+      }
+      return super.getByteBuffer(wordAligned);
+    }
+
     @Override
     public final byte[] getBuffer(boolean wordAligned) {
       /* subsequent requests just use what we did previously */
@@ -76,6 +76,11 @@ public class CppApkAssets {
     return loaded_arsc_;
   }
 
+  /** Returns the size in bytes of the resource table, or 0 if there is none. */
+  public long getResourcesTableSize() {
+    return resources_asset_ == null ? 0 : resources_asset_.getLength();
+  }
+
   //  private:
   //   DISALLOW_COPY_AND_ASSIGN(ApkAssets);
   //
@@ -279,7 +284,9 @@ public class CppApkAssets {
     //       loaded_apk.resources_asset_.getLength());
     StringPiece data =
         new StringPiece(
-            ByteBuffer.wrap(loaded_apk.resources_asset_.getBuffer(true /*wordAligned*/))
+            loaded_apk
+                .resources_asset_
+                .getByteBuffer(true /*wordAligned*/)
                 .order(ByteOrder.LITTLE_ENDIAN),
             0 /*(int) loaded_apk.resources_asset_.getLength()*/);
     loaded_apk.loaded_arsc_ = LoadedArsc.Load(data, loaded_idmap, system, load_as_shared_library);
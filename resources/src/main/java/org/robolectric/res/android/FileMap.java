@@ -3,6 +3,7 @@ package org.robolectric.res.android;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.robolectric.res.android.Util.ALOGV;
+import static org.robolectric.res.android.Util.ALOGW;
 
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Ints;
@@ -13,7 +14,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -43,6 +48,19 @@ public class FileMap {
 
   private static final byte[] DOT_CLASS = {'.', 'c', 'l', 'a', 's', 's'};
 
+  /**
+   * Whether entries stored uncompressed in zip files are memory mapped rather than copied onto the
+   * heap. Enabled unless the {@code robolectric.mapStoredAssets} system property is {@code false}.
+   */
+  private static final boolean MAP_STORED_ENTRIES =
+      Boolean.parseBoolean(System.getProperty("robolectric.mapStoredAssets", "true"));
+
+  /**
+   * Entries smaller than this are read onto the heap even if they could be mapped, as they take up
+   * little memory and mapping them would waste most of a page.
+   */
+  private static final int MIN_MAPPED_LENGTH = 64 * 1024;
+
   private ZipFile zipFile;
   private ZipEntry zipEntry;
 
@@ -450,6 +468,10 @@ public class FileMap {
   synchronized byte[] getDataPtr() {
     if (mDataPtr == null) {
       mDataPtr = new byte[mDataLength];
+      if (mMappedData != null) {
+        mMappedData.duplicate().get(mDataPtr);
+        return mDataPtr;
+      }
 
       InputStream is;
       try {
@@ -470,6 +492,58 @@ public class FileMap {
     return mDataPtr;
   }
 
+  /**
+   * Returns whether {@link #getDataBuffer()} maps the data into memory rather than reading it onto
+   * the heap.
+   */
+  boolean isMappable() {
+    return MAP_STORED_ENTRIES
+        && isFromZip
+        && zipEntry.getMethod() == ZipEntry.STORED
+        && mDataLength >= MIN_MAPPED_LENGTH;
+  }
+
+  /**
+   * Returns a read-only buffer over the piece of the file we requested, positioned at its start.
+   *
+   * <p>If the data is {@link #isMappable() mappable}, the buffer is backed by a memory mapping of
+   * the zip file, which avoids copying it onto the heap and keeping it there for as long as this
+   * map is alive. Otherwise it wraps {@link #getDataPtr()}.
+   */
+  synchronized ByteBuffer getDataBuffer() {
+    if (mMappedData == null && mDataPtr == null && isMappable()) {
+      mMappedData = mapData();
+    }
+    if (mMappedData != null) {
+      return mMappedData.duplicate();
+    }
+    return ByteBuffer.wrap(getDataPtr());
+  }
+
+  /**
+   * Copies {@code count} bytes starting at {@code offset} within the requested data into {@code
+   * buf}, without reading the whole entry onto the heap if it is mapped.
+   */
+  void readData(int offset, byte[] buf, int bufOffset, int count) {
+    ByteBuffer data = getDataBuffer();
+    data.position(offset);
+    data.get(buf, bufOffset, count);
+  }
+
+  private ByteBuffer mapData() {
+    try (FileChannel channel =
+        FileChannel.open(Paths.get(zipFile.getName()), StandardOpenOption.READ)) {
+      if (mDataOffset + mDataLength > channel.size()) {
+        ALOGW("Entry %s extends past the end of %s", zipEntry, zipFile.getName());
+        return null;
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, mDataOffset, mDataLength);
+    } catch (IOException e) {
+      ALOGW("Couldn't map %s from %s: %s", zipEntry, zipFile.getName(), e);
+      return null;
+    }
+  }
+
   public static void readFully(InputStream is, byte[] bytes) throws IOException {
     int size = bytes.length;
     int remaining = size;
@@ -532,6 +606,7 @@ public class FileMap {
   int mBaseLength; // length, measured from "mBasePtr"
   long mDataOffset; // offset used when map was created
   byte[] mDataPtr; // start of requested data, offset from base
+  ByteBuffer mMappedData; // mapping of the requested data, if it is mapped
   int mDataLength; // length, measured from "mDataPtr"
   static long mPageSize;
 
@@ -2,27 +2,41 @@ package org.robolectric.res.android;
 
 import static java.util.Objects.requireNonNull;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
 
 /**
  * A unique id per object registry. Used to emulate android platform behavior of storing a long
  * which represents a pointer to an object.
+ *
+ * <p>Objects are indexed both by id and by identity, in open-addressing hash tables keyed by
+ * primitive longs. Lookups never lock; registrations and removals lock one of a fixed number of
+ * stripes for each index, so unrelated objects can be registered concurrently.
  */
 public class NativeObjRegistry<T> {
 
   private static final int INITIAL_ID = 1;
+  private static final int STRIPE_SHIFT = 4;
+  private static final int STRIPE_COUNT = 1 << STRIPE_SHIFT;
+  private static final int INITIAL_CAPACITY = 8;
+
+  /** Marks a slot whose entry was removed, so that probing continues past it. */
+  private static final Entry<?> REMOVED = new Entry<>(0, null);
 
   private final String name;
   private final boolean debug;
-  private final BiMap<Long, T> nativeObjToIdMap = HashBiMap.create();
+  private final Stripe<T>[] idStripes = newStripes(/* byId= */ true);
+  private final Stripe<T>[] objectStripes = newStripes(/* byId= */ false);
   private final Map<Long, DebugInfo> idToDebugInfoMap;
 
-  private long nextId = INITIAL_ID;
+  private final AtomicLong nextId = new AtomicLong(INITIAL_ID);
 
   public NativeObjRegistry(Class<T> theClass) {
     this(theClass, false);
@@ -39,7 +53,7 @@ public class NativeObjRegistry<T> {
   public NativeObjRegistry(String name, boolean debug) {
     this.name = name;
     this.debug = debug;
-    this.idToDebugInfoMap = debug ? new HashMap<>() : null;
+    this.idToDebugInfoMap = debug ? new ConcurrentHashMap<>() : null;
   }
 
   /**
@@ -49,18 +63,26 @@ public class NativeObjRegistry<T> {
    * @deprecated Use {@link #register(Object)} instead.
    */
   @Deprecated
-  public synchronized long getNativeObjectId(T o) {
+  public long getNativeObjectId(T o) {
     requireNonNull(o);
-    Long nativeId = nativeObjToIdMap.inverse().get(o);
-    if (nativeId == null) {
-      nativeId = nextId;
+    int objectHash = objectHash(o);
+    Stripe<T> objectStripe = objectStripes[objectHash & (STRIPE_COUNT - 1)];
+    Entry<T> entry = objectStripe.getByObject(o, objectHash);
+    if (entry != null) {
+      return entry.id;
+    }
+    synchronized (objectStripe) {
+      entry = objectStripe.getByObject(o, objectHash);
+      if (entry != null) {
+        return entry.id;
+      }
+      long nativeId = nextId.getAndIncrement();
       if (debug) {
         System.out.printf("NativeObjRegistry %s: register %d -> %s%n", name, nativeId, o);
       }
-      nativeObjToIdMap.put(nativeId, o);
-      nextId++;
+      add(new Entry<>(nativeId, o), objectStripe, objectHash);
+      return nativeId;
     }
-    return nativeId;
   }
 
   /**
@@ -68,29 +90,43 @@ public class NativeObjRegistry<T> {
    *
    * @throws IllegalStateException if the object was previously registered
    */
-  public synchronized long register(T o) {
+  public long register(T o) {
     requireNonNull(o);
-    Long nativeId = nativeObjToIdMap.inverse().get(o);
-    if (nativeId != null) {
-      if (debug) {
-        DebugInfo debugInfo = idToDebugInfoMap.get(nativeId);
-        if (debugInfo != null) {
-          System.out.printf(
-              "NativeObjRegistry %s: register %d -> %s already registered:%n", name, nativeId, o);
-          debugInfo.registrationTrace.printStackTrace(System.out);
+    int objectHash = objectHash(o);
+    Stripe<T> objectStripe = objectStripes[objectHash & (STRIPE_COUNT - 1)];
+    synchronized (objectStripe) {
+      Entry<T> existing = objectStripe.getByObject(o, objectHash);
+      if (existing != null) {
+        if (debug) {
+          DebugInfo debugInfo = idToDebugInfoMap.get(existing.id);
+          if (debugInfo != null) {
+            System.out.printf(
+                "NativeObjRegistry %s: register %d -> %s already registered:%n",
+                name, existing.id, o);
+            debugInfo.registrationTrace.printStackTrace(System.out);
+          }
         }
+        throw new IllegalStateException("Object was previously registered with id " + existing.id);
       }
-      throw new IllegalStateException("Object was previously registered with id " + nativeId);
+
+      long nativeId = nextId.getAndIncrement();
+      if (debug) {
+        System.out.printf("NativeObjRegistry %s: register %d -> %s%n", name, nativeId, o);
+        idToDebugInfoMap.put(nativeId, new DebugInfo(new Trace()));
+      }
+      add(new Entry<>(nativeId, o), objectStripe, objectHash);
+      return nativeId;
     }
+  }
 
-    nativeId = nextId;
-    if (debug) {
-      System.out.printf("NativeObjRegistry %s: register %d -> %s%n", name, nativeId, o);
-      idToDebugInfoMap.put(nativeId, new DebugInfo(new Trace()));
+  /** Adds a new entry to both indexes. Must be called with {@code objectStripe} locked. */
+  private void add(Entry<T> entry, Stripe<T> objectStripe, int objectHash) {
+    int idHash = idHash(entry.id);
+    Stripe<T> idStripe = idStripes[idHash & (STRIPE_COUNT - 1)];
+    synchronized (idStripe) {
+      idStripe.put(entry, idHash);
     }
-    nativeObjToIdMap.put(nativeId, o);
-    nextId++;
-    return nativeId;
+    objectStripe.put(entry, objectHash);
   }
 
   /**
@@ -100,8 +136,17 @@ public class NativeObjRegistry<T> {
    * @throws IllegalStateException if the object was never registered, or was previously
    *     unregistered.
    */
-  public synchronized T unregister(long nativeId) {
-    T o = nativeObjToIdMap.remove(nativeId);
+  public T unregister(long nativeId) {
+    T o = null;
+    int idHash = idHash(nativeId);
+    Stripe<T> idStripe = idStripes[idHash & (STRIPE_COUNT - 1)];
+    Entry<T> entry;
+    while ((entry = idStripe.getById(nativeId, idHash)) != null) {
+      if (remove(entry)) {
+        o = entry.value;
+        break;
+      }
+    }
     if (debug) {
       System.out.printf("NativeObjRegistry %s: unregister %d -> %s%n", name, nativeId, o);
       new RuntimeException("unregister debug").printStackTrace(System.out);
@@ -109,11 +154,13 @@ public class NativeObjRegistry<T> {
     if (o == null) {
       if (debug) {
         DebugInfo debugInfo = idToDebugInfoMap.get(nativeId);
-        debugInfo.unregistrationTraces.add(new Trace());
-        if (debugInfo.unregistrationTraces.size() > 1) {
-          System.out.format("NativeObjRegistry %s: Too many unregistrations:%n", name);
-          for (Trace unregistration : debugInfo.unregistrationTraces) {
-            unregistration.printStackTrace(System.out);
+        if (debugInfo != null) {
+          debugInfo.unregistrationTraces.add(new Trace());
+          if (debugInfo.unregistrationTraces.size() > 1) {
+            System.out.format("NativeObjRegistry %s: Too many unregistrations:%n", name);
+            for (Trace unregistration : debugInfo.unregistrationTraces) {
+              unregistration.printStackTrace(System.out);
+            }
           }
         }
       }
@@ -127,20 +174,47 @@ public class NativeObjRegistry<T> {
    * @deprecated Use {@link #unregister(long)} instead.
    */
   @Deprecated
-  public synchronized void unregister(T removed) {
-    nativeObjToIdMap.inverse().remove(removed);
+  public void unregister(T removed) {
+    int objectHash = objectHash(removed);
+    Stripe<T> objectStripe = objectStripes[objectHash & (STRIPE_COUNT - 1)];
+    Entry<T> entry;
+    while ((entry = objectStripe.getByObject(removed, objectHash)) != null) {
+      if (remove(entry)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes the given entry from both indexes. Returns false if the entry was concurrently removed
+   * or replaced.
+   */
+  private boolean remove(Entry<T> entry) {
+    int objectHash = objectHash(entry.value);
+    Stripe<T> objectStripe = objectStripes[objectHash & (STRIPE_COUNT - 1)];
+    int idHash = idHash(entry.id);
+    Stripe<T> idStripe = idStripes[idHash & (STRIPE_COUNT - 1)];
+    synchronized (objectStripe) {
+      synchronized (idStripe) {
+        if (!idStripe.remove(entry, idHash)) {
+          return false;
+        }
+      }
+      objectStripe.remove(entry, objectHash);
+      return true;
+    }
   }
 
   /** Retrieve the native object for given id. Throws if object with that id cannot be found */
-  public synchronized T getNativeObject(long nativeId) {
-    T object = nativeObjToIdMap.get(nativeId);
+  public T getNativeObject(long nativeId) {
+    T object = peekNativeObject(nativeId);
     if (object != null) {
       return object;
     } else {
       throw new NullPointerException(
           String.format(
               "Could not find object with nativeId: %d. Currently registered ids: %s",
-              nativeId, nativeObjToIdMap.keySet()));
+              nativeId, getRegisteredIds()));
     }
   }
 
@@ -148,36 +222,275 @@ public class NativeObjRegistry<T> {
    * Updates the native object for the given id.
    *
    * @throws IllegalStateException if no object was registered with the given id before
+   * @throws IllegalArgumentException if the object is already registered with a different id
    */
-  public synchronized void update(long nativeId, T o) {
-    T previous = nativeObjToIdMap.get(nativeId);
-    if (previous == null) {
-      throw new IllegalStateException("Native id " + nativeId + " was never registered");
-    }
-    if (debug) {
-      System.out.printf("NativeObjRegistry %s: update %d -> %s%n", name, nativeId, o);
-      idToDebugInfoMap.put(nativeId, new DebugInfo(new Trace()));
+  public void update(long nativeId, T o) {
+    requireNonNull(o);
+    int idHash = idHash(nativeId);
+    Stripe<T> idStripe = idStripes[idHash & (STRIPE_COUNT - 1)];
+    int newObjectHash = objectHash(o);
+    Stripe<T> newObjectStripe = objectStripes[newObjectHash & (STRIPE_COUNT - 1)];
+    while (true) {
+      Entry<T> previous = idStripe.getById(nativeId, idHash);
+      if (previous == null) {
+        throw new IllegalStateException("Native id " + nativeId + " was never registered");
+      }
+      int previousObjectHash = objectHash(previous.value);
+      Stripe<T> previousObjectStripe = objectStripes[previousObjectHash & (STRIPE_COUNT - 1)];
+      // Object stripes are always locked in index order, before any id stripe.
+      boolean previousFirst =
+          (previousObjectHash & (STRIPE_COUNT - 1)) <= (newObjectHash & (STRIPE_COUNT - 1));
+      synchronized (previousFirst ? previousObjectStripe : newObjectStripe) {
+        synchronized (previousFirst ? newObjectStripe : previousObjectStripe) {
+          Entry<T> existing = newObjectStripe.getByObject(o, newObjectHash);
+          if (existing != null && existing != previous) {
+            throw new IllegalArgumentException(
+                "Object is already registered with id " + existing.id);
+          }
+          Entry<T> entry = new Entry<>(nativeId, o);
+          synchronized (idStripe) {
+            if (!idStripe.replace(previous, entry, idHash)) {
+              continue;
+            }
+          }
+          if (debug) {
+            System.out.printf("NativeObjRegistry %s: update %d -> %s%n", name, nativeId, o);
+            idToDebugInfoMap.put(nativeId, new DebugInfo(new Trace()));
+          }
+          previousObjectStripe.remove(previous, previousObjectHash);
+          newObjectStripe.put(entry, newObjectHash);
+          return;
+        }
+      }
     }
-    nativeObjToIdMap.put(nativeId, o);
   }
 
   /**
    * Similar to {@link #getNativeObject(long)} but returns null if object with given id cannot be
    * found.
    */
-  public synchronized T peekNativeObject(long nativeId) {
-    return nativeObjToIdMap.get(nativeId);
+  public T peekNativeObject(long nativeId) {
+    int idHash = idHash(nativeId);
+    Entry<T> entry = idStripes[idHash & (STRIPE_COUNT - 1)].getById(nativeId, idHash);
+    return entry == null ? null : entry.value;
   }
 
   /** WARNING -- dangerous! Call {@link #unregister(long)} instead! */
-  public synchronized void clear() {
-    nextId = INITIAL_ID;
-    nativeObjToIdMap.clear();
+  public void clear() {
+    clearWithStripesLocked(0);
+  }
+
+  private void clearWithStripesLocked(int lockedStripes) {
+    if (lockedStripes < STRIPE_COUNT) {
+      synchronized (objectStripes[lockedStripes]) {
+        clearWithStripesLocked(lockedStripes + 1);
+      }
+    } else if (lockedStripes < 2 * STRIPE_COUNT) {
+      synchronized (idStripes[lockedStripes - STRIPE_COUNT]) {
+        clearWithStripesLocked(lockedStripes + 1);
+      }
+    } else {
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+        objectStripes[i].clear();
+        idStripes[i].clear();
+      }
+      nextId.set(INITIAL_ID);
+    }
+  }
+
+  private List<Long> getRegisteredIds() {
+    List<Long> ids = new ArrayList<>();
+    for (Stripe<T> stripe : idStripes) {
+      AtomicReferenceArray<Entry<T>> table = stripe.table;
+      for (int i = 0; i < table.length(); i++) {
+        Entry<T> entry = table.get(i);
+        if (entry != null && entry != REMOVED) {
+          ids.add(entry.id);
+        }
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private static int idHash(long id) {
+    // Fibonacci hashing, so that sequential ids are spread across stripes and slots.
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private static int objectHash(Object o) {
+    return idHash(System.identityHashCode(o));
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <T> Stripe<T>[] newStripes(boolean byId) {
+    Stripe<T>[] stripes = new Stripe[STRIPE_COUNT];
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe<>(byId);
+    }
+    return stripes;
+  }
+
+  /** An immutable id to object mapping, shared by both indexes. */
+  private static final class Entry<T> {
+    final long id;
+    final T value;
+
+    Entry(long id, T value) {
+      this.id = id;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A linear-probing hash table of entries, indexed either by id or by object identity.
+   *
+   * <p>Reads don't lock: they see either the current table or, during a resize, the previous one.
+   * All writes must hold this stripe's monitor.
+   */
+  private static final class Stripe<T> {
+    private final boolean byId;
+    private volatile AtomicReferenceArray<Entry<T>> table =
+        new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size;
+    private int usedSlots; // live and removed entries
+
+    Stripe(boolean byId) {
+      this.byId = byId;
+    }
+
+    @Nullable
+    Entry<T> getById(long id, int hash) {
+      AtomicReferenceArray<Entry<T>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = (hash >>> STRIPE_SHIFT) & mask; ; i = (i + 1) & mask) {
+        Entry<T> entry = table.get(i);
+        if (entry == null) {
+          return null;
+        }
+        if (entry != REMOVED && entry.id == id) {
+          return entry;
+        }
+      }
+    }
+
+    @Nullable
+    Entry<T> getByObject(Object o, int hash) {
+      AtomicReferenceArray<Entry<T>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = (hash >>> STRIPE_SHIFT) & mask; ; i = (i + 1) & mask) {
+        Entry<T> entry = table.get(i);
+        if (entry == null) {
+          return null;
+        }
+        if (entry != REMOVED && entry.value == o) {
+          return entry;
+        }
+      }
+    }
+
+    /** Adds an entry, which must not already be present. */
+    void put(Entry<T> entry, int hash) {
+      if ((usedSlots + 1) * 2 > table.length()) {
+        resize(size + 1);
+      }
+      AtomicReferenceArray<Entry<T>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = (hash >>> STRIPE_SHIFT) & mask; ; i = (i + 1) & mask) {
+        Entry<T> existing = table.get(i);
+        if (existing == null || existing == REMOVED) {
+          if (existing == null) {
+            usedSlots++;
+          }
+          size++;
+          table.set(i, entry);
+          return;
+        }
+      }
+    }
+
+    /** Replaces {@code oldEntry} with {@code newEntry}, if present. */
+    boolean replace(Entry<T> oldEntry, Entry<T> newEntry, int hash) {
+      int i = indexOf(oldEntry, hash);
+      if (i < 0) {
+        return false;
+      }
+      table.set(i, newEntry);
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean remove(Entry<T> entry, int hash) {
+      int i = indexOf(entry, hash);
+      if (i < 0) {
+        return false;
+      }
+      AtomicReferenceArray<Entry<T>> table = this.table;
+      int mask = table.length() - 1;
+      if (table.get((i + 1) & mask) == null) {
+        // No probe sequence continues past this slot, so it and any removed slots before it can be
+        // freed rather than marked as removed.
+        do {
+          table.set(i, null);
+          usedSlots--;
+          i = (i - 1) & mask;
+        } while (table.get(i) == REMOVED);
+      } else {
+        table.set(i, (Entry<T>) REMOVED);
+      }
+      size--;
+      return true;
+    }
+
+    void clear() {
+      table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+      size = 0;
+      usedSlots = 0;
+    }
+
+    private int indexOf(Entry<T> entry, int hash) {
+      AtomicReferenceArray<Entry<T>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = (hash >>> STRIPE_SHIFT) & mask; ; i = (i + 1) & mask) {
+        Entry<T> existing = table.get(i);
+        if (existing == null) {
+          return -1;
+        }
+        if (existing == entry) {
+          return i;
+        }
+      }
+    }
+
+    /** Rehashes into a new table with room for at least {@code minSize} entries. */
+    private void resize(int minSize) {
+      int capacity = INITIAL_CAPACITY;
+      while (capacity < minSize * 4) {
+        capacity <<= 1;
+      }
+      AtomicReferenceArray<Entry<T>> oldTable = table;
+      AtomicReferenceArray<Entry<T>> newTable = new AtomicReferenceArray<>(capacity);
+      int mask = capacity - 1;
+      for (int j = 0; j < oldTable.length(); j++) {
+        Entry<T> entry = oldTable.get(j);
+        if (entry == null || entry == REMOVED) {
+          continue;
+        }
+        int hash = byId ? idHash(entry.id) : objectHash(entry.value);
+        int i = (hash >>> STRIPE_SHIFT) & mask;
+        while (newTable.get(i) != null) {
+          i = (i + 1) & mask;
+        }
+        newTable.set(i, entry);
+      }
+      usedSlots = size;
+      table = newTable;
+    }
   }
 
   private static class DebugInfo {
     final Trace registrationTrace;
-    final List<Trace> unregistrationTraces = new ArrayList<>();
+    final List<Trace> unregistrationTraces = new CopyOnWriteArrayList<>();
 
     public DebugInfo(Trace trace) {
       registrationTrace = trace;
@@ -81,7 +81,18 @@ public final class ResourceString {
       length = characterCount * 2;
     }
 
-    byte[] bytes = buffer.array();
+    byte[] bytes;
+    if (buffer.hasArray()) {
+      bytes = buffer.array();
+      offset += buffer.arrayOffset();
+    } else {
+      // e.g. a memory-mapped resources.arsc; copy just this string.
+      bytes = new byte[length];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset);
+      source.get(bytes);
+      offset = 0;
+    }
     if (type == Type.UTF8) {
       // Fast path: most resource strings (e.g. element/attribute names) are pure ASCII, which is
       // byte-identical in ISO-8859-1 and UTF-8, so a direct Latin-1 copy
@@ -0,0 +1,74 @@
+package org.robolectric.res.android;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ApkAssetsCacheTest {
+  private static final int API_LEVEL = 34;
+
+  private final Object owner1 = new Object();
+  private final Object owner2 = new Object();
+
+  @Test
+  public void get_returnsCachedPtr() {
+    String path = "/get_returnsCachedPtr.apk";
+    assertThat(ApkAssetsCache.get(path, true, API_LEVEL, owner1)).isEqualTo(-1);
+
+    long ptr = ApkAssetsCache.putIfAbsent(path, true, API_LEVEL, register(), owner1);
+
+    assertThat(ApkAssetsCache.get(path, true, API_LEVEL, owner2)).isEqualTo(ptr);
+    assertThat(ApkAssetsCache.get(path, true, API_LEVEL + 1, owner2)).isEqualTo(-1);
+    ApkAssetsCache.release(owner1);
+    ApkAssetsCache.release(owner2);
+  }
+
+  @Test
+  public void get_appAssets_sharedAcrossApiLevels() {
+    String path = "/get_appAssets_sharedAcrossApiLevels.apk";
+    long ptr = ApkAssetsCache.putIfAbsent(path, false, API_LEVEL, register(), owner1);
+
+    assertThat(ApkAssetsCache.get(path, false, API_LEVEL + 1, owner1)).isEqualTo(ptr);
+    ApkAssetsCache.release(owner1);
+  }
+
+  @Test
+  public void putIfAbsent_alreadyCached_unregistersNewPtr() {
+    String path = "/putIfAbsent_alreadyCached_unregistersNewPtr.apk";
+    long ptr = ApkAssetsCache.putIfAbsent(path, true, API_LEVEL, register(), owner1);
+    long duplicatePtr = register();
+
+    assertThat(ApkAssetsCache.putIfAbsent(path, true, API_LEVEL, duplicatePtr, owner2))
+        .isEqualTo(ptr);
+    assertThat(Registries.NATIVE_APK_ASSETS_REGISTRY.peekNativeObject(duplicatePtr)).isNull();
+    ApkAssetsCache.release(owner1);
+    ApkAssetsCache.release(owner2);
+  }
+
+  @Test
+  public void release_lastOwner_unregistersApkAssets() {
+    String path = "/release_lastOwner_unregistersApkAssets.apk";
+    long ptr = ApkAssetsCache.putIfAbsent(path, true, API_LEVEL, register(), owner1);
+    ApkAssetsCache.get(path, true, API_LEVEL, owner2);
+
+    ApkAssetsCache.release(owner1);
+
+    assertThat(Registries.NATIVE_APK_ASSETS_REGISTRY.peekNativeObject(ptr)).isNotNull();
+    assertThat(ApkAssetsCache.getResidentBytes())
+        .containsKey(ApkAssetsCache.Key.newInstance(path, true, API_LEVEL));
+
+    ApkAssetsCache.release(owner2);
+
+    assertThat(Registries.NATIVE_APK_ASSETS_REGISTRY.peekNativeObject(ptr)).isNull();
+    assertThat(ApkAssetsCache.getResidentBytes())
+        .doesNotContainKey(ApkAssetsCache.Key.newInstance(path, true, API_LEVEL));
+    assertThat(ApkAssetsCache.get(path, true, API_LEVEL, owner1)).isEqualTo(-1);
+  }
+
+  private static long register() {
+    return Registries.NATIVE_APK_ASSETS_REGISTRY.register(new CppApkAssets());
+  }
+}
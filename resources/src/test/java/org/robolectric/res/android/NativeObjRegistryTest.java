@@ -0,0 +1,154 @@
+package org.robolectric.res.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class NativeObjRegistryTest {
+  private final NativeObjRegistry<Object> registry = new NativeObjRegistry<>("test");
+
+  @Test
+  public void register_assignsSequentialIds() {
+    Object first = new Object();
+    Object second = new Object();
+
+    assertThat(registry.register(first)).isEqualTo(1);
+    assertThat(registry.register(second)).isEqualTo(2);
+    assertThat(registry.getNativeObject(1)).isSameInstanceAs(first);
+    assertThat(registry.getNativeObject(2)).isSameInstanceAs(second);
+  }
+
+  @Test
+  public void register_twice_throws() {
+    Object o = new Object();
+    registry.register(o);
+
+    assertThrows(IllegalStateException.class, () -> registry.register(o));
+  }
+
+  @Test
+  public void register_distinguishesEqualObjects() {
+    String first = new String("value");
+    String second = new String("value");
+
+    long firstId = registry.register(first);
+    long secondId = registry.register(second);
+
+    assertThat(registry.getNativeObject(firstId)).isSameInstanceAs(first);
+    assertThat(registry.getNativeObject(secondId)).isSameInstanceAs(second);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void getNativeObjectId_returnsExistingId() {
+    Object o = new Object();
+    long id = registry.register(o);
+
+    assertThat(registry.getNativeObjectId(o)).isEqualTo(id);
+    assertThat(registry.getNativeObjectId(new Object())).isEqualTo(id + 1);
+  }
+
+  @Test
+  public void unregister_removesObject() {
+    Object o = new Object();
+    long id = registry.register(o);
+
+    assertThat(registry.unregister(id)).isSameInstanceAs(o);
+    assertThat(registry.peekNativeObject(id)).isNull();
+    assertThrows(NullPointerException.class, () -> registry.getNativeObject(id));
+    assertThrows(IllegalStateException.class, () -> registry.unregister(id));
+    // The object may be registered again, with a new id.
+    assertThat(registry.register(o)).isNotEqualTo(id);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void unregister_byObject_removesObject() {
+    Object o = new Object();
+    long id = registry.register(o);
+
+    registry.unregister(o);
+
+    assertThat(registry.peekNativeObject(id)).isNull();
+  }
+
+  @Test
+  public void update_replacesObject() {
+    Object o = new Object();
+    Object replacement = new Object();
+    long id = registry.register(o);
+
+    registry.update(id, replacement);
+
+    assertThat(registry.getNativeObject(id)).isSameInstanceAs(replacement);
+    // The previous object is no longer registered.
+    assertThat(registry.register(o)).isNotEqualTo(id);
+    assertThrows(IllegalStateException.class, () -> registry.update(12345, new Object()));
+  }
+
+  @Test
+  public void clear_resetsIds() {
+    registry.register(new Object());
+    registry.register(new Object());
+
+    registry.clear();
+
+    assertThat(registry.peekNativeObject(1)).isNull();
+    assertThat(registry.register(new Object())).isEqualTo(1);
+  }
+
+  @Test
+  public void manyObjects_canBeRegisteredAndUnregistered() {
+    List<Object> objects = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      Object o = new Object();
+      objects.add(o);
+      assertThat(registry.register(o)).isEqualTo(i + 1);
+    }
+    for (int i = 0; i < objects.size(); i += 2) {
+      assertThat(registry.unregister(i + 1)).isSameInstanceAs(objects.get(i));
+    }
+    for (int i = 0; i < objects.size(); i++) {
+      Object expected = i % 2 == 0 ? null : objects.get(i);
+      assertThat(registry.peekNativeObject(i + 1)).isSameInstanceAs(expected);
+    }
+  }
+
+  @Test
+  public void concurrentRegistrations_getDistinctIds() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 5_000; i++) {
+                    Object o = new Object();
+                    long id = registry.register(o);
+                    assertThat(registry.getNativeObject(id)).isSameInstanceAs(o);
+                    if (i % 3 == 0) {
+                      assertThat(registry.unregister(id)).isSameInstanceAs(o);
+                    }
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(registry.register(new Object())).isEqualTo(4 * 5_000 + 1);
+  }
+}
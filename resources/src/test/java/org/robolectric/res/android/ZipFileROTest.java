@@ -9,6 +9,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.junit.Test;
@@ -96,4 +99,55 @@ public final class ZipFileROTest {
     assertThat(zro.findEntryByName("65536")).isNotNull();
     assertThat(zro.findEntryByName("65537")).isNull();
   }
+
+  @Test
+  public void createEntryFileMap_largeStoredEntry_isMapped() throws Exception {
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    File blob = File.createTempFile("stored", "zip");
+    try (ZipOutputStream zip = new ZipOutputStream(newOutputStream(blob.toPath()))) {
+      ZipEntry entry = new ZipEntry("resources.arsc");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(data.length);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setCrc(crc.getValue());
+      zip.putNextEntry(entry);
+      zip.write(data);
+      zip.closeEntry();
+    }
+
+    ZipFileRO zipFile = ZipFileRO.open(blob.toString());
+    FileMap fileMap = zipFile.createEntryFileMap(zipFile.findEntryByName("resources.arsc"));
+    Asset asset = Asset.createFromUncompressedMap(fileMap, Asset.AccessMode.ACCESS_BUFFER);
+
+    ByteBuffer buffer = asset.getByteBuffer(true);
+    assertThat(buffer.isDirect()).isTrue();
+    byte[] bufferContents = new byte[buffer.remaining()];
+    buffer.get(bufferContents);
+    assertThat(bufferContents).isEqualTo(data);
+
+    byte[] head = new byte[10];
+    assertThat(asset.read(head, 0, head.length)).isEqualTo(head.length);
+    assertThat(head).isEqualTo(Arrays.copyOf(data, head.length));
+    assertThat(asset.getBuffer(true)).isEqualTo(data);
+  }
+
+  @Test
+  public void createEntryFileMap_deflatedEntry_isNotMapped() throws Exception {
+    byte[] data = new byte[100_000];
+    File blob = File.createTempFile("deflated", "zip");
+    try (ZipOutputStream zip = new ZipOutputStream(newOutputStream(blob.toPath()))) {
+      zip.putNextEntry(new ZipEntry("resources.arsc"));
+      zip.write(data);
+      zip.closeEntry();
+    }
+
+    ZipFileRO zipFile = ZipFileRO.open(blob.toString());
+    FileMap fileMap = zipFile.createEntryFileMap(zipFile.findEntryByName("resources.arsc"));
+
+    assertThat(fileMap.isMappable()).isFalse();
+  }
 }
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
@@ -71,6 +72,14 @@ public class RobolectricTestRunner extends SandboxTestRunner {
   private static final Pattern SANITIZE_DIR_PATTERN = Pattern.compile("[^a-zA-Z0-9.-]");
   private static final Injector DEFAULT_INJECTOR = defaultInjector().build();
   private static final Map<ManifestIdentifier, AndroidManifest> appManifestsCache = new HashMap<>();
+
+  /**
+   * Reusing shadow matchers lets each test share what previous tests learned about shadow classes,
+   * see {@link ShadowWrangler}.
+   */
+  private static final Map<Integer, AndroidSdkShadowMatcher> shadowMatchersCache =
+      new ConcurrentHashMap<>();
+
   private static final ImmutableList<RunListener> RUN_LISTENERS = loadRunListeners();
 
   // Cache for build system API properties. This never changes between tests.
@@ -170,7 +179,8 @@ public class RobolectricTestRunner extends SandboxTestRunner {
   protected ClassHandler createClassHandler(
       ShadowMap shadowMap, Sandbox sandbox, List<MethodHandleDecorator> decorators) {
     int apiLevel = ((AndroidSandbox) sandbox).getSdk().getApiLevel();
-    AndroidSdkShadowMatcher shadowMatcher = new AndroidSdkShadowMatcher(apiLevel);
+    AndroidSdkShadowMatcher shadowMatcher =
+        shadowMatchersCache.computeIfAbsent(apiLevel, AndroidSdkShadowMatcher::new);
     return classHandlerBuilder.build(shadowMap, shadowMatcher, getInterceptors(), decorators);
   }
 
@@ -286,6 +296,27 @@ public class RobolectricTestRunner extends SandboxTestRunner {
         classLoaderConfig, sdk, resourcesMode, looperMode, sqliteMode, graphicsMode);
   }
 
+  @Override
+  protected void prewarmSandboxes(List<FrameworkMethod> methods) {
+    if (!sandboxManager.isPrewarmingEnabled()) {
+      return;
+    }
+    for (FrameworkMethod method : methods) {
+      RobolectricFrameworkMethod roboMethod = (RobolectricFrameworkMethod) method;
+      Sdk sdk = roboMethod.getSdk();
+      if (!sdk.isSupported()) {
+        continue;
+      }
+      sandboxManager.prewarmAndroidSandbox(
+          createClassLoaderConfig(method),
+          sdk,
+          roboMethod.configuration.get(ResourcesMode.Mode.class),
+          roboMethod.configuration.get(LooperMode.Mode.class),
+          roboMethod.configuration.get(SQLiteMode.Mode.class),
+          roboMethod.configuration.get(GraphicsMode.Mode.class));
+    }
+  }
+
   @Override
   protected void configureSandbox(Sandbox sandbox, FrameworkMethod method) {
     RobolectricFrameworkMethod roboMethod = (RobolectricFrameworkMethod) method;
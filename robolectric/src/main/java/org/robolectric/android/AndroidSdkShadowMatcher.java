@@ -27,11 +27,35 @@ public class AndroidSdkShadowMatcher implements ShadowMatcher {
   public boolean matches(Method method) {
     Filter filter = method.getAnnotation(Filter.class);
     if (filter != null) {
-      return filter.minSdk() <= sdkLevel && (filter.maxSdk() == -1 || filter.maxSdk() >= sdkLevel);
+      return matchesSdkRange(filter.minSdk(), filter.maxSdk());
     }
     Implementation implementation = getImplementationAnnotation(method);
-    return implementation.minSdk() <= sdkLevel
-        && (implementation.maxSdk() == -1 || implementation.maxSdk() >= sdkLevel);
+    return matchesSdkRange(implementation.minSdk(), implementation.maxSdk());
+  }
+
+  /**
+   * Returns true unless this is a subclass, which might override {@link #matches(Method)} with
+   * rules the SDK range can't express.
+   */
+  @Override
+  public boolean canMatchBySdkRange() {
+    return getClass() == AndroidSdkShadowMatcher.class;
+  }
+
+  @Override
+  public boolean matchesSdkRange(int minSdk, int maxSdk) {
+    return minSdk <= sdkLevel && (maxSdk == -1 || maxSdk >= sdkLevel);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof AndroidSdkShadowMatcher
+        && ((AndroidSdkShadowMatcher) o).sdkLevel == sdkLevel;
+  }
+
+  @Override
+  public int hashCode() {
+    return sdkLevel;
   }
 
   private static Implementation getImplementationAnnotation(Method method) {
@@ -666,13 +666,15 @@ public class AndroidTestEnvironment implements TestEnvironment {
       fakeMediaProvider = null;
     }
     List<Throwable> exceptions = new ArrayList<>();
+    ClassTracker classTracker = (ClassTracker) Instrumentation.class.getClassLoader();
     for (ShadowProvider provider : shadowProviders) {
       try {
-        provider.reset((ClassTracker) Instrumentation.class.getClassLoader());
+        provider.reset(classTracker);
       } catch (Throwable e) {
         exceptions.add(e);
       }
     }
+    classTracker.onResetComplete();
 
     if (!exceptions.isEmpty()) {
       Throwable first = exceptions.remove(0);
@@ -20,6 +20,7 @@ import org.robolectric.internal.bytecode.SandboxClassLoader;
 import org.robolectric.internal.bytecode.ShadowProviders;
 import org.robolectric.internal.bytecode.UrlResourceProvider;
 import org.robolectric.pluginapi.Sdk;
+import org.robolectric.res.android.ApkAssetsCache;
 import org.robolectric.shadows.SQLiteShadowPicker;
 import org.robolectric.util.inject.Injector;
 
@@ -84,6 +85,13 @@ public class AndroidSandbox extends Sandbox {
     return testEnvironment;
   }
 
+  @Override
+  public void shutdown() {
+    // The shadows loaded by this sandbox's class loader own its cached ApkAssets.
+    ApkAssetsCache.release(getRobolectricClassLoader());
+    super.shutdown();
+  }
+
   @Override
   public String toString() {
     return "AndroidSandbox[SDK " + sdk + "]";
@@ -120,6 +128,9 @@ public class AndroidSandbox extends Sandbox {
 
   /** Adapter from Sdk to ResourceLoader. */
   public static class SdkSandboxClassLoader extends SandboxClassLoader {
+    static {
+      registerAsParallelCapable();
+    }
 
     public SdkSandboxClassLoader(
         InstrumentationConfiguration config,
@@ -1,9 +1,23 @@
 package org.robolectric.internal;
 
 import android.annotation.SuppressLint;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.robolectric.annotation.GraphicsMode;
@@ -13,45 +27,105 @@ import org.robolectric.annotation.SQLiteMode;
 import org.robolectric.internal.bytecode.InstrumentationConfiguration;
 import org.robolectric.pluginapi.Sdk;
 import org.robolectric.plugins.SdkCollection;
+import org.robolectric.util.Logger;
 import org.robolectric.util.PerfStatsCollector;
+import org.robolectric.util.Util;
 import org.robolectric.util.inject.AutoFactory;
 
-/** Manager of sandboxes. */
+/**
+ * Manager of sandboxes.
+ *
+ * <p>Sandboxes are built outside of any lock, so sandboxes for different keys may be built in
+ * parallel, while concurrent requests for the same key wait for a single build.
+ *
+ * <p>By default at most {@code 3 * supportedSdks} sandboxes are cached. If the {@code
+ * robolectric.sandboxHeapBudget} system property is set, either to a number of bytes or to a
+ * percentage of the maximum heap size (e.g. {@code 40%}), sandboxes are instead evicted once their
+ * estimated total retained size (see {@link AndroidSandbox#estimateRetainedSize()}) exceeds that
+ * budget. Either way, the least frequently requested sandbox is evicted first, and the least
+ * recently requested one among equally frequent sandboxes.
+ *
+ * <p>If the {@code robolectric.prewarmSandboxes} system property is set to {@code true}, sandboxes
+ * requested via {@link #prewarmAndroidSandbox} are built on background threads ahead of the tests
+ * that need them.
+ */
 @SuppressLint("NewApi")
 public class SandboxManager {
 
-  /** The factor for cache size. See {@link #sandboxesByKey} for details. */
+  static final String PREWARM_SANDBOXES_PROPERTY = "robolectric.prewarmSandboxes";
+  static final String HEAP_BUDGET_PROPERTY = "robolectric.sandboxHeapBudget";
+
+  /** The factor for cache size when no heap budget is set. */
   private static final int CACHE_SIZE_FACTOR = 3;
 
   private final SandboxBuilder sandboxBuilder;
   private final SdkCollection sdkCollection;
+  private final int cacheSize;
+  private final boolean prewarmingEnabled;
+  private final long heapBudget;
+
+  // In access order. AndroidSandboxes are unique across InstrumentationConfiguration and Sdk
+  @GuardedBy("itself")
+  private final LinkedHashMap<SandboxKey, SandboxFuture> sandboxesByKey =
+      new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+
+  // Retained after eviction, so that rebuilds can be detected.
+  @GuardedBy("sandboxesByKey")
+  private final Map<SandboxKey, KeyStats> statsByKey = new HashMap<>();
 
-  // Simple LRU Cache. AndroidSandboxes are unique across InstrumentationConfiguration and Sdk
-  private final LinkedHashMap<SandboxKey, AndroidSandbox> sandboxesByKey;
+  // The largest estimated size of a built sandbox by SDK API level, used as the estimated size of
+  // sandboxes that are still being built.
+  @GuardedBy("sandboxesByKey")
+  private final Map<Integer, Long> builtSizeByApiLevel = new HashMap<>();
+
+  @GuardedBy("this")
+  private Executor prewarmExecutor;
 
   @Inject
   public SandboxManager(SandboxBuilder sandboxBuilder, SdkCollection sdkCollection) {
+    this(
+        sandboxBuilder,
+        sdkCollection,
+        Boolean.getBoolean(PREWARM_SANDBOXES_PROPERTY),
+        parseHeapBudget(
+            System.getProperty(HEAP_BUDGET_PROPERTY), Runtime.getRuntime().maxMemory()));
+  }
+
+  /**
+   * @param heapBudget the maximum estimated size of all cached sandboxes, in bytes, or 0 to limit
+   *     the number of cached sandboxes instead
+   */
+  @VisibleForTesting
+  SandboxManager(
+      SandboxBuilder sandboxBuilder,
+      SdkCollection sdkCollection,
+      boolean prewarmingEnabled,
+      long heapBudget) {
+    this(sandboxBuilder, sdkCollection, prewarmingEnabled, heapBudget, null);
+  }
+
+  /**
+   * @param prewarmExecutor runs prewarming builds, or null to use a pool of background threads
+   */
+  @VisibleForTesting
+  SandboxManager(
+      SandboxBuilder sandboxBuilder,
+      SdkCollection sdkCollection,
+      boolean prewarmingEnabled,
+      long heapBudget,
+      @Nullable Executor prewarmExecutor) {
     this.sandboxBuilder = sandboxBuilder;
+    this.prewarmExecutor = prewarmExecutor;
     this.sdkCollection = sdkCollection;
+    this.prewarmingEnabled = prewarmingEnabled;
+    this.heapBudget = heapBudget;
 
     // We need to set the cache size of class loaders more than the number of supported APIs as
     // different tests may have different configurations.
-    final int cacheSize = sdkCollection.getSupportedSdks().size() * CACHE_SIZE_FACTOR;
-    sandboxesByKey =
-        new LinkedHashMap<SandboxKey, AndroidSandbox>() {
-          @Override
-          protected boolean removeEldestEntry(Map.Entry<SandboxKey, AndroidSandbox> eldest) {
-            boolean toRemove = size() > cacheSize;
-            if (toRemove) {
-              PerfStatsCollector.getInstance().incrementCount("evictSandbox");
-              eldest.getValue().shutdown();
-            }
-            return toRemove;
-          }
-        };
+    this.cacheSize = sdkCollection.getSupportedSdks().size() * CACHE_SIZE_FACTOR;
   }
 
-  public synchronized AndroidSandbox getAndroidSandbox(
+  public AndroidSandbox getAndroidSandbox(
       InstrumentationConfiguration instrumentationConfig,
       Sdk sdk,
       ResourcesMode.Mode resourcesMode,
@@ -60,15 +134,234 @@ public class SandboxManager {
       GraphicsMode.Mode graphicsMode) {
     SandboxKey key =
         new SandboxKey(instrumentationConfig, sdk, resourcesMode, looperMode, graphicsMode);
+    SandboxFuture future;
+    synchronized (sandboxesByKey) {
+      future = getOrCreateFuture(key, instrumentationConfig, sdk, resourcesMode, sqliteMode);
+      // Only requests count as accesses, so prewarmed sandboxes don't look popular until used.
+      statsByKey.get(key).accesses++;
+    }
 
-    AndroidSandbox androidSandbox = sandboxesByKey.get(key);
-    if (androidSandbox == null) {
-      Sdk compileSdk = sdkCollection.getMaxSupportedSdk();
-      androidSandbox =
-          sandboxBuilder.build(instrumentationConfig, sdk, compileSdk, resourcesMode, sqliteMode);
-      sandboxesByKey.put(key, androidSandbox);
+    // Builds the sandbox on this thread unless another thread has already started building it, in
+    // which case this is a no-op.
+    future.run();
+    try {
+      AndroidSandbox androidSandbox = future.get();
+      evictIfNeeded(key);
+      return androidSandbox;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw Util.sneakyThrow(e.getCause());
     }
-    return androidSandbox;
+  }
+
+  /** Returns whether {@link #prewarmAndroidSandbox} builds sandboxes in the background. */
+  public boolean isPrewarmingEnabled() {
+    return prewarmingEnabled;
+  }
+
+  /**
+   * Starts building the sandbox for the given configuration on a background thread, if prewarming
+   * is enabled and the sandbox hasn't already been requested. A later call to {@link
+   * #getAndroidSandbox} with the same arguments waits for that build rather than starting another.
+   *
+   * <p>Sandboxes are only prewarmed while there is room in the cache, so that prewarming never
+   * evicts a sandbox that is in use. With a heap budget, sandboxes that are still being built count
+   * at the size of the largest sandbox built for their SDK so far. Failures are reported to the
+   * caller of {@link #getAndroidSandbox}.
+   */
+  public void prewarmAndroidSandbox(
+      InstrumentationConfiguration instrumentationConfig,
+      Sdk sdk,
+      ResourcesMode.Mode resourcesMode,
+      LooperMode.Mode looperMode,
+      SQLiteMode.Mode sqliteMode,
+      GraphicsMode.Mode graphicsMode) {
+    if (!prewarmingEnabled) {
+      return;
+    }
+    SandboxKey key =
+        new SandboxKey(instrumentationConfig, sdk, resourcesMode, looperMode, graphicsMode);
+    SandboxFuture future;
+    synchronized (sandboxesByKey) {
+      if (sandboxesByKey.containsKey(key) || !hasRoomForAnotherSandbox(key)) {
+        return;
+      }
+      future = getOrCreateFuture(key, instrumentationConfig, sdk, resourcesMode, sqliteMode);
+    }
+    PerfStatsCollector.getInstance().incrementCount("prewarmSandbox");
+    getPrewarmExecutor().execute(future);
+  }
+
+  private SandboxFuture getOrCreateFuture(
+      SandboxKey key,
+      InstrumentationConfiguration instrumentationConfig,
+      Sdk sdk,
+      ResourcesMode.Mode resourcesMode,
+      SQLiteMode.Mode sqliteMode) {
+    synchronized (sandboxesByKey) {
+      KeyStats stats = statsByKey.computeIfAbsent(key, k -> new KeyStats());
+      SandboxFuture future = sandboxesByKey.get(key);
+      if (future == null) {
+        if (stats.builds++ > 0) {
+          PerfStatsCollector.getInstance().incrementCount("rebuildSandbox");
+        }
+        Sdk compileSdk = sdkCollection.getMaxSupportedSdk();
+        future =
+            new SandboxFuture(
+                key,
+                () ->
+                    sandboxBuilder.build(
+                        instrumentationConfig, sdk, compileSdk, resourcesMode, sqliteMode));
+        sandboxesByKey.put(key, future);
+      }
+      return future;
+    }
+  }
+
+  /**
+   * Evicts sandboxes until the cache fits its budget. The sandbox for {@code keyInUse}, sandboxes
+   * that are still being built and sandboxes that are running tests (e.g. on other threads, see
+   * {@link AndroidSandbox#isInUse()}) are never evicted.
+   */
+  private void evictIfNeeded(SandboxKey keyInUse) {
+    synchronized (sandboxesByKey) {
+      long estimatedSize = heapBudget > 0 ? estimateCachedSize() : 0;
+      // Sandboxes that were acquired after they were picked as the victim.
+      Set<SandboxKey> acquiredKeys = new HashSet<>();
+      while (heapBudget > 0 ? estimatedSize > heapBudget : sandboxesByKey.size() > cacheSize) {
+        SandboxKey victim = null;
+        int victimAccesses = Integer.MAX_VALUE;
+        // Iterates from least to most recently used, so ties go to the least recently used.
+        for (Map.Entry<SandboxKey, SandboxFuture> entry : sandboxesByKey.entrySet()) {
+          int accesses = statsByKey.get(entry.getKey()).accesses;
+          if (!entry.getKey().equals(keyInUse)
+              && !acquiredKeys.contains(entry.getKey())
+              && entry.getValue().isDone()
+              && !entry.getValue().isInUse()
+              && accesses < victimAccesses) {
+            victim = entry.getKey();
+            victimAccesses = accesses;
+          }
+        }
+        if (victim == null) {
+          break;
+        }
+        SandboxFuture evicted = sandboxesByKey.get(victim);
+        long evictedSize = evicted.estimateRetainedSize();
+        if (!evicted.evictIfUnused()) {
+          acquiredKeys.add(victim);
+          continue;
+        }
+        sandboxesByKey.remove(victim);
+        estimatedSize -= evictedSize;
+        PerfStatsCollector.getInstance().incrementCount("evictSandbox");
+        // Decay access counts, so that sandboxes that were popular a long time ago don't stay
+        // cached forever.
+        for (KeyStats stats : statsByKey.values()) {
+          stats.accesses /= 2;
+        }
+      }
+      PerfStatsCollector.getInstance().recordCount("cachedSandboxes", sandboxesByKey.size());
+      if (heapBudget > 0) {
+        PerfStatsCollector.getInstance()
+            .recordCount("cachedSandboxesEstimatedMegabytes", (int) (estimatedSize >> 20));
+      }
+    }
+  }
+
+  private boolean hasRoomForAnotherSandbox(SandboxKey key) {
+    synchronized (sandboxesByKey) {
+      if (heapBudget <= 0) {
+        return sandboxesByKey.size() < cacheSize;
+      }
+      long cachedSize = estimateCachedSize();
+      long expectedSize = expectedRetainedSize(key.sdk);
+      if (expectedSize == 0) {
+        // Nothing has been built yet, so the size of a build is unknown; build one at a time.
+        return cachedSize < heapBudget && !isBuilding();
+      }
+      return cachedSize + expectedSize <= heapBudget;
+    }
+  }
+
+  /**
+   * Returns the estimated size of all cached sandboxes, counting sandboxes that are still being
+   * built at their {@link #expectedRetainedSize}.
+   */
+  private long estimateCachedSize() {
+    synchronized (sandboxesByKey) {
+      long size = 0;
+      for (SandboxFuture future : sandboxesByKey.values()) {
+        if (future.isBuilt()) {
+          long builtSize = future.estimateRetainedSize();
+          builtSizeByApiLevel.merge(future.key.sdk.getApiLevel(), builtSize, Math::max);
+          size += builtSize;
+        }
+      }
+      for (SandboxFuture future : sandboxesByKey.values()) {
+        if (!future.isDone()) {
+          size += expectedRetainedSize(future.key.sdk);
+        }
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Returns the largest estimated size of a sandbox built for {@code sdk}, or for any SDK if none
+   * was built for it yet, or 0 if no sandbox was built yet.
+   */
+  private long expectedRetainedSize(Sdk sdk) {
+    synchronized (sandboxesByKey) {
+      Long size = builtSizeByApiLevel.get(sdk.getApiLevel());
+      if (size != null) {
+        return size;
+      }
+      return builtSizeByApiLevel.values().stream().max(Long::compare).orElse(0L);
+    }
+  }
+
+  private boolean isBuilding() {
+    synchronized (sandboxesByKey) {
+      return sandboxesByKey.values().stream().anyMatch(future -> !future.isDone());
+    }
+  }
+
+  /**
+   * Parses a heap budget given either as a number of bytes or as a percentage of {@code maxHeap}.
+   * Returns 0 if no valid budget is given.
+   */
+  @VisibleForTesting
+  static long parseHeapBudget(@Nullable String value, long maxHeap) {
+    if (Strings.isNullOrEmpty(value)) {
+      return 0;
+    }
+    try {
+      if (value.endsWith("%")) {
+        double percent = Double.parseDouble(value.substring(0, value.length() - 1));
+        return (long) (maxHeap / 100.0 * percent);
+      }
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      Logger.warn("Ignoring invalid %s: %s", HEAP_BUDGET_PROPERTY, value);
+      return 0;
+    }
+  }
+
+  private synchronized Executor getPrewarmExecutor() {
+    if (prewarmExecutor == null) {
+      int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+      prewarmExecutor =
+          Executors.newFixedThreadPool(
+              threads,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("SandboxPrewarmer-%d")
+                  .setDaemon(true)
+                  .build());
+    }
+    return prewarmExecutor;
   }
 
   /** Factory interface for AndroidSandbox. */
@@ -82,6 +375,90 @@ public class SandboxManager {
         SQLiteMode.Mode sqLiteMode);
   }
 
+  /**
+   * A sandbox that has been, is being, or will be built. Failed builds are removed from the cache
+   * so that they are retried on the next request; sandboxes evicted from the cache are shut down
+   * once they have been built.
+   */
+  private final class SandboxFuture extends FutureTask<AndroidSandbox> {
+    private final SandboxKey key;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+    private volatile boolean evicted;
+
+    SandboxFuture(SandboxKey key, Callable<AndroidSandbox> callable) {
+      super(callable);
+      this.key = key;
+    }
+
+    /** Returns the estimated size of the sandbox, or 0 if it hasn't been built. */
+    long estimateRetainedSize() {
+      return isBuilt() ? getUnchecked().estimateRetainedSize() : 0;
+    }
+
+    /**
+     * Marks the sandbox as evicted and shuts it down, unless it was built and is in use (see {@link
+     * AndroidSandbox#tryAcquire()}). Must only be called once the build is done.
+     */
+    boolean evictIfUnused() {
+      if (isBuilt() && shutdown.compareAndSet(false, true)) {
+        if (!getUnchecked().shutdownIfUnused()) {
+          shutdown.set(false);
+          return false;
+        }
+      }
+      evicted = true;
+      return true;
+    }
+
+    @Override
+    protected void done() {
+      if (evicted) {
+        shutdownIfBuilt();
+      } else if (!isBuilt()) {
+        synchronized (sandboxesByKey) {
+          sandboxesByKey.remove(key, this);
+        }
+      }
+    }
+
+    private boolean isBuilt() {
+      if (!isDone()) {
+        return false;
+      }
+      try {
+        get();
+        return true;
+      } catch (InterruptedException | ExecutionException | RuntimeException e) {
+        return false;
+      }
+    }
+
+    boolean isInUse() {
+      return isBuilt() && getUnchecked().isInUse();
+    }
+
+    private void shutdownIfBuilt() {
+      if (isBuilt() && shutdown.compareAndSet(false, true)) {
+        getUnchecked().shutdown();
+      }
+    }
+
+    /** Returns the built sandbox; must only be called if {@link #isBuilt()}. */
+    private AndroidSandbox getUnchecked() {
+      try {
+        return get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /** How often a sandbox has been requested and built. */
+  private static final class KeyStats {
+    private int accesses;
+    private int builds;
+  }
+
   static class SandboxKey {
     private final Sdk sdk;
     private final InstrumentationConfiguration instrumentationConfiguration;
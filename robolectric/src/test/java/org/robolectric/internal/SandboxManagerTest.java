@@ -0,0 +1,421 @@
+package org.robolectric.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.annotation.GraphicsMode;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.annotation.ResourcesMode;
+import org.robolectric.annotation.SQLiteMode;
+import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+import org.robolectric.pluginapi.Sdk;
+import org.robolectric.plugins.SdkCollection;
+import org.robolectric.plugins.StubSdk;
+
+/** Tests for {@link SandboxManager}. */
+@RunWith(JUnit4.class)
+public class SandboxManagerTest {
+  private static final InstrumentationConfiguration CONFIG =
+      InstrumentationConfiguration.newBuilder().build();
+
+  private final Sdk sdk1 = new StubSdk(1234, true);
+  private final Sdk sdk2 = new StubSdk(1235, true);
+  private final SdkCollection sdkCollection = new SdkCollection(() -> ImmutableList.of(sdk1, sdk2));
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void getAndroidSandbox_concurrentRequestsForSameKey_buildOnce() throws Exception {
+    AtomicInteger builds = new AtomicInteger();
+    CountDownLatch buildStarted = new CountDownLatch(1);
+    CountDownLatch finishBuild = new CountDownLatch(1);
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              builds.incrementAndGet();
+              buildStarted.countDown();
+              await(finishBuild);
+              return mockSandbox();
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    Future<AndroidSandbox> first = executor.submit(() -> getAndroidSandbox(sandboxManager, sdk1));
+    await(buildStarted);
+    Future<AndroidSandbox> second = executor.submit(() -> getAndroidSandbox(sandboxManager, sdk1));
+    finishBuild.countDown();
+
+    assertThat(second.get(5, TimeUnit.SECONDS)).isSameInstanceAs(first.get(5, TimeUnit.SECONDS));
+    assertThat(builds.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void getAndroidSandbox_differentKeys_buildInParallel() throws Exception {
+    // Each build waits for the other to start, so this only completes if they run concurrently.
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              bothStarted.countDown();
+              await(bothStarted);
+              return mockSandbox();
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    Future<AndroidSandbox> first = executor.submit(() -> getAndroidSandbox(sandboxManager, sdk1));
+    Future<AndroidSandbox> second = executor.submit(() -> getAndroidSandbox(sandboxManager, sdk2));
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isNotSameInstanceAs(second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void getAndroidSandbox_failedBuild_isRetried() {
+    AtomicInteger builds = new AtomicInteger();
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              if (builds.incrementAndGet() == 1) {
+                throw new IllegalStateException("boom");
+              }
+              return mockSandbox();
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    assertThrows(IllegalStateException.class, () -> getAndroidSandbox(sandboxManager, sdk1));
+    assertThat(getAndroidSandbox(sandboxManager, sdk1)).isNotNull();
+    assertThat(builds.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void prewarmAndroidSandbox_buildsInBackground() throws Exception {
+    AtomicInteger builds = new AtomicInteger();
+    CountDownLatch built = new CountDownLatch(1);
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              builds.incrementAndGet();
+              built.countDown();
+              return mockSandbox();
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ true,
+            /* heapBudget= */ 0);
+
+    sandboxManager.prewarmAndroidSandbox(
+        CONFIG,
+        sdk1,
+        ResourcesMode.Mode.BINARY,
+        LooperMode.Mode.PAUSED,
+        SQLiteMode.Mode.NATIVE,
+        GraphicsMode.Mode.NATIVE);
+
+    assertThat(built.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(getAndroidSandbox(sandboxManager, sdk1)).isNotNull();
+    assertThat(builds.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void prewarmAndroidSandbox_disabled_doesNothing() {
+    AtomicInteger builds = new AtomicInteger();
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              builds.incrementAndGet();
+              return mockSandbox();
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    sandboxManager.prewarmAndroidSandbox(
+        CONFIG,
+        sdk1,
+        ResourcesMode.Mode.BINARY,
+        LooperMode.Mode.PAUSED,
+        SQLiteMode.Mode.NATIVE,
+        GraphicsMode.Mode.NATIVE);
+
+    assertThat(builds.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void getAndroidSandbox_evictsAndShutsDownEldestSandbox() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> mockSandbox(),
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    AndroidSandbox eldest = getAndroidSandbox(sandboxManager, sdk1);
+    // The cache holds three sandboxes per supported SDK.
+    for (int i = 0; i < 6; i++) {
+      getAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    verify(eldest).shutdown();
+  }
+
+  @Test
+  public void getAndroidSandbox_evictsLeastFrequentlyUsedSandbox() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> mockSandbox(),
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    AndroidSandbox frequentlyUsed = getAndroidSandbox(sandboxManager, sdk1);
+    getAndroidSandbox(sandboxManager, sdk1);
+    AndroidSandbox rarelyUsed = getAndroidSandbox(sandboxManager, configWithIndex(0), sdk1);
+    for (int i = 1; i < 6; i++) {
+      getAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    verify(rarelyUsed).shutdown();
+    verify(frequentlyUsed, never()).shutdown();
+  }
+
+  @Test
+  public void getAndroidSandbox_prewarmedSandbox_isNotCountedAsUsed() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> mockSandbox(),
+            sdkCollection,
+            /* prewarmingEnabled= */ true,
+            /* heapBudget= */ 0,
+            /* prewarmExecutor= */ Runnable::run);
+
+    AndroidSandbox used = getAndroidSandbox(sandboxManager, sdk1);
+    prewarmAndroidSandbox(sandboxManager, configWithIndex(0), sdk1);
+    for (int i = 1; i < 6; i++) {
+      getAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    verify(used, never()).shutdown();
+    assertThat(getAndroidSandbox(sandboxManager, sdk1)).isSameInstanceAs(used);
+  }
+
+  @Test
+  public void getAndroidSandbox_doesNotEvictSandboxRunningTests() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> mockSandbox(),
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    AndroidSandbox running = getAndroidSandbox(sandboxManager, sdk1);
+    when(running.isInUse()).thenReturn(true);
+    AndroidSandbox idle = getAndroidSandbox(sandboxManager, configWithIndex(0), sdk1);
+    for (int i = 1; i < 6; i++) {
+      getAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    verify(running, never()).shutdown();
+    verify(idle).shutdown();
+  }
+
+  @Test
+  public void getAndroidSandbox_doesNotEvictSandboxAcquiredWhileEvicting() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> mockSandbox(),
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 0);
+
+    AndroidSandbox acquired = getAndroidSandbox(sandboxManager, sdk1);
+    // Looks unused when picked as the victim, but is acquired before it is shut down.
+    doReturn(false).when(acquired).shutdownIfUnused();
+    AndroidSandbox idle = getAndroidSandbox(sandboxManager, configWithIndex(0), sdk1);
+    for (int i = 1; i < 6; i++) {
+      getAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    verify(acquired, never()).shutdown();
+    verify(idle).shutdown();
+    assertThat(getAndroidSandbox(sandboxManager, sdk1)).isSameInstanceAs(acquired);
+  }
+
+  @Test
+  public void getAndroidSandbox_withHeapBudget_evictsWhenOverBudget() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              AndroidSandbox sandbox = mockSandbox();
+              when(sandbox.estimateRetainedSize()).thenReturn(100L);
+              return sandbox;
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 250);
+
+    AndroidSandbox first = getAndroidSandbox(sandboxManager, configWithIndex(0), sdk1);
+    AndroidSandbox second = getAndroidSandbox(sandboxManager, configWithIndex(1), sdk1);
+    verify(first, never()).shutdown();
+
+    getAndroidSandbox(sandboxManager, configWithIndex(2), sdk1);
+    verify(first).shutdown();
+    verify(second, never()).shutdown();
+  }
+
+  @Test
+  public void getAndroidSandbox_withHeapBudget_keepsSandboxInUse() {
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              AndroidSandbox sandbox = mockSandbox();
+              when(sandbox.estimateRetainedSize()).thenReturn(1000L);
+              return sandbox;
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ false,
+            /* heapBudget= */ 10);
+
+    AndroidSandbox sandbox = getAndroidSandbox(sandboxManager, sdk1);
+
+    verify(sandbox, never()).shutdown();
+    assertThat(getAndroidSandbox(sandboxManager, sdk1)).isSameInstanceAs(sandbox);
+  }
+
+  @Test
+  public void prewarmAndroidSandbox_withHeapBudget_countsSandboxesBeingBuilt() {
+    List<Runnable> queuedBuilds = new ArrayList<>();
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              AndroidSandbox sandbox = mockSandbox();
+              when(sandbox.estimateRetainedSize()).thenReturn(100L);
+              return sandbox;
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ true,
+            /* heapBudget= */ 250,
+            /* prewarmExecutor= */ queuedBuilds::add);
+
+    getAndroidSandbox(sandboxManager, sdk1);
+    for (int i = 0; i < 10; i++) {
+      prewarmAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+
+    assertThat(queuedBuilds).hasSize(1);
+  }
+
+  @Test
+  public void prewarmAndroidSandbox_withHeapBudget_buildsOneAtATimeUntilSizeIsKnown() {
+    List<Runnable> queuedBuilds = new ArrayList<>();
+    SandboxManager sandboxManager =
+        new SandboxManager(
+            (config, runtimeSdk, compileSdk, resourcesMode, sqliteMode) -> {
+              AndroidSandbox sandbox = mockSandbox();
+              when(sandbox.estimateRetainedSize()).thenReturn(100L);
+              return sandbox;
+            },
+            sdkCollection,
+            /* prewarmingEnabled= */ true,
+            /* heapBudget= */ 1000,
+            /* prewarmExecutor= */ queuedBuilds::add);
+
+    for (int i = 0; i < 10; i++) {
+      prewarmAndroidSandbox(sandboxManager, configWithIndex(i), sdk1);
+    }
+    assertThat(queuedBuilds).hasSize(1);
+
+    queuedBuilds.get(0).run();
+    for (int i = 0; i < 20; i++) {
+      prewarmAndroidSandbox(sandboxManager, configWithIndex(i), sdk2);
+    }
+    // 100 bytes are built, so there is room for 9 more sandboxes of the same size.
+    assertThat(queuedBuilds).hasSize(10);
+  }
+
+  @Test
+  public void parseHeapBudget() {
+    assertThat(SandboxManager.parseHeapBudget(null, 1000)).isEqualTo(0);
+    assertThat(SandboxManager.parseHeapBudget("", 1000)).isEqualTo(0);
+    assertThat(SandboxManager.parseHeapBudget("123", 1000)).isEqualTo(123);
+    assertThat(SandboxManager.parseHeapBudget("40%", 1000)).isEqualTo(400);
+    assertThat(SandboxManager.parseHeapBudget("lots", 1000)).isEqualTo(0);
+  }
+
+  private static void prewarmAndroidSandbox(
+      SandboxManager sandboxManager, InstrumentationConfiguration config, Sdk sdk) {
+    sandboxManager.prewarmAndroidSandbox(
+        config,
+        sdk,
+        ResourcesMode.Mode.BINARY,
+        LooperMode.Mode.PAUSED,
+        SQLiteMode.Mode.NATIVE,
+        GraphicsMode.Mode.NATIVE);
+  }
+
+  /** Returns a mock sandbox that is shut down if unused like a real one. */
+  private static AndroidSandbox mockSandbox() {
+    AndroidSandbox sandbox = mock(AndroidSandbox.class);
+    when(sandbox.shutdownIfUnused())
+        .thenAnswer(
+            invocation -> {
+              if (sandbox.isInUse()) {
+                return false;
+              }
+              sandbox.shutdown();
+              return true;
+            });
+    return sandbox;
+  }
+
+  private static InstrumentationConfiguration configWithIndex(int i) {
+    return InstrumentationConfiguration.newBuilder().doNotAcquireClass("Class" + i).build();
+  }
+
+  private static AndroidSandbox getAndroidSandbox(SandboxManager sandboxManager, Sdk sdk) {
+    return getAndroidSandbox(sandboxManager, CONFIG, sdk);
+  }
+
+  private static AndroidSandbox getAndroidSandbox(
+      SandboxManager sandboxManager, InstrumentationConfiguration config, Sdk sdk) {
+    return sandboxManager.getAndroidSandbox(
+        config,
+        sdk,
+        ResourcesMode.Mode.BINARY,
+        LooperMode.Mode.PAUSED,
+        SQLiteMode.Mode.NATIVE,
+        GraphicsMode.Mode.NATIVE);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.robolectric.shadows;
 import static android.os.Build.VERSION_CODES.BAKLAVA;
 import static com.google.common.truth.Truth.assertThat;
 import static org.robolectric.Shadows.shadowOf;
+import static org.robolectric.versioning.VersionCalculator.CINNAMON_BUN;
 
 import android.animation.ObjectAnimator;
 import android.os.Looper;
@@ -164,6 +165,41 @@ public class ShadowChoreographerTest {
     assertThat(ShadowChoreographer.getNextVsyncTime()).isEqualTo(uptimeMillis + 15);
   }
 
+  // Up to Baklava, frames are delivered by vsync rather than looper messages, so aren't coalesced.
+  @Test
+  @Config(minSdk = CINNAMON_BUN)
+  public void setCoalesceFrames_idleFor_skipsRepeatedFrames() {
+    ShadowChoreographer.setPaused(true);
+    ShadowChoreographer.setFrameDelay(Duration.ofMillis(15));
+
+    long framesWithoutCoalescing = countFramesWhileIdling(Duration.ofSeconds(1));
+    ShadowChoreographer.setCoalesceFrames(true);
+    long skippedFramesBefore = ShadowChoreographer.getSkippedFrameCount();
+    long framesWithCoalescing = countFramesWhileIdling(Duration.ofSeconds(1));
+
+    assertThat(framesWithoutCoalescing).isAtLeast(60);
+    assertThat(framesWithCoalescing).isLessThan(5);
+    assertThat(ShadowChoreographer.getSkippedFrameCount() - skippedFramesBefore).isAtLeast(60);
+  }
+
+  /** Returns the number of frames run by a rescheduling frame callback while idling. */
+  private static long countFramesWhileIdling(Duration duration) {
+    AtomicLong frameCount = new AtomicLong();
+    Choreographer.FrameCallback callback =
+        new Choreographer.FrameCallback() {
+          @Override
+          public void doFrame(long frameTimeNanos) {
+            frameCount.incrementAndGet();
+            Choreographer.getInstance().postFrameCallback(this);
+          }
+        };
+
+    Choreographer.getInstance().postFrameCallback(callback);
+    shadowOf(Looper.getMainLooper()).idleFor(duration);
+    Choreographer.getInstance().removeFrameCallback(callback);
+    return frameCount.get();
+  }
+
   public static class ThingToAnimate {
     private float value = 0f;
     private int setCount = 0;
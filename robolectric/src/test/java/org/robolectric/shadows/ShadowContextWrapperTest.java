@@ -543,6 +543,39 @@ public class ShadowContextWrapperTest {
     asyncAssertThat(transcript).isEmpty();
   }
 
+  @Test
+  public void unregisterReceiver_shouldKeepOtherReceiversForActionInOrder() {
+    BroadcastReceiver larryReceiver = broadcastReceiver("Larry");
+    BroadcastReceiver bobReceiver = broadcastReceiver("Bob");
+    BroadcastReceiver joeReceiver = broadcastReceiver("Joe");
+    contextWrapper.registerReceiver(larryReceiver, intentFilter("foo"));
+    contextWrapper.registerReceiver(bobReceiver, intentFilter("baz", "foo"));
+    contextWrapper.registerReceiver(joeReceiver, intentFilter("foo"));
+
+    contextWrapper.unregisterReceiver(bobReceiver);
+    contextWrapper.sendBroadcast(new Intent("foo"));
+    contextWrapper.sendBroadcast(new Intent("baz"));
+
+    asyncAssertThat(transcript)
+        .containsExactly("Larry notified of foo", "Joe notified of foo")
+        .inOrder();
+  }
+
+  @Test
+  public void unregisterReceiver_afterFilterChanged_shouldStopNotifyingReceiver() {
+    BroadcastReceiver larryReceiver = broadcastReceiver("Larry");
+    IntentFilter filter = intentFilter("foo");
+    contextWrapper.registerReceiver(larryReceiver, filter);
+    filter.addAction("baz");
+
+    contextWrapper.unregisterReceiver(larryReceiver);
+    contextWrapper.registerReceiver(larryReceiver, intentFilter("baz"));
+    contextWrapper.sendBroadcast(new Intent("foo"));
+    contextWrapper.sendBroadcast(new Intent("baz"));
+
+    asyncAssertThat(transcript).containsExactly("Larry notified of baz");
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void unregisterReceiver_shouldThrowExceptionWhenReceiverIsNotRegistered() {
     contextWrapper.unregisterReceiver(new AppWidgetProvider());
@@ -1,5 +1,6 @@
 package org.robolectric.shadows;
 
+import static android.os.Build.VERSION_CODES.P;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
@@ -9,6 +10,8 @@ import android.database.MatrixCursor;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
 
 @RunWith(AndroidJUnit4.class)
 public class ShadowCursorWindowTest {
@@ -68,4 +71,27 @@ public class ShadowCursorWindowTest {
     assertThrows(NullPointerException.class, () -> cursorWindow.putString(null, 0, 0));
     cursorWindow.close();
   }
+
+  @Test
+  @Config(minSdk = P)
+  @SQLiteMode(SQLiteMode.Mode.LEGACY)
+  public void put_failsWhenWindowIsFull() {
+    CursorWindow window = new CursorWindow("small", 1024);
+    window.setNumColumns(2);
+    int rows = 0;
+    while (window.allocRow()) {
+      if (!window.putLong(rows, rows, 0) || !window.putBlob(new byte[100], rows, 1)) {
+        window.freeLastRow();
+        break;
+      }
+      rows++;
+    }
+
+    assertThat(rows).isGreaterThan(0);
+    assertThat(rows).isLessThan(10);
+    assertThat(window.getNumRows()).isEqualTo(rows);
+    assertThat(window.getLong(rows - 1, 0)).isEqualTo(rows - 1);
+    assertThat(window.getBlob(rows - 1, 1)).hasLength(100);
+    window.close();
+  }
 }
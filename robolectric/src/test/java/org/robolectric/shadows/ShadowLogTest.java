@@ -431,4 +431,98 @@ public class ShadowLogTest {
       ShadowLog.setCaptureLogsEnabled(true);
     }
   }
+
+  @Test
+  public void captureBufferSize_keepsMostRecentLogs() {
+    ShadowLog.setCaptureBufferSize(2);
+    try {
+      Log.i("tag1", "1");
+      Log.i("tag2", "2");
+      Log.i("tag1", "3");
+
+      assertThat(ShadowLog.getLogs())
+          .containsExactly(
+              new LogItem(Log.INFO, "tag2", "2", null), new LogItem(Log.INFO, "tag1", "3", null))
+          .inOrder();
+      assertThat(ShadowLog.getLogsForTag("tag1"))
+          .containsExactly(new LogItem(Log.INFO, "tag1", "3", null));
+      assertThat(ShadowLog.getLogsForTag("tag3")).isEmpty();
+      assertThat(ShadowLog.getCapturedLogCount()).isEqualTo(3);
+      assertThat(ShadowLog.getDroppedLogCount()).isEqualTo(1);
+
+      Log.i("tag1", "4");
+
+      assertThat(ShadowLog.getLogsForTag("tag1"))
+          .containsExactly(
+              new LogItem(Log.INFO, "tag1", "3", null), new LogItem(Log.INFO, "tag1", "4", null))
+          .inOrder();
+    } finally {
+      ShadowLog.setCaptureBufferSize(0);
+    }
+  }
+
+  @Test
+  public void captureBufferSize_clearedByReset() {
+    ShadowLog.setCaptureBufferSize(1);
+    try {
+      Log.i("tag", "1");
+      Log.i("tag", "2");
+      ShadowLog.reset();
+
+      assertThat(ShadowLog.getLogs()).isEmpty();
+      assertThat(ShadowLog.getCapturedLogCount()).isEqualTo(0);
+      assertThat(ShadowLog.getDroppedLogCount()).isEqualTo(0);
+    } finally {
+      ShadowLog.setCaptureBufferSize(0);
+    }
+  }
+
+  @Test
+  public void asyncStream_writesLogsInOrder() {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PrintStream old = ShadowLog.stream;
+    ShadowLog.setAsyncStreamEnabled(true);
+    try {
+      ShadowLog.stream = new PrintStream(bos);
+      Log.d("tag", "1");
+      Log.e("tag", "2");
+      ShadowLog.flushStream();
+
+      assertThat(new String(bos.toByteArray(), UTF_8))
+          .isEqualTo("D/tag: 1" + LINE_SEPARATOR.value() + "E/tag: 2" + LINE_SEPARATOR.value());
+      assertThat(ShadowLog.getLogs()).hasSize(2);
+    } finally {
+      ShadowLog.setAsyncStreamEnabled(false);
+      ShadowLog.stream = old;
+    }
+  }
+
+  @Test
+  public void asyncStream_keepsWritingAfterStreamThrows() {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PrintStream throwingStream =
+        new PrintStream(new ByteArrayOutputStream()) {
+          @Override
+          public void print(Object obj) {
+            throw new IllegalStateException("broken stream");
+          }
+        };
+    PrintStream old = ShadowLog.stream;
+    ShadowLog.setAsyncStreamEnabled(true);
+    try {
+      ShadowLog.stream = throwingStream;
+      Log.d("tag", "lost");
+      ShadowLog.flushStream();
+      ShadowLog.stream = new PrintStream(bos);
+      Log.d("tag", "written");
+      ShadowLog.flushStream();
+
+      assertThat(new String(bos.toByteArray(), UTF_8))
+          .isEqualTo("D/tag: written" + LINE_SEPARATOR.value());
+      assertThat(ShadowLog.getLogs()).hasSize(2);
+    } finally {
+      ShadowLog.setAsyncStreamEnabled(false);
+      ShadowLog.stream = old;
+    }
+  }
 }
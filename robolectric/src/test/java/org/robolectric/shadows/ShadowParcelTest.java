@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -1026,6 +1027,19 @@ public class ShadowParcelTest {
     assertThat(parcel2.dataAvail()).isEqualTo(0);
   }
 
+  @Test
+  public void testAppendFrom_piecesOfObject_reassembled() {
+    parcel.writeLong(1234567890123L);
+
+    Parcel parcel2 = Parcel.obtain();
+    parcel2.appendFrom(parcel, 0, 4);
+    parcel2.appendFrom(parcel, 4, 4);
+
+    parcel2.setDataPosition(0);
+    assertThat(parcel2.readLong()).isEqualTo(1234567890123L);
+    parcel2.recycle();
+  }
+
   @Test
   public void testMarshallAndUnmarshall() {
     parcel.writeInt(1);
@@ -1052,6 +1066,28 @@ public class ShadowParcelTest {
     assertThat(parcel2.readByte()).isEqualTo((byte) 0xAF);
   }
 
+  @Test
+  public void testMarshallAndUnmarshall_largeValues() {
+    byte[] bytes = new byte[1 << 20];
+    new Random(0).nextBytes(bytes);
+    char[] chars = new char[100_000];
+    Arrays.fill(chars, '\u20ac');
+    String string = new String(chars);
+    parcel.writeByteArray(bytes);
+    parcel.writeString(string);
+    int oldSize = parcel.dataSize();
+
+    byte[] rawBytes = parcel.marshall();
+    Parcel parcel2 = Parcel.obtain();
+    parcel2.unmarshall(rawBytes, 0, rawBytes.length);
+    parcel2.setDataPosition(0);
+
+    assertThat(parcel2.dataSize()).isEqualTo(oldSize);
+    assertThat(parcel2.createByteArray()).isEqualTo(bytes);
+    assertThat(parcel2.readString()).isEqualTo(string);
+    parcel2.recycle();
+  }
+
   @Test
   public void testMarshallFailsFastReadingInterruptedObject() {
     parcel.writeString("hello all");
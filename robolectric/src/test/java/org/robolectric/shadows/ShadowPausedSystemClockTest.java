@@ -12,11 +12,14 @@ import android.os.SystemClock;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.time.DateTimeException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
@@ -67,6 +70,50 @@ public class ShadowPausedSystemClockTest {
     }
   }
 
+  @SuppressWarnings("FutureReturnValueIgnored")
+  @Test
+  public void sleep_concurrentAccess_notifiesListenersOfTotalAdvance() throws Exception {
+    AtomicLong notifiedNanos = new AtomicLong();
+    ShadowPausedSystemClock.addListener(
+        advancedBy -> notifiedNanos.addAndGet(advancedBy.toNanos()));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      int numToExecute = 1000;
+      CountDownLatch latch = new CountDownLatch(numToExecute);
+      for (int i = 0; i < numToExecute; i++) {
+        executor.submit(
+            () -> {
+              SystemClock.sleep(1);
+              latch.countDown();
+            });
+      }
+      latch.await();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    assertThat(SystemClock.uptimeMillis()).isEqualTo(1100);
+    assertThat(notifiedNanos.get()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+  }
+
+  @Test
+  public void sleep_fromListener_notifiesListenersAfterCurrentAdvance() {
+    List<Duration> advances = new ArrayList<>();
+    ShadowPausedSystemClock.addListener(
+        advancedBy -> {
+          advances.add(advancedBy);
+          if (advances.size() == 1) {
+            SystemClock.sleep(5);
+          }
+        });
+
+    SystemClock.sleep(10);
+
+    assertThat(advances).containsExactly(Duration.ofMillis(10), Duration.ofMillis(5)).inOrder();
+    assertThat(SystemClock.uptimeMillis()).isEqualTo(115);
+  }
+
   @Test
   public void deepSleep_advancesOnlyRealtime() {
     assertTrue(SystemClock.setCurrentTimeMillis(1000));
@@ -5,9 +5,14 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.robolectric.util.reflector.Reflector.reflector;
 
 import android.app.QueuedWork;
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.test.core.app.ApplicationProvider;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runner.Runner;
@@ -15,6 +20,7 @@ import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.JUnit4;
+import org.junit.runners.MethodSorters;
 import org.junit.runners.model.InitializationError;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
@@ -23,10 +29,14 @@ import org.robolectric.shadows.ShadowQueuedWork.QueuedWorkReflector;
 /** A specialized test for verifying that QueuedWork state is cleared properly between tests. */
 @RunWith(JUnit4.class)
 public class ShadowQueuedWorkResetterTest {
+  private static final String TRACK_USAGE_PROPERTY = "robolectric.resetters.trackUsage";
+
   private final RunNotifier runNotifier = new RunNotifier();
+  private String originalTrackUsage;
 
   @Before
   public void setup() {
+    originalTrackUsage = System.getProperty(TRACK_USAGE_PROPERTY);
     runNotifier.addListener(
         new RunListener() {
           @Override
@@ -36,6 +46,15 @@ public class ShadowQueuedWorkResetterTest {
         });
   }
 
+  @After
+  public void tearDown() {
+    if (originalTrackUsage == null) {
+      System.clearProperty(TRACK_USAGE_PROPERTY);
+    } else {
+      System.setProperty(TRACK_USAGE_PROPERTY, originalTrackUsage);
+    }
+  }
+
   /**
    * Basic test class that interacts with QueuedWork in two different tests, to ensure QueuedWork
    * remains functional after reset and doesn't leak threads/loopers.
@@ -76,4 +95,52 @@ public class ShadowQueuedWorkResetterTest {
     // run and assert no failures
     runner.run(runNotifier);
   }
+
+  /**
+   * Test class that applies a SharedPreferences change in its first test, and checks in its second
+   * test that neither the change nor the QueuedWork it enqueued survived the reset.
+   */
+  @FixMethodOrder(MethodSorters.NAME_ASCENDING)
+  public static class SharedPreferencesApplyTest {
+
+    private static SharedPreferences getSharedPreferences() {
+      return ApplicationProvider.getApplicationContext()
+          .getSharedPreferences("prefs", Context.MODE_PRIVATE);
+    }
+
+    @Test
+    public void test1_apply() {
+      getSharedPreferences().edit().putString("key", "value").apply();
+
+      assertThat(getSharedPreferences().getString("key", null)).isEqualTo("value");
+    }
+
+    @Test
+    public void test2_applyIsNotVisible() {
+      if (RuntimeEnvironment.getApiLevel() >= O) {
+        QueuedWorkReflector queuedWorkReflector = reflector(QueuedWorkReflector.class);
+        assertThat(queuedWorkReflector.getFinishers()).isEmpty();
+        assertThat(queuedWorkReflector.getWork()).isEmpty();
+      }
+      assertThat(getSharedPreferences().contains("key")).isFalse();
+    }
+  }
+
+  @Test
+  public void sharedPreferencesApply_isResetBetweenTests() throws InitializationError {
+    Runner runner = new RobolectricTestRunner(SharedPreferencesApplyTest.class);
+
+    // run and assert no failures
+    runner.run(runNotifier);
+  }
+
+  @Test
+  public void sharedPreferencesApply_isResetBetweenTests_withUsageTracking()
+      throws InitializationError {
+    System.setProperty(TRACK_USAGE_PROPERTY, "true");
+    Runner runner = new RobolectricTestRunner(SharedPreferencesApplyTest.class);
+
+    // run and assert no failures
+    runner.run(runNotifier);
+  }
 }
@@ -214,6 +214,58 @@ public class ShadowSQLiteConnectionTest {
     statement2.execute();
   }
 
+  @Test
+  public void bind_appliedWithNextOperation() {
+    long statementPtr =
+        ShadowLegacySQLiteConnection.nativePrepareStatement(
+            ptr, "insert into routine(name) values (?)");
+    assertThat(ShadowLegacySQLiteConnection.nativeGetParameterCount(ptr, statementPtr))
+        .isEqualTo(1);
+    assertThat(ShadowLegacySQLiteConnection.nativeIsReadOnly(ptr, statementPtr)).isFalse();
+
+    ShadowLegacySQLiteConnection.nativeBindString(ptr, statementPtr, 1, "Hand press 1");
+    ShadowLegacySQLiteConnection.nativeExecuteForLastInsertedRowId(ptr, statementPtr);
+    ShadowLegacySQLiteConnection.nativeResetStatementAndClearBindings(ptr, statementPtr);
+    ShadowLegacySQLiteConnection.nativeBindString(ptr, statementPtr, 1, "Hand press 2");
+    ShadowLegacySQLiteConnection.nativeResetStatementAndClearBindings(ptr, statementPtr);
+    ShadowLegacySQLiteConnection.nativeExecuteForLastInsertedRowId(ptr, statementPtr);
+    ShadowLegacySQLiteConnection.nativeFinalizeStatement(ptr, statementPtr);
+
+    assertThat(simpleQueryForList(database, "SELECT `name` FROM `routine` ORDER BY `id`"))
+        .containsExactly("Hand press 1", null)
+        .inOrder();
+  }
+
+  @Test
+  public void write_waitsForTransactionOfOtherConnectionToSameFile() throws Exception {
+    long beginPtr = ShadowLegacySQLiteConnection.nativePrepareStatement(ptr, "BEGIN IMMEDIATE");
+    ShadowLegacySQLiteConnection.nativeExecute(ptr, beginPtr);
+    long insertPtr =
+        ShadowLegacySQLiteConnection.nativePrepareStatement(
+            ptr, "insert into routine(name) values ('Hand press 1')");
+    ShadowLegacySQLiteConnection.nativeExecuteForLastInsertedRowId(ptr, insertPtr);
+    long commitPtr = ShadowLegacySQLiteConnection.nativePrepareStatement(ptr, "COMMIT");
+    Thread committer =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(100);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              ShadowLegacySQLiteConnection.nativeExecute(ptr, commitPtr);
+            });
+    committer.start();
+
+    // Would fail with SQLITE_BUSY if this connection didn't wait for the other one to commit.
+    database.execSQL("insert into routine(name) values ('Hand press 2')");
+    committer.join();
+
+    assertThat(simpleQueryForList(database, "SELECT `name` FROM `routine` ORDER BY `id`"))
+        .containsExactly("Hand press 1", "Hand press 2")
+        .inOrder();
+  }
+
   private SQLiteDatabase createDatabase(String filename) {
     databasePath = ApplicationProvider.getApplicationContext().getDatabasePath(filename);
     databasePath.getParentFile().mkdirs();
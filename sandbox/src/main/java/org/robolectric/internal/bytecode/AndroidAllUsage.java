@@ -0,0 +1,190 @@
+package org.robolectric.internal.bytecode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import org.robolectric.util.Logger;
+
+/**
+ * The classes and resources of an android-all jar that a test suite used, recorded so that a
+ * minimal instrumented jar can be built for the suite.
+ *
+ * <p>Recording is enabled by setting the {@code robolectric.androidAllUsageDirectory} system
+ * property. Each sandbox class loader then writes the classes and non-class resources it loaded
+ * from its android-all jar to a new file in a subdirectory named after the jar, when it is closed
+ * or the JVM exits. The recordings of all the shards of a suite may be merged with {@code
+ * AndroidAllUsageMerger}, whose output {@code JarInstrumentor} accepts as its {@code
+ * --packages_to_keep} and {@code --resources_to_keep} files.
+ *
+ * <p>A recording is a UTF-8 text file that starts with a {@code robolectric-android-all-usage
+ * <version>} line, followed by a {@code class <name>} line for each class and a {@code resource
+ * <name>} line for each resource, where directories end with {@code /}.
+ */
+public class AndroidAllUsage {
+  static final String RECORDING_DIRECTORY_PROPERTY = "robolectric.androidAllUsageDirectory";
+
+  /** The suffix of recording files. */
+  public static final String RECORDING_SUFFIX = ".usage";
+
+  private static final String HEADER = "robolectric-android-all-usage 1";
+  private static final String CLASS_PREFIX = "class ";
+  private static final String RESOURCE_PREFIX = "resource ";
+
+  private static final List<Recording> RECORDINGS = new CopyOnWriteArrayList<>();
+  private static final AtomicBoolean SHUTDOWN_HOOK_ADDED = new AtomicBoolean();
+
+  private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+  private final Set<String> resourceNames = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Returns a new recording of the usage of the given jar, or {@code null} if recording isn't
+   * enabled.
+   */
+  @Nullable
+  static Recording startRecording(String jarName) {
+    String directory = System.getProperty(RECORDING_DIRECTORY_PROPERTY);
+    if (Strings.isNullOrEmpty(directory)) {
+      return null;
+    }
+    if (SHUTDOWN_HOOK_ADDED.compareAndSet(false, true)) {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    for (Recording recording : RECORDINGS) {
+                      recording.write();
+                    }
+                  },
+                  "Robolectric android-all usage writer"));
+    }
+    Recording recording =
+        new Recording(
+            Paths.get(directory)
+                .toAbsolutePath()
+                .resolve(jarName)
+                .resolve(UUID.randomUUID() + RECORDING_SUFFIX));
+    RECORDINGS.add(recording);
+    return recording;
+  }
+
+  /** Records that the given class was used. */
+  public void addClass(String className) {
+    classNames.add(className);
+  }
+
+  /** Records that the given resource, or directory if it ends with {@code /}, was used. */
+  public void addResource(String resourceName) {
+    resourceNames.add(resourceName);
+  }
+
+  /** Adds all the classes and resources used according to the other recording. */
+  public void addAll(AndroidAllUsage other) {
+    classNames.addAll(other.classNames);
+    resourceNames.addAll(other.resourceNames);
+  }
+
+  /** Returns the names of the classes used, in alphabetical order. */
+  public ImmutableSortedSet<String> getClassNames() {
+    return ImmutableSortedSet.copyOf(classNames);
+  }
+
+  /** Returns the names of the packages of the classes used, in alphabetical order. */
+  public ImmutableSortedSet<String> getPackageNames() {
+    ImmutableSortedSet.Builder<String> packageNames = ImmutableSortedSet.naturalOrder();
+    for (String className : classNames) {
+      int lastDotIndex = className.lastIndexOf('.');
+      if (lastDotIndex != -1) {
+        packageNames.add(className.substring(0, lastDotIndex));
+      }
+    }
+    return packageNames.build();
+  }
+
+  /** Returns the names of the resources and directories used, in alphabetical order. */
+  public ImmutableSortedSet<String> getResourceNames() {
+    return ImmutableSortedSet.copyOf(resourceNames);
+  }
+
+  /** Reads a recording written by {@link #writeTo(Path)}. */
+  public static AndroidAllUsage read(Path path) throws IOException {
+    List<String> lines = Files.readAllLines(path, UTF_8);
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+      throw new IOException("not an android-all usage recording: " + path);
+    }
+    AndroidAllUsage usage = new AndroidAllUsage();
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.startsWith(CLASS_PREFIX)) {
+        usage.addClass(line.substring(CLASS_PREFIX.length()));
+      } else if (line.startsWith(RESOURCE_PREFIX)) {
+        usage.addResource(line.substring(RESOURCE_PREFIX.length()));
+      } else if (!line.isEmpty()) {
+        throw new IOException(
+            "malformed android-all usage recording line in " + path + ": " + line);
+      }
+    }
+    return usage;
+  }
+
+  /** Writes this recording to the given file, replacing it atomically. */
+  public void writeTo(Path path) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+    for (String className : getClassNames()) {
+      lines.add(CLASS_PREFIX + className);
+    }
+    for (String resourceName : getResourceNames()) {
+      lines.add(RESOURCE_PREFIX + resourceName);
+    }
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    Path tempFile =
+        Files.createTempFile(
+            path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tempFile, lines, UTF_8);
+      try {
+        Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /** The usage recorded by a sandbox class loader, and the file it is written to. */
+  static class Recording extends AndroidAllUsage {
+    private final Path path;
+
+    Recording(Path path) {
+      this.path = path;
+    }
+
+    /** Writes the recording, if anything was used, and stops writing it at shutdown. */
+    void write() {
+      RECORDINGS.remove(this);
+      if (getClassNames().isEmpty() && getResourceNames().isEmpty()) {
+        return;
+      }
+      try {
+        writeTo(path);
+      } catch (IOException e) {
+        Logger.warn("couldn't write android-all usage recording %s: %s", path, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org.robolectric.internal.bytecode;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import javax.annotation.Nullable;
+import org.robolectric.internal.bytecode.ClassHierarchyIndex.JarIdentity;
+import org.robolectric.util.PerfStatsCollector;
+
+/**
+ * A read-only store of the class files in a jar, shared by every sandbox class loader that loads
+ * classes from it, e.g. all sandboxes for a given SDK.
+ *
+ * <p>The jar is opened once per JVM, and its class entries are indexed up front, so looking up a
+ * class that is not in the jar doesn't touch the file at all. Inflated class files are kept in a
+ * cache bounded by the {@code robolectric.classBytesCacheSizeMb} system property (32 MB by default;
+ * 0 disables it), so that sandboxes loading the same classes don't each inflate them again.
+ */
+public class ClassBytesStore {
+  static final String CACHE_SIZE_PROPERTY = "robolectric.classBytesCacheSizeMb";
+
+  private static final int DEFAULT_CACHE_SIZE_MB = 32;
+
+  private static final Map<JarIdentity, ClassBytesStore> INSTANCES = new ConcurrentHashMap<>();
+
+  private final JarFile jarFile;
+  private final Map<String, JarEntry> classEntries;
+  @Nullable private final Cache<String, byte[]> cache;
+
+  /** Returns the store for the given jar, opening it if necessary. */
+  public static ClassBytesStore forJar(Path jarPath) throws IOException {
+    JarIdentity jarIdentity = new JarIdentity(jarPath);
+    ClassBytesStore store = INSTANCES.get(jarIdentity);
+    if (store != null) {
+      return store;
+    }
+    synchronized (INSTANCES) {
+      store = INSTANCES.get(jarIdentity);
+      if (store == null) {
+        store =
+            new ClassBytesStore(
+                new JarFile(jarPath.toFile()),
+                Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE_MB) * 1024 * 1024);
+        INSTANCES.put(jarIdentity, store);
+      }
+      return store;
+    }
+  }
+
+  @VisibleForTesting
+  ClassBytesStore(JarFile jarFile, long cacheSizeBytes) {
+    this.jarFile = jarFile;
+    this.classEntries =
+        PerfStatsCollector.getInstance().measure("ClassBytesStore.index", () -> index(jarFile));
+    this.cache =
+        cacheSizeBytes <= 0
+            ? null
+            : CacheBuilder.newBuilder()
+                .maximumWeight(cacheSizeBytes)
+                .<String, byte[]>weigher((name, bytes) -> bytes.length)
+                .build();
+  }
+
+  private static Map<String, JarEntry> index(JarFile jarFile) {
+    Map<String, JarEntry> entries = new HashMap<>();
+    Enumeration<JarEntry> jarEntries = jarFile.entries();
+    while (jarEntries.hasMoreElements()) {
+      JarEntry entry = jarEntries.nextElement();
+      if (entry.getName().endsWith(".class")) {
+        entries.put(entry.getName(), entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Returns whether the jar contains the given class file, e.g. {@code android/app/Activity.class}.
+   */
+  public boolean contains(String classResName) {
+    return classEntries.containsKey(classResName);
+  }
+
+  /**
+   * Returns the contents of the given class file, e.g. {@code android/app/Activity.class}, or null
+   * if it isn't in the jar. The returned array may be shared, and must not be modified.
+   */
+  @Nullable
+  public byte[] getClassBytes(String classResName) throws IOException {
+    JarEntry entry = classEntries.get(classResName);
+    if (entry == null) {
+      return null;
+    }
+    if (cache == null) {
+      return read(entry);
+    }
+    byte[] classBytes = cache.getIfPresent(classResName);
+    if (classBytes == null) {
+      classBytes = read(entry);
+      cache.put(classResName, classBytes);
+    } else {
+      PerfStatsCollector.getInstance().incrementCount("ClassBytesStore.hit");
+    }
+    return classBytes;
+  }
+
+  private byte[] read(JarEntry entry) throws IOException {
+    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+      long size = entry.getSize();
+      if (size < 0 || size > Integer.MAX_VALUE) {
+        return inputStream.readAllBytes();
+      }
+      byte[] classBytes = new byte[(int) size];
+      int read = inputStream.readNBytes(classBytes, 0, classBytes.length);
+      if (read != classBytes.length) {
+        throw new IOException("truncated entry " + entry.getName() + " in " + jarFile.getName());
+      }
+      return classBytes;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package org.robolectric.internal.bytecode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.robolectric.util.Logger;
+import org.robolectric.util.PerfStatsCollector;
+
+/**
+ * An index of the type hierarchy (super class, interfaces and access flags) of the classes in a
+ * jar, used to compute stack map frames without re-parsing class files.
+ *
+ * <p>There is at most one index per distinct jar in a JVM, shared by every {@link
+ * ClassNodeProvider} that instruments classes from it, e.g. all sandboxes for a given SDK. Entries
+ * are added lazily and never change once added.
+ *
+ * <p>If the {@code robolectric.classHierarchyIndexDirectory} system property is set, indexes are
+ * loaded from that directory on creation, and saved back to it when the JVM exits, so that later
+ * runs don't need to parse classes at all.
+ */
+public class ClassHierarchyIndex {
+  static final String INDEX_DIRECTORY_PROPERTY = "robolectric.classHierarchyIndexDirectory";
+
+  private static final int FILE_MAGIC = 0x524f4249; // "ROBI"
+  private static final int FILE_VERSION = 1;
+  private static final String FILE_SUFFIX = ".hierarchy";
+
+  /** Marks classes that are known not to be present in the jar. */
+  private static final TypeInfo NOT_IN_JAR = new TypeInfo(0, null, new String[0]);
+
+  private static final Map<String, ClassHierarchyIndex> INSTANCES = new ConcurrentHashMap<>();
+  private static final Map<JarIdentity, String> JAR_KEYS = new ConcurrentHashMap<>();
+  private static boolean shutdownHookRegistered;
+
+  private final String key;
+  private final JarFile jarFile;
+  @Nullable private final Path indexFile;
+  private final Map<String, TypeInfo> typeInfos = new ConcurrentHashMap<>();
+  private volatile boolean dirty;
+
+  /**
+   * Returns the index for the given jar, creating it if necessary. Jars with identical contents
+   * share an index, even if they are at different paths.
+   */
+  public static ClassHierarchyIndex forJar(Path jarPath) throws IOException {
+    JarIdentity jarIdentity = new JarIdentity(jarPath);
+    String key = JAR_KEYS.get(jarIdentity);
+    if (key == null) {
+      key = computeKey(jarPath);
+      JAR_KEYS.put(jarIdentity, key);
+    }
+    ClassHierarchyIndex index = INSTANCES.get(key);
+    if (index != null) {
+      return index;
+    }
+    synchronized (INSTANCES) {
+      index = INSTANCES.get(key);
+      if (index == null) {
+        index = new ClassHierarchyIndex(key, new JarFile(jarPath.toFile()), indexDirectory());
+        INSTANCES.put(key, index);
+      }
+      return index;
+    }
+  }
+
+  @VisibleForTesting
+  ClassHierarchyIndex(String key, JarFile jarFile, @Nullable Path indexDirectory) {
+    this.key = key;
+    this.jarFile = jarFile;
+    this.indexFile = indexDirectory == null ? null : indexDirectory.resolve(key + FILE_SUFFIX);
+    if (indexFile != null) {
+      PerfStatsCollector.getInstance()
+          .measure("ClassHierarchyIndex.load", () -> typeInfos.putAll(readIndexFile(indexFile)));
+      registerShutdownHook();
+    }
+  }
+
+  @Nullable
+  private static Path indexDirectory() {
+    String directory = System.getProperty(INDEX_DIRECTORY_PROPERTY);
+    return Strings.isNullOrEmpty(directory) ? null : Paths.get(directory);
+  }
+
+  /**
+   * Computes a key for the jar from its central directory (names, sizes and CRCs of all entries),
+   * which identifies its contents without reading the whole file.
+   */
+  private static String computeKey(Path jarPath) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    try (JarFile jar = new JarFile(jarPath.toFile())) {
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        hasher.putString(entry.getName(), UTF_8);
+        hasher.putLong(entry.getSize());
+        hasher.putLong(entry.getCrc());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /** Returns the key identifying the contents of this index's jar. */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the type info for the class with the given internal name, or null if that class is not
+   * in this index's jar.
+   */
+  @Nullable
+  public TypeInfo getTypeInfo(String internalClassName) throws ClassNotFoundException {
+    TypeInfo typeInfo = typeInfos.get(internalClassName);
+    if (typeInfo == null) {
+      typeInfo = readTypeInfo(internalClassName);
+      typeInfos.putIfAbsent(internalClassName, typeInfo);
+      if (typeInfo != NOT_IN_JAR) {
+        dirty = true;
+      }
+    }
+    return typeInfo == NOT_IN_JAR ? null : typeInfo;
+  }
+
+  private TypeInfo readTypeInfo(String internalClassName) throws ClassNotFoundException {
+    ZipEntry entry = jarFile.getEntry(internalClassName + ".class");
+    if (entry == null) {
+      return NOT_IN_JAR;
+    }
+    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+      PerfStatsCollector.getInstance().incrementCount("ClassHierarchyIndex.parse");
+      return TypeInfo.fromClassBytes(inputStream.readAllBytes());
+    } catch (IOException e) {
+      throw new ClassNotFoundException("couldn't load " + internalClassName, e);
+    }
+  }
+
+  /** Returns the number of classes in this index. */
+  public int size() {
+    int size = 0;
+    for (TypeInfo typeInfo : typeInfos.values()) {
+      if (typeInfo != NOT_IN_JAR) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /** Writes this index to disk, merged with any entries written concurrently by other processes. */
+  @VisibleForTesting
+  void save() throws IOException {
+    if (indexFile == null || !dirty) {
+      return;
+    }
+    dirty = false;
+    Map<String, TypeInfo> merged = readIndexFile(indexFile);
+    for (Map.Entry<String, TypeInfo> entry : typeInfos.entrySet()) {
+      if (entry.getValue() != NOT_IN_JAR) {
+        merged.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Files.createDirectories(indexFile.getParent());
+    Path tempFile = Files.createTempFile(indexFile.getParent(), key, ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(merged.size());
+        for (Map.Entry<String, TypeInfo> entry : merged.entrySet()) {
+          TypeInfo typeInfo = entry.getValue();
+          out.writeUTF(entry.getKey());
+          out.writeInt(typeInfo.access);
+          out.writeUTF(Strings.nullToEmpty(typeInfo.superName));
+          out.writeShort(typeInfo.interfaces.length);
+          for (String itf : typeInfo.interfaces) {
+            out.writeUTF(itf);
+          }
+        }
+      }
+      try {
+        Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private static Map<String, TypeInfo> readIndexFile(Path indexFile) {
+    Map<String, TypeInfo> typeInfos = new HashMap<>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+        return typeInfos;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        int access = in.readInt();
+        String superName = Strings.emptyToNull(in.readUTF());
+        String[] interfaces = new String[in.readUnsignedShort()];
+        for (int j = 0; j < interfaces.length; j++) {
+          interfaces[j] = in.readUTF().intern();
+        }
+        typeInfos.put(name, new TypeInfo(access, superName, interfaces));
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing saved yet.
+    } catch (IOException e) {
+      Logger.warn("couldn't read class hierarchy index %s: %s", indexFile, e);
+      typeInfos.clear();
+    }
+    return typeInfos;
+  }
+
+  private static synchronized void registerShutdownHook() {
+    if (shutdownHookRegistered) {
+      return;
+    }
+    shutdownHookRegistered = true;
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  for (ClassHierarchyIndex index : INSTANCES.values()) {
+                    try {
+                      index.save();
+                    } catch (IOException e) {
+                      Logger.warn("couldn't save class hierarchy index %s: %s", index.key, e);
+                    }
+                  }
+                },
+                "ClassHierarchyIndex saver"));
+  }
+
+  /** The parts of a class header needed to compute common super classes. */
+  public static final class TypeInfo {
+    public final int access;
+    @Nullable public final String superName;
+    public final String[] interfaces;
+
+    TypeInfo(int access, @Nullable String superName, String[] interfaces) {
+      this.access = access;
+      this.superName = superName == null ? null : superName.intern();
+      this.interfaces = interfaces;
+    }
+
+    static TypeInfo fromClassBytes(byte[] classBytes) {
+      ClassReader classReader = new ClassReader(classBytes);
+      String[] interfaces = classReader.getInterfaces();
+      for (int i = 0; i < interfaces.length; i++) {
+        interfaces[i] = interfaces[i].intern();
+      }
+      return new TypeInfo(classReader.getAccess(), classReader.getSuperName(), interfaces);
+    }
+  }
+
+  /** Identifies a jar file by its path, size and modification time. */
+  static final class JarIdentity {
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+
+    JarIdentity(Path path) throws IOException {
+      this.path = path.toAbsolutePath();
+      this.size = Files.size(path);
+      this.lastModified = Files.getLastModifiedTime(path).toMillis();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof JarIdentity)) {
+        return false;
+      }
+      JarIdentity that = (JarIdentity) o;
+      return path.equals(that.path) && size == that.size && lastModified == that.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = path.hashCode();
+      result = 31 * result + Long.hashCode(size);
+      result = 31 * result + Long.hashCode(lastModified);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package org.robolectric.internal.bytecode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.robolectric.util.Logger;
+import org.robolectric.util.PerfStatsCollector;
+
+/**
+ * The classes loaded by the sandbox class loaders for a given sandbox configuration, in the order
+ * they were first loaded, kept on disk so that later runs can read and instrument those classes on
+ * background threads before the test thread needs them.
+ *
+ * <p>There is one profile per instrumentation configuration and android-all jar. It lists every
+ * class loaded by earlier runs that used it, in the order they were first loaded, and is updated
+ * with any new classes when its class loaders are closed or the JVM exits. Delete the profile
+ * directory to start over, e.g. after removing many tests.
+ *
+ * <p>Profiles are disabled unless the {@code robolectric.classLoadProfileDirectory} system property
+ * is set. The number of threads that preload the classes of a profile may be set with {@code
+ * robolectric.classLoadProfilePreloadThreads}; it defaults to one fewer than the number of
+ * available processors, up to 4, and 0 disables preloading.
+ */
+public class ClassLoadProfile {
+  static final String PROFILE_DIRECTORY_PROPERTY = "robolectric.classLoadProfileDirectory";
+  static final String PRELOAD_THREADS_PROPERTY = "robolectric.classLoadProfilePreloadThreads";
+
+  private static final int MAX_DEFAULT_PRELOAD_THREADS = 4;
+  private static final String PROFILE_SUFFIX = ".classes";
+
+  private static final Map<Path, ClassLoadProfile> INSTANCES = new ConcurrentHashMap<>();
+
+  private static final AtomicBoolean SHUTDOWN_HOOK_ADDED = new AtomicBoolean();
+
+  private final Path path;
+  private final ImmutableSet<String> previousClassNames;
+  private final Set<String> loadedClassNames = ConcurrentHashMap.newKeySet();
+  private final Queue<String> loadOrder = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Returns the profile for the given sandbox configuration, or {@code null} if no profile
+   * directory is configured.
+   *
+   * @param config the configuration used to instrument classes
+   * @param classPathIdentity supplies a string identifying the android-all jar by its contents, or
+   *     {@code null} if it can't be identified, in which case no profile is returned
+   */
+  @Nullable
+  public static ClassLoadProfile fromSystemProperties(
+      InstrumentationConfiguration config, Supplier<String> classPathIdentitySupplier) {
+    String directory = System.getProperty(PROFILE_DIRECTORY_PROPERTY);
+    if (Strings.isNullOrEmpty(directory)) {
+      return null;
+    }
+    String classPathIdentity = classPathIdentitySupplier.get();
+    if (classPathIdentity == null) {
+      return null;
+    }
+    String key =
+        Hashing.sha256()
+            .newHasher()
+            .putString(config.fingerprint(), UTF_8)
+            .putString(classPathIdentity, UTF_8)
+            .hash()
+            .toString();
+    if (SHUTDOWN_HOOK_ADDED.compareAndSet(false, true)) {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    for (ClassLoadProfile profile : INSTANCES.values()) {
+                      profile.write();
+                    }
+                  },
+                  "Robolectric class load profile writer"));
+    }
+    return INSTANCES.computeIfAbsent(
+        Paths.get(directory).toAbsolutePath().resolve(key + PROFILE_SUFFIX), ClassLoadProfile::new);
+  }
+
+  @VisibleForTesting
+  ClassLoadProfile(Path path) {
+    this.path = path;
+    this.previousClassNames = read(path);
+  }
+
+  private static ImmutableSet<String> read(Path path) {
+    try {
+      ImmutableSet.Builder<String> classNames = ImmutableSet.builder();
+      for (String line : Files.readAllLines(path, UTF_8)) {
+        if (!line.isEmpty()) {
+          classNames.add(line);
+        }
+      }
+      return classNames.build();
+    } catch (NoSuchFileException e) {
+      return ImmutableSet.of();
+    } catch (IOException e) {
+      Logger.warn("couldn't read class load profile %s: %s", path, e);
+      return ImmutableSet.of();
+    }
+  }
+
+  /** Returns the classes loaded by earlier runs, in the order they were first loaded. */
+  public List<String> getPreviousClassNames() {
+    return previousClassNames.asList();
+  }
+
+  /** Records that the given class was loaded. */
+  void classLoaded(String className) {
+    if (loadedClassNames.add(className)) {
+      loadOrder.add(className);
+    }
+  }
+
+  /**
+   * Starts {@linkplain SandboxClassLoader#preloadClass(String) preloading} the classes loaded by
+   * earlier runs into the given class loader on background threads. Classes that can't be loaded
+   * are skipped.
+   */
+  void preload(SandboxClassLoader classLoader) {
+    preload(
+        classLoader,
+        Integer.getInteger(
+            PRELOAD_THREADS_PROPERTY,
+            Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_DEFAULT_PRELOAD_THREADS)));
+  }
+
+  @VisibleForTesting
+  void preload(SandboxClassLoader classLoader, int threadCount) {
+    if (threadCount <= 0 || previousClassNames.isEmpty()) {
+      return;
+    }
+    List<String> classNames = previousClassNames.asList();
+    AtomicInteger next = new AtomicInteger();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread =
+          new Thread(
+              () -> preloadClasses(classLoader, classNames, next),
+              "Robolectric class preloader " + (i + 1));
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private static void preloadClasses(
+      SandboxClassLoader classLoader, List<String> classNames, AtomicInteger next) {
+    PerfStatsCollector perfStats = PerfStatsCollector.getInstance();
+    int index;
+    while ((index = next.getAndIncrement()) < classNames.size()) {
+      try {
+        classLoader.preloadClass(classNames.get(index));
+        perfStats.incrementCount("ClassLoadProfile.preloaded");
+      } catch (ClassNotFoundException | RuntimeException | LinkageError e) {
+        // The class may have been removed, or the class loader closed; the test thread will load
+        // whatever it actually needs.
+        perfStats.incrementCount("ClassLoadProfile.preloadFailed");
+      }
+    }
+  }
+
+  /**
+   * Writes the profile, i.e. the classes loaded by earlier runs followed by those loaded for the
+   * first time in this one, if there are any of the latter.
+   */
+  void write() {
+    List<String> classNames = new ArrayList<>(previousClassNames);
+    for (String className : loadOrder) {
+      if (!previousClassNames.contains(className)) {
+        classNames.add(className);
+      }
+    }
+    if (classNames.size() == previousClassNames.size()) {
+      return;
+    }
+    Path tempFile = null;
+    try {
+      Files.createDirectories(path.getParent());
+      tempFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+      Files.write(tempFile, classNames, UTF_8);
+      try {
+        Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+    } catch (IOException e) {
+      // Profiles are only an optimization.
+      Logger.warn("couldn't write class load profile %s: %s", path, e);
+    } finally {
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
@@ -2,29 +2,44 @@ package org.robolectric.internal.bytecode;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.tree.ClassNode;
+import javax.annotation.Nullable;
+import org.robolectric.internal.bytecode.ClassHierarchyIndex.TypeInfo;
 
+/**
+ * Provides (and caches) parsed class headers, used to compute stack map frames.
+ *
+ * <p>Classes found in the optional shared {@link ClassHierarchyIndex} are looked up there, so that
+ * they are only parsed once per JVM; all other classes are parsed from {@link #getClassBytes} and
+ * cached by this provider.
+ *
+ * <p>This class is thread-safe. Under contention a class may occasionally be parsed more than once,
+ * but all callers observe equivalent results.
+ */
 public abstract class ClassNodeProvider {
-  private final Map<String, ClassNode> classNodes = new ConcurrentHashMap<>();
+  private final Map<String, TypeInfo> typeInfos = new ConcurrentHashMap<>();
+  @Nullable private final ClassHierarchyIndex sharedIndex;
 
-  protected abstract byte[] getClassBytes(String className) throws ClassNotFoundException;
+  protected ClassNodeProvider() {
+    this(null);
+  }
 
-  ClassNode getClassNode(String internalClassName) throws ClassNotFoundException {
-    ClassNode classNode = classNodes.get(internalClassName);
-    if (classNode == null) {
-      classNode = createClassNode(internalClassName);
-      classNodes.put(internalClassName, classNode);
-    }
-    return classNode;
+  protected ClassNodeProvider(@Nullable ClassHierarchyIndex sharedIndex) {
+    this.sharedIndex = sharedIndex;
   }
 
-  private ClassNode createClassNode(String internalClassName) throws ClassNotFoundException {
-    byte[] byteCode = getClassBytes(internalClassName);
-    ClassReader classReader = new ClassReader(byteCode);
-    ClassNode classNode = new ClassNode();
-    classReader.accept(
-        classNode, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-    return classNode;
+  protected abstract byte[] getClassBytes(String className) throws ClassNotFoundException;
+
+  TypeInfo getTypeInfo(String internalClassName) throws ClassNotFoundException {
+    TypeInfo typeInfo = typeInfos.get(internalClassName);
+    if (typeInfo == null) {
+      if (sharedIndex != null) {
+        typeInfo = sharedIndex.getTypeInfo(internalClassName);
+      }
+      if (typeInfo == null) {
+        typeInfo = TypeInfo.fromClassBytes(getClassBytes(internalClassName));
+      }
+      typeInfos.put(internalClassName, typeInfo);
+    }
+    return typeInfo;
   }
 }
@@ -238,6 +238,40 @@ public class InstrumentationConfiguration {
     return result;
   }
 
+  /**
+   * Returns a stable description of every input to this configuration, for use in keys that must be
+   * consistent across JVMs (e.g. by {@link InstrumentedClassCache}).
+   */
+  String fingerprint() {
+    StringBuilder sb = new StringBuilder();
+    appendSorted(sb, "instrumentedPackages", instrumentedPackages);
+    appendSorted(sb, "instrumentedClasses", instrumentedClasses);
+    appendSorted(sb, "classesToNotInstrument", classesToNotInstrument);
+    appendSorted(sb, "packagesToNotInstrument", packagesToNotInstrument);
+    appendSorted(sb, "classesToNotAcquire", classesToNotAcquire);
+    appendSorted(sb, "packagesToNotAcquire", packagesToNotAcquire);
+    appendSorted(
+        sb,
+        "classNameTranslations",
+        classNameTranslations.entrySet().stream()
+            .map(entry -> entry.getKey() + "=" + entry.getValue())
+            .collect(Collectors.toList()));
+    appendSorted(
+        sb,
+        "interceptedMethods",
+        interceptedMethods.stream()
+            .map(methodRef -> methodRef.className + "#" + methodRef.methodName)
+            .collect(Collectors.toList()));
+    sb.append("classesToNotInstrumentRegex=").append(classesToNotInstrumentRegex).append('\n');
+    return sb.toString();
+  }
+
+  private static void appendSorted(StringBuilder sb, String name, Collection<String> values) {
+    List<String> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    sb.append(name).append('=').append(sorted).append('\n');
+  }
+
   public String remapParamType(String desc) {
     return typeMapper.remapParamType(desc);
   }
@@ -0,0 +1,344 @@
+package org.robolectric.internal.bytecode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.robolectric.util.Logger;
+import org.robolectric.util.PerfStatsCollector;
+
+/**
+ * A persistent, content-addressed cache of instrumented class bytes, shared by all {@link
+ * SandboxClassLoader}s (and all JVMs) that point at the same directory.
+ *
+ * <p>Entries are keyed by a hash of the original class bytes and of a per-loader namespace that
+ * captures everything else the instrumented output depends on (see {@link #newNamespace}). Entries
+ * are written to a temporary file and atomically renamed into place, so concurrent test forks may
+ * safely share a cache directory. When the total size of the cache exceeds its limit, the least
+ * recently used entries are evicted.
+ *
+ * <p>The cache is disabled unless the {@code robolectric.instrumentedClassCacheDirectory} system
+ * property is set. Its maximum size in bytes may be set with {@code
+ * robolectric.instrumentedClassCacheMaxBytes}.
+ */
+public class InstrumentedClassCache {
+  static final String CACHE_DIRECTORY_PROPERTY = "robolectric.instrumentedClassCacheDirectory";
+  static final String CACHE_MAX_BYTES_PROPERTY = "robolectric.instrumentedClassCacheMaxBytes";
+
+  /**
+   * Bump this whenever the instrumentation changes in a way that is not reflected in the bytecode
+   * of the instrumentor classes themselves.
+   */
+  private static final int CACHE_FORMAT_VERSION = 1;
+
+  private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+  private static final String ENTRY_SUFFIX = ".class";
+  private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+  /** After trimming, the cache is reduced to this fraction of its maximum size. */
+  private static final double TRIM_TARGET_RATIO = 0.9;
+
+  /** Hits only refresh an entry's timestamp if it is older than this, to avoid excess writes. */
+  private static final long TOUCH_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final ConcurrentHashMap<Path, InstrumentedClassCache> INSTANCES =
+      new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private final long maxBytes;
+  private final AtomicLong approximateSize = new AtomicLong(-1);
+  private final AtomicBoolean trimming = new AtomicBoolean();
+
+  /**
+   * Returns the cache configured by system properties, or {@code null} if no cache directory is
+   * configured.
+   */
+  @Nullable
+  public static InstrumentedClassCache fromSystemProperties() {
+    String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    if (Strings.isNullOrEmpty(directory)) {
+      return null;
+    }
+    long maxBytes = Long.getLong(CACHE_MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+    return INSTANCES.computeIfAbsent(
+        Paths.get(directory).toAbsolutePath(), path -> new InstrumentedClassCache(path, maxBytes));
+  }
+
+  @VisibleForTesting
+  InstrumentedClassCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Computes the namespace for entries produced by a given instrumentor and configuration.
+   *
+   * @param config the configuration used to instrument classes
+   * @param classInstrumentor the instrumentor
+   * @param classPathIdentity a string identifying the android-all jar (and thus the SDK version)
+   *     whose class hierarchy is consulted while instrumenting
+   */
+  public static byte[] newNamespace(
+      InstrumentationConfiguration config,
+      ClassInstrumentor classInstrumentor,
+      String classPathIdentity) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(CACHE_FORMAT_VERSION);
+    hasher.putString(config.fingerprint(), UTF_8);
+    hasher.putString(classPathIdentity, UTF_8);
+    hasher.putString(System.getProperty("java.specification.version", ""), UTF_8);
+    hasher.putInt(classInstrumentor.getAndroidJarSDKVersion());
+    putClassBytes(hasher, classInstrumentor.getClass(), ClassInstrumentor.class);
+    putClassBytes(hasher, classInstrumentor.decorator.getClass(), Object.class);
+    putClassBytes(hasher, MutableClass.class, Object.class);
+    putClassBytes(hasher, InstrumentingClassWriter.class, Object.class);
+    putClassBytes(hasher, TypeMapper.class, Object.class);
+    return hasher.hash().asBytes();
+  }
+
+  /**
+   * Adds the bytecode of {@code clazz} and its superclasses up to and including {@code upTo} to the
+   * hash, so that any change to the instrumentor invalidates previously cached entries.
+   */
+  private static void putClassBytes(Hasher hasher, Class<?> clazz, Class<?> upTo) {
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      if (c == Object.class) {
+        break;
+      }
+      hasher.putString(c.getName(), UTF_8);
+      String resourceName = c.getName().replace('.', '/') + ".class";
+      ClassLoader classLoader = c.getClassLoader();
+      try (InputStream in =
+          classLoader == null
+              ? ClassLoader.getSystemResourceAsStream(resourceName)
+              : classLoader.getResourceAsStream(resourceName)) {
+        if (in != null) {
+          hasher.putBytes(in.readAllBytes());
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("couldn't read " + resourceName, e);
+      }
+      if (c == upTo) {
+        break;
+      }
+    }
+  }
+
+  /** Returns the key of the entry for the given original class bytes. */
+  public String keyFor(byte[] namespace, byte[] originalClassBytes) {
+    return Hashing.sha256()
+        .newHasher()
+        .putBytes(namespace)
+        .putBytes(originalClassBytes)
+        .hash()
+        .toString();
+  }
+
+  /** Returns the cached instrumented bytes for {@code key}, or {@code null} on a miss. */
+  @Nullable
+  public byte[] get(String key) {
+    PerfStatsCollector perfStats = PerfStatsCollector.getInstance();
+    Path path = pathFor(key);
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      perfStats.incrementCount("InstrumentedClassCache.miss");
+      return null;
+    } catch (IOException e) {
+      Logger.warn("couldn't read instrumented class cache entry %s: %s", path, e);
+      perfStats.incrementCount("InstrumentedClassCache.miss");
+      return null;
+    }
+
+    if (!isValidClassFile(bytes)) {
+      // Should never happen since entries are written atomically, but don't trust the disk.
+      deleteQuietly(path);
+      perfStats.incrementCount("InstrumentedClassCache.corrupt");
+      perfStats.incrementCount("InstrumentedClassCache.miss");
+      return null;
+    }
+
+    touch(path);
+    perfStats.incrementCount("InstrumentedClassCache.hit");
+    return bytes;
+  }
+
+  /** Stores the instrumented bytes for {@code key}, evicting old entries if necessary. */
+  public void put(String key, byte[] instrumentedBytes) {
+    long sizeBefore = currentSize();
+    Path path = pathFor(key);
+    Path tempFile = null;
+    try {
+      Files.createDirectories(path.getParent());
+      tempFile = Files.createTempFile(path.getParent(), key, ".tmp");
+      Files.write(tempFile, instrumentedBytes);
+      try {
+        Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+    } catch (IOException e) {
+      // Another fork may have won the race, or the disk is full; either way the cache is only an
+      // optimization.
+      Logger.warn("couldn't write instrumented class cache entry %s: %s", path, e);
+      return;
+    } finally {
+      if (tempFile != null) {
+        deleteQuietly(tempFile);
+      }
+    }
+
+    PerfStatsCollector.getInstance().incrementCount("InstrumentedClassCache.write");
+    if (sizeBefore + instrumentedBytes.length > maxBytes) {
+      trim();
+    } else {
+      approximateSize.addAndGet(instrumentedBytes.length);
+    }
+  }
+
+  private long currentSize() {
+    long size = approximateSize.get();
+    if (size < 0) {
+      approximateSize.compareAndSet(-1, computeSize());
+      size = approximateSize.get();
+    }
+    return size;
+  }
+
+  private long computeSize() {
+    long size = 0;
+    for (Entry entry : listEntries()) {
+      size += entry.size;
+    }
+    return size;
+  }
+
+  /**
+   * Evicts least-recently used entries until the cache fits within {@link #TRIM_TARGET_RATIO} of
+   * its maximum size. Other processes may be trimming at the same time, which is harmless.
+   */
+  @VisibleForTesting
+  void trim() {
+    if (!trimming.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      PerfStatsCollector.getInstance()
+          .measure(
+              "InstrumentedClassCache.trim",
+              () -> {
+                List<Entry> entries = listEntries();
+                long size = 0;
+                for (Entry entry : entries) {
+                  size += entry.size;
+                }
+                long target = (long) (maxBytes * TRIM_TARGET_RATIO);
+                entries.sort(Comparator.comparing(entry -> entry.lastModified));
+                for (Entry entry : entries) {
+                  if (size <= target) {
+                    break;
+                  }
+                  if (deleteQuietly(entry.path)) {
+                    PerfStatsCollector.getInstance().incrementCount("InstrumentedClassCache.evict");
+                  }
+                  size -= entry.size;
+                }
+                approximateSize.set(size);
+              });
+    } finally {
+      trimming.set(false);
+    }
+  }
+
+  private List<Entry> listEntries() {
+    List<Entry> entries = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return entries;
+    }
+    try (Stream<Path> paths = Files.walk(directory, 2)) {
+      paths
+          .filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX))
+          .forEach(
+              path -> {
+                try {
+                  BasicFileAttributes attributes =
+                      Files.readAttributes(path, BasicFileAttributes.class);
+                  entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                } catch (IOException e) {
+                  // Deleted by another process in the meantime.
+                }
+              });
+    } catch (IOException | RuntimeException e) {
+      Logger.warn("couldn't list instrumented class cache %s: %s", directory, e);
+    }
+    return entries;
+  }
+
+  private Path pathFor(String key) {
+    // Shard entries into subdirectories to keep directory sizes reasonable.
+    return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ENTRY_SUFFIX);
+  }
+
+  private static void touch(Path path) {
+    try {
+      long now = System.currentTimeMillis();
+      if (now - Files.getLastModifiedTime(path).toMillis() > TOUCH_INTERVAL_MS) {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+      }
+    } catch (IOException e) {
+      // Entry was evicted concurrently; ignore.
+    }
+  }
+
+  private static boolean isValidClassFile(byte[] bytes) {
+    return bytes.length >= 4
+        && ((bytes[0] & 0xff) << 24
+                | (bytes[1] & 0xff) << 16
+                | (bytes[2] & 0xff) << 8
+                | (bytes[3] & 0xff))
+            == CLASS_FILE_MAGIC;
+  }
+
+  private static boolean deleteQuietly(Path path) {
+    try {
+      return Files.deleteIfExists(path);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static class Entry {
+    final Path path;
+    final long size;
+    final FileTime lastModified;
+
+    Entry(Path path, long size, FileTime lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+}
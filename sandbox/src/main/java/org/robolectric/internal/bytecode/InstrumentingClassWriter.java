@@ -1,9 +1,9 @@
 package org.robolectric.internal.bytecode;
 
-import java.util.List;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.robolectric.internal.bytecode.ClassHierarchyIndex.TypeInfo;
 
 /**
  * ClassWriter implementation that verifies classes by comparing type information obtained from
@@ -33,8 +33,8 @@ public class InstrumentingClassWriter extends ClassWriter {
   @Override
   protected String getCommonSuperClass(final String type1, final String type2) {
     try {
-      ClassNode info1 = typeInfo(type1);
-      ClassNode info2 = typeInfo(type2);
+      TypeInfo info1 = typeInfo(type1);
+      TypeInfo info2 = typeInfo(type2);
       if ((info1.access & Opcodes.ACC_INTERFACE) != 0) {
         if (typeImplements(type2, info2, type1)) {
           return type1;
@@ -80,7 +80,7 @@ public class InstrumentingClassWriter extends ClassWriter {
     }
   }
 
-  private String typeAncestors(String type, ClassNode info) throws ClassNotFoundException {
+  private String typeAncestors(String type, TypeInfo info) throws ClassNotFoundException {
     StringBuilder b = new StringBuilder();
     while (!"java/lang/Object".equals(type)) {
       b.append(';').append(type);
@@ -90,10 +90,10 @@ public class InstrumentingClassWriter extends ClassWriter {
     return b.toString();
   }
 
-  private boolean typeImplements(String type, ClassNode info, String itf)
+  private boolean typeImplements(String type, TypeInfo info, String itf)
       throws ClassNotFoundException {
     while (!"java/lang/Object".equals(type)) {
-      List<String> itfs = info.interfaces;
+      String[] itfs = info.interfaces;
       for (String itf2 : itfs) {
         if (itf2.equals(itf)) {
           return true;
@@ -110,7 +110,7 @@ public class InstrumentingClassWriter extends ClassWriter {
     return false;
   }
 
-  private ClassNode typeInfo(final String type) throws ClassNotFoundException {
-    return classNodeProvider.getClassNode(type);
+  private TypeInfo typeInfo(final String type) throws ClassNotFoundException {
+    return classNodeProvider.getTypeInfo(type);
   }
 }
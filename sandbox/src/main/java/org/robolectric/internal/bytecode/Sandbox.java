@@ -13,14 +13,20 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import org.robolectric.shadow.api.Shadow;
 import org.robolectric.util.ReflectionHelpers;
 import org.robolectric.util.Util;
 
 public class Sandbox {
+  private static final int RETAINED_BYTES_PER_CLASS_FILE_BYTE = 4;
+
   private final SandboxClassLoader sandboxClassLoader;
   private final ExecutorService executorService;
+  // Guards acquiring the sandbox against shutting it down, see tryAcquire and shutdownIfUnused.
+  private final Object lifecycleLock = new Object();
+  private final AtomicInteger activeCallers = new AtomicInteger();
   private ShadowInvalidator shadowInvalidator;
   private ShadowMap shadowMap = ShadowMap.EMPTY;
 
@@ -35,6 +41,7 @@ public class Sandbox {
   public Sandbox(SandboxClassLoader sandboxClassLoader) {
     this.sandboxClassLoader = sandboxClassLoader;
     executorService = Executors.newSingleThreadExecutor(mainThreadFactory());
+    sandboxClassLoader.preloadProfiledClasses();
   }
 
   protected ThreadFactory mainThreadFactory() {
@@ -53,6 +60,17 @@ public class Sandbox {
     return sandboxClassLoader;
   }
 
+  /**
+   * Returns a rough estimate of the heap retained by this sandbox, based on the size of the classes
+   * it has defined so far. Class metadata, static state and caches hanging off those classes
+   * typically take a few times the size of the class files themselves. Classes that were preloaded
+   * but not defined yet only retain their class files.
+   */
+  public long estimateRetainedSize() {
+    return sandboxClassLoader.getDefinedClassBytes() * RETAINED_BYTES_PER_CLASS_FILE_BYTE
+        + sandboxClassLoader.getPreloadedClassBytes();
+  }
+
   private ShadowInvalidator getShadowInvalidator() {
     if (shadowInvalidator == null) {
       this.shadowInvalidator = new ShadowInvalidator();
@@ -124,7 +142,9 @@ public class Sandbox {
 
   /** Cleans up resources that have been opened by this Sandbox. */
   public void shutdown() {
-    executorService.shutdown();
+    synchronized (lifecycleLock) {
+      executorService.shutdown();
+    }
 
     try {
       executorService.awaitTermination(5, SECONDS);
@@ -139,14 +159,63 @@ public class Sandbox {
   }
 
   public <T> T runOnMainThread(Callable<T> callable) {
-    Future<T> future = executorService.submit(callable);
+    activeCallers.incrementAndGet();
     try {
-      return future.get();
-    } catch (InterruptedException e) {
-      future.cancel(true);
-      throw new RuntimeException(e);
-    } catch (ExecutionException e) {
-      throw Util.sneakyThrow(e.getCause());
+      Future<T> future = executorService.submit(callable);
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw Util.sneakyThrow(e.getCause());
+      }
+    } finally {
+      activeCallers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns whether the sandbox is acquired (see {@link #tryAcquire()}) or any thread is currently
+   * waiting on work running on the main thread.
+   */
+  public boolean isInUse() {
+    return activeCallers.get() > 0;
+  }
+
+  /**
+   * Marks the sandbox as in use until {@link #release()} is called, so that it isn't shut down by
+   * {@link #shutdownIfUnused()} in the meantime. Returns false, without acquiring it, if the
+   * sandbox is already shut down.
+   */
+  public boolean tryAcquire() {
+    synchronized (lifecycleLock) {
+      if (isShutdown()) {
+        return false;
+      }
+      activeCallers.incrementAndGet();
+      return true;
+    }
+  }
+
+  /** Releases the sandbox after a successful {@link #tryAcquire()}. */
+  public void release() {
+    activeCallers.decrementAndGet();
+  }
+
+  /**
+   * Shuts down the sandbox unless it is in use (see {@link #isInUse()}). Returns whether it was
+   * shut down.
+   */
+  public boolean shutdownIfUnused() {
+    synchronized (lifecycleLock) {
+      if (isInUse()) {
+        return false;
+      }
+      // Stops further acquisitions before the lock is released.
+      executorService.shutdown();
     }
+    shutdown();
+    return true;
   }
 }
@@ -3,9 +3,11 @@ package org.robolectric.internal.bytecode;
 import static com.google.common.base.StandardSystemProperty.JAVA_CLASS_PATH;
 import static com.google.common.base.StandardSystemProperty.PATH_SEPARATOR;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,7 +19,11 @@ import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.robolectric.internal.ClassTracker;
 import org.robolectric.util.Logger;
@@ -31,17 +37,36 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
   // The directory where instrumented class files will be dumped
   private static final String DUMP_CLASSES_PROPERTY = "robolectric.dumpClassesDirectory";
 
-  // Whether to log resources abd classes loaded from android-all jars.
-  private static final boolean LOG_RESOURCE_USAGE = false;
-
   private static final AtomicInteger DUMP_CLASSES_COUNTER = new AtomicInteger();
 
+  /** The digests of jars served by resource providers, see {@link #getJarDigest}. */
+  private static final Map<ClassHierarchyIndex.JarIdentity, String> JAR_DIGESTS =
+      new ConcurrentHashMap<>();
+
+  static {
+    registerAsParallelCapable();
+  }
+
   private final InstrumentationConfiguration config;
   private final ResourceProvider resourceProvider;
   private final ClassInstrumentor classInstrumentor;
   private final ClassNodeProvider classNodeProvider;
+  private final ClassBytesStore classBytesStore;
   private final String dumpClassesDirectory;
-  private boolean isClosed;
+  private final InstrumentedClassCache instrumentedClassCache;
+  private byte[] instrumentedClassCacheNamespace;
+  private final LongAdder definedClassCount = new LongAdder();
+  private final LongAdder definedClassBytes = new LongAdder();
+  @Nullable private final ShadowUsageTracker shadowUsageTracker;
+  @Nullable private final ClassLoadProfile classLoadProfile;
+
+  /** Instrumented bytes of classes that were preloaded but haven't been defined yet. */
+  private final Map<String, byte[]> preloadedClassBytes = new ConcurrentHashMap<>();
+
+  private final LongAdder preloadedClassBytesSize = new LongAdder();
+
+  @Nullable private final AndroidAllUsage.Recording androidAllUsage;
+  private volatile boolean isClosed;
 
   /** Constructor for use by tests. */
   SandboxClassLoader(InstrumentationConfiguration config) {
@@ -71,15 +96,89 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
     this.resourceProvider = resourceProvider;
 
     this.classInstrumentor = classInstrumentor;
+    this.shadowUsageTracker = ShadowUsageTracker.isEnabled() ? new ShadowUsageTracker() : null;
 
+    Path jarPath = getSingleJarPath(resourceProvider);
+    this.androidAllUsage =
+        jarPath == null ? null : AndroidAllUsage.startRecording(jarPath.getFileName().toString());
     classNodeProvider =
-        new ClassNodeProvider() {
+        new ClassNodeProvider(getSharedClassHierarchyIndex(jarPath)) {
           @Override
           protected byte[] getClassBytes(String internalClassName) throws ClassNotFoundException {
             return getByteCode(internalClassName);
           }
         };
+    this.classBytesStore = getSharedClassBytesStore(jarPath);
     this.dumpClassesDirectory = System.getProperty(DUMP_CLASSES_PROPERTY, "");
+    this.instrumentedClassCache = InstrumentedClassCache.fromSystemProperties();
+    this.classLoadProfile =
+        ClassLoadProfile.fromSystemProperties(config, this::getResourceProviderIdentity);
+  }
+
+  /**
+   * Starts reading and instrumenting the classes recorded in this sandbox's class load profile, if
+   * any, on background threads. Subclasses must be fully constructed before this is called.
+   *
+   * <p>Preloaded classes are only defined once something asks for them, so that {@link
+   * #isClassLoaded(String)} and the classes tracked for resetters and usage recordings only reflect
+   * classes that were actually used.
+   */
+  public void preloadProfiledClasses() {
+    if (classLoadProfile != null) {
+      classLoadProfile.preload(this);
+    }
+  }
+
+  /**
+   * Returns the path of the jar served by the resource provider, or null if it doesn't serve
+   * exactly one local jar.
+   */
+  private static Path getSingleJarPath(ResourceProvider resourceProvider) {
+    if (!(resourceProvider instanceof URLClassLoader)) {
+      return null;
+    }
+    URL[] urls = ((URLClassLoader) resourceProvider).getURLs();
+    if (urls.length != 1 || !"file".equals(urls[0].getProtocol())) {
+      return null;
+    }
+    try {
+      Path jarPath = Paths.get(urls[0].toURI());
+      return Files.isRegularFile(jarPath) ? jarPath : null;
+    } catch (URISyntaxException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the process-wide type hierarchy index for the given jar, so that the hierarchy of
+   * android-all classes is only parsed once per JVM, regardless of how many sandboxes use that jar.
+   */
+  private static ClassHierarchyIndex getSharedClassHierarchyIndex(Path jarPath) {
+    if (jarPath == null) {
+      return null;
+    }
+    try {
+      return ClassHierarchyIndex.forJar(jarPath);
+    } catch (IOException e) {
+      Logger.warn("couldn't index %s: %s", jarPath, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the process-wide class file store for the given jar, so that android-all classes are
+   * looked up and inflated from a single open jar shared by all sandboxes that use it.
+   */
+  private static ClassBytesStore getSharedClassBytesStore(Path jarPath) {
+    if (jarPath == null) {
+      return null;
+    }
+    try {
+      return ClassBytesStore.forJar(jarPath);
+    } catch (IOException e) {
+      Logger.warn("couldn't open %s: %s", jarPath, e);
+      return null;
+    }
   }
 
   private static URL[] getClassPathUrls(ClassLoader classloader) {
@@ -138,8 +237,8 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
 
   protected URL getResourceUrl(String name) {
     URL result = resourceProvider.getResource(name);
-    if (LOG_RESOURCE_USAGE && result != null) {
-      PerfStatsCollector.getInstance().incrementCount("SandboxClassLoader.getResource " + name);
+    if (androidAllUsage != null && result != null && !name.endsWith(".class")) {
+      androidAllUsage.addResource(name);
     }
     return result;
   }
@@ -148,15 +247,6 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
     String resName = className.replace('.', '/') + ".class";
     InputStream fromUrlsClassLoader = resourceProvider.getResourceAsStream(resName);
     if (fromUrlsClassLoader != null) {
-      if (LOG_RESOURCE_USAGE) {
-        String packageName = className.replace('/', '.');
-        int lastDotIndex = packageName.lastIndexOf('.');
-        if (lastDotIndex != -1) {
-          packageName = packageName.substring(0, lastDotIndex);
-        }
-        PerfStatsCollector.getInstance()
-            .incrementCount("SandboxClassLoader.packageLoaded " + packageName);
-      }
       return fromUrlsClassLoader;
     }
     InputStream fromAlternateClassLoader = getClassBytesFromAlternateClassLoader(resName);
@@ -209,15 +299,195 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
     return findLoadedClass(className) != null;
   }
 
+  /**
+   * Returns whether the resetter of the given shadow needs to run. If shadow usage tracking is
+   * enabled, this is whether either class has been used since the last reset; otherwise, whether
+   * either class has been loaded.
+   */
+  @Override
+  public boolean needsReset(String shadowClassName, String actualClassName) {
+    if (shadowUsageTracker == null) {
+      return ClassTracker.super.needsReset(shadowClassName, actualClassName);
+    }
+    return shadowUsageTracker.wasUsedSinceReset(shadowClassName)
+        || (actualClassName != null && shadowUsageTracker.wasUsedSinceReset(actualClassName));
+  }
+
+  @Override
+  public void onResetComplete() {
+    if (shadowUsageTracker != null) {
+      shadowUsageTracker.reset();
+    }
+  }
+
+  /** Returns the tracker of the shadows used by this sandbox, or null if tracking is disabled. */
+  @Nullable
+  ShadowUsageTracker getShadowUsageTracker() {
+    return shadowUsageTracker;
+  }
+
+  /**
+   * Reads and, if necessary, instruments the given class so that it can be defined quickly once it
+   * is loaded, unless it already is. Classes that this loader doesn't acquire are skipped.
+   */
+  void preloadClass(String className) throws ClassNotFoundException {
+    if (isClosed
+        || !config.shouldAcquire(className)
+        || preloadedClassBytes.containsKey(className)
+        || findLoadedClass(className) != null) {
+      return;
+    }
+    byte[] classBytes = getInstrumentedBytes(className);
+    byte[] previousBytes = preloadedClassBytes.put(className, classBytes);
+    preloadedClassBytesSize.add(
+        classBytes.length - (previousBytes == null ? 0 : (long) previousBytes.length));
+    if (findLoadedClass(className) != null) {
+      // Defined concurrently, from its own bytes.
+      takePreloadedClassBytes(className);
+    }
+  }
+
+  /** Removes and returns the preloaded bytes of the given class, or null if it wasn't preloaded. */
+  @Nullable
+  private byte[] takePreloadedClassBytes(String className) {
+    byte[] classBytes = preloadedClassBytes.remove(className);
+    if (classBytes != null) {
+      preloadedClassBytesSize.add(-classBytes.length);
+    }
+    return classBytes;
+  }
+
+  /** Returns whether the given class has been preloaded but not defined yet. */
+  boolean hasPreloadedClass(String className) {
+    return preloadedClassBytes.containsKey(className);
+  }
+
   private Class<?> maybeInstrumentClass(String className) throws ClassNotFoundException {
+    byte[] classBytes = takePreloadedClassBytes(className);
+    if (classBytes == null) {
+      classBytes = getInstrumentedBytes(className);
+    }
+    ensurePackage(className);
+    definedClassCount.increment();
+    definedClassBytes.add(classBytes.length);
+    if (shadowUsageTracker != null) {
+      shadowUsageTracker.classLoaded(className);
+    }
+    if (classLoadProfile != null) {
+      classLoadProfile.classLoaded(className);
+    }
+    if (androidAllUsage != null && isFromResourceProvider(className.replace('.', '/') + ".class")) {
+      androidAllUsage.addClass(className);
+    }
+    return defineClass(className, classBytes, 0, classBytes.length);
+  }
+
+  private byte[] getInstrumentedBytes(String className) throws ClassNotFoundException {
     byte[] classBytes = getByteCode(className);
     ClassDetails classDetails = new ClassDetails(classBytes);
     if (config.shouldInstrument(classDetails)) {
-      classBytes = classInstrumentor.instrument(classDetails, config, classNodeProvider);
+      classBytes = instrument(classDetails, className);
       maybeDumpClassBytes(classDetails, classBytes);
     }
-    ensurePackage(className);
-    return defineClass(className, classBytes, 0, classBytes.length);
+    return classBytes;
+  }
+
+  /** Returns the number of classes defined by this class loader. */
+  public long getDefinedClassCount() {
+    return definedClassCount.sum();
+  }
+
+  /** Returns the total size of the (possibly instrumented) class files defined by this loader. */
+  public long getDefinedClassBytes() {
+    return definedClassBytes.sum();
+  }
+
+  /** Returns the total size of the class files that were preloaded but haven't been defined yet. */
+  public long getPreloadedClassBytes() {
+    return preloadedClassBytesSize.sum();
+  }
+
+  private byte[] instrument(ClassDetails classDetails, String className) {
+    // Only classes from the resource provider (i.e. android-all) are cached, because the class
+    // hierarchy consulted while computing stack map frames is fixed for a given jar, whereas the
+    // hierarchy of classes on the test classpath may change between runs.
+    byte[] namespace = getInstrumentedClassCacheNamespace();
+    if (namespace == null || !isFromResourceProvider(className.replace('.', '/') + ".class")) {
+      return classInstrumentor.instrument(classDetails, config, classNodeProvider);
+    }
+
+    String key = instrumentedClassCache.keyFor(namespace, classDetails.getClassBytes());
+    byte[] classBytes = instrumentedClassCache.get(key);
+    if (classBytes == null) {
+      classBytes = classInstrumentor.instrument(classDetails, config, classNodeProvider);
+      instrumentedClassCache.put(key, classBytes);
+    }
+    return classBytes;
+  }
+
+  private synchronized byte[] getInstrumentedClassCacheNamespace() {
+    if (instrumentedClassCache == null) {
+      return null;
+    }
+    if (instrumentedClassCacheNamespace == null) {
+      String classPathIdentity = getResourceProviderIdentity();
+      if (classPathIdentity == null) {
+        return null;
+      }
+      instrumentedClassCacheNamespace =
+          InstrumentedClassCache.newNamespace(config, classInstrumentor, classPathIdentity);
+    }
+    return instrumentedClassCacheNamespace;
+  }
+
+  /**
+   * Returns a string identifying the jars served by the resource provider by their contents, or
+   * null if they can't be identified.
+   */
+  @Nullable
+  @VisibleForTesting
+  String getResourceProviderIdentity() {
+    if (!(resourceProvider instanceof URLClassLoader)) {
+      return null;
+    }
+    URL[] urls = ((URLClassLoader) resourceProvider).getURLs();
+    if (urls.length == 0) {
+      return null;
+    }
+    StringBuilder identity = new StringBuilder();
+    for (URL url : urls) {
+      try {
+        Path path = Paths.get(url.toURI());
+        if (!Files.isRegularFile(path)) {
+          return null;
+        }
+        identity.append(path.getFileName()).append(':').append(getJarDigest(path)).append(';');
+      } catch (URISyntaxException | IOException | RuntimeException e) {
+        return null;
+      }
+    }
+    return identity.toString();
+  }
+
+  /**
+   * Returns the SHA-256 digest of the given jar, which is only computed once per JVM unless the
+   * jar's size or modification time changes.
+   */
+  private static String getJarDigest(Path path) throws IOException {
+    ClassHierarchyIndex.JarIdentity jarIdentity = new ClassHierarchyIndex.JarIdentity(path);
+    String digest = JAR_DIGESTS.get(jarIdentity);
+    if (digest == null) {
+      digest =
+          PerfStatsCollector.getInstance()
+              .measure(
+                  "digestJar",
+                  () ->
+                      com.google.common.io.Files.asByteSource(path.toFile())
+                          .hash(Hashing.sha256())
+                          .toString());
+      JAR_DIGESTS.put(jarIdentity, digest);
+    }
+    return digest;
   }
 
   private void maybeDumpClassBytes(ClassDetails classDetails, byte[] classBytes) {
@@ -233,7 +503,24 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
     }
   }
 
+  private boolean isFromResourceProvider(String classResName) {
+    if (classBytesStore != null) {
+      return classBytesStore.contains(classResName);
+    }
+    return resourceProvider.getResource(classResName) != null;
+  }
+
   private byte[] getByteCode(String className) throws ClassNotFoundException {
+    if (classBytesStore != null) {
+      try {
+        byte[] classBytes = classBytesStore.getClassBytes(className.replace('.', '/') + ".class");
+        if (classBytes != null) {
+          return classBytes;
+        }
+      } catch (IOException e) {
+        throw new ClassNotFoundException("couldn't load " + className, e);
+      }
+    }
     try (InputStream classBytesStream = getClassBytesAsStreamPreferringLocalUrls(className)) {
       if (classBytesStream == null) {
         throw new ClassNotFoundException(className);
@@ -251,7 +538,11 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
       String pckgName = className.substring(0, lastDotIndex);
       Package pckg = getPackage(pckgName);
       if (pckg == null) {
-        definePackage(pckgName, null, null, null, null, null, null, null);
+        try {
+          definePackage(pckgName, null, null, null, null, null, null, null);
+        } catch (IllegalArgumentException e) {
+          // Another thread defined the package concurrently.
+        }
       }
     }
   }
@@ -261,5 +552,12 @@ public class SandboxClassLoader extends URLClassLoader implements ClassTracker {
     super.close();
     resourceProvider.close();
     isClosed = true;
+    preloadedClassBytes.keySet().forEach(this::takePreloadedClassBytes);
+    if (classLoadProfile != null) {
+      classLoadProfile.write();
+    }
+    if (androidAllUsage != null) {
+      androidAllUsage.write();
+    }
   }
 }
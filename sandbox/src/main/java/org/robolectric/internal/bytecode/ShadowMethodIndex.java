@@ -0,0 +1,417 @@
+package org.robolectric.internal.bytecode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.robolectric.annotation.ClassName;
+import org.robolectric.annotation.Filter;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.internal.ShadowDispatchTable;
+import org.robolectric.internal.ShadowDispatchTable.ShadowMethod;
+import org.robolectric.sandbox.ShadowMatcher;
+import org.robolectric.util.Logger;
+import org.robolectric.util.PerfStatsCollector;
+
+/**
+ * The {@code @Implementation} and {@code @Filter} methods declared on a shadow class that match a
+ * given {@link ShadowMatcher}, indexed by the name of the method they shadow.
+ *
+ * <p>Binding a call site only has to look at the shadow methods with the right name, and the result
+ * is remembered for later call sites with the same signature. Indexes are kept on the shadow class
+ * itself, so they are shared by every {@link ShadowWrangler} for the same sandbox and an equal
+ * {@link ShadowMatcher}, and go away with the sandbox's class loader or the matcher.
+ *
+ * <p>If the shadow class was compiled with the Robolectric annotation processor, and the matcher
+ * {@linkplain ShadowMatcher#canMatchBySdkRange() can match by SDK range}, the index is built from
+ * the generated {@link ShadowDispatchTable}, and shadow methods are only loaded once they match a
+ * call site. Otherwise, or if the table turns out to be out of date, the shadow class is scanned
+ * reflectively.
+ */
+class ShadowMethodIndex {
+  private static final ClassValue<Map<ShadowMatcher, ShadowMethodIndex>> INDEXES =
+      new ClassValue<Map<ShadowMatcher, ShadowMethodIndex>>() {
+        @Override
+        protected Map<ShadowMatcher, ShadowMethodIndex> computeValue(Class<?> type) {
+          return Collections.synchronizedMap(new WeakHashMap<>());
+        }
+      };
+
+  /** Dispatch tables by package name, for each class loader. */
+  private static final Map<ClassLoader, Map<String, Optional<ShadowDispatchTable>>>
+      DISPATCH_TABLES = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /** Dispatch tables by URL, since class loaders for different sandboxes load the same ones. */
+  private static final Map<String, Optional<ShadowDispatchTable>> DISPATCH_TABLES_BY_URL =
+      new ConcurrentHashMap<>();
+
+  private final Class<?> shadowClass;
+  private final ShadowMatcher shadowMatcher;
+
+  /** Shadow methods by the name of the method they shadow, in declaration order. */
+  private final Map<String, List<Candidate>> candidatesByName = new HashMap<>();
+
+  /** Set if the shadow class has a method annotated with both @Implementation and @Filter. */
+  @Nullable private String conflictingMethodName;
+
+  private final Map<MethodKey, Optional<Method>> resolvedMethods = new ConcurrentHashMap<>();
+
+  /** Set if this index was built from a dispatch table that doesn't match the shadow class. */
+  @Nullable private volatile ShadowMethodIndex reflectiveIndex;
+
+  /** Returns the index for the given shadow class and matcher, building it if necessary. */
+  static ShadowMethodIndex forShadowClass(Class<?> shadowClass, ShadowMatcher shadowMatcher) {
+    return INDEXES
+        .get(shadowClass)
+        .computeIfAbsent(shadowMatcher, matcher -> build(shadowClass, matcher));
+  }
+
+  private static ShadowMethodIndex build(Class<?> shadowClass, ShadowMatcher shadowMatcher) {
+    if (shadowMatcher.canMatchBySdkRange()) {
+      List<ShadowMethod> methods =
+          PerfStatsCollector.getInstance()
+              .measure("load shadow dispatch table", () -> findDispatchTableMethods(shadowClass));
+      if (methods != null) {
+        return PerfStatsCollector.getInstance()
+            .measure(
+                "build shadow method index from table",
+                () -> fromDispatchTable(shadowClass, methods, shadowMatcher));
+      }
+    }
+    return PerfStatsCollector.getInstance()
+        .measure("build shadow method index", () -> fromReflection(shadowClass, shadowMatcher));
+  }
+
+  private static ShadowMethodIndex fromReflection(
+      Class<?> shadowClass, ShadowMatcher shadowMatcher) {
+    ShadowMethodIndex index = new ShadowMethodIndex(shadowClass, shadowMatcher);
+    for (Method method : shadowClass.getDeclaredMethods()) {
+      if (!Modifier.isPublic(method.getModifiers())
+          && !Modifier.isProtected(method.getModifiers())) {
+        continue;
+      }
+
+      if (!shadowMatcher.matches(method)) {
+        continue;
+      }
+
+      Filter filter = method.getAnnotation(Filter.class);
+      Implementation implementation = method.getAnnotation(Implementation.class);
+
+      List<String> aliases = new ArrayList<>();
+      if (filter != null) {
+        aliases.add(filter.methodName());
+      }
+      if (implementation != null) {
+        aliases.add(implementation.methodName());
+      }
+
+      index.add(new Candidate(method), aliases, filter != null && implementation != null);
+    }
+    return index;
+  }
+
+  private static ShadowMethodIndex fromDispatchTable(
+      Class<?> shadowClass, List<ShadowMethod> methods, ShadowMatcher shadowMatcher) {
+    ShadowMethodIndex index = new ShadowMethodIndex(shadowClass, shadowMatcher);
+    for (ShadowMethod method : methods) {
+      if (shadowMatcher.matchesSdkRange(method.minSdk, method.maxSdk)) {
+        index.add(
+            new Candidate(method), method.aliases, method.isFilter && method.isImplementation);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the methods of the given shadow class from the dispatch table of its package, or of the
+   * closest enclosing package that has one, or null if there is no such table.
+   */
+  @Nullable
+  private static List<ShadowMethod> findDispatchTableMethods(Class<?> shadowClass) {
+    ClassLoader classLoader = shadowClass.getClassLoader();
+    if (classLoader == null) {
+      return null;
+    }
+    Map<String, Optional<ShadowDispatchTable>> tables =
+        DISPATCH_TABLES.computeIfAbsent(classLoader, key -> new ConcurrentHashMap<>());
+    String packageName = shadowClass.getPackageName();
+    while (!packageName.isEmpty()) {
+      Optional<ShadowDispatchTable> table =
+          tables.computeIfAbsent(packageName, name -> readDispatchTable(classLoader, name));
+      if (table.isPresent()) {
+        List<ShadowMethod> methods = table.get().getMethods(shadowClass.getName());
+        if (methods != null) {
+          return methods;
+        }
+      }
+      int lastDot = packageName.lastIndexOf('.');
+      packageName = lastDot == -1 ? "" : packageName.substring(0, lastDot);
+    }
+    return null;
+  }
+
+  private static Optional<ShadowDispatchTable> readDispatchTable(
+      ClassLoader classLoader, String packageName) {
+    URL url = classLoader.getResource(ShadowDispatchTable.getResourceName(packageName));
+    if (url == null) {
+      return Optional.empty();
+    }
+    return DISPATCH_TABLES_BY_URL.computeIfAbsent(
+        url.toString(),
+        key -> {
+          try (InputStream in = url.openStream()) {
+            return Optional.of(
+                ShadowDispatchTable.read(new InputStreamReader(in, StandardCharsets.UTF_8)));
+          } catch (IOException e) {
+            Logger.warn("Ignoring shadow dispatch table " + url + ": " + e);
+            return Optional.empty();
+          }
+        });
+  }
+
+  private ShadowMethodIndex(Class<?> shadowClass, ShadowMatcher shadowMatcher) {
+    this.shadowClass = shadowClass;
+    this.shadowMatcher = shadowMatcher;
+  }
+
+  private void add(Candidate candidate, List<String> aliases, boolean isConflicting) {
+    if (isConflicting && conflictingMethodName == null) {
+      conflictingMethodName = candidate.methodName;
+    }
+
+    addCandidate(candidate.methodName, candidate);
+    for (String alias : aliases) {
+      String mappedMethodName = alias.trim();
+      if (!mappedMethodName.isEmpty()) {
+        addCandidate(mappedMethodName, candidate);
+      }
+    }
+  }
+
+  private void addCandidate(String methodName, Candidate candidate) {
+    List<Candidate> candidates =
+        candidatesByName.computeIfAbsent(methodName, name -> new ArrayList<>());
+    if (!candidates.contains(candidate)) {
+      candidates.add(candidate);
+    }
+  }
+
+  /**
+   * Returns the shadow method for the given method of the shadowed class, or null if this shadow
+   * class doesn't declare one. A method whose parameter types match exactly is preferred over one
+   * that matches using {@link ClassName}.
+   */
+  @Nullable
+  Method findMethod(String methodName, Class<?>[] paramClasses) {
+    ShadowMethodIndex reflectiveIndex = this.reflectiveIndex;
+    if (reflectiveIndex != null) {
+      return reflectiveIndex.findMethod(methodName, paramClasses);
+    }
+    if (conflictingMethodName != null) {
+      throw new IllegalStateException(
+          "Method "
+              + conflictingMethodName
+              + " cannot be annotated with both @Implementation and @Filter");
+    }
+    List<Candidate> candidates = candidatesByName.get(methodName);
+    if (candidates == null) {
+      return null;
+    }
+    MethodKey key = new MethodKey(methodName, paramClasses);
+    Optional<Method> method = resolvedMethods.get(key);
+    if (method == null) {
+      try {
+        method = Optional.ofNullable(resolve(candidates, paramClasses));
+      } catch (NoSuchMethodException e) {
+        // The dispatch table lists a method that the shadow class doesn't declare.
+        return useReflectiveIndex(e).findMethod(methodName, paramClasses);
+      }
+      resolvedMethods.putIfAbsent(key, method);
+    }
+    return method.orElse(null);
+  }
+
+  private synchronized ShadowMethodIndex useReflectiveIndex(NoSuchMethodException cause) {
+    if (reflectiveIndex == null) {
+      Logger.warn(
+          "Shadow dispatch table is out of date for %s (%s), scanning it reflectively instead",
+          shadowClass.getName(), cause.getMessage());
+      reflectiveIndex = fromReflection(shadowClass, shadowMatcher);
+    }
+    return reflectiveIndex;
+  }
+
+  @Nullable
+  private Method resolve(List<Candidate> candidates, Class<?>[] paramClasses)
+      throws NoSuchMethodException {
+    Candidate found = null;
+    for (Candidate candidate : candidates) {
+      if (candidate.matchesExactly(paramClasses)) {
+        // Found an exact match, we can exit early.
+        found = candidate;
+        break;
+      }
+
+      // Or maybe support @ClassName.
+      if (candidate.matchesWithClassNames(paramClasses)) {
+        // Found a @ClassName match, but continue looking for an exact match.
+        found = candidate;
+      }
+    }
+
+    if (found == null) {
+      return null;
+    }
+    Method method = found.getMethod(shadowClass, paramClasses);
+    method.setAccessible(true);
+    return method;
+  }
+
+  /**
+   * A shadow method, found either by reflection or in a dispatch table, in which case it is only
+   * loaded once it matches a call site.
+   */
+  private static final class Candidate {
+    final String methodName;
+    @Nullable private final Method method;
+    @Nullable private final ShadowMethod tableMethod;
+
+    Candidate(Method method) {
+      this.methodName = method.getName();
+      this.method = method;
+      this.tableMethod = null;
+    }
+
+    Candidate(ShadowMethod tableMethod) {
+      this.methodName = tableMethod.name;
+      this.method = null;
+      this.tableMethod = tableMethod;
+    }
+
+    boolean matchesExactly(Class<?>[] paramClasses) {
+      if (method != null) {
+        return Arrays.equals(method.getParameterTypes(), paramClasses);
+      }
+      List<String> parameterTypes = tableMethod.parameterTypes;
+      if (parameterTypes.size() != paramClasses.length) {
+        return false;
+      }
+      for (int i = 0; i < paramClasses.length; i++) {
+        if (!parameterTypes.get(i).equals(paramClasses[i].getName())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean matchesWithClassNames(Class<?>[] paramClasses) {
+      if (method != null) {
+        return parametersMatch(method.getParameters(), paramClasses);
+      }
+      List<String> parameterTypes = tableMethod.parameterTypes;
+      if (parameterTypes.size() != paramClasses.length) {
+        return false;
+      }
+      for (int i = 0; i < paramClasses.length; i++) {
+        String expectedName = paramClasses[i].getName();
+        boolean matches =
+            isClassNameParameter(i)
+                ? tableMethod.parameterClassNames.get(i).equals(expectedName)
+                : parameterTypes.get(i).equals(expectedName);
+        if (!matches) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isClassNameParameter(int i) {
+      return tableMethod.parameterClassNames.get(i) != null
+          && tableMethod.parameterTypes.get(i).equals("java.lang.Object");
+    }
+
+    /**
+     * Returns this method, given parameter types that it matches.
+     *
+     * @throws NoSuchMethodException if the dispatch table it came from is out of date
+     */
+    Method getMethod(Class<?> shadowClass, Class<?>[] paramClasses) throws NoSuchMethodException {
+      if (method != null) {
+        return method;
+      }
+      Class<?>[] declaredTypes = paramClasses.clone();
+      for (int i = 0; i < declaredTypes.length; i++) {
+        if (isClassNameParameter(i)) {
+          declaredTypes[i] = Object.class;
+        }
+      }
+      return shadowClass.getDeclaredMethod(methodName, declaredTypes);
+    }
+
+    private static boolean parametersMatch(Parameter[] params, Class<?>[] expectedTypes) {
+      if (params.length != expectedTypes.length) {
+        return false;
+      }
+
+      for (int i = 0; i < params.length; i++) {
+        if (!isParameterMatch(params[i], expectedTypes[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isParameterMatch(Parameter param, Class<?> expectedType) {
+      if (param.getType().equals(Object.class)) {
+        ClassName className = param.getAnnotation(ClassName.class);
+        if (className != null) {
+          return className.value().equals(expectedType.getName());
+        }
+      }
+
+      return param.getType().equals(expectedType);
+    }
+  }
+
+  private static final class MethodKey {
+    private final String methodName;
+    private final Class<?>[] paramClasses;
+
+    MethodKey(String methodName, Class<?>[] paramClasses) {
+      this.methodName = methodName;
+      this.paramClasses = paramClasses.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof MethodKey)) {
+        return false;
+      }
+      MethodKey that = (MethodKey) o;
+      return methodName.equals(that.methodName) && Arrays.equals(paramClasses, that.paramClasses);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * methodName.hashCode() + Arrays.hashCode(paramClasses);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package org.robolectric.internal.bytecode;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks which classes a sandbox has used since its shadows were last reset, so that only the
+ * resetters of those shadows need to run.
+ *
+ * <p>A class is considered used if it was loaded since the last reset, or if, since then, one of
+ * the shadow methods it or its subclasses declare was called or an instance of it or its subclasses
+ * was created. Calls and instances are tracked by a flag that the method handles bound to shadowed
+ * call sites set on their first call after a reset; resetting clears only the flags that were set,
+ * so the cost of a reset is proportional to the shadows that were used rather than to all the
+ * shadows that were ever loaded.
+ *
+ * <p>Tracking is enabled by the {@code robolectric.resetters.trackUsage} system property.
+ */
+public class ShadowUsageTracker {
+  static final String TRACK_USAGE_PROPERTY = "robolectric.resetters.trackUsage";
+
+  private static final MethodHandle MARK_USED;
+
+  static {
+    try {
+      MARK_USED =
+          MethodHandles.lookup().findVirtual(UsageFlag.class, "markUsed", methodType(void.class));
+    } catch (ReflectiveOperationException e) {
+      throw new LinkageError(e.getMessage(), e);
+    }
+  }
+
+  private final Set<String> loadedSinceReset = ConcurrentHashMap.newKeySet();
+  private final Map<String, UsageFlag> flags = new ConcurrentHashMap<>();
+  private final Queue<UsageFlag> usedSinceReset = new ConcurrentLinkedQueue<>();
+
+  /** Returns whether usage tracking is enabled by the {@code robolectric.*} system property. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(TRACK_USAGE_PROPERTY);
+  }
+
+  /** Records that the given class was loaded. */
+  void classLoaded(String className) {
+    loadedSinceReset.add(className);
+  }
+
+  /**
+   * Returns a method handle that records a use of the given shadow class, and of its superclasses,
+   * before invoking the given method handle.
+   */
+  MethodHandle trackUsage(Class<?> shadowClass, MethodHandle methodHandle) {
+    return MethodHandles.foldArguments(methodHandle, MARK_USED.bindTo(getFlag(shadowClass)));
+  }
+
+  private UsageFlag getFlag(Class<?> shadowClass) {
+    UsageFlag flag = flags.get(shadowClass.getName());
+    if (flag == null) {
+      Class<?> superclass = shadowClass.getSuperclass();
+      UsageFlag parent =
+          superclass == null || superclass.equals(Object.class) ? null : getFlag(superclass);
+      flag = flags.computeIfAbsent(shadowClass.getName(), name -> new UsageFlag(parent));
+    }
+    return flag;
+  }
+
+  /** Returns whether the given class has been loaded or used since the last reset. */
+  public boolean wasUsedSinceReset(String className) {
+    if (loadedSinceReset.contains(className)) {
+      return true;
+    }
+    UsageFlag flag = flags.get(className);
+    return flag != null && flag.used;
+  }
+
+  /** Forgets all uses recorded so far. */
+  public void reset() {
+    loadedSinceReset.clear();
+    UsageFlag flag;
+    while ((flag = usedSinceReset.poll()) != null) {
+      flag.used = false;
+    }
+  }
+
+  /** Whether a shadow class has been used since the last reset. */
+  private final class UsageFlag {
+    @Nullable private final UsageFlag parent;
+    private volatile boolean used;
+
+    UsageFlag(@Nullable UsageFlag parent) {
+      this.parent = parent;
+    }
+
+    @SuppressWarnings("unused") // called via MARK_USED
+    void markUsed() {
+      if (!used) {
+        synchronized (this) {
+          if (!used) {
+            used = true;
+            usedSinceReset.add(this);
+          }
+        }
+      }
+      if (parent != null) {
+        parent.markUsed();
+      }
+    }
+  }
+}
@@ -18,15 +18,11 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Priority;
-import org.robolectric.annotation.ClassName;
 import org.robolectric.annotation.Filter;
-import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.RealObject;
 import org.robolectric.annotation.ReflectorObject;
 import org.robolectric.pluginapi.MethodHandleDecorator;
@@ -198,6 +194,10 @@ public class ShadowWrangler implements ClassHandler {
                 }
               }
 
+              if (shadowMethod != null) {
+                mh = trackShadowUsage(definingClass, shadowMethod.getDeclaringClass(), mh);
+              }
+
               for (MethodHandleDecorator decorator : decorators) {
                 MethodHandle decorated =
                     decorator.decorate(definingClass, name, methodType, isStatic, mh);
@@ -210,6 +210,22 @@ public class ShadowWrangler implements ClassHandler {
             });
   }
 
+  /**
+   * If the sandbox tracks shadow usage, returns a method handle that records a use of the given
+   * shadow class before invoking the given method handle.
+   */
+  private static MethodHandle trackShadowUsage(
+      Class<?> definingClass, Class<?> shadowClass, MethodHandle mh) {
+    ClassLoader classLoader = definingClass.getClassLoader();
+    if (classLoader instanceof SandboxClassLoader) {
+      ShadowUsageTracker tracker = ((SandboxClassLoader) classLoader).getShadowUsageTracker();
+      if (tracker != null) {
+        return tracker.trackUsage(shadowClass, mh);
+      }
+    }
+    return mh;
+  }
+
   private MethodHandle getFilterMethodHandle(
       Method shadowMethod,
       String name,
@@ -380,87 +396,8 @@ public class ShadowWrangler implements ClassHandler {
 
   private Method findShadowMethodDeclaredOnClass(
       Class<?> shadowClass, String methodName, Class<?>[] paramClasses) {
-    Method foundMethod = null;
-    Method[] methods = shadowClass.getDeclaredMethods();
-    for (Method method : methods) {
-      if (!Modifier.isPublic(method.getModifiers())
-          && !Modifier.isProtected(method.getModifiers())) {
-        continue;
-      }
-
-      if (!shadowMatcher.matches(method)) {
-        continue;
-      }
-
-      Filter filter = method.getAnnotation(Filter.class);
-      Implementation implementation = method.getAnnotation(Implementation.class);
-
-      if (filter != null && implementation != null) {
-        throw new IllegalStateException(
-            "Method "
-                + method.getName()
-                + " cannot be annotated with both @Implementation and @Filter");
-      }
-
-      boolean nameMatches = method.getName().equals(methodName);
-
-      if (!nameMatches && filter != null) {
-        String mappedMethodName = filter.methodName().trim();
-        nameMatches = !mappedMethodName.isEmpty() && mappedMethodName.equals(methodName);
-      }
-
-      if (!nameMatches && implementation != null) {
-        String mappedMethodName = implementation.methodName().trim();
-        nameMatches = !mappedMethodName.isEmpty() && mappedMethodName.equals(methodName);
-      }
-
-      if (!nameMatches) {
-        continue;
-      }
-
-      if (Arrays.equals(method.getParameterTypes(), paramClasses)) {
-        // Found an exact match, we can exit early.
-        foundMethod = method;
-        break;
-      }
-
-      // Or maybe support @ClassName.
-      if (parametersMatch(method.getParameters(), paramClasses)) {
-        // Found a @ClassName match, but continue looking for an exact match.
-        foundMethod = method;
-      }
-    }
-
-    if (foundMethod != null) {
-      foundMethod.setAccessible(true);
-      return foundMethod;
-    } else {
-      return null;
-    }
-  }
-
-  private boolean parametersMatch(Parameter[] params, Class<?>[] expectedTypes) {
-    if (params.length != expectedTypes.length) {
-      return false;
-    }
-
-    for (int i = 0; i < params.length; i++) {
-      if (!isParameterMatch(params[i], expectedTypes[i])) {
-        return false;
-      }
-    }
-    return true;
-  }
-
-  private boolean isParameterMatch(Parameter param, Class<?> expectedType) {
-    if (param.getType().equals(Object.class)) {
-      ClassName className = param.getAnnotation(ClassName.class);
-      if (className != null) {
-        return className.value().equals(expectedType.getName());
-      }
-    }
-
-    return param.getType().equals(expectedType);
+    return ShadowMethodIndex.forShadowClass(shadowClass, shadowMatcher)
+        .findMethod(methodName, paramClasses);
   }
 
   @Override
@@ -554,7 +491,7 @@ public class ShadowWrangler implements ClassHandler {
           foldArguments(
               mh, LOOKUP.unreflectConstructor(shadowMetadata.constructor)); // (shadow, instance)
 
-      return mh; // (instance)
+      return trackShadowUsage(theClass, shadowClass, mh); // (instance)
     } catch (IllegalAccessException | ClassNotFoundException e) {
       throw new RuntimeException(
           "Could not instantiate shadow " + shadowClassName + " for " + theClass, e);
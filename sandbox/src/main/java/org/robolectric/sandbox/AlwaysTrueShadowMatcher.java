@@ -13,4 +13,14 @@ class AlwaysTrueShadowMatcher implements ShadowMatcher {
   public boolean matches(Method method) {
     return true;
   }
+
+  @Override
+  public boolean canMatchBySdkRange() {
+    return true;
+  }
+
+  @Override
+  public boolean matchesSdkRange(int minSdk, int maxSdk) {
+    return true;
+  }
 }
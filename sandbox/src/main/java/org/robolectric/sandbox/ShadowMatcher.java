@@ -6,6 +6,9 @@ import org.robolectric.internal.bytecode.ShadowInfo;
 /**
  * ShadowMatcher is used by {@link org.robolectric.internal.bytecode.ShadowWrangler} to provide
  * library-specific rules about whether shadow classes and methods should be considered matches.
+ *
+ * <p>Equal matchers must match the same shadow classes and methods, so that what is learned about a
+ * shadow class with one of them can be reused with the others.
  */
 public interface ShadowMatcher {
   ShadowMatcher MATCH_ALL = new AlwaysTrueShadowMatcher();
@@ -13,4 +16,21 @@ public interface ShadowMatcher {
   boolean matches(ShadowInfo shadowInfo);
 
   boolean matches(Method method);
+
+  /**
+   * Returns whether this matcher decides whether a shadow method matches only from the SDK range of
+   * its {@code @Filter} annotation, or of its {@code @Implementation} annotation if it has no
+   * {@code @Filter}. If so, shadow methods can be matched with {@link #matchesSdkRange(int, int)}
+   * using a table generated at compile time, without loading their annotations.
+   */
+  default boolean canMatchBySdkRange() {
+    return false;
+  }
+
+  /**
+   * Returns whether a shadow method with the given SDK range matches, where -1 means unbounded.
+   * Only called if {@link #canMatchBySdkRange()} returns true, so matchers that don't match by SDK
+   * range may return anything.
+   */
+  boolean matchesSdkRange(int minSdk, int maxSdk);
 }
@@ -0,0 +1,104 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/** Tests for {@link AndroidAllUsage} */
+@RunWith(JUnit4.class)
+public class AndroidAllUsageTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void writeTo_read_roundTrips() throws Exception {
+    AndroidAllUsage usage = new AndroidAllUsage();
+    usage.addClass("android.os.Looper");
+    usage.addClass("android.app.Activity");
+    usage.addClass("android.app.Activity");
+    usage.addResource("fonts/");
+    usage.addResource("build.prop");
+    Path path = tempFolder.getRoot().toPath().resolve("jar/run" + AndroidAllUsage.RECORDING_SUFFIX);
+
+    usage.writeTo(path);
+    AndroidAllUsage read = AndroidAllUsage.read(path);
+
+    assertThat(read.getClassNames())
+        .containsExactly("android.app.Activity", "android.os.Looper")
+        .inOrder();
+    assertThat(read.getPackageNames()).containsExactly("android.app", "android.os").inOrder();
+    assertThat(read.getResourceNames()).containsExactly("build.prop", "fonts/").inOrder();
+  }
+
+  @Test
+  public void read_otherFile_throws() throws Exception {
+    Path path = tempFolder.newFile("profile.classes").toPath();
+    Files.write(path, Arrays.asList("android.app.Activity"), UTF_8);
+
+    assertThrows(IOException.class, () -> AndroidAllUsage.read(path));
+  }
+
+  @Test
+  public void sandboxClassLoader_recordsRequestedClassesAndResources() throws Exception {
+    Path jar = tempFolder.getRoot().toPath().resolve("android-all.jar");
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      for (String className : Arrays.asList("android/app/Used", "android/app/Preloaded")) {
+        jarOut.putNextEntry(new JarEntry(className + ".class"));
+        jarOut.write(emptyClass(className));
+      }
+      jarOut.putNextEntry(new JarEntry("build.prop"));
+      jarOut.write("ro.build.version.sdk=33\n".getBytes(UTF_8));
+    }
+    Path recordings = tempFolder.newFolder("recordings").toPath();
+
+    System.setProperty(AndroidAllUsage.RECORDING_DIRECTORY_PROPERTY, recordings.toString());
+    try {
+      SandboxClassLoader classLoader =
+          new SandboxClassLoader(
+              ClassLoader.getSystemClassLoader(),
+              InstrumentationConfiguration.newBuilder().addInstrumentedPackage("android.").build(),
+              new UrlResourceProvider(jar.toUri().toURL()),
+              new ClassInstrumentor());
+      classLoader.preloadClass("android.app.Preloaded");
+      classLoader.loadClass("android.app.Used");
+      assertThat(classLoader.getResource("build.prop")).isNotNull();
+      classLoader.close();
+    } finally {
+      System.clearProperty(AndroidAllUsage.RECORDING_DIRECTORY_PROPERTY);
+    }
+
+    Path[] recordingFiles;
+    try (Stream<Path> files = Files.list(recordings.resolve("android-all.jar"))) {
+      recordingFiles = files.toArray(Path[]::new);
+    }
+    assertThat(recordingFiles).hasLength(1);
+    AndroidAllUsage usage = AndroidAllUsage.read(recordingFiles[0]);
+    // Classes that were only preloaded weren't used.
+    assertThat(usage.getClassNames()).containsExactly("android.app.Used");
+    assertThat(usage.getResourceNames()).containsExactly("build.prop");
+  }
+
+  private static byte[] emptyClass(String internalName) {
+    ClassWriter classWriter = new ClassWriter(0);
+    classWriter.visit(
+        Opcodes.V11, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    classWriter.visitEnd();
+    return classWriter.toByteArray();
+  }
+}
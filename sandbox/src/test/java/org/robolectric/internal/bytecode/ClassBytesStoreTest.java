@@ -0,0 +1,88 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.testing.AChild;
+import org.robolectric.util.TempDirectory;
+
+/** Tests for {@link ClassBytesStore} */
+@RunWith(JUnit4.class)
+public class ClassBytesStoreTest {
+  private static final String ACHILD = AChild.class.getName().replace('.', '/') + ".class";
+
+  private TempDirectory tempDirectory;
+
+  @Before
+  public void setUp() {
+    tempDirectory = new TempDirectory("class-bytes-store");
+  }
+
+  @After
+  public void tearDown() {
+    tempDirectory.destroy();
+  }
+
+  @Test
+  public void getClassBytes_returnsClassFile() throws Exception {
+    ClassBytesStore store = new ClassBytesStore(new JarFile(createJar("a.jar").toFile()), 0);
+
+    assertThat(store.contains(ACHILD)).isTrue();
+    assertThat(store.getClassBytes(ACHILD)).isEqualTo(readResource(ACHILD));
+  }
+
+  @Test
+  public void getClassBytes_returnsNullForClassesNotInJar() throws Exception {
+    ClassBytesStore store = new ClassBytesStore(new JarFile(createJar("a.jar").toFile()), 0);
+
+    assertThat(store.contains("java/lang/String.class")).isFalse();
+    assertThat(store.getClassBytes("java/lang/String.class")).isNull();
+    assertThat(store.contains("META-INF/MANIFEST.MF")).isFalse();
+  }
+
+  @Test
+  public void getClassBytes_cached_returnsSameBytes() throws Exception {
+    ClassBytesStore store = new ClassBytesStore(new JarFile(createJar("a.jar").toFile()), 1 << 20);
+
+    assertThat(store.getClassBytes(ACHILD)).isSameInstanceAs(store.getClassBytes(ACHILD));
+  }
+
+  @Test
+  public void forJar_sharesStoreForTheSameJar() throws Exception {
+    Path jar = createJar("a.jar");
+
+    assertThat(ClassBytesStore.forJar(jar)).isSameInstanceAs(ClassBytesStore.forJar(jar));
+  }
+
+  private Path createJar(String name) throws IOException {
+    Path jar = tempDirectory.createIfNotExists("jars").resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      JarEntry manifest = new JarEntry("META-INF/MANIFEST.MF");
+      jarOut.putNextEntry(manifest);
+      JarEntry entry = new JarEntry(ACHILD);
+      entry.setTime(0);
+      jarOut.putNextEntry(entry);
+      jarOut.write(readResource(ACHILD));
+    }
+    return jar;
+  }
+
+  private byte[] readResource(String resName) throws IOException {
+    try (InputStream in = getClass().getClassLoader().getResourceAsStream(resName)) {
+      return in.readAllBytes();
+    }
+  }
+}
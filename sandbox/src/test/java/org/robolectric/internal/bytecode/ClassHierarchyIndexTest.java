@@ -0,0 +1,105 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.Opcodes;
+import org.robolectric.internal.bytecode.ClassHierarchyIndex.TypeInfo;
+import org.robolectric.testing.AChild;
+import org.robolectric.testing.AParent;
+import org.robolectric.util.TempDirectory;
+
+/** Tests for {@link ClassHierarchyIndex} */
+@RunWith(JUnit4.class)
+public class ClassHierarchyIndexTest {
+  private static final String ACHILD = AChild.class.getName().replace('.', '/');
+  private static final String APARENT = AParent.class.getName().replace('.', '/');
+
+  private TempDirectory tempDirectory;
+
+  @Before
+  public void setUp() {
+    tempDirectory = new TempDirectory("class-hierarchy-index");
+  }
+
+  @After
+  public void tearDown() {
+    tempDirectory.destroy();
+  }
+
+  @Test
+  public void getTypeInfo_returnsClassHeader() throws Exception {
+    ClassHierarchyIndex index = newIndex(createJar("a.jar"), null);
+
+    TypeInfo typeInfo = index.getTypeInfo(ACHILD);
+
+    assertThat(typeInfo.superName).isEqualTo(APARENT);
+    assertThat(typeInfo.interfaces).isEmpty();
+    assertThat(typeInfo.access & Opcodes.ACC_INTERFACE).isEqualTo(0);
+    assertThat(index.getTypeInfo(ACHILD)).isSameInstanceAs(typeInfo);
+  }
+
+  @Test
+  public void getTypeInfo_returnsNullForClassesNotInJar() throws Exception {
+    ClassHierarchyIndex index = newIndex(createJar("a.jar"), null);
+
+    assertThat(index.getTypeInfo("java/lang/String")).isNull();
+    assertThat(index.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void forJar_sharesIndexBetweenJarsWithTheSameContents() throws Exception {
+    ClassHierarchyIndex index1 = ClassHierarchyIndex.forJar(createJar("a.jar"));
+    ClassHierarchyIndex index2 = ClassHierarchyIndex.forJar(createJar("b.jar"));
+
+    assertThat(index2).isSameInstanceAs(index1);
+  }
+
+  @Test
+  public void save_persistsEntriesForLaterRuns() throws Exception {
+    Path jar = createJar("a.jar");
+    Path indexDir = tempDirectory.create("index");
+    ClassHierarchyIndex index = newIndex(jar, indexDir);
+    index.getTypeInfo(ACHILD);
+    index.getTypeInfo(APARENT);
+
+    index.save();
+    ClassHierarchyIndex reloaded = newIndex(jar, indexDir);
+
+    assertThat(reloaded.size()).isEqualTo(2);
+    assertThat(reloaded.getTypeInfo(ACHILD).superName).isEqualTo(APARENT);
+  }
+
+  private static ClassHierarchyIndex newIndex(Path jar, Path indexDir) throws IOException {
+    return new ClassHierarchyIndex("test-key", new JarFile(jar.toFile()), indexDir);
+  }
+
+  private Path createJar(String name) throws IOException {
+    Path jar = tempDirectory.createIfNotExists("jars").resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      for (String className : new String[] {ACHILD, APARENT}) {
+        JarEntry entry = new JarEntry(className + ".class");
+        entry.setTime(0);
+        jarOut.putNextEntry(entry);
+        try (InputStream in =
+            getClass().getClassLoader().getResourceAsStream(className + ".class")) {
+          jarOut.write(in.readAllBytes());
+        }
+      }
+    }
+    return jar;
+  }
+}
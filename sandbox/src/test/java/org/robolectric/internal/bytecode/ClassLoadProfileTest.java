@@ -0,0 +1,108 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.testing.AChild;
+import org.robolectric.testing.AParent;
+import org.robolectric.util.TempDirectory;
+
+/** Tests for {@link ClassLoadProfile} */
+@RunWith(JUnit4.class)
+public class ClassLoadProfileTest {
+  private TempDirectory tempDirectory;
+  private Path profilePath;
+
+  @Before
+  public void setUp() {
+    tempDirectory = new TempDirectory("class-load-profile");
+    profilePath = tempDirectory.create("profiles").resolve("sandbox.classes");
+  }
+
+  @After
+  public void tearDown() {
+    tempDirectory.destroy();
+  }
+
+  @Test
+  public void write_appendsNewClassesInLoadOrder() throws Exception {
+    Files.write(profilePath, "a.First\na.Second\n".getBytes(UTF_8));
+    ClassLoadProfile profile = new ClassLoadProfile(profilePath);
+
+    profile.classLoaded("a.Third");
+    profile.classLoaded("a.First");
+    profile.classLoaded("a.Fourth");
+    profile.classLoaded("a.Third");
+    profile.write();
+
+    assertThat(new ClassLoadProfile(profilePath).getPreviousClassNames())
+        .containsExactly("a.First", "a.Second", "a.Third", "a.Fourth")
+        .inOrder();
+  }
+
+  @Test
+  public void write_withoutNewClasses_leavesProfileAlone() throws Exception {
+    ClassLoadProfile profile = new ClassLoadProfile(profilePath);
+
+    profile.write();
+
+    assertThat(Files.exists(profilePath)).isFalse();
+  }
+
+  @Test
+  public void preload_preparesProfiledClassesInBackgroundWithoutDefiningThem() throws Exception {
+    Files.write(profilePath, (AChild.class.getName() + "\na.DoesNotExist\n").getBytes(UTF_8));
+    ClassLoadProfile profile = new ClassLoadProfile(profilePath);
+    SandboxClassLoader classLoader =
+        new SandboxClassLoader(InstrumentationConfiguration.newBuilder().build());
+
+    profile.preload(classLoader, 2);
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!classLoader.hasPreloadedClass(AChild.class.getName())
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(classLoader.hasPreloadedClass(AChild.class.getName())).isTrue();
+    assertThat(classLoader.isClassLoaded(AChild.class.getName())).isFalse();
+    assertThat(classLoader.isClassLoaded(AParent.class.getName())).isFalse();
+
+    assertThat(classLoader.loadClass(AChild.class.getName()).getClassLoader())
+        .isSameInstanceAs(classLoader);
+    assertThat(classLoader.isClassLoaded(AParent.class.getName())).isTrue();
+    assertThat(classLoader.hasPreloadedClass(AChild.class.getName())).isFalse();
+  }
+
+  @Test
+  public void preloadClass_countsClassBytesUntilClassIsDefined() throws Exception {
+    SandboxClassLoader classLoader =
+        new SandboxClassLoader(InstrumentationConfiguration.newBuilder().build());
+
+    classLoader.preloadClass(AChild.class.getName());
+    long preloadedBytes = classLoader.getPreloadedClassBytes();
+    assertThat(preloadedBytes).isGreaterThan(0L);
+
+    classLoader.loadClass(AChild.class.getName());
+    assertThat(classLoader.getPreloadedClassBytes()).isEqualTo(0L);
+    assertThat(classLoader.getDefinedClassBytes()).isAtLeast(preloadedBytes);
+  }
+
+  @Test
+  public void close_dropsPreloadedClasses() throws Exception {
+    SandboxClassLoader classLoader =
+        new SandboxClassLoader(InstrumentationConfiguration.newBuilder().build());
+    classLoader.preloadClass(AChild.class.getName());
+
+    classLoader.close();
+
+    assertThat(classLoader.hasPreloadedClass(AChild.class.getName())).isFalse();
+    assertThat(classLoader.getPreloadedClassBytes()).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,148 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.util.PerfStatsCollector;
+import org.robolectric.util.TempDirectory;
+
+/** Tests for {@link InstrumentedClassCache} */
+@RunWith(JUnit4.class)
+public class InstrumentedClassCacheTest {
+  private static final byte[] NAMESPACE = {1, 2, 3};
+
+  private TempDirectory tempDirectory;
+  private Path cacheDir;
+  private boolean perfStatsWereEnabled;
+
+  @Before
+  public void setUp() {
+    tempDirectory = new TempDirectory("instrumented-class-cache");
+    cacheDir = tempDirectory.create("cache");
+    // SandboxTestRunner disables perf stats when there are no reporters.
+    perfStatsWereEnabled = PerfStatsCollector.getInstance().isEnabled();
+    PerfStatsCollector.getInstance().setEnabled(true);
+    PerfStatsCollector.getInstance().reset();
+  }
+
+  @After
+  public void tearDown() {
+    PerfStatsCollector.getInstance().setEnabled(perfStatsWereEnabled);
+    tempDirectory.destroy();
+  }
+
+  @Test
+  public void get_returnsPutBytes() {
+    InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 1024 * 1024);
+    String key = cache.keyFor(NAMESPACE, new byte[] {42});
+
+    assertThat(cache.get(key)).isNull();
+    cache.put(key, classBytes(100));
+
+    assertThat(cache.get(key)).isEqualTo(classBytes(100));
+    assertThat(count("InstrumentedClassCache.hit")).isEqualTo(1);
+    assertThat(count("InstrumentedClassCache.miss")).isEqualTo(1);
+  }
+
+  @Test
+  public void get_isSharedBetweenInstances() {
+    InstrumentedClassCache cache1 = new InstrumentedClassCache(cacheDir, 1024 * 1024);
+    InstrumentedClassCache cache2 = new InstrumentedClassCache(cacheDir, 1024 * 1024);
+    String key = cache1.keyFor(NAMESPACE, new byte[] {42});
+
+    cache1.put(key, classBytes(10));
+
+    assertThat(cache2.get(key)).isEqualTo(classBytes(10));
+  }
+
+  @Test
+  public void keyFor_dependsOnNamespaceAndClassBytes() {
+    InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 1024 * 1024);
+
+    String key = cache.keyFor(NAMESPACE, new byte[] {42});
+
+    assertThat(cache.keyFor(NAMESPACE, new byte[] {42})).isEqualTo(key);
+    assertThat(cache.keyFor(NAMESPACE, new byte[] {43})).isNotEqualTo(key);
+    assertThat(cache.keyFor(new byte[] {4, 5, 6}, new byte[] {42})).isNotEqualTo(key);
+  }
+
+  @Test
+  public void newNamespace_dependsOnConfigurationAndClassPath() {
+    ClassInstrumentor classInstrumentor = new ClassInstrumentor();
+    InstrumentationConfiguration config =
+        InstrumentationConfiguration.newBuilder().addInstrumentedPackage("android.").build();
+    InstrumentationConfiguration otherConfig =
+        InstrumentationConfiguration.newBuilder()
+            .addInstrumentedPackage("android.")
+            .addClassNameTranslation("a.B", "c.D")
+            .build();
+
+    byte[] namespace = InstrumentedClassCache.newNamespace(config, classInstrumentor, "sdk-33");
+
+    assertThat(InstrumentedClassCache.newNamespace(config, classInstrumentor, "sdk-33"))
+        .isEqualTo(namespace);
+    assertThat(InstrumentedClassCache.newNamespace(config, classInstrumentor, "sdk-34"))
+        .isNotEqualTo(namespace);
+    assertThat(InstrumentedClassCache.newNamespace(otherConfig, classInstrumentor, "sdk-33"))
+        .isNotEqualTo(namespace);
+  }
+
+  @Test
+  public void get_discardsCorruptEntries() throws IOException {
+    InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 1024 * 1024);
+    String key = cache.keyFor(NAMESPACE, new byte[] {42});
+    cache.put(key, classBytes(10));
+    Path entry = onlyEntry();
+    Files.write(entry, new byte[] {1, 2, 3, 4});
+
+    assertThat(cache.get(key)).isNull();
+    assertThat(Files.exists(entry)).isFalse();
+  }
+
+  @Test
+  public void put_evictsLeastRecentlyUsedEntriesWhenFull() throws IOException {
+    InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 250);
+    String oldKey = cache.keyFor(NAMESPACE, new byte[] {1});
+    String newKey = cache.keyFor(NAMESPACE, new byte[] {2});
+    cache.put(oldKey, classBytes(100));
+    Files.setLastModifiedTime(onlyEntry(), FileTime.fromMillis(0));
+    cache.put(newKey, classBytes(100));
+
+    cache.put(cache.keyFor(NAMESPACE, new byte[] {3}), classBytes(100));
+
+    assertThat(cache.get(oldKey)).isNull();
+    assertThat(cache.get(newKey)).isNotNull();
+    assertThat(count("InstrumentedClassCache.evict")).isEqualTo(1);
+  }
+
+  private Path onlyEntry() throws IOException {
+    try (Stream<Path> paths = Files.walk(cacheDir)) {
+      return paths.filter(Files::isRegularFile).findFirst().get();
+    }
+  }
+
+  private static long count(String name) {
+    return PerfStatsCollector.getInstance().getMetrics().stream()
+        .filter(metric -> metric.getName().equals(name))
+        .mapToLong(metric -> metric.getCount())
+        .sum();
+  }
+
+  private static byte[] classBytes(int length) {
+    byte[] bytes = new byte[length];
+    bytes[0] = (byte) 0xCA;
+    bytes[1] = (byte) 0xFE;
+    bytes[2] = (byte) 0xBA;
+    bytes[3] = (byte) 0xBE;
+    return bytes;
+  }
+}
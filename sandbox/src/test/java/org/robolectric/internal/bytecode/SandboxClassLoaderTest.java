@@ -5,6 +5,7 @@ import static java.lang.invoke.MethodHandles.constant;
 import static java.lang.invoke.MethodHandles.dropArguments;
 import static java.lang.invoke.MethodHandles.insertArguments;
 import static java.lang.invoke.MethodType.methodType;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -19,6 +20,7 @@ import static org.mockito.Mockito.when;
 import static org.robolectric.util.ReflectionHelpers.newInstance;
 import static org.robolectric.util.ReflectionHelpers.setStaticField;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -30,11 +32,17 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import javax.annotation.Nonnull;
 import org.junit.Before;
 import org.junit.Test;
@@ -126,6 +134,27 @@ public class SandboxClassLoaderTest {
     }
   }
 
+  @Test
+  public void shouldLoadClassesConcurrently() throws Exception {
+    SandboxClassLoader classLoader = new SandboxClassLoader(configureBuilder().build());
+    assertThat(classLoader.isRegisteredAsParallelCapable()).isTrue();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Class<?>>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> classLoader.loadClass(AChild.class.getName())));
+      }
+      Class<?> loadedClass = futures.get(0).get();
+      assertSame(classLoader, loadedClass.getClassLoader());
+      for (Future<Class<?>> future : futures) {
+        assertSame(loadedClass, future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void shouldPerformClassLoadForAcquiredClasses() throws Exception {
     ClassLoader classLoader = new SandboxClassLoader(configureBuilder().build());
@@ -730,4 +759,49 @@ public class SandboxClassLoaderTest {
       }
     }
   }
+
+  @Test
+  public void getResourceProviderIdentity_changesWhenJarIsRebuiltWithSameNameAndSize()
+      throws Exception {
+    Path tempDir = Files.createTempDirectory("SandboxClassLoaderTest");
+    Path jar = tempDir.resolve("classes.jar");
+    try {
+      writeJar(jar, "one");
+      String identity = resourceProviderIdentity(jar);
+      writeJar(jar, "two");
+      Files.setLastModifiedTime(
+          jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+
+      assertThat(resourceProviderIdentity(jar)).isNotEqualTo(identity);
+
+      writeJar(jar, "one");
+      Files.setLastModifiedTime(
+          jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 20_000));
+
+      assertThat(resourceProviderIdentity(jar)).isEqualTo(identity);
+    } finally {
+      Files.deleteIfExists(jar);
+      Files.delete(tempDir);
+    }
+  }
+
+  private String resourceProviderIdentity(Path jar) throws Exception {
+    try (SandboxClassLoader classLoader =
+        new SandboxClassLoader(
+            configureBuilder().build(),
+            new UrlResourceProvider(jar.toUri().toURL()),
+            new ClassInstrumentor(new ShadowDecorator()))) {
+      return classLoader.getResourceProviderIdentity();
+    }
+  }
+
+  private static void writeJar(Path jar, String content) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+      ZipEntry entry = new ZipEntry("content.txt");
+      entry.setTime(0);
+      out.putNextEntry(entry);
+      out.write(content.getBytes(UTF_8));
+      out.closeEntry();
+    }
+  }
 }
@@ -0,0 +1,51 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link Sandbox} */
+@RunWith(JUnit4.class)
+public class SandboxTest {
+
+  private final Sandbox sandbox =
+      new Sandbox(new SandboxClassLoader(InstrumentationConfiguration.newBuilder().build()));
+
+  @After
+  public void tearDown() {
+    sandbox.shutdown();
+  }
+
+  @Test
+  public void tryAcquire_marksSandboxInUseUntilReleased() {
+    assertThat(sandbox.tryAcquire()).isTrue();
+    assertThat(sandbox.isInUse()).isTrue();
+
+    sandbox.release();
+
+    assertThat(sandbox.isInUse()).isFalse();
+  }
+
+  @Test
+  public void shutdownIfUnused_acquiredSandbox_isNotShutDown() {
+    assertThat(sandbox.tryAcquire()).isTrue();
+
+    assertThat(sandbox.shutdownIfUnused()).isFalse();
+    assertThat(sandbox.isShutdown()).isFalse();
+
+    sandbox.release();
+    assertThat(sandbox.shutdownIfUnused()).isTrue();
+    assertThat(sandbox.isShutdown()).isTrue();
+  }
+
+  @Test
+  public void tryAcquire_shutDownSandbox_fails() {
+    sandbox.shutdown();
+
+    assertThat(sandbox.tryAcquire()).isFalse();
+    assertThat(sandbox.isInUse()).isFalse();
+  }
+}
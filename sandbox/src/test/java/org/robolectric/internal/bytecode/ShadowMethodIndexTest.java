@@ -0,0 +1,296 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.robolectric.sandbox.ShadowMatcher.MATCH_ALL;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.annotation.ClassName;
+import org.robolectric.annotation.Filter;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.internal.ShadowDispatchTable;
+import org.robolectric.internal.ShadowDispatchTable.ShadowMethod;
+import org.robolectric.internal.bytecode.ShadowMethodIndexTest.ShadowThing.Other;
+import org.robolectric.sandbox.ShadowMatcher;
+
+/** Tests for {@link ShadowMethodIndex} */
+@RunWith(JUnit4.class)
+public class ShadowMethodIndexTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void findMethod_byName() throws Exception {
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL);
+
+    assertThat(index.findMethod("run", new Class<?>[0]))
+        .isEqualTo(ShadowThing.class.getDeclaredMethod("run"));
+    assertThat(index.findMethod("run", new Class<?>[] {int.class})).isNull();
+    assertThat(index.findMethod("missing", new Class<?>[0])).isNull();
+  }
+
+  @Test
+  public void findMethod_byMethodNameAlias() throws Exception {
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL);
+
+    assertThat(index.findMethod("stop", new Class<?>[0]))
+        .isEqualTo(ShadowThing.class.getDeclaredMethod("stopAlias"));
+  }
+
+  @Test
+  public void findMethod_prefersExactMatchToClassNameMatch() throws Exception {
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL);
+
+    assertThat(index.findMethod("take", new Class<?>[] {Other.class}))
+        .isEqualTo(ShadowThing.class.getDeclaredMethod("take", Other.class));
+    assertThat(index.findMethod("take", new Class<?>[] {String.class}))
+        .isEqualTo(ShadowThing.class.getDeclaredMethod("take", Object.class));
+  }
+
+  @Test
+  public void findMethod_skipsMethodsRejectedByMatcher() {
+    ShadowMatcher rejectRun =
+        new ShadowMatcher() {
+          @Override
+          public boolean matches(ShadowInfo shadowInfo) {
+            return true;
+          }
+
+          @Override
+          public boolean matches(Method method) {
+            return !method.getName().equals("run");
+          }
+
+          @Override
+          public boolean matchesSdkRange(int minSdk, int maxSdk) {
+            return true;
+          }
+        };
+
+    assertThat(
+            ShadowMethodIndex.forShadowClass(ShadowThing.class, rejectRun)
+                .findMethod("run", new Class<?>[0]))
+        .isNull();
+    assertThat(
+            ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL)
+                .findMethod("run", new Class<?>[0]))
+        .isNotNull();
+  }
+
+  @Test
+  public void forShadowClass_sharedForSameMatcher() {
+    assertThat(ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL))
+        .isSameInstanceAs(ShadowMethodIndex.forShadowClass(ShadowThing.class, MATCH_ALL));
+  }
+
+  @Test
+  public void findMethod_implementationAndFilter_throws() {
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(ShadowConflict.class, MATCH_ALL);
+
+    assertThrows(IllegalStateException.class, () -> index.findMethod("run", new Class<?>[0]));
+  }
+
+  @Test
+  public void dispatchTable_matchesBySdkRange() throws Exception {
+    Class<?> shadowClass =
+        loadWithDispatchTable(
+            ImmutableList.of(
+                tableMethod("run", ImmutableList.of(), Arrays.asList(), 1, -1),
+                tableMethod("stopAlias", ImmutableList.of(), Arrays.asList(), 30, -1, "stop")));
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(shadowClass, MAX_SDK_20);
+
+    assertThat(index.findMethod("run", new Class<?>[0]))
+        .isEqualTo(shadowClass.getDeclaredMethod("run"));
+    // Rejected by the SDK range in the table, although the matcher accepts every Method.
+    assertThat(index.findMethod("stop", new Class<?>[0])).isNull();
+    // Not in the table, so not a shadow method, although the class declares it.
+    assertThat(index.findMethod("take", new Class<?>[] {Other.class})).isNull();
+  }
+
+  @Test
+  public void dispatchTable_classNameParameter_findsObjectParameterMethod() throws Exception {
+    Class<?> shadowClass =
+        loadWithDispatchTable(
+            ImmutableList.of(
+                tableMethod(
+                    "take",
+                    ImmutableList.of("java.lang.Object"),
+                    Arrays.asList("java.lang.String"),
+                    1,
+                    -1),
+                tableMethod(
+                    "take",
+                    ImmutableList.of(Other.class.getName()),
+                    Arrays.asList((String) null),
+                    1,
+                    -1)));
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(shadowClass, MAX_SDK_20);
+
+    assertThat(index.findMethod("take", new Class<?>[] {String.class}))
+        .isEqualTo(shadowClass.getDeclaredMethod("take", Object.class));
+    assertThat(index.findMethod("take", new Class<?>[] {Other.class}))
+        .isEqualTo(shadowClass.getDeclaredMethod("take", Other.class));
+    assertThat(index.findMethod("take", new Class<?>[] {Integer.class})).isNull();
+  }
+
+  @Test
+  public void dispatchTable_outOfDate_fallsBackToReflection() throws Exception {
+    Class<?> shadowClass =
+        loadWithDispatchTable(
+            ImmutableList.of(
+                tableMethod("run", ImmutableList.of("int"), Arrays.asList((String) null), 1, -1)));
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(shadowClass, MAX_SDK_20);
+
+    assertThat(index.findMethod("run", new Class<?>[] {int.class})).isNull();
+    assertThat(index.findMethod("run", new Class<?>[0]))
+        .isEqualTo(shadowClass.getDeclaredMethod("run"));
+    assertThat(index.findMethod("stop", new Class<?>[0]))
+        .isEqualTo(shadowClass.getDeclaredMethod("stopAlias"));
+  }
+
+  @Test
+  public void dispatchTable_withoutShadowClass_fallsBackToReflection() throws Exception {
+    Class<?> shadowClass =
+        loadWithDispatchTable(ImmutableMap.of("org.example.ShadowOther", ImmutableList.of()));
+    ShadowMethodIndex index = ShadowMethodIndex.forShadowClass(shadowClass, MAX_SDK_20);
+
+    assertThat(index.findMethod("stop", new Class<?>[0]))
+        .isEqualTo(shadowClass.getDeclaredMethod("stopAlias"));
+  }
+
+  /** Accepts every shadow method, unless its SDK range starts after SDK 20. */
+  private static final ShadowMatcher MAX_SDK_20 =
+      new ShadowMatcher() {
+        @Override
+        public boolean matches(ShadowInfo shadowInfo) {
+          return true;
+        }
+
+        @Override
+        public boolean matches(Method method) {
+          return true;
+        }
+
+        @Override
+        public boolean canMatchBySdkRange() {
+          return true;
+        }
+
+        @Override
+        public boolean matchesSdkRange(int minSdk, int maxSdk) {
+          return minSdk <= 20;
+        }
+      };
+
+  private static ShadowMethod tableMethod(
+      String name,
+      List<String> parameterTypes,
+      List<String> parameterClassNames,
+      int minSdk,
+      int maxSdk,
+      String... aliases) {
+    return new ShadowMethod(
+        name,
+        Arrays.asList(aliases),
+        parameterTypes,
+        parameterClassNames,
+        minSdk,
+        maxSdk,
+        true,
+        false);
+  }
+
+  private Class<?> loadWithDispatchTable(List<ShadowMethod> shadowThingMethods) throws Exception {
+    return loadWithDispatchTable(ImmutableMap.of(ShadowThing.class.getName(), shadowThingMethods));
+  }
+
+  /**
+   * Returns a copy of {@link ShadowThing}, defined by a new class loader that serves the given
+   * dispatch table for its package.
+   */
+  private Class<?> loadWithDispatchTable(ImmutableMap<String, List<ShadowMethod>> methodsByShadow)
+      throws Exception {
+    Path tableFile = tempFolder.newFile().toPath();
+    try (Writer writer = Files.newBufferedWriter(tableFile)) {
+      new ShadowDispatchTable(methodsByShadow).writeTo(writer);
+    }
+    String tableName = ShadowDispatchTable.getResourceName(ShadowThing.class.getPackageName());
+    String shadowClassName = ShadowThing.class.getName();
+    ClassLoader classLoader =
+        new ClassLoader(ShadowMethodIndexTest.class.getClassLoader()) {
+          @Override
+          protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(shadowClassName)) {
+              return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+              Class<?> loadedClass = findLoadedClass(name);
+              if (loadedClass == null) {
+                try (InputStream in =
+                    getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                  byte[] classBytes = ByteStreams.toByteArray(in);
+                  loadedClass = defineClass(name, classBytes, 0, classBytes.length);
+                } catch (IOException e) {
+                  throw new ClassNotFoundException(name, e);
+                }
+              }
+              return loadedClass;
+            }
+          }
+
+          @Override
+          public URL getResource(String name) {
+            if (name.equals(tableName)) {
+              try {
+                return tableFile.toUri().toURL();
+              } catch (MalformedURLException e) {
+                throw new AssertionError(e);
+              }
+            }
+            return super.getResource(name);
+          }
+        };
+    return classLoader.loadClass(shadowClassName);
+  }
+
+  /** A shadow class with assorted shadow methods. */
+  public static class ShadowThing {
+    @Implementation
+    protected void run() {}
+
+    @Implementation(methodName = "stop")
+    protected void stopAlias() {}
+
+    @Implementation
+    protected void take(@ClassName("java.lang.String") Object thing) {}
+
+    @Implementation
+    protected void take(Other other) {}
+
+    /** A parameter type. */
+    public static class Other {}
+  }
+
+  /** A shadow class with a method that is both an implementation and a filter. */
+  public static class ShadowConflict {
+    @Implementation
+    @Filter
+    protected void run() {}
+  }
+}
@@ -0,0 +1,75 @@
+package org.robolectric.internal.bytecode;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ShadowUsageTracker} */
+@RunWith(JUnit4.class)
+public class ShadowUsageTrackerTest {
+  private final ShadowUsageTracker tracker = new ShadowUsageTracker();
+
+  @Test
+  public void wasUsedSinceReset_loadedClass() {
+    tracker.classLoaded("a.Loaded");
+
+    assertThat(tracker.wasUsedSinceReset("a.Loaded")).isTrue();
+    assertThat(tracker.wasUsedSinceReset("a.Other")).isFalse();
+
+    tracker.reset();
+
+    assertThat(tracker.wasUsedSinceReset("a.Loaded")).isFalse();
+  }
+
+  @Test
+  public void trackUsage_marksShadowAndSuperclassesWhenCalled() throws Throwable {
+    MethodHandle mh =
+        tracker.trackUsage(
+            ShadowChild.class,
+            MethodHandles.lookup()
+                .findStatic(
+                    ShadowUsageTrackerTest.class, "twice", methodType(int.class, int.class)));
+
+    assertThat(tracker.wasUsedSinceReset(ShadowChild.class.getName())).isFalse();
+
+    assertThat((int) mh.invokeExact(21)).isEqualTo(42);
+
+    assertThat(tracker.wasUsedSinceReset(ShadowChild.class.getName())).isTrue();
+    assertThat(tracker.wasUsedSinceReset(ShadowParent.class.getName())).isTrue();
+  }
+
+  @Test
+  public void reset_clearsUses() throws Throwable {
+    MethodHandle mh =
+        tracker.trackUsage(
+            ShadowParent.class,
+            MethodHandles.lookup()
+                .findStatic(
+                    ShadowUsageTrackerTest.class, "twice", methodType(int.class, int.class)));
+    int unused = (int) mh.invokeExact(1);
+
+    tracker.reset();
+
+    assertThat(tracker.wasUsedSinceReset(ShadowParent.class.getName())).isFalse();
+
+    unused = (int) mh.invokeExact(1);
+
+    assertThat(tracker.wasUsedSinceReset(ShadowParent.class.getName())).isTrue();
+  }
+
+  @SuppressWarnings("unused") // called via a method handle
+  private static int twice(int value) {
+    return value * 2;
+  }
+
+  /** A shadow class. */
+  public static class ShadowParent {}
+
+  /** A shadow subclass. */
+  public static class ShadowChild extends ShadowParent {}
+}
@@ -1,6 +1,26 @@
 package org.robolectric.internal;
 
+import org.robolectric.util.PerfStatsCollector;
+
 public interface ClassTracker {
 
   boolean isClassLoaded(String className);
+
+  /**
+   * Returns whether the resetter of the given shadow needs to run, i.e. whether the static state of
+   * the shadow or of the class it shadows may have changed since shadows were last reset.
+   *
+   * <p>By default, this is whether either class has been loaded.
+   */
+  default boolean needsReset(String shadowClassName, String actualClassName) {
+    return isClassLoaded(shadowClassName) || isClassLoaded(actualClassName);
+  }
+
+  /** Runs the resetter of the given shadow, recording the time it takes. */
+  default void runResetter(String shadowClassName, Runnable resetter) {
+    PerfStatsCollector.getInstance().measure("reset " + shadowClassName, resetter::run);
+  }
+
+  /** Called once the shadows of every {@link ShadowProvider} have been reset. */
+  default void onResetComplete() {}
 }
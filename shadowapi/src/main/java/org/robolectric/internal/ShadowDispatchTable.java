@@ -0,0 +1,197 @@
+package org.robolectric.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The methods of the shadow classes in a shadow package, as recorded at compile time by the
+ * Robolectric annotation processor, so that shadow methods can be found without scanning shadow
+ * classes and parsing their annotations at runtime.
+ *
+ * <p>The table for a shadow package is the resource named by {@link #getResourceName(String)}. It
+ * is a UTF-8 text file that starts with a {@code robolectric-shadow-dispatch <version>} line,
+ * followed by a {@code shadow} line for each shadow class, each followed by a {@code method} line
+ * for each of its public or protected methods, in declaration order. Fields are separated by tabs.
+ */
+public final class ShadowDispatchTable {
+  /** The version of the format, which is incremented whenever it changes incompatibly. */
+  public static final int VERSION = 1;
+
+  private static final String HEADER = "robolectric-shadow-dispatch";
+  private static final String RESOURCE_PREFIX = "META-INF/robolectric/shadow-dispatch/";
+
+  private final Map<String, List<ShadowMethod>> methodsByShadow;
+
+  public ShadowDispatchTable(Map<String, List<ShadowMethod>> methodsByShadow) {
+    this.methodsByShadow = methodsByShadow;
+  }
+
+  /** Returns the name of the resource holding the table for the given shadow package. */
+  public static String getResourceName(String shadowPackage) {
+    return RESOURCE_PREFIX + shadowPackage;
+  }
+
+  /**
+   * Returns the methods declared by the given shadow class, in declaration order, or null if the
+   * class isn't in this table.
+   */
+  @Nullable
+  public List<ShadowMethod> getMethods(String shadowClassName) {
+    return methodsByShadow.get(shadowClassName);
+  }
+
+  /** Writes this table in the format read by {@link #read(Reader)}. */
+  public void writeTo(Writer writer) throws IOException {
+    writer.write(HEADER + " " + VERSION + "\n");
+    for (Map.Entry<String, List<ShadowMethod>> entry : methodsByShadow.entrySet()) {
+      writer.write("shadow\t" + entry.getKey() + "\n");
+      for (ShadowMethod method : entry.getValue()) {
+        writer.write(
+            "method\t"
+                + method.name
+                + "\t"
+                + String.join(",", method.aliases)
+                + "\t"
+                + String.join(",", method.parameterTypes)
+                + "\t"
+                + joinNullable(method.parameterClassNames)
+                + "\t"
+                + method.minSdk
+                + "\t"
+                + method.maxSdk
+                + "\t"
+                + (method.isImplementation ? "I" : "")
+                + (method.isFilter ? "F" : "")
+                + "\n");
+      }
+    }
+  }
+
+  /**
+   * Reads a table written by {@link #writeTo(Writer)}.
+   *
+   * @throws IOException if the table can't be read, or was written in another version of the format
+   */
+  public static ShadowDispatchTable read(Reader reader) throws IOException {
+    BufferedReader lines = new BufferedReader(reader);
+    String header = lines.readLine();
+    if (!(HEADER + " " + VERSION).equals(header)) {
+      throw new IOException("unsupported shadow dispatch table: " + header);
+    }
+    Map<String, List<ShadowMethod>> methodsByShadow = new LinkedHashMap<>();
+    List<ShadowMethod> methods = null;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split("\t", -1);
+      if (fields[0].equals("shadow") && fields.length == 2) {
+        methods = new ArrayList<>();
+        methodsByShadow.put(fields[1], methods);
+      } else if (fields[0].equals("method") && fields.length == 8 && methods != null) {
+        methods.add(parseMethod(fields));
+      } else {
+        throw new IOException("malformed shadow dispatch table line: " + line);
+      }
+    }
+    return new ShadowDispatchTable(methodsByShadow);
+  }
+
+  private static ShadowMethod parseMethod(String[] fields) throws IOException {
+    List<String> parameterTypes = split(fields[3]);
+    List<String> parameterClassNames = new ArrayList<>(parameterTypes.size());
+    if (!parameterTypes.isEmpty()) {
+      for (String className : fields[4].split(",", -1)) {
+        parameterClassNames.add(className.isEmpty() ? null : className);
+      }
+    }
+    if (parameterClassNames.size() != parameterTypes.size()) {
+      throw new IOException("malformed shadow dispatch table method: " + fields[1]);
+    }
+    try {
+      return new ShadowMethod(
+          fields[1],
+          split(fields[2]),
+          parameterTypes,
+          parameterClassNames,
+          Integer.parseInt(fields[5]),
+          Integer.parseInt(fields[6]),
+          fields[7].contains("I"),
+          fields[7].contains("F"));
+    } catch (NumberFormatException e) {
+      throw new IOException("malformed shadow dispatch table method: " + fields[1], e);
+    }
+  }
+
+  private static List<String> split(String field) {
+    return field.isEmpty() ? Collections.emptyList() : Arrays.asList(field.split(","));
+  }
+
+  private static String joinNullable(List<String> values) {
+    StringBuilder joined = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        joined.append(',');
+      }
+      if (values.get(i) != null) {
+        joined.append(values.get(i));
+      }
+    }
+    return joined.toString();
+  }
+
+  /** A public or protected method declared by a shadow class. */
+  public static final class ShadowMethod {
+    /** The name of the method. */
+    public final String name;
+
+    /** The {@code methodName}s given by its {@code @Implementation} or {@code @Filter}. */
+    public final List<String> aliases;
+
+    /** The erased types of its parameters, as returned by {@link Class#getName()}. */
+    public final List<String> parameterTypes;
+
+    /** The {@code @ClassName} of each parameter, or null for parameters without one. */
+    public final List<String> parameterClassNames;
+
+    /**
+     * The SDK range of its {@code @Filter}, or of its {@code @Implementation} if it has no {@code
+     * Filter}, where -1 means unbounded.
+     */
+    public final int minSdk;
+
+    public final int maxSdk;
+
+    public final boolean isImplementation;
+    public final boolean isFilter;
+
+    public ShadowMethod(
+        String name,
+        List<String> aliases,
+        List<String> parameterTypes,
+        List<String> parameterClassNames,
+        int minSdk,
+        int maxSdk,
+        boolean isImplementation,
+        boolean isFilter) {
+      this.name = name;
+      this.aliases = aliases;
+      this.parameterTypes = parameterTypes;
+      this.parameterClassNames = parameterClassNames;
+      this.minSdk = minSdk;
+      this.maxSdk = maxSdk;
+      this.isImplementation = isImplementation;
+      this.isFilter = isFilter;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.robolectric.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.robolectric.internal.ShadowDispatchTable.ShadowMethod;
+
+/** Tests for {@link ShadowDispatchTable} */
+@RunWith(JUnit4.class)
+public class ShadowDispatchTableTest {
+
+  @Test
+  public void writeTo_read_roundTrips() throws Exception {
+    ShadowDispatchTable table =
+        new ShadowDispatchTable(
+            ImmutableMap.of(
+                "org.example.ShadowThing",
+                ImmutableList.of(
+                    new ShadowMethod(
+                        "run",
+                        ImmutableList.of(),
+                        ImmutableList.of(),
+                        ImmutableList.of(),
+                        -1,
+                        -1,
+                        true,
+                        false),
+                    new ShadowMethod(
+                        "takeAlias",
+                        ImmutableList.of("take"),
+                        ImmutableList.of("int", "java.lang.Object", "[Ljava.lang.String;"),
+                        Arrays.asList(null, "android.os.Thing", null),
+                        21,
+                        33,
+                        false,
+                        true)),
+                "org.example.ShadowEmpty",
+                ImmutableList.of()));
+
+    ShadowDispatchTable read = ShadowDispatchTable.read(new StringReader(write(table)));
+
+    assertThat(read.getMethods("org.example.ShadowEmpty")).isEmpty();
+    assertThat(read.getMethods("org.example.Missing")).isNull();
+    List<ShadowMethod> methods = read.getMethods("org.example.ShadowThing");
+    assertThat(methods).hasSize(2);
+    assertThat(methods.get(0).name).isEqualTo("run");
+    assertThat(methods.get(0).parameterTypes).isEmpty();
+    assertThat(methods.get(0).isImplementation).isTrue();
+    ShadowMethod take = methods.get(1);
+    assertThat(take.name).isEqualTo("takeAlias");
+    assertThat(take.aliases).containsExactly("take");
+    assertThat(take.parameterTypes)
+        .containsExactly("int", "java.lang.Object", "[Ljava.lang.String;")
+        .inOrder();
+    assertThat(take.parameterClassNames).containsExactly(null, "android.os.Thing", null).inOrder();
+    assertThat(take.minSdk).isEqualTo(21);
+    assertThat(take.maxSdk).isEqualTo(33);
+    assertThat(take.isImplementation).isFalse();
+    assertThat(take.isFilter).isTrue();
+  }
+
+  @Test
+  public void read_otherVersion_throws() {
+    assertThrows(
+        IOException.class,
+        () ->
+            ShadowDispatchTable.read(
+                new StringReader("robolectric-shadow-dispatch 0\nshadow\torg.example.Shadow\n")));
+  }
+
+  @Test
+  public void read_malformedLine_throws() {
+    assertThrows(
+        IOException.class,
+        () ->
+            ShadowDispatchTable.read(
+                new StringReader(
+                    "robolectric-shadow-dispatch "
+                        + ShadowDispatchTable.VERSION
+                        + "\nmethod\trun\t\t\t\t-1\t-1\tI\n")));
+  }
+
+  private static String write(ShadowDispatchTable table) throws IOException {
+    StringWriter writer = new StringWriter();
+    table.writeTo(writer);
+    return writer.toString();
+  }
+}
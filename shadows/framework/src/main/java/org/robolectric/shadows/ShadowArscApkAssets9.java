@@ -117,7 +117,8 @@ public class ShadowArscApkAssets9 extends ShadowApkAssets {
       return 0;
     }
 
-    long cachedApkAssetsPtr = ApkAssetsCache.get(path, system, RuntimeEnvironment.getApiLevel());
+    long cachedApkAssetsPtr =
+        ApkAssetsCache.get(path, system, RuntimeEnvironment.getApiLevel(), cacheOwner());
     if (cachedApkAssetsPtr != -1) {
       return cachedApkAssetsPtr;
     }
@@ -148,11 +149,19 @@ public class ShadowArscApkAssets9 extends ShadowApkAssets {
                 throw new IOException(error_msg);
               }
               long ptr = Registries.NATIVE_APK_ASSETS_REGISTRY.register(apk_assets);
-              ApkAssetsCache.put(path, system, RuntimeEnvironment.getApiLevel(), ptr);
-              return ptr;
+              return ApkAssetsCache.putIfAbsent(
+                  path, system, RuntimeEnvironment.getApiLevel(), ptr, cacheOwner());
             });
   }
 
+  /**
+   * The owner of this sandbox's {@link ApkAssetsCache} entries, which are released when the sandbox
+   * is shut down.
+   */
+  private static Object cacheOwner() {
+    return ShadowArscApkAssets9.class.getClassLoader();
+  }
+
   @Implementation(minSdk = R)
   protected static long nativeLoad(
       int format,
@@ -15,6 +15,7 @@ import android.view.Choreographer;
 import android.view.Choreographer.FrameCallback;
 import android.view.DisplayEventReceiver;
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
 import org.robolectric.annotation.ClassName;
 import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
@@ -52,6 +53,12 @@ public abstract class ShadowChoreographer {
    */
   private static volatile long nextVsyncTimeNanos;
 
+  private static volatile boolean coalesceFrames = getDefaultCoalesceFrames();
+
+  private static final AtomicLong executedFrameCount = new AtomicLong();
+
+  private static final AtomicLong skippedFrameCount = new AtomicLong();
+
   public static class Picker extends LooperShadowPicker<ShadowChoreographer> {
 
     public Picker() {
@@ -133,6 +140,57 @@ public abstract class ShadowChoreographer {
     ShadowChoreographer.nextVsyncTimeNanos = nextVsyncTimeNanos;
   }
 
+  /**
+   * Sets whether repeated frames may be coalesced when idling the looper for a duration.
+   *
+   * <p>When enabled and a frame callback keeps rescheduling itself (e.g. a running animation), each
+   * {@link ShadowLooper#idleFor(Duration)} runs the first frame at its scheduled time, and then, if
+   * the next frame is the only task left on the looper, jumps straight to the last frame that fits
+   * in the idled duration instead of running every frame in between. Frames that are jumped over
+   * are reported by {@link #getSkippedFrameCount()}. This trades animation fidelity for speed, as
+   * the animation only observes the final frame time, similar to a device dropping frames.
+   *
+   * <p>The default is false, or the value of the {@code robolectric.coalesceFrames} system
+   * property. Only applies to frames that are scheduled as looper messages, which is the case when
+   * {@link #isPaused()} is true on SDKs after Baklava.
+   */
+  public static void setCoalesceFrames(boolean coalesce) {
+    checkState(!ShadowLooper.looperMode().equals(Mode.LEGACY), "Looper cannot be %s", Mode.LEGACY);
+    coalesceFrames = coalesce;
+  }
+
+  /** See {@link #setCoalesceFrames(boolean)}. */
+  public static boolean isCoalescingFrames() {
+    return coalesceFrames;
+  }
+
+  /** Returns the number of frames executed by any Choreographer since the last reset. */
+  public static long getExecutedFrameCount() {
+    return executedFrameCount.get();
+  }
+
+  /**
+   * Returns the number of frames that were due but not executed since the last reset, either
+   * because the clock was advanced past several frame times at once, or because the frames were
+   * coalesced (see {@link #setCoalesceFrames(boolean)}).
+   */
+  public static long getSkippedFrameCount() {
+    return skippedFrameCount.get();
+  }
+
+  static void recordSkippedFrames(long count) {
+    if (count > 0) {
+      skippedFrameCount.addAndGet(count);
+      PerfStatsCollector.getInstance()
+          .incrementCount("skippedFrames", (int) Math.min(count, Integer.MAX_VALUE));
+    }
+  }
+
+  private static void recordExecutedFrame() {
+    executedFrameCount.incrementAndGet();
+    PerfStatsCollector.getInstance().incrementCount("executedFrames");
+  }
+
   /**
    * Allows application to specify a fixed amount of delay when {@link
    * Choreographer#postCallback(int, Runnable, Object)} is invoked. The default delay value is 0.
@@ -204,6 +262,7 @@ public abstract class ShadowChoreographer {
     if (reflector == null) {
       reflector = reflector(ChoreographerReflector.class, realObject);
     }
+    recordExecutedFrame();
     PerfStatsCollector.getInstance()
         .measure("doFrame", () -> reflector.doFrame(frameTimeNanos, frame));
   }
@@ -216,6 +275,7 @@ public abstract class ShadowChoreographer {
     if (reflector == null) {
       reflector = reflector(ChoreographerReflector.class, realObject);
     }
+    recordExecutedFrame();
     PerfStatsCollector.getInstance()
         .measure("doFrame", () -> reflector.doFrame(frameTimeNanos, frame, vsyncEventData));
   }
@@ -225,6 +285,9 @@ public abstract class ShadowChoreographer {
     nextVsyncTimeNanos = 0;
     isPaused = false;
     frameDelay = Duration.ofMillis(getDefaultFrameDelay());
+    coalesceFrames = getDefaultCoalesceFrames();
+    executedFrameCount.set(0);
+    skippedFrameCount.set(0);
     if (getApiLevel() >= N) {
       ShadowBackdropFrameRenderer.reset();
     }
@@ -236,6 +299,10 @@ public abstract class ShadowChoreographer {
     return Integer.getInteger("robolectric.defaultFrameDelayMs", 15);
   }
 
+  private static boolean getDefaultCoalesceFrames() {
+    return Boolean.getBoolean("robolectric.coalesceFrames");
+  }
+
   /** Accessor interface for {@link Choreographer}'s internals */
   @ForType(Choreographer.class)
   protected interface ChoreographerReflector {
@@ -179,10 +179,16 @@ public class ShadowDisplayEventReceiver {
     private void onClockAdvanced(Duration advancedBy) {
       synchronized (this) {
         long nextVsyncTime = ShadowChoreographer.getNextVsyncTimeNanos();
-        if (nextVsyncTime == 0 || ShadowPausedSystemClock.uptimeNanos() < nextVsyncTime) {
+        long now = ShadowPausedSystemClock.uptimeNanos();
+        if (nextVsyncTime == 0 || now < nextVsyncTime) {
           return;
         }
         ShadowChoreographer.setNextVsyncTimeNanos(0);
+        // all the vsyncs that passed during this advance are delivered as a single one
+        long frameDelayNanos = ShadowChoreographer.getFrameDelay().toNanos();
+        if (frameDelayNanos > 0) {
+          ShadowChoreographer.recordSkippedFrames((now - nextVsyncTime) / frameDelayNanos);
+        }
       }
 
       doVsync();
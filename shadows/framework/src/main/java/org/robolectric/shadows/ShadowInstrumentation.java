@@ -39,6 +39,7 @@ import android.os.UserHandle;
 import android.text.TextUtils;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
@@ -53,6 +54,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -96,8 +99,7 @@ public class ShadowInstrumentation {
   private final List<ServiceConnection> unboundServiceConnections =
       Collections.synchronizedList(new ArrayList<>());
 
-  @GuardedBy("itself")
-  private final List<Wrapper> registeredReceivers = new ArrayList<>();
+  private final ReceiverRegistry registeredReceivers = new ReceiverRegistry();
 
   // map of PermissionKey to granted permissions
   private final Map<PermissionKey, Set<String>> grantedPermissionsMap =
@@ -277,26 +279,19 @@ public class ShadowInstrumentation {
   }
 
   void assertNoBroadcastListenersOfActionRegistered(ContextWrapper context, String action) {
-    synchronized (registeredReceivers) {
-      for (Wrapper registeredReceiver : registeredReceivers) {
-        if (registeredReceiver.context == context.getBaseContext()) {
-          Iterator<String> actions = registeredReceiver.intentFilter.actionsIterator();
-          while (actions.hasNext()) {
-            if (actions.next().equals(action)) {
-              RuntimeException e =
-                  new IllegalStateException(
-                      "Unexpected BroadcastReceiver on "
-                          + context
-                          + " with action "
-                          + action
-                          + " "
-                          + registeredReceiver.broadcastReceiver
-                          + " that was originally registered here:");
-              e.setStackTrace(registeredReceiver.exception.getStackTrace());
-              throw e;
-            }
-          }
-        }
+    for (Wrapper registeredReceiver : registeredReceivers.getReceiversForAction(action)) {
+      if (registeredReceiver.context == context.getBaseContext()) {
+        RuntimeException e =
+            new IllegalStateException(
+                "Unexpected BroadcastReceiver on "
+                    + context
+                    + " with action "
+                    + action
+                    + " "
+                    + registeredReceiver.broadcastReceiver
+                    + " that was originally registered here:");
+        e.setStackTrace(registeredReceiver.exception.getStackTrace());
+        throw e;
       }
     }
   }
@@ -321,18 +316,11 @@ public class ShadowInstrumentation {
     }
 
     List<Wrapper> result = new ArrayList<>();
-
-    List<Wrapper> copy = new ArrayList<>();
-    synchronized (registeredReceivers) {
-      copy.addAll(registeredReceivers);
-    }
-
-    for (Wrapper wrapper : copy) {
+    for (Wrapper wrapper : registeredReceivers.getCandidates(intent)) {
       if (broadcastReceiverMatchesIntent(context, wrapper, intent, receiverPermission)) {
         result.add(wrapper);
       }
     }
-    System.err.format("Intent = %s; Matching wrappers: %s\n", intent, result);
     return result;
   }
 
@@ -907,10 +895,9 @@ public class ShadowInstrumentation {
       }
     }
     if (receiver != null) {
-      synchronized (registeredReceivers) {
-        registeredReceivers.add(
-            new Wrapper(receiver, filter, context, broadcastPermission, scheduler, flags));
-      }
+      Wrapper wrapper =
+          new Wrapper(receiver, filter, context, broadcastPermission, scheduler, flags);
+      registeredReceivers.add(wrapper);
     }
     return processStickyIntents(filter, receiver, context);
   }
@@ -936,28 +923,13 @@ public class ShadowInstrumentation {
   }
 
   void unregisterReceiver(BroadcastReceiver broadcastReceiver) {
-    boolean found = false;
-
-    synchronized (registeredReceivers) {
-      Iterator<Wrapper> iterator = registeredReceivers.iterator();
-      while (iterator.hasNext()) {
-        Wrapper wrapper = iterator.next();
-        if (wrapper.broadcastReceiver == broadcastReceiver) {
-          iterator.remove();
-          found = true;
-        }
-      }
-    }
-
-    if (!found) {
+    if (!registeredReceivers.remove(broadcastReceiver)) {
       throw new IllegalArgumentException("Receiver not registered: " + broadcastReceiver);
     }
   }
 
   void clearRegisteredReceivers() {
-    synchronized (registeredReceivers) {
-      registeredReceivers.clear();
-    }
+    registeredReceivers.clear();
   }
 
   /**
@@ -965,14 +937,7 @@ public class ShadowInstrumentation {
    */
   @Deprecated
   boolean hasReceiverForIntent(Intent intent) {
-    synchronized (registeredReceivers) {
-      for (Wrapper wrapper : registeredReceivers) {
-        if (wrapper.intentFilter.matchAction(intent.getAction())) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return !registeredReceivers.getReceiversForAction(intent.getAction()).isEmpty();
   }
 
   /**
@@ -981,13 +946,8 @@ public class ShadowInstrumentation {
   @Deprecated
   List<BroadcastReceiver> getReceiversForIntent(Intent intent) {
     ArrayList<BroadcastReceiver> broadcastReceivers = new ArrayList<>();
-
-    synchronized (registeredReceivers) {
-      for (Wrapper wrapper : registeredReceivers) {
-        if (wrapper.intentFilter.matchAction(intent.getAction())) {
-          broadcastReceivers.add(wrapper.getBroadcastReceiver());
-        }
-      }
+    for (Wrapper wrapper : registeredReceivers.getReceiversForAction(intent.getAction())) {
+      broadcastReceivers.add(wrapper.getBroadcastReceiver());
     }
     return broadcastReceivers;
   }
@@ -996,12 +956,7 @@ public class ShadowInstrumentation {
    * @return copy of the list of {@link Wrapper}s for registered receivers
    */
   ImmutableList<Wrapper> getRegisteredReceivers() {
-    ImmutableList<Wrapper> copy;
-    synchronized (registeredReceivers) {
-      copy = ImmutableList.copyOf(registeredReceivers);
-    }
-
-    return copy;
+    return registeredReceivers.getAll();
   }
 
   int checkPermission(String permission, int pid, int uid) {
@@ -1102,6 +1057,93 @@ public class ShadowInstrumentation {
         Bundle options);
   }
 
+  /**
+   * The registered receivers, in registration order, indexed by the actions of their intent
+   * filters.
+   *
+   * <p>Each action has a copy-on-write list of its receivers, so that registering a receiver only
+   * updates the lists of its own actions, and broadcasts can iterate over them without locking.
+   *
+   * <p>As on a real device, the actions of an intent filter are read when the receiver is
+   * registered.
+   */
+  private static final class ReceiverRegistry {
+    /** The registered receivers, in registration order, and the actions they were indexed by. */
+    @GuardedBy("this")
+    private final LinkedHashMap<Wrapper, Set<String>> actionsByReceiver = new LinkedHashMap<>();
+
+    private final Map<String, CopyOnWriteArrayList<Wrapper>> receiversByAction =
+        new ConcurrentHashMap<>();
+
+    synchronized void add(Wrapper wrapper) {
+      Set<String> actions = getActions(wrapper.intentFilter);
+      actionsByReceiver.put(wrapper, actions);
+      for (String action : actions) {
+        receiversByAction.computeIfAbsent(action, k -> new CopyOnWriteArrayList<>()).add(wrapper);
+      }
+    }
+
+    /** Unregisters the given receiver, and returns whether it was registered. */
+    synchronized boolean remove(BroadcastReceiver broadcastReceiver) {
+      boolean found = false;
+      Iterator<Map.Entry<Wrapper, Set<String>>> iterator = actionsByReceiver.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Wrapper, Set<String>> entry = iterator.next();
+        if (entry.getKey().broadcastReceiver != broadcastReceiver) {
+          continue;
+        }
+        found = true;
+        iterator.remove();
+        for (String action : entry.getValue()) {
+          List<Wrapper> actionReceivers = receiversByAction.get(action);
+          actionReceivers.remove(entry.getKey());
+          if (actionReceivers.isEmpty()) {
+            receiversByAction.remove(action);
+          }
+        }
+      }
+      return found;
+    }
+
+    synchronized void clear() {
+      actionsByReceiver.clear();
+      receiversByAction.clear();
+    }
+
+    /** Returns a copy of the registered receivers. */
+    synchronized ImmutableList<Wrapper> getAll() {
+      return ImmutableList.copyOf(actionsByReceiver.keySet());
+    }
+
+    /** Returns the receivers whose intent filters contain the given action. */
+    List<Wrapper> getReceiversForAction(@Nullable String action) {
+      List<Wrapper> actionReceivers = action == null ? null : receiversByAction.get(action);
+      return actionReceivers == null ? ImmutableList.of() : actionReceivers;
+    }
+
+    /**
+     * Returns the receivers that may match the given intent, in registration order: those
+     * registered for its action, or all of them for an explicit intent, which also matches
+     * receivers by class.
+     */
+    List<Wrapper> getCandidates(Intent intent) {
+      if (intent.getComponent() != null) {
+        return getAll();
+      }
+      return getReceiversForAction(intent.getAction());
+    }
+
+    private static Set<String> getActions(IntentFilter intentFilter) {
+      Iterator<String> actions = intentFilter.actionsIterator();
+      if (actions == null) {
+        return ImmutableSet.of();
+      }
+      ImmutableSet.Builder<String> distinctActions = ImmutableSet.builder();
+      actions.forEachRemaining(distinctActions::add);
+      return distinctActions.build();
+    }
+  }
+
   private static final class BroadcastResultHolder {
     private final int resultCode;
     private final String resultData;
@@ -1,5 +1,6 @@
 package org.robolectric.shadows;
 
+import static android.os.Build.VERSION_CODES.R;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import android.database.Cursor;
@@ -7,13 +8,12 @@ import android.database.CursorWindow;
 import com.almworks.sqlite4java.SQLiteConstants;
 import com.almworks.sqlite4java.SQLiteException;
 import com.almworks.sqlite4java.SQLiteStatement;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
 
@@ -34,18 +34,18 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
 
   @Implementation
   protected static byte[] nativeGetBlob(long windowPtr, int row, int column) {
-    Value value = WINDOW_DATA.get(windowPtr).value(row, column);
+    Data data = WINDOW_DATA.get(windowPtr);
+    int cell = data.cell(row, column);
 
-    switch (value.type) {
+    switch (data.type(cell)) {
       case Cursor.FIELD_TYPE_NULL:
         return null;
       case Cursor.FIELD_TYPE_BLOB:
         // This matches Android's behavior, which does not match the SQLite spec
-        byte[] blob = (byte[]) value.value;
-        return blob == null ? new byte[] {} : blob;
+        return data.blob(cell);
       case Cursor.FIELD_TYPE_STRING:
         // Matches the Android behavior to contain a zero-byte at the end
-        byte[] stringBytes = ((String) value.value).getBytes(UTF_8);
+        byte[] stringBytes = data.string(cell).getBytes(UTF_8);
         return Arrays.copyOf(stringBytes, stringBytes.length + 1);
       default:
         throw new android.database.sqlite.SQLiteException(
@@ -55,28 +55,48 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
 
   @Implementation
   protected static String nativeGetString(long windowPtr, int row, int column) {
-    Value val = WINDOW_DATA.get(windowPtr).value(row, column);
-    if (val.type == Cursor.FIELD_TYPE_BLOB) {
-      throw new android.database.sqlite.SQLiteException(
-          "Getting string when column is blob. Row " + row + ", col " + column);
+    Data data = WINDOW_DATA.get(windowPtr);
+    int cell = data.cell(row, column);
+
+    switch (data.type(cell)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return null;
+      case Cursor.FIELD_TYPE_INTEGER:
+        return String.valueOf(data.longValue(cell));
+      case Cursor.FIELD_TYPE_FLOAT:
+        return String.valueOf(data.doubleValue(cell));
+      case Cursor.FIELD_TYPE_STRING:
+        return data.string(cell);
+      default:
+        throw new android.database.sqlite.SQLiteException(
+            "Getting string when column is blob. Row " + row + ", col " + column);
     }
-    Object value = val.value;
-    return value == null ? null : String.valueOf(value);
   }
 
   @Implementation
   protected static long nativeGetLong(long windowPtr, int row, int column) {
-    return nativeGetNumber(windowPtr, row, column).longValue();
+    Data data = WINDOW_DATA.get(windowPtr);
+    int cell = data.cell(row, column);
+    if (data.type(cell) == Cursor.FIELD_TYPE_INTEGER) {
+      return data.longValue(cell);
+    }
+    return (long) nativeGetNumber(data, cell);
   }
 
   @Implementation
   protected static double nativeGetDouble(long windowPtr, int row, int column) {
-    return nativeGetNumber(windowPtr, row, column).doubleValue();
+    Data data = WINDOW_DATA.get(windowPtr);
+    int cell = data.cell(row, column);
+    if (data.type(cell) == Cursor.FIELD_TYPE_INTEGER) {
+      return data.longValue(cell);
+    }
+    return nativeGetNumber(data, cell);
   }
 
   @Implementation
   protected static int nativeGetType(long windowPtr, int row, int column) {
-    return WINDOW_DATA.get(windowPtr).value(row, column).type;
+    Data data = WINDOW_DATA.get(windowPtr);
+    return data.type(data.cell(row, column));
   }
 
   @Implementation
@@ -93,39 +113,29 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
   protected static boolean nativePutBlob(long windowPtr, byte[] value, int row, int column) {
     // Real Android will crash in native code if putString is called with a null value.
     Objects.requireNonNull(value);
-    return WINDOW_DATA
-        .get(windowPtr)
-        .putValue(new Value(value, Cursor.FIELD_TYPE_BLOB), row, column);
+    return WINDOW_DATA.get(windowPtr).putBlob(value, row, column);
   }
 
   @Implementation
   protected static boolean nativePutString(long windowPtr, String value, int row, int column) {
     // Real Android will crash in native code if putString is called with a null value.
     Objects.requireNonNull(value);
-    return WINDOW_DATA
-        .get(windowPtr)
-        .putValue(new Value(value, Cursor.FIELD_TYPE_STRING), row, column);
+    return WINDOW_DATA.get(windowPtr).putString(value, row, column);
   }
 
   @Implementation
   protected static boolean nativePutLong(long windowPtr, long value, int row, int column) {
-    return WINDOW_DATA
-        .get(windowPtr)
-        .putValue(new Value(value, Cursor.FIELD_TYPE_INTEGER), row, column);
+    return WINDOW_DATA.get(windowPtr).putLong(value, row, column);
   }
 
   @Implementation
   protected static boolean nativePutDouble(long windowPtr, double value, int row, int column) {
-    return WINDOW_DATA
-        .get(windowPtr)
-        .putValue(new Value(value, Cursor.FIELD_TYPE_FLOAT), row, column);
+    return WINDOW_DATA.get(windowPtr).putDouble(value, row, column);
   }
 
   @Implementation
   protected static boolean nativePutNull(long windowPtr, int row, int column) {
-    return WINDOW_DATA
-        .get(windowPtr)
-        .putValue(new Value(null, Cursor.FIELD_TYPE_NULL), row, column);
+    return WINDOW_DATA.get(windowPtr).putNull(row, column);
   }
 
   @Implementation
@@ -133,6 +143,11 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
     return WINDOW_DATA.get(windowPtr).allocRow();
   }
 
+  @Implementation
+  protected static void nativeFreeLastRow(long windowPtr) {
+    WINDOW_DATA.get(windowPtr).freeLastRow();
+  }
+
   @Implementation
   protected static boolean nativeSetNumColumns(long windowPtr, int columnNum) {
     return WINDOW_DATA.get(windowPtr).setNumColumns(columnNum);
@@ -147,61 +162,194 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
     return WINDOW_DATA.setData(windowPtr, stmt);
   }
 
-  private static Number nativeGetNumber(long windowPtr, int row, int column) {
-    Value value = WINDOW_DATA.get(windowPtr).value(row, column);
-    switch (value.type) {
+  private static double nativeGetNumber(Data data, int cell) {
+    switch (data.type(cell)) {
       case Cursor.FIELD_TYPE_NULL:
-      case SQLiteConstants.SQLITE_NULL:
         return 0;
-      case Cursor.FIELD_TYPE_INTEGER:
       case Cursor.FIELD_TYPE_FLOAT:
-        return (Number) value.value;
+        return data.doubleValue(cell);
       case Cursor.FIELD_TYPE_STRING:
         {
           try {
-            return Double.parseDouble((String) value.value);
+            return Double.parseDouble(data.string(cell));
           } catch (NumberFormatException e) {
             return 0;
           }
         }
       case Cursor.FIELD_TYPE_BLOB:
-        throw new android.database.sqlite.SQLiteException("could not convert " + value);
+        throw new android.database.sqlite.SQLiteException("could not convert blob to number");
       default:
-        throw new android.database.sqlite.SQLiteException("unknown type: " + value.type);
+        throw new android.database.sqlite.SQLiteException("unknown type: " + data.type(cell));
     }
   }
 
+  /**
+   * The contents of a cursor window.
+   *
+   * <p>Like the native CursorWindow, cells are stored row by row, without allocating an object per
+   * cell: each cell has a type and a 64-bit payload, which holds the value of integer and float
+   * cells, and the position of string and blob cells in shared character and byte arenas. Rows
+   * filled from a query have as many cells as the query has columns, and rows allocated with {@link
+   * #allocRow} have as many cells as the window has columns.
+   *
+   * <p>The number of bytes the native CursorWindow would use is tracked, so that puts fail once the
+   * window is full, as they do on Android. Since R, the native CursorWindow allocates field slots
+   * from the end of the window and aligned values from the start, instead of after a header and
+   * chunks of row slots. Rows filled from a query are always added, as this shadow does not support
+   * filling a window starting from a given row.
+   */
   private static class Data {
-    private final List<Row> rows;
+    // Sizes of the native CursorWindow's header, row slot chunks, and field slots.
+    private static final int HEADER_SIZE_BYTES = 16;
+    private static final int ROW_SLOT_CHUNK_NUM_ROWS = 100;
+    private static final int ROW_SLOT_CHUNK_SIZE_BYTES = ROW_SLOT_CHUNK_NUM_ROWS * 4 + 4;
+    private static final int FIELD_SLOT_SIZE_BYTES = 12;
+
     private final String name;
+    private final int cursorWindowSize;
+    private final boolean allocatesFromBothEnds = RuntimeEnvironment.getApiLevel() >= R;
     private int numColumns;
 
+    private int numRows;
+
+    /** The index of the first cell of each row; the last entry is the number of cells. */
+    private int[] rowStarts = new int[] {0};
+
+    private byte[] cellTypes = new byte[0];
+    private long[] cellValues = new long[0];
+
+    private char[] strings = new char[0];
+    private int stringsSize;
+    private byte[] blobs = new byte[0];
+    private int blobsSize;
+
+    /** The number of bytes the native CursorWindow would use for the same contents. */
+    private long usedBytes;
+
+    /** The number of rows that have row slots, which are never freed. */
+    private int rowSlotCapacity;
+
     public Data(String name, int cursorWindowSize) {
       this.name = name;
-      this.rows = new ArrayList<>();
+      this.cursorWindowSize = cursorWindowSize;
+      clear();
     }
 
-    public Value value(int rowN, int colN) {
-      Row row = rows.get(rowN);
-      if (row == null) {
-        throw new IllegalArgumentException("Bad row number: " + rowN + ", count: " + rows.size());
+    /** Returns the index of the given cell. */
+    public int cell(int rowN, int colN) {
+      if (rowN < 0 || rowN >= numRows) {
+        throw new IndexOutOfBoundsException("Bad row number: " + rowN + ", count: " + numRows);
+      }
+      int rowStart = rowStarts[rowN];
+      if (colN < 0 || colN >= rowStarts[rowN + 1] - rowStart) {
+        throw new IndexOutOfBoundsException(
+            "Bad column number: "
+                + colN
+                + ", count: "
+                + (rowStarts[rowN + 1] - rowStart)
+                + ", row: "
+                + rowN);
       }
-      return row.get(colN);
+      return rowStart + colN;
+    }
+
+    public int type(int cell) {
+      return cellTypes[cell];
+    }
+
+    public long longValue(int cell) {
+      return cellValues[cell];
+    }
+
+    public double doubleValue(int cell) {
+      return Double.longBitsToDouble(cellValues[cell]);
+    }
+
+    public String string(int cell) {
+      long value = cellValues[cell];
+      return new String(strings, (int) (value >>> 32), (int) value);
+    }
+
+    public byte[] blob(int cell) {
+      long value = cellValues[cell];
+      int offset = (int) (value >>> 32);
+      return Arrays.copyOfRange(blobs, offset, offset + (int) value);
     }
 
     public int numRows() {
-      return rows.size();
+      return numRows;
+    }
+
+    public boolean putLong(long value, int rowN, int colN) {
+      set(cell(rowN, colN), Cursor.FIELD_TYPE_INTEGER, value);
+      return true;
+    }
+
+    public boolean putDouble(double value, int rowN, int colN) {
+      set(cell(rowN, colN), Cursor.FIELD_TYPE_FLOAT, Double.doubleToRawLongBits(value));
+      return true;
+    }
+
+    public boolean putNull(int rowN, int colN) {
+      set(cell(rowN, colN), Cursor.FIELD_TYPE_NULL, 0);
+      return true;
+    }
+
+    public boolean putString(String value, int rowN, int colN) {
+      int cell = cell(rowN, colN);
+      if (!allocValue(utf8Length(value) + 1, /* enforceLimit= */ true)) {
+        return false;
+      }
+      setString(cell, value);
+      return true;
     }
 
-    public boolean putValue(Value value, int rowN, int colN) {
-      return rows.get(rowN).set(colN, value);
+    public boolean putBlob(byte[] value, int rowN, int colN) {
+      int cell = cell(rowN, colN);
+      if (!allocValue(value.length, /* enforceLimit= */ true)) {
+        return false;
+      }
+      setBlob(cell, value);
+      return true;
     }
 
     public void fillWith(SQLiteStatement stmt) throws SQLiteException {
       // Android caches results in the WindowedCursor to allow moveToPrevious() to function.
       // Robolectric will have to cache the results too. In the rows list.
       while (stmt.step()) {
-        rows.add(fillRowValues(stmt));
+        final int columnCount = stmt.columnCount();
+        addRow(columnCount, /* enforceLimit= */ false);
+        int rowStart = rowStarts[numRows - 1];
+        for (int index = 0; index < columnCount; index++) {
+          fillCell(stmt, index, rowStart + index);
+        }
+      }
+    }
+
+    private void fillCell(SQLiteStatement stmt, int index, int cell) throws SQLiteException {
+      int type = cursorValueType(stmt.columnType(index));
+      switch (type) {
+        case Cursor.FIELD_TYPE_INTEGER:
+          set(cell, type, stmt.columnLong(index));
+          break;
+        case Cursor.FIELD_TYPE_FLOAT:
+          set(cell, type, Double.doubleToRawLongBits(stmt.columnDouble(index)));
+          break;
+        case Cursor.FIELD_TYPE_STRING:
+          String string = stmt.columnString(index);
+          allocValue(utf8Length(string) + 1, /* enforceLimit= */ false);
+          setString(cell, string);
+          break;
+        case Cursor.FIELD_TYPE_BLOB:
+          byte[] blob = stmt.columnBlob(index);
+          if (blob == null) {
+            blob = new byte[0];
+          }
+          allocValue(blob.length, /* enforceLimit= */ false);
+          setBlob(cell, blob);
+          break;
+        default:
+          set(cell, Cursor.FIELD_TYPE_NULL, 0);
       }
     }
 
@@ -223,22 +371,26 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
       }
     }
 
-    private static Row fillRowValues(SQLiteStatement stmt) throws SQLiteException {
-      final int columnCount = stmt.columnCount();
-      Row row = new Row(columnCount);
-      for (int index = 0; index < columnCount; index++) {
-        row.set(index, new Value(stmt.columnValue(index), cursorValueType(stmt.columnType(index))));
-      }
-      return row;
-    }
-
     public void clear() {
-      rows.clear();
+      numRows = 0;
+      stringsSize = 0;
+      blobsSize = 0;
+      rowSlotCapacity = ROW_SLOT_CHUNK_NUM_ROWS;
+      usedBytes = allocatesFromBothEnds ? 0 : HEADER_SIZE_BYTES + ROW_SLOT_CHUNK_SIZE_BYTES;
     }
 
     public boolean allocRow() {
-      rows.add(new Row(numColumns));
-      return true;
+      return addRow(numColumns, /* enforceLimit= */ true);
+    }
+
+    public void freeLastRow() {
+      if (numRows > 0) {
+        numRows--;
+        // Before R, the native CursorWindow did not reclaim the row's space.
+        if (allocatesFromBothEnds) {
+          usedBytes -= (long) (rowStarts[numRows + 1] - rowStarts[numRows]) * FIELD_SLOT_SIZE_BYTES;
+        }
+      }
     }
 
     public boolean setNumColumns(int numColumns) {
@@ -249,35 +401,95 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
     public String getName() {
       return name;
     }
-  }
 
-  private static class Row {
-    private final List<Value> values;
+    /** Adds a row of null cells. */
+    private boolean addRow(int columnCount, boolean enforceLimit) {
+      if (!allocatesFromBothEnds && numRows == rowSlotCapacity) {
+        if (!alloc(ROW_SLOT_CHUNK_SIZE_BYTES, /* aligned= */ true, enforceLimit)) {
+          return false;
+        }
+        rowSlotCapacity += ROW_SLOT_CHUNK_NUM_ROWS;
+      }
+      // Field slots are packed at the end of the window since R, so they need no alignment.
+      if (!alloc(
+          (long) columnCount * FIELD_SLOT_SIZE_BYTES, !allocatesFromBothEnds, enforceLimit)) {
+        return false;
+      }
+      int rowStart = rowStarts[numRows];
+      int rowEnd = rowStart + columnCount;
+      if (numRows + 2 > rowStarts.length) {
+        rowStarts = Arrays.copyOf(rowStarts, Math.max(16, rowStarts.length * 2));
+      }
+      if (rowEnd > cellTypes.length) {
+        int newLength = Math.max(rowEnd, Math.max(16, cellTypes.length * 2));
+        cellTypes = Arrays.copyOf(cellTypes, newLength);
+        cellValues = Arrays.copyOf(cellValues, newLength);
+      }
+      Arrays.fill(cellTypes, rowStart, rowEnd, (byte) Cursor.FIELD_TYPE_NULL);
+      Arrays.fill(cellValues, rowStart, rowEnd, 0);
+      numRows++;
+      rowStarts[numRows] = rowEnd;
+      return true;
+    }
+
+    /**
+     * Accounts for an allocation in the native CursorWindow, returning false if {@code
+     * enforceLimit} is set and the window is full.
+     */
+    private boolean alloc(long sizeBytes, boolean aligned, boolean enforceLimit) {
+      long padding = aligned ? (-usedBytes & 3) : 0;
+      long newUsedBytes = usedBytes + padding + sizeBytes;
+      if (enforceLimit && newUsedBytes > cursorWindowSize) {
+        return false;
+      }
+      usedBytes = newUsedBytes;
+      return true;
+    }
 
-    public Row(int length) {
-      values = new ArrayList<>(length);
-      for (int i = 0; i < length; i++) {
-        values.add(new Value(null, Cursor.FIELD_TYPE_NULL));
+    /** Accounts for a string or blob value in the native CursorWindow. */
+    private boolean allocValue(int sizeBytes, boolean enforceLimit) {
+      if (allocatesFromBothEnds) {
+        // Values are rounded up to a multiple of 4 bytes since R, instead of being packed.
+        return alloc((sizeBytes + 3) & ~3, /* aligned= */ false, enforceLimit);
       }
+      return alloc(sizeBytes, /* aligned= */ false, enforceLimit);
     }
 
-    public Value get(int n) {
-      return values.get(n);
+    private void set(int cell, int type, long value) {
+      cellTypes[cell] = (byte) type;
+      cellValues[cell] = value;
     }
 
-    public boolean set(int colN, Value value) {
-      values.set(colN, value);
-      return true;
+    private void setString(int cell, String value) {
+      int length = value.length();
+      if (stringsSize + length > strings.length) {
+        strings = Arrays.copyOf(strings, Math.max(stringsSize + length, strings.length * 2));
+      }
+      value.getChars(0, length, strings, stringsSize);
+      set(cell, Cursor.FIELD_TYPE_STRING, (long) stringsSize << 32 | length);
+      stringsSize += length;
     }
-  }
 
-  private static class Value {
-    private final Object value;
-    private final int type;
+    private void setBlob(int cell, byte[] value) {
+      int length = value.length;
+      if (blobsSize + length > blobs.length) {
+        blobs = Arrays.copyOf(blobs, Math.max(blobsSize + length, blobs.length * 2));
+      }
+      System.arraycopy(value, 0, blobs, blobsSize, length);
+      set(cell, Cursor.FIELD_TYPE_BLOB, (long) blobsSize << 32 | length);
+      blobsSize += length;
+    }
 
-    public Value(final Object value, final int type) {
-      this.value = value;
-      this.type = type;
+    /** Returns the length of the modified UTF-8 encoding the native CursorWindow uses. */
+    private static int utf8Length(String value) {
+      int length = value.length();
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == 0 || c >= 0x80) {
+          length += c < 0x800 ? 1 : 2;
+        }
+      }
+      return length;
     }
   }
 
@@ -322,7 +534,6 @@ public class ShadowLegacyCursorWindow extends ShadowCursorWindow {
   // TODO: Implement these methods
   // private static native int nativeCreateFromParcel(Parcel parcel);
   // private static native void nativeWriteToParcel($ptrClass windowPtr, Parcel parcel);
-  // private static native void nativeFreeLastRow($ptrClass windowPtr);
   // private static native void nativeCopyStringToBuffer($ptrClass windowPtr, int row, int column,
   // CharArrayBuffer buffer);
 }
@@ -37,11 +37,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -69,6 +71,10 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
   // indicates an ignored statement
   private static final int IGNORED_REINDEX_STMT = -2;
 
+  // The same busy timeout as Android's native SQLiteConnection, so that a connection waits for
+  // another connection's lock instead of failing with SQLITE_BUSY right away.
+  private static final int BUSY_TIMEOUT_MILLIS = 2500;
+
   @Implementation(maxSdk = O)
   protected static long nativeOpen(
       String path, int openFlags, String label, boolean enableTrace, boolean enableProfile) {
@@ -265,13 +271,54 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
   // VisibleForTesting
   static class Connections {
 
-    private final Object lock = new Object();
     private final AtomicLong pointerCounter = new AtomicLong(0);
-    private final Map<Long, SQLiteStatement> statementsMap = new HashMap<>();
-    private final Map<Long, SQLiteConnection> connectionsMap = new HashMap<>();
-    private final Map<Long, List<Long>> statementPtrsForConnection = new HashMap<>();
+    private final Map<Long, ConnectionState> connectionsMap = new ConcurrentHashMap<>();
+    private final Map<Long, StatementState> statementsMap = new ConcurrentHashMap<>();
 
-    private ExecutorService dbExecutor = Executors.newSingleThreadExecutor(threadFactory());
+    /**
+     * A sqlite4java connection, together with the worker thread it is confined to.
+     *
+     * <p>sqlite4java only allows a connection, and its statements, to be used from the thread that
+     * opened it, but Android hands connections to whichever thread acquires them from its pool. So
+     * each connection gets its own worker, and work for different connections can run in parallel.
+     * The lock serializes work for the connection, as its pointers are shared between threads.
+     */
+    private static final class ConnectionState {
+      final Object lock = new Object();
+      final ExecutorService executor;
+      final Set<Long> statementPtrs = new HashSet<>();
+      SQLiteConnection connection;
+
+      ConnectionState(ExecutorService executor) {
+        this.executor = executor;
+      }
+    }
+
+    /**
+     * A prepared statement, with properties that cannot change after it is prepared, and any binds
+     * that have not been applied yet.
+     *
+     * <p>Android validates bind indexes before binding, so binds are applied on the worker in the
+     * same round trip as the next operation on the statement, rather than taking one each.
+     */
+    private static final class StatementState {
+      final ConnectionState connectionState;
+      final SQLiteStatement statement;
+      final int parameterCount;
+      final boolean readOnly;
+      final List<StatementOperation<Void>> pendingBinds = new ArrayList<>();
+
+      StatementState(
+          ConnectionState connectionState,
+          SQLiteStatement statement,
+          int parameterCount,
+          boolean readOnly) {
+        this.connectionState = connectionState;
+        this.statement = statement;
+        this.parameterCount = parameterCount;
+        this.readOnly = readOnly;
+      }
+    }
 
     static ThreadFactory threadFactory() {
       ThreadFactory delegate = Executors.defaultThreadFactory();
@@ -282,60 +329,72 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
       };
     }
 
+    private ConnectionState getConnectionState(final long connectionPtr) {
+      final ConnectionState connectionState = connectionsMap.get(connectionPtr);
+      if (connectionState == null) {
+        throw new IllegalStateException(
+            "Illegal connection pointer "
+                + connectionPtr
+                + ". Current pointers for thread "
+                + Thread.currentThread()
+                + " "
+                + connectionsMap.keySet());
+      }
+      return connectionState;
+    }
+
     SQLiteConnection getConnection(final long connectionPtr) {
-      synchronized (lock) {
-        final SQLiteConnection connection = connectionsMap.get(connectionPtr);
-        if (connection == null) {
-          throw new IllegalStateException(
-              "Illegal connection pointer "
-                  + connectionPtr
-                  + ". Current pointers for thread "
-                  + Thread.currentThread()
-                  + " "
-                  + connectionsMap.keySet());
-        }
-        return connection;
+      return getConnectionState(connectionPtr).connection;
+    }
+
+    private StatementState getStatementState(final long connectionPtr, final long statementPtr) {
+      // ensure connection is ok
+      getConnectionState(connectionPtr);
+
+      final StatementState statementState = statementsMap.get(statementPtr);
+      if (statementState == null) {
+        throw new IllegalArgumentException(
+            "Invalid prepared statement pointer: "
+                + statementPtr
+                + ". Current pointers: "
+                + statementsMap.keySet());
       }
+      if (statementState.statement.isDisposed()) {
+        throw new IllegalStateException(
+            "Statement " + statementPtr + " " + statementState.statement + " is disposed");
+      }
+      return statementState;
     }
 
     SQLiteStatement getStatement(final long connectionPtr, final long statementPtr) {
-      synchronized (lock) {
-        // ensure connection is ok
-        getConnection(connectionPtr);
-
-        final SQLiteStatement statement = statementsMap.get(statementPtr);
-        if (statement == null) {
-          throw new IllegalArgumentException(
-              "Invalid prepared statement pointer: "
-                  + statementPtr
-                  + ". Current pointers: "
-                  + statementsMap.keySet());
-        }
-        if (statement.isDisposed()) {
-          throw new IllegalStateException(
-              "Statement " + statementPtr + " " + statement + " is disposed");
-        }
-        return statement;
-      }
+      return getStatementState(connectionPtr, statementPtr).statement;
     }
 
     long open(final String path) {
-      synchronized (lock) {
-        final SQLiteConnection dbConnection =
-            execute(
-                () -> {
-                  SQLiteConnection connection =
-                      useInMemoryDatabase.get() || IN_MEMORY_PATH.equals(path)
-                          ? new SQLiteConnection()
-                          : new SQLiteConnection(new File(path));
-
-                  connection.open();
-                  return connection;
-                });
+      final ConnectionState connectionState =
+          new ConnectionState(Executors.newSingleThreadExecutor(threadFactory()));
+      synchronized (connectionState.lock) {
+        try {
+          connectionState.connection =
+              execute(
+                  connectionState,
+                  () -> {
+                    SQLiteConnection connection =
+                        useInMemoryDatabase.get() || IN_MEMORY_PATH.equals(path)
+                            ? new SQLiteConnection()
+                            : new SQLiteConnection(new File(path));
+
+                    connection.open();
+                    connection.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+                    return connection;
+                  });
+        } catch (RuntimeException e) {
+          connectionState.executor.shutdown();
+          throw e;
+        }
 
         final long connectionPtr = pointerCounter.incrementAndGet();
-        connectionsMap.put(connectionPtr, dbConnection);
-        statementPtrsForConnection.put(connectionPtr, new ArrayList<>());
+        connectionsMap.put(connectionPtr, connectionState);
         return connectionPtr;
       }
     }
@@ -346,63 +405,66 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
         return IGNORED_REINDEX_STMT;
       }
 
-      synchronized (lock) {
-        final SQLiteConnection connection = getConnection(connectionPtr);
-        final SQLiteStatement statement = execute(() -> connection.prepare(sql));
+      final ConnectionState connectionState = getConnectionState(connectionPtr);
+      synchronized (connectionState.lock) {
+        // Android asks for the parameter count and read-only flag of every statement it prepares,
+        // so fetch them in the same round trip.
+        final StatementState statementState =
+            execute(
+                connectionState,
+                () -> {
+                  SQLiteStatement statement = connectionState.connection.prepare(sql);
+                  return new StatementState(
+                      connectionState,
+                      statement,
+                      statement.getBindParameterCount(),
+                      statement.isReadOnly());
+                });
 
         final long statementPtr = pointerCounter.incrementAndGet();
-        statementsMap.put(statementPtr, statement);
-        statementPtrsForConnection.get(connectionPtr).add(statementPtr);
+        statementsMap.put(statementPtr, statementState);
+        connectionState.statementPtrs.add(statementPtr);
         return statementPtr;
       }
     }
 
     void close(final long connectionPtr) {
-      synchronized (lock) {
-        final SQLiteConnection connection = getConnection(connectionPtr);
+      final ConnectionState connectionState = getConnectionState(connectionPtr);
+      synchronized (connectionState.lock) {
         execute(
+            connectionState,
             () -> {
-              connection.dispose();
+              connectionState.connection.dispose();
               return null;
             });
         connectionsMap.remove(connectionPtr);
-        statementPtrsForConnection.remove(connectionPtr);
+        statementsMap.keySet().removeAll(connectionState.statementPtrs);
+        connectionState.executor.shutdown();
       }
     }
 
     void reset() {
-      ExecutorService oldDbExecutor;
-      Collection<SQLiteConnection> openConnections;
-
-      synchronized (lock) {
-        oldDbExecutor = dbExecutor;
-        openConnections = new ArrayList<>(connectionsMap.values());
-
-        dbExecutor = Executors.newSingleThreadExecutor(threadFactory());
-        connectionsMap.clear();
-        statementsMap.clear();
-        statementPtrsForConnection.clear();
-      }
-
-      shutdownDbExecutor(oldDbExecutor, openConnections);
-    }
-
-    private static void shutdownDbExecutor(
-        ExecutorService executorService, Collection<SQLiteConnection> connections) {
-      for (final SQLiteConnection connection : connections) {
-        getFuture(
-            executorService.submit(
-                () -> {
-                  connection.dispose();
-                  return null;
-                }));
+      List<ConnectionState> openConnections = new ArrayList<>(connectionsMap.values());
+      connectionsMap.clear();
+      statementsMap.clear();
+
+      for (ConnectionState connectionState : openConnections) {
+        synchronized (connectionState.lock) {
+          getFuture(
+              connectionState.executor.submit(
+                  () -> {
+                    connectionState.connection.dispose();
+                    return null;
+                  }));
+          connectionState.executor.shutdown();
+        }
       }
-
-      executorService.shutdown();
-      try {
-        executorService.awaitTermination(30, TimeUnit.SECONDS);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
+      for (ConnectionState connectionState : openConnections) {
+        try {
+          connectionState.executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
       }
     }
 
@@ -411,16 +473,8 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
         return;
       }
 
-      synchronized (lock) {
-        final SQLiteStatement statement = getStatement(connectionPtr, statementPtr);
-        statementsMap.remove(statementPtr);
-
-        execute(
-            () -> {
-              statement.dispose();
-              return null;
-            });
-      }
+      final StatementState statementState = getStatementState(connectionPtr, statementPtr);
+      finalizeStmt(statementPtr, statementState);
     }
 
     void finalizeStmt(final long statementPtr) {
@@ -428,42 +482,48 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
         return;
       }
 
-      synchronized (lock) {
-        final SQLiteStatement statement = statementsMap.get(statementPtr);
-        if (statement == null) {
-          return;
-        }
-        statementsMap.remove(statementPtr);
+      final StatementState statementState = statementsMap.get(statementPtr);
+      if (statementState == null) {
+        return;
+      }
+      finalizeStmt(statementPtr, statementState);
+    }
 
-        for (List<Long> list : statementPtrsForConnection.values()) {
-          if (list.remove(statementPtr)) {
-            break;
-          }
+    private void finalizeStmt(final long statementPtr, final StatementState statementState) {
+      final ConnectionState connectionState = statementState.connectionState;
+      synchronized (connectionState.lock) {
+        if (statementsMap.remove(statementPtr) == null) {
+          return;
         }
+        connectionState.statementPtrs.remove(statementPtr);
 
         execute(
+            connectionState,
             () -> {
-              statement.dispose();
+              statementState.statement.dispose();
               return null;
             });
       }
     }
 
     void cancel(final long connectionPtr) {
-      synchronized (lock) {
-        getConnection(connectionPtr); // check connection
-
-        for (Long statementPtr : statementPtrsForConnection.get(connectionPtr)) {
-          final SQLiteStatement statement = statementsMap.get(statementPtr);
-          if (statement != null) {
-            execute(
-                (Callable<Void>)
-                    () -> {
-                      statement.cancel();
-                      return null;
-                    });
+      final ConnectionState connectionState = getConnectionState(connectionPtr);
+      synchronized (connectionState.lock) {
+        final List<SQLiteStatement> statements = new ArrayList<>();
+        for (Long statementPtr : connectionState.statementPtrs) {
+          final StatementState statementState = statementsMap.get(statementPtr);
+          if (statementState != null) {
+            statements.add(statementState.statement);
           }
         }
+        execute(
+            connectionState,
+            () -> {
+              for (SQLiteStatement statement : statements) {
+                statement.cancel();
+              }
+              return null;
+            });
       }
     }
 
@@ -472,8 +532,7 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
         return 0;
       }
 
-      return executeStatementOperation(
-          connectionPtr, statementPtr, SQLiteStatement::getBindParameterCount);
+      return getStatementState(connectionPtr, statementPtr).parameterCount;
     }
 
     boolean isReadOnly(final long connectionPtr, final long statementPtr) {
@@ -481,7 +540,7 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
         return true;
       }
 
-      return executeStatementOperation(connectionPtr, statementPtr, SQLiteStatement::isReadOnly);
+      return getStatementState(connectionPtr, statementPtr).readOnly;
     }
 
     long executeForLong(final long connectionPtr, final long statementPtr) {
@@ -533,92 +592,83 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
     }
 
     void bindNull(final long connectionPtr, final long statementPtr, final int index) {
-      executeStatementOperation(
+      bind(
           connectionPtr,
           statementPtr,
-          (StatementOperation<Void>)
-              statement -> {
-                statement.bindNull(index);
-                return null;
-              });
+          statement -> {
+            statement.bindNull(index);
+            return null;
+          });
     }
 
     void bindLong(
         final long connectionPtr, final long statementPtr, final int index, final long value) {
-      executeStatementOperation(
+      bind(
           connectionPtr,
           statementPtr,
-          (StatementOperation<Void>)
-              statement -> {
-                statement.bind(index, value);
-                return null;
-              });
+          statement -> {
+            statement.bind(index, value);
+            return null;
+          });
     }
 
     void bindDouble(
         final long connectionPtr, final long statementPtr, final int index, final double value) {
-      executeStatementOperation(
+      bind(
           connectionPtr,
           statementPtr,
-          (StatementOperation<Void>)
-              statement -> {
-                statement.bind(index, value);
-                return null;
-              });
+          statement -> {
+            statement.bind(index, value);
+            return null;
+          });
     }
 
     void bindString(
         final long connectionPtr, final long statementPtr, final int index, final String value) {
-      executeStatementOperation(
+      bind(
           connectionPtr,
           statementPtr,
-          (StatementOperation<Void>)
-              statement -> {
-                statement.bind(index, value);
-                return null;
-              });
+          statement -> {
+            statement.bind(index, value);
+            return null;
+          });
     }
 
     void bindBlob(
         final long connectionPtr, final long statementPtr, final int index, final byte[] value) {
-      executeStatementOperation(
+      bind(
           connectionPtr,
           statementPtr,
-          (StatementOperation<Void>)
-              statement -> {
-                statement.bind(index, value);
-                return null;
-              });
+          statement -> {
+            statement.bind(index, value);
+            return null;
+          });
     }
 
     int executeForChangedRowCount(final long connectionPtr, final long statementPtr) {
-      synchronized (lock) {
-        final SQLiteConnection connection = getConnection(connectionPtr);
-        final SQLiteStatement statement = getStatement(connectionPtr, statementPtr);
-
-        return execute(
-            () -> {
-              if (statement.step()) {
-                throw new android.database.sqlite.SQLiteException(
-                    "Queries can be performed using SQLiteDatabase query or rawQuery methods"
-                        + " only.");
-              }
-              return connection.getChanges();
-            });
-      }
+      final SQLiteConnection connection = getConnection(connectionPtr);
+      return executeStatementOperation(
+          connectionPtr,
+          statementPtr,
+          statement -> {
+            if (statement.step()) {
+              throw new android.database.sqlite.SQLiteException(
+                  "Queries can be performed using SQLiteDatabase query or rawQuery methods"
+                      + " only.");
+            }
+            return connection.getChanges();
+          });
     }
 
     long executeForLastInsertedRowId(final long connectionPtr, final long statementPtr) {
-      synchronized (lock) {
-        final SQLiteConnection connection = getConnection(connectionPtr);
-        final SQLiteStatement statement = getStatement(connectionPtr, statementPtr);
-
-        return execute(
-            () -> {
-              statement.stepThrough();
-              return connection.getChanges() > 0 ? connection.getLastInsertId() : -1L;
-            });
-      }
+      final SQLiteConnection connection = getConnection(connectionPtr);
+      return executeStatementOperation(
+          connectionPtr,
+          statementPtr,
+          statement -> {
+            statement.stepThrough();
+            return connection.getChanges() > 0 ? connection.getLastInsertId() : -1L;
+          });
     }
 
     long executeForCursorWindow(
@@ -631,6 +681,11 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
     }
 
     void resetStatementAndClearBindings(final long connectionPtr, final long statementPtr) {
+      final StatementState statementState = getStatementState(connectionPtr, statementPtr);
+      synchronized (statementState.connectionState.lock) {
+        // The bindings are about to be cleared anyway.
+        statementState.pendingBinds.clear();
+      }
       executeStatementOperation(
           connectionPtr,
           statementPtr,
@@ -645,25 +700,44 @@ public class ShadowLegacySQLiteConnection extends ShadowSQLiteConnection {
       T call(final SQLiteStatement statement) throws Exception;
     }
 
+    private void bind(
+        final long connectionPtr,
+        final long statementPtr,
+        final StatementOperation<Void> bindOperation) {
+      final StatementState statementState = getStatementState(connectionPtr, statementPtr);
+      synchronized (statementState.connectionState.lock) {
+        statementState.pendingBinds.add(bindOperation);
+      }
+    }
+
     private <T> T executeStatementOperation(
         final long connectionPtr,
         final long statementPtr,
         final StatementOperation<T> statementOperation) {
-      synchronized (lock) {
-        final SQLiteStatement statement = getStatement(connectionPtr, statementPtr);
-        return execute(() -> statementOperation.call(statement));
+      final StatementState statementState = getStatementState(connectionPtr, statementPtr);
+      final ConnectionState connectionState = statementState.connectionState;
+      synchronized (connectionState.lock) {
+        final SQLiteStatement statement = statementState.statement;
+        final List<StatementOperation<Void>> binds = new ArrayList<>(statementState.pendingBinds);
+        statementState.pendingBinds.clear();
+        return execute(
+            connectionState,
+            () -> {
+              for (StatementOperation<Void> bind : binds) {
+                bind.call(statement);
+              }
+              return statementOperation.call(statement);
+            });
       }
     }
 
     /**
-     * Any Callable passed in to execute must not synchronize on lock, as this will result in a
-     * deadlock
+     * Runs work on the worker of the given connection. Any Callable passed in to execute must not
+     * synchronize on the connection's lock, as this will result in a deadlock
      */
-    private <T> T execute(final Callable<T> work) {
-      synchronized (lock) {
-        return PerfStatsCollector.getInstance()
-            .measure("sqlite", () -> getFuture(dbExecutor.submit(work)));
-      }
+    private static <T> T execute(final ConnectionState connectionState, final Callable<T> work) {
+      return PerfStatsCollector.getInstance()
+          .measure("sqlite", () -> getFuture(connectionState.executor.submit(work)));
     }
 
     private static <T> T getFuture(final Future<T> future) {
@@ -1,5 +1,6 @@
 package org.robolectric.shadows;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static org.robolectric.util.reflector.Reflector.reflector;
 
@@ -12,14 +13,23 @@ import com.google.common.collect.ImmutableList;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
 import org.robolectric.annotation.Resetter;
@@ -29,7 +39,15 @@ import org.robolectric.util.reflector.Constructor;
 import org.robolectric.util.reflector.ForType;
 import org.robolectric.util.reflector.Static;
 
-/** Controls the behavior of {@link android.util.Log} and provides access to log messages. */
+/**
+ * Controls the behavior of {@link android.util.Log} and provides access to log messages.
+ *
+ * <p>By default every log item is captured. Setting the {@code robolectric.logging.bufferSize}
+ * system property (or calling {@link #setCaptureBufferSize(int)}) captures only the most recent log
+ * items in a fixed-size ring buffer instead. Setting the {@code robolectric.logging.async} system
+ * property (or calling {@link #setAsyncStreamEnabled(boolean)}) formats and writes log items to
+ * {@link #stream} on a background thread.
+ */
 @Implements(Log.class)
 public class ShadowLog {
   public static PrintStream stream;
@@ -42,6 +60,18 @@ public class ShadowLog {
 
   private static final AtomicBoolean logCaptureEnabled = new AtomicBoolean(true);
 
+  private static final AtomicLong capturedLogCount = new AtomicLong();
+
+  /** Where log items are captured when capturing is bounded, or null if it is unbounded. */
+  @Nullable
+  private static volatile LogRingBuffer ringBuffer =
+      newRingBuffer(Integer.getInteger("robolectric.logging.bufferSize", 0));
+
+  /** Writes log items to {@link #stream} off the calling thread, or null to write them inline. */
+  @Nullable
+  private static volatile AsyncStreamWriter asyncStreamWriter =
+      Boolean.getBoolean("robolectric.logging.async") ? new AsyncStreamWriter() : null;
+
   private static final Map<String, Integer> tagToLevel =
       Collections.synchronizedMap(new HashMap<>());
 
@@ -173,17 +203,34 @@ public class ShadowLog {
       timeString = timeSupplier.get();
     }
 
+    PrintStream stream = ShadowLog.stream;
+    LogItem item = null;
     if (stream != null) {
       Integer minLevel = tagToLevel.get(tag);
       if (minLevel == null || level >= minLevel) {
-        logToStream(stream, timeString, level, tag, msg, throwable);
+        AsyncStreamWriter writer = asyncStreamWriter;
+        if (writer != null) {
+          item = new LogItem(timeString, level, tag, msg, throwable);
+          writer.write(stream, item);
+        } else {
+          logToStream(stream, timeString, level, tag, msg, throwable);
+        }
       }
     }
     if (!logCaptureEnabled.get()) {
       return 0;
     }
 
-    LogItem item = new LogItem(timeString, level, tag, msg, throwable);
+    if (item == null) {
+      item = new LogItem(timeString, level, tag, msg, throwable);
+    }
+    capturedLogCount.incrementAndGet();
+    LogRingBuffer ringBuffer = ShadowLog.ringBuffer;
+    if (ringBuffer != null) {
+      ringBuffer.add(item);
+      return 0;
+    }
+
     Queue<LogItem> itemList;
 
     synchronized (logsByTag) {
@@ -230,13 +277,8 @@ public class ShadowLog {
 
   private static void logToStream(
       PrintStream ps, String timeString, int level, String tag, String msg, Throwable throwable) {
-
-    String outputString;
-    if (timeString != null && !timeString.isEmpty()) {
-      outputString = timeString + " " + levelToChar(level) + "/" + tag + ": " + msg;
-    } else {
-      outputString = levelToChar(level) + "/" + tag + ": " + msg;
-    }
+    StringBuilder outputString = new StringBuilder();
+    formatTo(outputString, timeString, level, tag, msg);
 
     ps.println(outputString);
     if (throwable != null) {
@@ -244,6 +286,14 @@ public class ShadowLog {
     }
   }
 
+  private static void formatTo(
+      StringBuilder sb, String timeString, int level, String tag, String msg) {
+    if (timeString != null && !timeString.isEmpty()) {
+      sb.append(timeString).append(' ');
+    }
+    sb.append(levelToChar(level)).append('/').append(tag).append(": ").append(msg);
+  }
+
   /**
    * By default this Shadow will capture all logs in memory in order to facilitate the {@link
    * #getLogs()} and {@link #getLogsForTag(String)} APIs. This is wasteful if these APIs are not
@@ -259,11 +309,67 @@ public class ShadowLog {
   public static void setCaptureLogsEnabled(boolean isEnabled) {
     boolean previous = logCaptureEnabled.getAndSet(isEnabled);
     if (previous && !isEnabled) {
-      logs.clear();
-      logsByTag.clear();
+      clearCapturedLogs();
     }
   }
 
+  /**
+   * Sets the maximum number of log items that are captured. Once that many log items have been
+   * captured, each new log item replaces the oldest one, which is counted by {@link
+   * #getDroppedLogCount()}. This bounds the memory used by chatty code under test.
+   *
+   * <p>A size of 0, the default, captures every log item. Changing the size discards the log items
+   * captured so far.
+   *
+   * @param size the number of log items to keep, or 0 to keep them all
+   */
+  public static void setCaptureBufferSize(int size) {
+    checkArgument(size >= 0, "size must not be negative: %s", size);
+    ringBuffer = newRingBuffer(size);
+    clearCapturedLogs();
+  }
+
+  /**
+   * Sets whether log items are written to {@link #stream} on a background thread, in batches,
+   * instead of on the thread that logged them. This keeps slow streams such as files and consoles
+   * from holding up the code under test. Call {@link #flushStream()} to wait for pending log items
+   * to be written.
+   */
+  public static void setAsyncStreamEnabled(boolean isEnabled) {
+    AsyncStreamWriter previous = asyncStreamWriter;
+    if (isEnabled == (previous != null)) {
+      return;
+    }
+    asyncStreamWriter = isEnabled ? new AsyncStreamWriter() : null;
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /** Waits until all log items logged so far have been written to {@link #stream}. */
+  public static void flushStream() {
+    AsyncStreamWriter writer = asyncStreamWriter;
+    if (writer != null) {
+      writer.flush();
+    }
+  }
+
+  /** Returns the number of log items captured since the last reset, including dropped ones. */
+  public static long getCapturedLogCount() {
+    return capturedLogCount.get();
+  }
+
+  /**
+   * Returns the number of captured log items that were dropped since the last reset because the
+   * capture buffer was full.
+   *
+   * @see #setCaptureBufferSize(int)
+   */
+  public static long getDroppedLogCount() {
+    LogRingBuffer ringBuffer = ShadowLog.ringBuffer;
+    return ringBuffer == null ? 0 : ringBuffer.getDroppedCount();
+  }
+
   /**
    * Returns ordered list of all log entries.
    *
@@ -273,6 +379,10 @@ public class ShadowLog {
     checkState(
         logCaptureEnabled.get(),
         "Log capturing is disabled. Use ShadowLog.setCaptureLogsEnabled(true) to enable.");
+    LogRingBuffer ringBuffer = ShadowLog.ringBuffer;
+    if (ringBuffer != null) {
+      return ringBuffer.getLogs();
+    }
     return ImmutableList.copyOf(logs);
   }
 
@@ -286,6 +396,10 @@ public class ShadowLog {
     checkState(
         logCaptureEnabled.get(),
         "Log capturing is disabled. Use ShadowLog.setCaptureLogsEnabled(true) to enable.");
+    LogRingBuffer ringBuffer = ShadowLog.ringBuffer;
+    if (ringBuffer != null) {
+      return ringBuffer.getLogsForTag(tag);
+    }
     Queue<LogItem> logs = logsByTag.get(tag);
     return logs == null ? ImmutableList.of() : ImmutableList.copyOf(logs);
   }
@@ -297,13 +411,28 @@ public class ShadowLog {
 
   @Resetter
   public static void reset() {
-    logs.clear();
-    logsByTag.clear();
+    flushStream();
+    clearCapturedLogs();
     tagToLevel.clear();
     wtfIsFatal = false;
     timeSupplier = null;
   }
 
+  private static void clearCapturedLogs() {
+    logs.clear();
+    logsByTag.clear();
+    LogRingBuffer ringBuffer = ShadowLog.ringBuffer;
+    if (ringBuffer != null) {
+      ShadowLog.ringBuffer = newRingBuffer(ringBuffer.capacity());
+    }
+    capturedLogCount.set(0);
+  }
+
+  @Nullable
+  private static LogRingBuffer newRingBuffer(int size) {
+    return size > 0 ? new LogRingBuffer(size) : null;
+  }
+
   @SuppressWarnings("CatchAndPrintStackTrace")
   public static void setupLogging() {
     String logging = System.getProperty("robolectric.logging");
@@ -398,6 +527,257 @@ public class ShadowLog {
     }
   }
 
+  /**
+   * A fixed-size buffer of the most recently captured log items. Adding a log item doesn't take a
+   * lock; the per-tag index used by {@link #getLogsForTag} is only built when it is asked for, and
+   * only rebuilt if log items were added since.
+   */
+  private static final class LogRingBuffer {
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    @Nullable private volatile TagIndex tagIndex;
+
+    LogRingBuffer(int capacity) {
+      slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int capacity() {
+      return slots.length();
+    }
+
+    void add(LogItem item) {
+      long sequence = nextSequence.getAndIncrement();
+      Slot slot = new Slot(sequence, item);
+      int index = (int) (sequence % slots.length());
+      while (true) {
+        Slot current = slots.get(index);
+        // A writer that lapped this one may already have stored a newer item here.
+        if (current != null && current.sequence > sequence) {
+          return;
+        }
+        if (slots.compareAndSet(index, current, slot)) {
+          return;
+        }
+      }
+    }
+
+    long getDroppedCount() {
+      return Math.max(0, nextSequence.get() - slots.length());
+    }
+
+    ImmutableList<LogItem> getLogs() {
+      return getLogs(nextSequence.get());
+    }
+
+    private ImmutableList<LogItem> getLogs(long end) {
+      ImmutableList.Builder<LogItem> items = ImmutableList.builder();
+      for (long sequence = Math.max(0, end - slots.length()); sequence < end; sequence++) {
+        Slot slot = slots.get((int) (sequence % slots.length()));
+        // Skip items that are still being stored, or that were overwritten since.
+        if (slot != null && slot.sequence == sequence) {
+          items.add(slot.item);
+        }
+      }
+      return items.build();
+    }
+
+    ImmutableList<LogItem> getLogsForTag(String tag) {
+      long end = nextSequence.get();
+      TagIndex index = tagIndex;
+      if (index == null || index.end != end) {
+        index = new TagIndex(end, getLogs(end));
+        tagIndex = index;
+      }
+      ImmutableList<LogItem> items = index.logsByTag.get(tag);
+      return items == null ? ImmutableList.of() : items;
+    }
+
+    private static final class Slot {
+      final long sequence;
+      final LogItem item;
+
+      Slot(long sequence, LogItem item) {
+        this.sequence = sequence;
+        this.item = item;
+      }
+    }
+
+    private static final class TagIndex {
+      final long end;
+      final Map<String, ImmutableList<LogItem>> logsByTag = new HashMap<>();
+
+      TagIndex(long end, List<LogItem> items) {
+        this.end = end;
+        Map<String, ImmutableList.Builder<LogItem>> builders = new HashMap<>();
+        for (LogItem item : items) {
+          builders.computeIfAbsent(item.tag, tag -> ImmutableList.builder()).add(item);
+        }
+        builders.forEach((tag, builder) -> logsByTag.put(tag, builder.build()));
+      }
+    }
+  }
+
+  /**
+   * Formats and writes log items to their stream on a background thread. Log items are written in
+   * the order they were logged, in batches of up to {@link #MAX_BATCH_SIZE} per write to the
+   * stream. Logging blocks if {@link #MAX_PENDING} log items are waiting to be written.
+   *
+   * <p>A log item that can't be written is reported to {@link System#err} and skipped. Should the
+   * writer thread die anyway, log items are written on the thread that logged them.
+   */
+  private static final class AsyncStreamWriter {
+    private static final int MAX_PENDING = 4096;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long POLL_MILLIS = 100;
+
+    /** Whether the hook that flushes the current writer at shutdown has been added. */
+    private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean();
+
+    private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    AsyncStreamWriter() {
+      thread = new Thread(this::writeLoop, "ShadowLog-writer");
+      thread.setDaemon(true);
+      thread.start();
+      if (shutdownHookAdded.compareAndSet(false, true)) {
+        Runtime.getRuntime()
+            .addShutdownHook(new Thread(ShadowLog::flushStream, "ShadowLog-shutdown-flush"));
+      }
+    }
+
+    void write(PrintStream stream, LogItem item) {
+      enqueue(new PendingWrite(stream, item, null));
+    }
+
+    void flush() {
+      if (closed) {
+        return;
+      }
+      CountDownLatch written = new CountDownLatch(1);
+      enqueue(new PendingWrite(null, null, written));
+      try {
+        while (!written.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (!thread.isAlive()) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    void close() {
+      flush();
+      closed = true;
+    }
+
+    private void enqueue(PendingWrite write) {
+      try {
+        while (!pending.offer(write, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (!thread.isAlive()) {
+            writeBatch(ImmutableList.of(write));
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // Don't lose the log item, even if it is written out of order.
+        writeBatch(ImmutableList.of(write));
+      }
+    }
+
+    private void writeLoop() {
+      List<PendingWrite> batch = new ArrayList<>();
+      while (true) {
+        PendingWrite first;
+        try {
+          first = pending.poll(100, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (first == null) {
+          if (closed) {
+            return;
+          }
+          continue;
+        }
+        batch.add(first);
+        pending.drainTo(batch, MAX_BATCH_SIZE - 1);
+        writeBatch(batch);
+        batch.clear();
+      }
+    }
+
+    private static void writeBatch(List<PendingWrite> batch) {
+      StringBuilder text = new StringBuilder();
+      PrintStream stream = null;
+      for (PendingWrite write : batch) {
+        if (write.item == null) {
+          try {
+            print(stream, text);
+            if (stream != null) {
+              stream.flush();
+            }
+          } catch (RuntimeException e) {
+            reportFailure(e);
+          } finally {
+            write.written.countDown();
+          }
+          continue;
+        }
+        if (write.stream != stream) {
+          print(stream, text);
+          stream = write.stream;
+        }
+        LogItem item = write.item;
+        formatTo(text, item.timeString, item.type, item.tag, item.msg);
+        text.append(System.lineSeparator());
+        if (item.throwable != null) {
+          print(stream, text);
+          try {
+            item.throwable.printStackTrace(stream);
+          } catch (RuntimeException e) {
+            reportFailure(e);
+          }
+        }
+      }
+      print(stream, text);
+    }
+
+    /** Prints and clears the given text. Failures are reported rather than thrown. */
+    private static void print(@Nullable PrintStream stream, StringBuilder text) {
+      try {
+        if (stream != null && text.length() > 0) {
+          stream.print(text);
+        }
+      } catch (RuntimeException e) {
+        reportFailure(e);
+      } finally {
+        text.setLength(0);
+      }
+    }
+
+    private static void reportFailure(RuntimeException e) {
+      System.err.println("ShadowLog: failed to write log items: " + e);
+    }
+
+    /** A log item to write, or a request to signal once everything before it has been written. */
+    private static final class PendingWrite {
+      @Nullable final PrintStream stream;
+      @Nullable final LogItem item;
+      @Nullable final CountDownLatch written;
+
+      PendingWrite(
+          @Nullable PrintStream stream, @Nullable LogItem item, @Nullable CountDownLatch written) {
+        this.stream = stream;
+        this.item = item;
+        this.written = written;
+      }
+    }
+  }
+
   @ForType(Log.class)
   interface LogReflector {
     @Static
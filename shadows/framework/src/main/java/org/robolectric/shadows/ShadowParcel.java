@@ -17,6 +17,8 @@ import android.util.Log;
 import android.util.Pair;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -547,11 +549,10 @@ public class ShadowParcel {
    *
    * <ul>
    *   <li>Reading an object will often return the same instance that was written.
-   *   <li>The marshalled form does not at all resemble Parcel's. This is to maintain compatibility
-   *       with existing clients that rely on the Java-serialization-based format.
-   *   <li>Uses substantially more memory, since each "byte" takes at minimum 4 bytes for a pointer,
-   *       and even more for the overhead of allocating a record for each write. But note there is
-   *       only at most one allocation for every 4 byte positions.
+   *   <li>The marshalled form does not at all resemble Parcel's. The Java-serialization-based
+   *       format used by earlier versions can still be unmarshalled, since some clients rely on it.
+   *   <li>Uses more memory than Parcel for small values, since each write allocates a record
+   *       holding the value. Memory use grows with the number of writes, not with their size.
    * </ul>
    */
   private static class ByteBuffer {
@@ -564,6 +565,23 @@ public class ShadowParcel {
     /** Immutable empty byte array. */
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+    /** Number of runs allocated when the first item is written. */
+    private static final int INITIAL_RUN_CAPACITY = 8;
+
+    /** Magic number at the start of the marshalled form, which is never all zeroes. */
+    private static final int MARSHALLED_MAGIC = 0x524f4250; // "ROBP"
+
+    // Type tags of values in the marshalled form.
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_INTEGER = 1;
+    private static final byte TAG_LONG = 2;
+    private static final byte TAG_FLOAT = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_BYTE_ARRAY = 6;
+    private static final byte TAG_BYTE = 7;
+    private static final byte TAG_SERIALIZED = 8;
+
     /** Representation for an item that has been serialized in a parcel. */
     private static class FakeEncodedItem implements Serializable {
       /** Number of consecutive bytes consumed by this object. */
@@ -593,27 +611,45 @@ public class ShadowParcel {
     /**
      * A type-safe simulation of the Parcel's data buffer.
      *
-     * <p>Each index represents a byte of the parcel. Instead of storing raw bytes, this contains
-     * records containing both the original data (in its original Java type) as well as the length.
-     * Consecutive indices will point to the same FakeEncodedItem instance; for example, an item
-     * with sizeBytes of 24 will, in normal cases, have references from 24 consecutive indices.
+     * <p>Instead of storing raw bytes, the buffer is a sorted list of non-overlapping runs of
+     * bytes, each holding a record containing both the original data (in its original Java type) as
+     * well as the length. The run list is stored in three parallel arrays, of which the first
+     * runCount entries are used. Bytes that are not covered by any run are uninitialized. Normally
+     * each write adds a single run, but a run may be split or truncated when its item is partially
+     * overwritten, and appendFrom may copy parts of items, so consecutive runs (or runs in
+     * different buffers) can refer to the same FakeEncodedItem instance.
      *
      * <p>There are two main fail-fast features in this type-safe buffer. First, objects may only be
      * read from the parcel as the same type they were stored with, enforced by casting. Second,
-     * this fails fast when reading incomplete or partially overwritten items.
+     * this fails fast when reading incomplete or partially overwritten items, which is detected by
+     * checking that every byte of the item is covered by a run of that same item.
      *
-     * <p>Even though writing a custom resizable array is a code smell vs ArrayList, arrays' fixed
-     * capacity closely models Parcel's dataCapacity (which we emulate anyway), and bulk array
-     * utilities are robust compared to ArrayList's bulk operations.
+     * <p>Memory use is proportional to the number of items rather than to the number of bytes, so
+     * large byte arrays or strings cost no more than small ones.
      */
-    private FakeEncodedItem[] data;
+    private FakeEncodedItem[] runItems;
+
+    /** The position of the first byte of each run. */
+    private int[] runStarts;
+
+    /** The position after the last byte of each run. */
+    private int[] runEnds;
+
+    /** The number of runs in use. */
+    private int runCount;
+
+    /** The run containing the most recent lookup, which speeds up sequential reads. */
+    private int lastRun;
 
     /** The read/write pointer. */
     private int dataPosition;
 
-    /** The length of the buffer; the capacity is data.length. */
+    /** The length of the buffer. */
     private int dataSize;
 
+    /** The capacity of the buffer, which Parcel never decreases. */
+    private int dataCapacity;
+
     /**
      * Whether the next read should fail if it's past the end of the array.
      *
@@ -628,9 +664,14 @@ public class ShadowParcel {
 
     /** Removes all elements from the byte buffer */
     public void clear() {
-      data = new FakeEncodedItem[0];
+      runStarts = new int[0];
+      runEnds = new int[0];
+      runItems = new FakeEncodedItem[0];
+      runCount = 0;
+      lastRun = 0;
       dataPosition = 0;
       dataSize = 0;
+      dataCapacity = 0;
       failNextReadIfPastEnd = false;
     }
 
@@ -795,9 +836,31 @@ public class ShadowParcel {
                 + "called from any position other than the end");
       }
       setDataSize(oldSize + length);
+      if (offset < 0 || length < 0 || offset > other.dataCapacity - length) {
+        throw new ArrayIndexOutOfBoundsException(
+            String.format(
+                Locale.US,
+                "Copying %d bytes from position %d of a buffer with capacity %d",
+                length,
+                offset,
+                other.dataCapacity));
+      }
+      // Copy the runs first, in case other is this buffer.
+      int endOffset = offset + length;
+      int first = other.firstRunEndingAfter(offset);
+      int last = first;
+      while (last < other.runCount && other.runStarts[last] < endOffset) {
+        last++;
+      }
+      int[] starts = Arrays.copyOfRange(other.runStarts, first, last);
+      int[] ends = Arrays.copyOfRange(other.runEnds, first, last);
+      FakeEncodedItem[] items = Arrays.copyOfRange(other.runItems, first, last);
       // Just blindly copy whatever happens to be in the buffer.  Reads will validate whether any
       // of the objects were only incompletely copied.
-      System.arraycopy(other.data, offset, data, dataPosition, length);
+      int shift = dataPosition - offset;
+      for (int i = 0; i < items.length; i++) {
+        putRun(Math.max(starts[i], offset) + shift, Math.min(ends[i], endOffset) + shift, items[i]);
+      }
       dataPosition += length;
       failNextReadIfPastEnd = true;
     }
@@ -837,27 +900,27 @@ public class ShadowParcel {
      * @param offset starting position in bytes to start reading array at
      * @param length number of bytes to read from array
      */
-    @SuppressWarnings("BanSerializableRead")
     public static ByteBuffer fromByteArray(byte[] array, int offset, int length) {
       ByteBuffer byteBuffer = new ByteBuffer();
 
       if (isAllZeroes(array, offset, length)) {
-        // Special case: for all zeroes, it's definitely not an ObjectInputStream, because it has a
-        // non-zero mandatory magic.  Zeroes have a portable, unambiguous interpretation.
+        // Special case: for all zeroes, it's definitely not a marshalled ShadowParcel, because it
+        // has a non-zero mandatory magic.  Zeroes have a portable, unambiguous interpretation.
         byteBuffer.setDataSize(length);
         byteBuffer.writeItem(new FakeEncodedItem(length, new byte[length]));
         return byteBuffer;
       }
 
       try {
-        ByteArrayInputStream bis = new ByteArrayInputStream(array, offset, length);
-        ObjectInputStream ois = new ObjectInputStream(bis);
-        int numElements = ois.readInt();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(array, offset, length));
+        if (length < INT_SIZE_BYTES || in.readInt() != MARSHALLED_MAGIC) {
+          return fromLegacyByteArray(array, offset, length);
+        }
+        int numElements = in.readInt();
         for (int i = 0; i < numElements; i++) {
-          int sizeOf = ois.readInt();
-          Object value = ois.readObject();
-          // NOTE: Bypassing writeValue so that this will support ShadowParcels that were
-          // marshalled before ShadowParcel simulated alignment.
+          int sizeOf = in.readInt();
+          Object value = readMarshalledValue(in);
+          // NOTE: Bypassing writeValue so that the sizes are restored exactly as marshalled.
           byteBuffer.writeItem(new FakeEncodedItem(sizeOf, value));
         }
         // Android leaves the data position at the end in this case.
@@ -867,6 +930,28 @@ public class ShadowParcel {
       }
     }
 
+    /**
+     * Creates a Byte buffer from the Java-serialization-based format that ShadowParcel previously
+     * marshalled to, which some tests still rely on.
+     */
+    @SuppressWarnings("BanSerializableRead")
+    private static ByteBuffer fromLegacyByteArray(byte[] array, int offset, int length)
+        throws IOException, ClassNotFoundException {
+      ByteBuffer byteBuffer = new ByteBuffer();
+      ByteArrayInputStream bis = new ByteArrayInputStream(array, offset, length);
+      ObjectInputStream ois = new ObjectInputStream(bis);
+      int numElements = ois.readInt();
+      for (int i = 0; i < numElements; i++) {
+        int sizeOf = ois.readInt();
+        Object value = ois.readObject();
+        // NOTE: Bypassing writeValue so that this will support ShadowParcels that were
+        // marshalled before ShadowParcel simulated alignment.
+        byteBuffer.writeItem(new FakeEncodedItem(sizeOf, value));
+      }
+      // Android leaves the data position at the end in this case.
+      return byteBuffer;
+    }
+
     /**
      * Converts a ByteBuffer to a raw byte array. This method should be symmetrical with
      * fromByteArray.
@@ -875,22 +960,20 @@ public class ShadowParcel {
       int oldDataPosition = dataPosition;
       try {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        // NOTE: Serializing the data array would be simpler, and serialization would actually
-        // preserve reference equality between entries.  However, the length-encoded format here
-        // preserves the previous format, which some tests appear to rely on.
+        DataOutputStream out = new DataOutputStream(bos);
         List<FakeEncodedItem> entries = new ArrayList<>();
         // NOTE: Use readNextItem to scan so the contents can be proactively validated.
         dataPosition = 0;
         while (dataPosition < dataSize) {
           entries.add(readNextItem(Object.class));
         }
-        oos.writeInt(entries.size());
+        out.writeInt(MARSHALLED_MAGIC);
+        out.writeInt(entries.size());
         for (FakeEncodedItem item : entries) {
-          oos.writeInt(item.sizeBytes);
-          oos.writeObject(item.value);
+          out.writeInt(item.sizeBytes);
+          writeMarshalledValue(out, item.value);
         }
-        oos.flush();
+        out.flush();
         return bos.toByteArray();
       } catch (IOException e) {
         throw new UnreliableBehaviorError("ErrorProne unable to serialize its custom format", e);
@@ -899,6 +982,101 @@ public class ShadowParcel {
       }
     }
 
+    /** Writes a value tagged with its type, for {@link #readMarshalledValue}. */
+    private static void writeMarshalledValue(DataOutputStream out, Object value)
+        throws IOException {
+      if (value == null) {
+        out.writeByte(TAG_NULL);
+      } else if (value instanceof Integer) {
+        out.writeByte(TAG_INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TAG_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Float) {
+        out.writeByte(TAG_FLOAT);
+        out.writeFloat((Float) value);
+      } else if (value instanceof Double) {
+        out.writeByte(TAG_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof String) {
+        String s = (String) value;
+        // Write UTF-16 code units rather than modified UTF-8, which is limited to 64k.
+        byte[] chars = new byte[s.length() * 2];
+        for (int i = 0; i < s.length(); i++) {
+          char c = s.charAt(i);
+          chars[2 * i] = (byte) (c >>> 8);
+          chars[2 * i + 1] = (byte) c;
+        }
+        out.writeByte(TAG_STRING);
+        out.writeInt(s.length());
+        out.write(chars);
+      } else if (value instanceof byte[]) {
+        byte[] bytes = (byte[]) value;
+        out.writeByte(TAG_BYTE_ARRAY);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if (value instanceof Byte) {
+        out.writeByte(TAG_BYTE);
+        out.writeByte((Byte) value);
+      } else {
+        // Other types can only come from unmarshalling the legacy format, so keep using Java
+        // serialization for them.  Non-serializable values, such as binders, fail as before.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(value);
+        oos.flush();
+        out.writeByte(TAG_SERIALIZED);
+        out.writeInt(bos.size());
+        bos.writeTo(out);
+      }
+    }
+
+    /** Reads a value written by {@link #writeMarshalledValue}. */
+    @SuppressWarnings("BanSerializableRead")
+    private static Object readMarshalledValue(DataInputStream in)
+        throws IOException, ClassNotFoundException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case TAG_NULL:
+          return null;
+        case TAG_INTEGER:
+          return in.readInt();
+        case TAG_LONG:
+          return in.readLong();
+        case TAG_FLOAT:
+          return in.readFloat();
+        case TAG_DOUBLE:
+          return in.readDouble();
+        case TAG_STRING:
+          {
+            char[] chars = new char[in.readInt()];
+            byte[] bytes = new byte[chars.length * 2];
+            in.readFully(bytes);
+            for (int i = 0; i < chars.length; i++) {
+              chars[i] = (char) (((bytes[2 * i] & 0xff) << 8) | (bytes[2 * i + 1] & 0xff));
+            }
+            return new String(chars);
+          }
+        case TAG_BYTE_ARRAY:
+          {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+          }
+        case TAG_BYTE:
+          return in.readByte();
+        case TAG_SERIALIZED:
+          {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+          }
+        default:
+          throw new IOException("Unknown type tag " + tag);
+      }
+    }
+
     /** Number of unused bytes in this byte buffer. */
     public int dataAvailable() {
       return dataSize() - dataPosition();
@@ -906,7 +1084,7 @@ public class ShadowParcel {
 
     /** Total buffer size in bytes of byte buffer included unused space. */
     public int dataCapacity() {
-      return data.length;
+      return dataCapacity;
     }
 
     /** Current data position of byte buffer in bytes. Reads / writes are from this position. */
@@ -938,7 +1116,7 @@ public class ShadowParcel {
         // Clear all the inaccessible bytes when shrinking, to allow garbage collection, and so
         // they remain cleared if expanded again.  Note this might truncate something mid-object,
         // which would be handled at read time.
-        Arrays.fill(data, size, dataSize, null);
+        truncateRuns(size);
       }
       setDataCapacityAtLeast(size);
       dataSize = size;
@@ -950,12 +1128,8 @@ public class ShadowParcel {
     public void setDataCapacityAtLeast(int newCapacity) {
       // NOTE: Oddly, Parcel only every increases data capacity, and never decreases it, so this
       // really should have never been named setDataCapacity.
-      if (newCapacity > data.length) {
-        FakeEncodedItem[] newData = new FakeEncodedItem[newCapacity];
-        dataSize = Math.min(dataSize, newCapacity);
-        dataPosition = Math.min(dataPosition, dataSize);
-        System.arraycopy(data, 0, newData, 0, dataSize);
-        data = newData;
+      if (newCapacity > dataCapacity) {
+        dataCapacity = newCapacity;
       }
     }
 
@@ -964,6 +1138,122 @@ public class ShadowParcel {
       return ((unpaddedSizeBytes + 3) / 4) * 4;
     }
 
+    /**
+     * Returns the index of the run containing the given position, or -1 if the byte at that
+     * position is uninitialized or past the end.
+     */
+    private int findRun(int position) {
+      if (position < 0 || position >= dataSize) {
+        return -1;
+      }
+      // Reads and writes are mostly sequential, so check the last run and its successor first.
+      for (int i = lastRun; i < runCount && i <= lastRun + 1; i++) {
+        if (runStarts[i] <= position && position < runEnds[i]) {
+          lastRun = i;
+          return i;
+        }
+      }
+      int i = firstRunEndingAfter(position);
+      if (i < runCount && runStarts[i] <= position) {
+        lastRun = i;
+        return i;
+      }
+      return -1;
+    }
+
+    /** Returns the index of the first run that ends after the given position. */
+    private int firstRunEndingAfter(int position) {
+      int low = 0;
+      int high = runCount;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (runEnds[mid] <= position) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Returns the end of the contiguous runs of the same item starting with the given run, or the
+     * end of the first of those runs to reach {@code maxPosition}.
+     */
+    private int endOfContiguousRuns(int run, int maxPosition) {
+      FakeEncodedItem item = runItems[run];
+      int end = runEnds[run];
+      for (int i = run + 1;
+          end < maxPosition && i < runCount && runStarts[i] == end && runItems[i] == item;
+          i++) {
+        end = runEnds[i];
+      }
+      return end;
+    }
+
+    /** Replaces the bytes from start to end with a run of the given item. */
+    private void putRun(int start, int end, FakeEncodedItem item) {
+      if (start >= end) {
+        return;
+      }
+      int first = firstRunEndingAfter(start);
+      int last = first;
+      while (last < runCount && runStarts[last] < end) {
+        last++;
+      }
+      // Parts of runs that are only partially overwritten are kept.
+      boolean keepHead = first < last && runStarts[first] < start;
+      boolean keepTail = first < last && runEnds[last - 1] > end;
+      int headStart = keepHead ? runStarts[first] : 0;
+      FakeEncodedItem headItem = keepHead ? runItems[first] : null;
+      int tailEnd = keepTail ? runEnds[last - 1] : 0;
+      FakeEncodedItem tailItem = keepTail ? runItems[last - 1] : null;
+
+      int added = 1 + (keepHead ? 1 : 0) + (keepTail ? 1 : 0);
+      int newRunCount = runCount - (last - first) + added;
+      if (newRunCount > runItems.length) {
+        int newLength = Math.max(INITIAL_RUN_CAPACITY, Math.max(newRunCount, runItems.length * 2));
+        runStarts = Arrays.copyOf(runStarts, newLength);
+        runEnds = Arrays.copyOf(runEnds, newLength);
+        runItems = Arrays.copyOf(runItems, newLength);
+      }
+      if (last < runCount && first + added != last) {
+        System.arraycopy(runStarts, last, runStarts, first + added, runCount - last);
+        System.arraycopy(runEnds, last, runEnds, first + added, runCount - last);
+        System.arraycopy(runItems, last, runItems, first + added, runCount - last);
+      }
+      if (newRunCount < runCount) {
+        Arrays.fill(runItems, newRunCount, runCount, null);
+      }
+      int i = first;
+      if (keepHead) {
+        setRun(i++, headStart, start, headItem);
+      }
+      setRun(i++, start, end, item);
+      if (keepTail) {
+        setRun(i, end, tailEnd, tailItem);
+      }
+      runCount = newRunCount;
+    }
+
+    private void setRun(int i, int start, int end, FakeEncodedItem item) {
+      runStarts[i] = start;
+      runEnds[i] = end;
+      runItems[i] = item;
+    }
+
+    /** Removes all runs, or parts of runs, at or after the given position. */
+    private void truncateRuns(int size) {
+      int first = firstRunEndingAfter(size);
+      if (first < runCount && runStarts[first] < size) {
+        runEnds[first] = size;
+        first++;
+      }
+      Arrays.fill(runItems, first, runCount, null);
+      runCount = first;
+      lastRun = 0;
+    }
+
     /**
      * Ensures that the next sizeBytes are all the initial value we read.
      *
@@ -975,32 +1265,31 @@ public class ShadowParcel {
      *   <li>Reading items that were partially overwritten by another
      * </ul>
      */
-    private void checkConsistentReadAndIncrementPosition(Class<?> clazz, FakeEncodedItem item) {
+    private void checkConsistentReadAndIncrementPosition(
+        Class<?> clazz, int run, FakeEncodedItem item) {
       int endPosition = dataPosition + item.sizeBytes;
-      for (int i = dataPosition; i < endPosition; i++) {
-        FakeEncodedItem foundItemItem = i < dataSize ? data[i] : null;
-        if (foundItemItem != item) {
-          throw new UnreliableBehaviorError(
-              clazz,
-              dataPosition,
-              item,
-              String.format(
-                  Locale.US,
-                  "but [%s] interrupts it at position %d",
-                  foundItemItem == null
-                      ? "uninitialized data or the end of the buffer"
-                      : foundItemItem.value,
-                  i));
-        }
+      int end = endOfContiguousRuns(run, endPosition);
+      if (end < endPosition) {
+        int foundRun = findRun(end);
+        throw new UnreliableBehaviorError(
+            clazz,
+            dataPosition,
+            item,
+            String.format(
+                Locale.US,
+                "but [%s] interrupts it at position %d",
+                foundRun == -1
+                    ? "uninitialized data or the end of the buffer"
+                    : runItems[foundRun].value,
+                end));
       }
-      dataPosition = Math.min(dataSize, dataPosition + item.sizeBytes);
+      dataPosition = Math.min(dataSize, endPosition);
     }
 
     /** Returns the item at the current position, or null if uninitialized or null. */
     private Object peek() {
-      return dataPosition < dataSize && data[dataPosition] != null
-          ? data[dataPosition].value
-          : null;
+      int run = findRun(dataPosition);
+      return run == -1 ? null : runItems[run].value;
     }
 
     /**
@@ -1010,12 +1299,13 @@ public class ShadowParcel {
      * @return null if the default value should be returned, otherwise the item holding the data
      */
     private <T> FakeEncodedItem readNextItem(Class<T> clazz) {
-      FakeEncodedItem item = data[dataPosition];
-      if (item == null) {
+      int run = findRun(dataPosition);
+      if (run == -1) {
         // While Parcel will treat these as zeros, in tests, this is almost always an error.
         throw new UnreliableBehaviorError("Reading uninitialized data at position " + dataPosition);
       }
-      checkConsistentReadAndIncrementPosition(clazz, item);
+      FakeEncodedItem item = runItems[run];
+      checkConsistentReadAndIncrementPosition(clazz, run, item);
       return item;
     }
 
@@ -1073,10 +1363,17 @@ public class ShadowParcel {
       if (endPosition > dataSize) {
         return false;
       }
-      for (int i = dataPosition; i < endPosition; i++) {
-        if (data[i] == null || !data[i].isEncodedAsAllZeroBytes) {
+      int position = dataPosition;
+      int run = findRun(position);
+      while (position < endPosition) {
+        if (run == -1
+            || run >= runCount
+            || runStarts[run] > position
+            || !runItems[run].isEncodedAsAllZeroBytes) {
           return false;
         }
+        position = runEnds[run];
+        run++;
       }
       // Note in this case we short-circuit other verification -- even if we are reading weirdly
       // clobbered zeroes, they're still zeroes.  Future reads might fail, though.
@@ -1102,7 +1399,7 @@ public class ShadowParcel {
     /** Writes an encoded item directly, bypassing alignment, and possibly repeating an item. */
     private void writeItem(FakeEncodedItem item) {
       int endPosition = dataPosition + item.sizeBytes;
-      if (endPosition > data.length) {
+      if (endPosition > dataCapacity) {
         // Parcel grows by 3/2 of the new size.
         setDataCapacityAtLeast(endPosition * 3 / 2);
       }
@@ -1110,7 +1407,7 @@ public class ShadowParcel {
         failNextReadIfPastEnd = true;
         dataSize = endPosition;
       }
-      Arrays.fill(data, dataPosition, endPosition, item);
+      putRun(dataPosition, endPosition, item);
       dataPosition = endPosition;
     }
 
@@ -504,6 +504,15 @@ public final class ShadowPausedLooper extends ShadowLooper {
     }
   }
 
+  /**
+   * Runs all tasks due within the given duration, advancing the clock straight to the next task
+   * each time, so that clock listeners (and other loopers) are notified once per task time rather
+   * than once per elapsed frame or millisecond.
+   *
+   * <p>If {@link ShadowChoreographer#isCoalescingFrames()} is true, a frame that keeps rescheduling
+   * itself as the only task on this looper is run once more at the last frame time before the end
+   * of the duration, rather than at every frame time in between.
+   */
   private class IdleForRunnable implements Runnable {
     private final Duration idleForDuration;
     private final IdlingRunnable idleRunnable = new IdlingRunnable();
@@ -516,11 +525,18 @@ public final class ShadowPausedLooper extends ShadowLooper {
     @Override
     public void run() {
       long endingTimeMs = SystemClock.uptimeMillis() + idleForDuration.toMillis();
+      boolean coalesceFrames = ShadowChoreographer.isCoalescingFrames();
+      boolean ranFrame = false;
       long nextScheduledTimeMs = getNextScheduledTaskTime().toMillis();
       while (nextScheduledTimeMs != 0 && nextScheduledTimeMs <= endingTimeMs) {
+        if (coalesceFrames && ranFrame) {
+          nextScheduledTimeMs = coalesceFrames(nextScheduledTimeMs, endingTimeMs);
+        }
         ShadowSystemClock.advanceBy(
             Duration.ofMillis(nextScheduledTimeMs - SystemClock.uptimeMillis()));
+        long framesBefore = ShadowChoreographer.getExecutedFrameCount();
         idleRunnable.run();
+        ranFrame = ShadowChoreographer.getExecutedFrameCount() != framesBefore;
         nextScheduledTimeMs = getNextScheduledTaskTime().toMillis();
       }
       ShadowSystemClock.advanceBy(Duration.ofMillis(endingTimeMs - SystemClock.uptimeMillis()));
@@ -528,6 +544,25 @@ public final class ShadowPausedLooper extends ShadowLooper {
       // so idle once more.
       idleRunnable.run();
     }
+
+    /**
+     * Returns the time to advance to in order to run the task scheduled at {@code
+     * nextScheduledTimeMs}, skipping over the frames in between if that task is the next frame and
+     * nothing else is scheduled on this looper.
+     */
+    private long coalesceFrames(long nextScheduledTimeMs, long endingTimeMs) {
+      long nextFrameTimeMs =
+          Duration.ofNanos(ShadowChoreographer.getNextVsyncTimeNanos()).toMillis();
+      long frameDelayMs = ShadowChoreographer.getFrameDelay().toMillis();
+      if (nextFrameTimeMs != nextScheduledTimeMs
+          || frameDelayMs <= 0
+          || getLastScheduledTaskTime().toMillis() != nextScheduledTimeMs) {
+        return nextScheduledTimeMs;
+      }
+      long skippedFrames = (endingTimeMs - nextScheduledTimeMs) / frameDelayMs;
+      ShadowChoreographer.recordSkippedFrames(skippedFrames);
+      return nextScheduledTimeMs + skippedFrames * frameDelayMs;
+    }
   }
 
   private class IdlingRunnable implements Runnable {
@@ -4,11 +4,13 @@ import static android.os.Build.VERSION_CODES.P;
 import static android.os.Build.VERSION_CODES.S;
 
 import android.os.SystemClock;
-import com.google.errorprone.annotations.concurrent.GuardedBy;
 import java.time.DateTimeException;
 import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.robolectric.annotation.HiddenApi;
 import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
@@ -26,6 +28,10 @@ import org.robolectric.annotation.Resetter;
  * <p>{@link SystemClock#uptimeMillis()} and {@link SystemClock#currentThreadTimeMillis()} are
  * identical.
  *
+ * <p>The current times are published as a single immutable snapshot, so reads never block and
+ * always see a consistent pair of times. Listeners are notified of advances by one thread at a
+ * time; advances made while listeners are being notified are coalesced into the next notification.
+ *
  * <p>This class should not be referenced directly. Use ShadowSystemClock instead.
  */
 @Implements(
@@ -37,13 +43,16 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
   private static final int MILLIS_PER_MICRO = 1_000;
   private static final long INITIAL_TIME_NS = 100 * MILLIS_PER_NANO;
 
-  @SuppressWarnings("NonFinalStaticField")
-  @GuardedBy("ShadowPausedSystemClock.class")
-  private static long currentUptimeNs = INITIAL_TIME_NS;
+  private static final ClockState INITIAL_STATE = new ClockState(INITIAL_TIME_NS, INITIAL_TIME_NS);
+
+  private static final AtomicReference<ClockState> clockState =
+      new AtomicReference<>(INITIAL_STATE);
+
+  /** Advances (in nanos) that listeners have not been notified of yet. */
+  private static final AtomicLong pendingAdvanceNs = new AtomicLong();
 
-  @SuppressWarnings("NonFinalStaticField")
-  @GuardedBy("ShadowPausedSystemClock.class")
-  private static long currentRealtimeNs = INITIAL_TIME_NS;
+  /** Whether a thread is currently notifying listeners. */
+  private static final AtomicBoolean notifyingListeners = new AtomicBoolean();
 
   private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
   // hopefully temporary list of clock listeners that are NOT cleared between tests
@@ -74,11 +83,7 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
    */
   @Implementation
   protected static void sleep(long millis) {
-    synchronized (ShadowPausedSystemClock.class) {
-      currentUptimeNs += (millis * MILLIS_PER_NANO);
-      currentRealtimeNs += (millis * MILLIS_PER_NANO);
-    }
-    informListeners(Duration.ofMillis(millis));
+    advance(millis * MILLIS_PER_NANO);
   }
 
   /**
@@ -89,18 +94,47 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
    * incremented when the device is in deep sleep.
    */
   protected static void deepSleep(long millis) {
-    synchronized (ShadowPausedSystemClock.class) {
-      currentRealtimeNs += (millis * MILLIS_PER_NANO);
-    }
-    informListeners(Duration.ofMillis(millis));
+    long nanos = millis * MILLIS_PER_NANO;
+    clockState.updateAndGet(state -> new ClockState(state.uptimeNs, state.realtimeNs + nanos));
+    informListeners(nanos);
   }
 
-  private static void informListeners(Duration duration) {
-    for (Listener listener : listeners) {
-      listener.onClockAdvanced(duration);
-    }
-    for (Listener listener : staticListeners) {
-      listener.onClockAdvanced(duration);
+  /** Advances both elapsed realtime and uptime by the given nanos. */
+  private static void advance(long nanos) {
+    clockState.updateAndGet(
+        state -> new ClockState(state.uptimeNs + nanos, state.realtimeNs + nanos));
+    informListeners(nanos);
+  }
+
+  /**
+   * Notifies listeners that the clock has advanced by the given nanos.
+   *
+   * <p>If another thread is already notifying listeners, the advance is handed off to that thread,
+   * which notifies listeners of all advances made in the meantime at once, rather than each advance
+   * waking every listener in turn.
+   */
+  private static void informListeners(long advanceNanos) {
+    pendingAdvanceNs.addAndGet(advanceNanos);
+    while (notifyingListeners.compareAndSet(false, true)) {
+      try {
+        long nanos;
+        while ((nanos = pendingAdvanceNs.getAndSet(0)) != 0) {
+          Duration duration = Duration.ofNanos(nanos);
+          for (Listener listener : listeners) {
+            listener.onClockAdvanced(duration);
+          }
+          for (Listener listener : staticListeners) {
+            listener.onClockAdvanced(duration);
+          }
+        }
+      } finally {
+        notifyingListeners.set(false);
+      }
+      // Another thread may have added an advance after the last check but before the flag was
+      // cleared, and given up on notifying listeners itself.
+      if (pendingAdvanceNs.get() == 0) {
+        return;
+      }
     }
   }
 
@@ -129,19 +163,17 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
   @Implementation
   protected static boolean setCurrentTimeMillis(long millis) {
     long newTimeNs = millis * MILLIS_PER_NANO;
-    long advanceNanos;
-    synchronized (ShadowPausedSystemClock.class) {
-      if (currentUptimeNs > newTimeNs) {
+    ClockState newState = new ClockState(newTimeNs, newTimeNs);
+    ClockState state;
+    do {
+      state = clockState.get();
+      if (state.uptimeNs > newTimeNs) {
         return false;
-      } else if (currentUptimeNs == newTimeNs) {
+      } else if (state.uptimeNs == newTimeNs) {
         return true;
-      } else {
-        advanceNanos = newTimeNs - currentUptimeNs;
-        currentUptimeNs = newTimeNs;
-        currentRealtimeNs = newTimeNs;
       }
-    }
-    informListeners(Duration.ofNanos(advanceNanos));
+    } while (!clockState.compareAndSet(state, newState));
+    informListeners(newTimeNs - state.uptimeNs);
     return true;
   }
 
@@ -151,8 +183,8 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
   }
 
   @Implementation(minSdk = S)
-  protected static synchronized long uptimeNanos() {
-    return currentUptimeNs;
+  protected static long uptimeNanos() {
+    return clockState.get().uptimeNs;
   }
 
   @Implementation
@@ -161,8 +193,8 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
   }
 
   @Implementation
-  protected static synchronized long elapsedRealtimeNanos() {
-    return currentRealtimeNs;
+  protected static long elapsedRealtimeNanos() {
+    return clockState.get().realtimeNs;
   }
 
   @Implementation
@@ -184,7 +216,7 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
 
   @Implementation(minSdk = P)
   @HiddenApi
-  protected static synchronized long currentNetworkTimeMillis() {
+  protected static long currentNetworkTimeMillis() {
     if (networkTimeAvailable) {
       return uptimeMillis();
     } else {
@@ -197,18 +229,24 @@ public class ShadowPausedSystemClock extends ShadowSystemClock {
       // ignore
       return;
     }
-    synchronized (ShadowPausedSystemClock.class) {
-      currentUptimeNs += duration.toNanos();
-      currentRealtimeNs += duration.toNanos();
-    }
-    informListeners(duration);
+    advance(duration.toNanos());
   }
 
   @Resetter
-  public static synchronized void reset() {
-    currentUptimeNs = INITIAL_TIME_NS;
-    currentRealtimeNs = INITIAL_TIME_NS;
+  public static void reset() {
+    clockState.set(INITIAL_STATE);
     ShadowSystemClock.reset();
     listeners.clear();
   }
+
+  /** An immutable snapshot of the current times. */
+  private static final class ClockState {
+    final long uptimeNs;
+    final long realtimeNs;
+
+    ClockState(long uptimeNs, long realtimeNs) {
+      this.uptimeNs = uptimeNs;
+      this.realtimeNs = realtimeNs;
+    }
+  }
 }
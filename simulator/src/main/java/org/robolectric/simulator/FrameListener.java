@@ -20,4 +20,17 @@ public interface FrameListener {
    * they should do processing work synchronously or asynchronously
    */
   void onFrame(Bitmap bitmap);
+
+  /**
+   * Receives one frame that may be shared with other listeners.
+   *
+   * <p>Implementations must call {@link SharedFrame#release()} once they are done with the frame,
+   * and must not recycle or modify its bitmap. The default implementation passes a bitmap owned by
+   * this listener to {@link #onFrame(Bitmap)}, copying it only if other listeners still use it.
+   *
+   * <p>This is called from main Looper thread.
+   */
+  default void onFrame(SharedFrame frame) {
+    onFrame(frame.toOwnedBitmap());
+  }
 }
@@ -5,21 +5,75 @@ import android.util.Log;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import org.robolectric.simulator.pluginapi.ScreenRecorder;
+import org.robolectric.util.PerfStatsCollector;
 
+/**
+ * A {@link FrameListener} that records frames with a {@link ScreenRecorder}.
+ *
+ * <p>Frames are handed off to a dedicated encoder thread through a bounded queue, so that a slow
+ * encoder does not stall the main Looper thread. The size of the queue is set by the {@code
+ * robolectric.videoQueueSize} system property, and what happens when it is full by the {@code
+ * robolectric.videoOverflowPolicy} system property (see {@link OverflowPolicy}).
+ *
+ * <p>If the screen recorder throws, recording stops, the queued frames are released, and the
+ * failure is rethrown by the next call to {@link #onFrame(SharedFrame)} or {@link #stop()}.
+ */
 public class ScreenRecorderFrameListener implements FrameListener {
 
+  /** What to do with a new frame when the encoder queue is full. */
+  public enum OverflowPolicy {
+    /** Drop the oldest queued frame to make room for the new one. */
+    DROP_OLDEST,
+    /** Drop the new frame. */
+    DROP_NEWEST,
+    /** Block the main Looper thread until the encoder has made room for the new frame. */
+    BLOCK
+  }
+
+  private static final int DEFAULT_QUEUE_SIZE = 8;
+
+  private static final long STOP_TIMEOUT_SECONDS = 30;
+
+  private static final long POLL_MILLIS = 100;
+
   private final float displayWidth;
   private final float displayHeight;
-  private ScreenRecorder screenRecorder = null;
-  private final Semaphore writingFrame = new Semaphore(1);
+  private final ScreenRecorder screenRecorder;
+  private final BlockingQueue<SharedFrame> pendingFrames;
+  private final OverflowPolicy overflowPolicy;
+  @Nullable private volatile Thread encoderThread = null;
+  private volatile boolean stopped = false;
+  @Nullable private volatile RuntimeException encoderFailure = null;
+  private final AtomicBoolean encoderFailureReported = new AtomicBoolean();
 
   public ScreenRecorderFrameListener(
       ScreenRecorder screenRecorder, float displayWidth, float displayHeight) {
+    this(
+        screenRecorder,
+        displayWidth,
+        displayHeight,
+        Integer.getInteger("robolectric.videoQueueSize", DEFAULT_QUEUE_SIZE),
+        OverflowPolicy.valueOf(
+            System.getProperty("robolectric.videoOverflowPolicy", OverflowPolicy.BLOCK.name())));
+  }
+
+  public ScreenRecorderFrameListener(
+      ScreenRecorder screenRecorder,
+      float displayWidth,
+      float displayHeight,
+      int queueSize,
+      OverflowPolicy overflowPolicy) {
     this.displayWidth = displayWidth;
     this.displayHeight = displayHeight;
     this.screenRecorder = screenRecorder;
+    this.pendingFrames = new ArrayBlockingQueue<>(queueSize);
+    this.overflowPolicy = overflowPolicy;
   }
 
   @Override
@@ -38,27 +92,151 @@ public class ScreenRecorderFrameListener implements FrameListener {
         (int) this.displayHeight,
         new ScreenRecorder.FrameRate(24, 1));
 
-    Runtime.getRuntime()
-        .addShutdownHook(
-            new Thread(
-                () -> {
-                  // Make sure that we don't stop the screen recorder in the middle of a write!
-                  writingFrame.acquireUninterruptibly();
-                  screenRecorder.stop();
-                  screenRecorder = null;
-                  writingFrame.release();
-                }));
+    Thread thread = new Thread(this::encodeFrames, "ScreenRecorderFrameListener-encoder");
+    thread.setDaemon(true);
+    encoderThread = thread;
+    thread.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
   }
 
   @Override
   public void onFrame(Bitmap bitmap) {
-    writingFrame.acquireUninterruptibly();
-    if (screenRecorder != null) {
+    onFrame(new SharedFrame(bitmap, 1));
+  }
+
+  @Override
+  public void onFrame(SharedFrame frame) {
+    if (encoderThread == null || stopped || !enqueue(frame)) {
+      frame.release();
+      rethrowEncoderFailure();
+      return;
+    }
+    if (encoderFailure != null) {
+      // the encoder failed while the frame was being queued, so nothing will take it
+      releaseQueuedFrames();
+      rethrowEncoderFailure();
+      return;
+    }
+    PerfStatsCollector.getInstance()
+        .recordCount("ScreenRecorderFrameListener-queueDepth", pendingFrames.size());
+  }
+
+  private boolean enqueue(SharedFrame frame) {
+    switch (overflowPolicy) {
+      case DROP_OLDEST:
+        while (!pendingFrames.offer(frame)) {
+          SharedFrame oldFrame = pendingFrames.poll();
+          if (oldFrame != null) {
+            recordDroppedFrame();
+            oldFrame.release();
+          }
+        }
+        return true;
+      case DROP_NEWEST:
+        if (!pendingFrames.offer(frame)) {
+          recordDroppedFrame();
+          return false;
+        }
+        return true;
+      case BLOCK:
+        try {
+          // don't wait forever if the encoder stops making room
+          while (!pendingFrames.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped) {
+              return false;
+            }
+          }
+          return true;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+    }
+    throw new AssertionError(overflowPolicy);
+  }
+
+  private static void recordDroppedFrame() {
+    Log.w("ScreenRecorderFrameListener", "dropping frame");
+    PerfStatsCollector.getInstance().incrementCount("ScreenRecorderFrameListener-droppedFrame");
+  }
+
+  private void encodeFrames() {
+    while (true) {
+      SharedFrame frame;
+      try {
+        frame = pendingFrames.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (frame != null) {
+        try {
+          PerfStatsCollector.getInstance()
+              .measure("ScreenRecorderFrameListener-recordFrame", () -> recordFrame(frame));
+        } catch (RuntimeException e) {
+          Log.e("ScreenRecorderFrameListener", "screen recorder failed, stopping recording", e);
+          encoderFailure = e;
+          stopped = true;
+          releaseQueuedFrames();
+          return;
+        }
+      } else if (stopped) {
+        return;
+      }
+    }
+  }
+
+  private void recordFrame(SharedFrame frame) {
+    // if no other listener uses the frame anymore, the recorder can take ownership of it
+    Bitmap bitmap = frame.detachBitmap();
+    if (bitmap != null) {
       screenRecorder.recordFrame(bitmap);
     } else {
-      bitmap.recycle();
+      try {
+        screenRecorder.recordSharedFrame(frame.getBitmap());
+      } finally {
+        frame.release();
+      }
+    }
+  }
+
+  private void releaseQueuedFrames() {
+    SharedFrame frame;
+    while ((frame = pendingFrames.poll()) != null) {
+      frame.release();
+    }
+  }
+
+  /** Throws the failure of the screen recorder, if it failed and that wasn't reported yet. */
+  private void rethrowEncoderFailure() {
+    RuntimeException failure = encoderFailure;
+    if (failure != null && encoderFailureReported.compareAndSet(false, true)) {
+      throw new IllegalStateException("screen recorder failed", failure);
+    }
+  }
+
+  /**
+   * Records the frames still in the queue, and stops the screen recorder. Throws if the screen
+   * recorder failed and that wasn't reported by {@link #onFrame(SharedFrame)} yet.
+   */
+  void stop() {
+    stopped = true;
+    Thread thread = encoderThread;
+    if (thread == null) {
+      rethrowEncoderFailure();
+      return;
+    }
+    try {
+      // Make sure that we don't stop the screen recorder in the middle of a write!
+      thread.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!thread.isAlive()) {
+      screenRecorder.stop();
     }
-    writingFrame.release();
+    encoderThread = null;
+    rethrowEncoderFailure();
   }
 
   private Path getVideoPath() throws IOException {
@@ -19,7 +19,6 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.errorprone.annotations.FormatMethod;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
@@ -139,14 +138,10 @@ public class ScreenUpdateHandler extends Handler
     if (SystemClock.uptimeMillis() > lastCaptureTime) {
       log("captureScreen");
       lastCaptureTime = SystemClock.uptimeMillis();
-      final Bitmap bitmap = takeScreenshot();
-      ListIterator<FrameListener> listenerIterator = frameListeners.listIterator();
-      while (listenerIterator.hasNext()) {
-        FrameListener frameListener = listenerIterator.next();
-        // only copy the bitmap if necessary. If this is the last frameListener in the list, use
-        // original
-        Bitmap bitmapForListener = listenerIterator.hasNext() ? copyBitmap(bitmap) : bitmap;
-        frameListener.onFrame(bitmapForListener);
+      // all listeners share the same bitmap, which is recycled once every listener released it
+      SharedFrame frame = new SharedFrame(takeScreenshot(), frameListeners.size());
+      for (FrameListener frameListener : frameListeners) {
+        frameListener.onFrame(frame);
       }
     } else {
       log("skipping captureScreen");
@@ -160,11 +155,6 @@ public class ScreenUpdateHandler extends Handler
             () -> InstrumentationRegistry.getInstrumentation().getUiAutomation().takeScreenshot());
   }
 
-  private Bitmap copyBitmap(Bitmap orig) {
-    return PerfStatsCollector.getInstance()
-        .measure("ScreenUpdateHandler-copyBitmap", () -> orig.copy(orig.getConfig(), false));
-  }
-
   /** The global onDraw listener callback */
   @Override
   public void onDraw() {
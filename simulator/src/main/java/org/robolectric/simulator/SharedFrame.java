@@ -0,0 +1,72 @@
+package org.robolectric.simulator;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import android.graphics.Bitmap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A screen capture that is shared between {@link FrameListener}s instead of being copied for each
+ * one.
+ *
+ * <p>The frame is reference counted. Each holder must call {@link #release()} once it is done with
+ * the frame, and the bitmap is recycled when the last holder releases it. Holders must not recycle
+ * or modify the bitmap themselves.
+ */
+public final class SharedFrame {
+
+  private final Bitmap bitmap;
+  private final AtomicInteger refCount;
+
+  /** Creates a frame with the given number of holders, each of which must release it. */
+  public SharedFrame(Bitmap bitmap, int refCount) {
+    checkState(refCount > 0, "refCount must be positive");
+    this.bitmap = bitmap;
+    this.refCount = new AtomicInteger(refCount);
+  }
+
+  /** Returns the shared bitmap. Only valid until this holder calls {@link #release()}. */
+  public Bitmap getBitmap() {
+    return bitmap;
+  }
+
+  /** Adds a holder, which must also call {@link #release()}. */
+  public SharedFrame retain() {
+    int previous = refCount.getAndIncrement();
+    checkState(previous > 0, "frame was already released");
+    return this;
+  }
+
+  /** Releases this holder's reference, recycling the bitmap if it was the last one. */
+  public void release() {
+    int remaining = refCount.decrementAndGet();
+    checkState(remaining >= 0, "frame was released too many times");
+    if (remaining == 0) {
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * Transfers ownership of the bitmap to the caller if the caller is the only holder, in which case
+   * the caller becomes responsible for recycling the bitmap. Otherwise returns null and the caller
+   * still holds its reference.
+   */
+  @Nullable
+  public Bitmap detachBitmap() {
+    return refCount.compareAndSet(1, 0) ? bitmap : null;
+  }
+
+  /**
+   * Returns a bitmap owned by the caller, and releases the caller's reference. The shared bitmap is
+   * only copied if other holders are still using it.
+   */
+  public Bitmap toOwnedBitmap() {
+    Bitmap owned = detachBitmap();
+    if (owned == null) {
+      owned = bitmap.copy(bitmap.getConfig(), false);
+      release();
+    }
+    return owned;
+  }
+}
@@ -13,7 +13,7 @@ public class SwingFrameListener implements FrameListener {
 
   private SimulatorFrame simulatorFrame;
   private SimulatorPanel simulatorPanel;
-  private final AtomicReference<Bitmap> pendingFrame = new AtomicReference<>();
+  private final AtomicReference<SharedFrame> pendingFrame = new AtomicReference<>();
   private final AtomicBoolean isCallbackPending = new AtomicBoolean(false);
   private final int apiLevel;
   private final int width;
@@ -50,12 +50,17 @@ public class SwingFrameListener implements FrameListener {
 
   @Override
   public void onFrame(Bitmap bitmap) {
-    Bitmap oldFrame = pendingFrame.getAndSet(bitmap);
+    onFrame(new SharedFrame(bitmap, 1));
+  }
+
+  @Override
+  public void onFrame(SharedFrame frame) {
+    SharedFrame oldFrame = pendingFrame.getAndSet(frame);
     if (oldFrame != null) {
       // frames are being sent faster than swing can process them, drop the old frame.
       Log.w("SwingFrameListener", "dropping frame");
       PerfStatsCollector.getInstance().incrementCount("SwingFrameListener-droppedFrame");
-      oldFrame.recycle();
+      oldFrame.release();
     }
 
     // don't schedule multiple callbacks if there is one already pending
@@ -66,10 +71,10 @@ public class SwingFrameListener implements FrameListener {
 
   private void renderLatestFrame() {
     isCallbackPending.set(false);
-    Bitmap b = pendingFrame.getAndSet(null);
-    if (b != null) {
-      sendFrameToSwing(b);
-      b.recycle();
+    SharedFrame frame = pendingFrame.getAndSet(null);
+    if (frame != null) {
+      sendFrameToSwing(frame.getBitmap());
+      frame.release();
     }
   }
 
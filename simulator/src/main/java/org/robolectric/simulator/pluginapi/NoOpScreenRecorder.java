@@ -19,6 +19,11 @@ public final class NoOpScreenRecorder implements ScreenRecorder {
     frame.recycle();
   }
 
+  @Override
+  public void recordSharedFrame(Bitmap frame) {
+    // Do nothing
+  }
+
   @Override
   public void stop() {
     // Do nothing
@@ -22,6 +22,15 @@ public interface ScreenRecorder {
   /** Record a frame. The implementation should call frame.recycle(). */
   void recordFrame(Bitmap frame);
 
+  /**
+   * Record a frame that is still used by other consumers. The implementation must not recycle or
+   * modify the frame, and must not use it after returning. The default implementation records a
+   * copy of the frame via {@link #recordFrame(Bitmap)}.
+   */
+  default void recordSharedFrame(Bitmap frame) {
+    recordFrame(frame.copy(frame.getConfig(), false));
+  }
+
   /** Stop the screen recorder. */
   void stop();
 }
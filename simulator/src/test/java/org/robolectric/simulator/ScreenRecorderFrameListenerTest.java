@@ -0,0 +1,124 @@
+package org.robolectric.simulator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.graphics.Bitmap;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.simulator.ScreenRecorderFrameListener.OverflowPolicy;
+import org.robolectric.simulator.pluginapi.ScreenRecorder;
+
+@RunWith(AndroidJUnit4.class)
+public class ScreenRecorderFrameListenerTest {
+
+  @Test
+  public void onFrame_sharedFrame_recordedWithoutRecycling() {
+    FakeScreenRecorder screenRecorder = new FakeScreenRecorder();
+    ScreenRecorderFrameListener listener =
+        new ScreenRecorderFrameListener(screenRecorder, 10, 10, 4, OverflowPolicy.BLOCK);
+    listener.onInitialize();
+    Bitmap bitmap = newBitmap();
+    SharedFrame frame = new SharedFrame(bitmap, 2);
+
+    listener.onFrame(frame);
+    listener.stop();
+
+    assertThat(screenRecorder.sharedFrames).containsExactly(bitmap);
+    assertThat(bitmap.isRecycled()).isFalse();
+    assertThat(screenRecorder.stopped).isTrue();
+    frame.release();
+    assertThat(bitmap.isRecycled()).isTrue();
+  }
+
+  @Test
+  public void onFrame_dropNewest_releasesDroppedFrame() throws InterruptedException {
+    FakeScreenRecorder screenRecorder = new FakeScreenRecorder();
+    ScreenRecorderFrameListener listener =
+        new ScreenRecorderFrameListener(screenRecorder, 10, 10, 1, OverflowPolicy.DROP_NEWEST);
+    listener.onInitialize();
+    Bitmap first = newBitmap();
+    Bitmap second = newBitmap();
+    Bitmap third = newBitmap();
+
+    listener.onFrame(first);
+    screenRecorder.recording.await();
+    listener.onFrame(second);
+    listener.onFrame(third);
+    screenRecorder.canFinish.countDown();
+    listener.stop();
+
+    assertThat(screenRecorder.ownedFrames).containsExactly(first, second).inOrder();
+    assertThat(third.isRecycled()).isTrue();
+  }
+
+  @Test
+  public void onFrame_recorderThrows_releasesQueuedFramesAndRethrowsOnStop()
+      throws InterruptedException {
+    FakeScreenRecorder screenRecorder = new FakeScreenRecorder();
+    screenRecorder.failure = new RuntimeException("encoder broke");
+    ScreenRecorderFrameListener listener =
+        new ScreenRecorderFrameListener(screenRecorder, 10, 10, 1, OverflowPolicy.BLOCK);
+    listener.onInitialize();
+    Bitmap first = newBitmap();
+    Bitmap second = newBitmap();
+    Bitmap third = newBitmap();
+
+    listener.onFrame(first);
+    screenRecorder.recording.await();
+    listener.onFrame(second);
+    screenRecorder.canFinish.countDown();
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, listener::stop);
+    listener.onFrame(third);
+
+    assertThat(thrown).hasCauseThat().isSameInstanceAs(screenRecorder.failure);
+    assertThat(screenRecorder.stopped).isTrue();
+    assertThat(second.isRecycled()).isTrue();
+    assertThat(third.isRecycled()).isTrue();
+  }
+
+  private static Bitmap newBitmap() {
+    return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+  }
+
+  private static class FakeScreenRecorder implements ScreenRecorder {
+    final List<Bitmap> ownedFrames = new CopyOnWriteArrayList<>();
+    final List<Bitmap> sharedFrames = new CopyOnWriteArrayList<>();
+    final CountDownLatch recording = new CountDownLatch(1);
+    final CountDownLatch canFinish = new CountDownLatch(1);
+    volatile boolean stopped = false;
+    volatile RuntimeException failure = null;
+
+    @Override
+    public void start(Path output, int width, int height, FrameRate frameRate) {}
+
+    @Override
+    public void recordFrame(Bitmap frame) {
+      recording.countDown();
+      try {
+        canFinish.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      ownedFrames.add(frame);
+    }
+
+    @Override
+    public void recordSharedFrame(Bitmap frame) {
+      sharedFrames.add(frame);
+    }
+
+    @Override
+    public void stop() {
+      stopped = true;
+    }
+  }
+}
@@ -3,8 +3,10 @@ package org.robolectric.util.reflector;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,13 +33,29 @@ import org.robolectric.util.PerfStatsCollector;
  *
  * reflector(FooReflector.class, new Foo()).getName();
  * </pre>
+ *
+ * <p>By default, generated reflectors call the target's members through {@link MethodHandle}
+ * constants, which the JIT can inline like direct calls. Setting the {@code
+ * robolectric.reflector.useMethodHandles} system property to {@code false} makes them use core
+ * reflection instead.
  */
 @SuppressWarnings("NewApi")
 public class Reflector {
 
   private static final boolean DEBUG = false;
+  private static final boolean USE_METHOD_HANDLES =
+      !"false".equals(System.getProperty("robolectric.reflector.useMethodHandles"));
   private static final AtomicInteger COUNTER = new AtomicInteger();
-  private static final Map<Class<?>, Constructor<?>> cache = new ConcurrentHashMap<>();
+
+  /** Factories for reflector instances, taking the target and returning a new reflector. */
+  private static final ClassValue<MethodHandle> factories =
+      new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> iClass) {
+          return createFactory(iClass);
+        }
+      };
+
   private static final Map<Class<?>, Object> staticReflectorCache = new ConcurrentHashMap<>();
 
   /**
@@ -58,34 +76,39 @@ public class Reflector {
    * @param target the target object
    */
   public static <T> T reflector(Class<T> iClass, Object target) {
-    if (target == null && staticReflectorCache.containsKey(iClass)) {
-      return (T) staticReflectorCache.get(iClass);
+    if (target == null) {
+      Object staticReflector = staticReflectorCache.get(iClass);
+      if (staticReflector != null) {
+        return (T) staticReflector;
+      }
     }
 
-    Constructor<? extends T> ctor = (Constructor<? extends T>) cache.get(iClass);
+    T instance;
     try {
-      if (ctor == null) {
-        Class<?> targetClass = determineTargetClass(iClass);
-        Class<? extends T> reflectorClass =
-            PerfStatsCollector.getInstance()
-                .measure(
-                    "createReflectorClass",
-                    () -> Reflector.<T>createReflectorClass(iClass, targetClass));
-        ctor = reflectorClass.getConstructor(targetClass);
-        ctor.setAccessible(true);
-        cache.put(iClass, ctor);
-      }
-
-      T instance = ctor.newInstance(target);
-      if (target == null) {
-        staticReflectorCache.put(iClass, instance);
-      }
-      return instance;
+      instance = (T) (Object) factories.get(iClass).invokeExact(target);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+    if (target == null) {
+      staticReflectorCache.put(iClass, instance);
+    }
+    return instance;
+  }
 
-    } catch (NoSuchMethodException
-        | InstantiationException
-        | IllegalAccessException
-        | InvocationTargetException e) {
+  private static MethodHandle createFactory(Class<?> iClass) {
+    Class<?> targetClass = determineTargetClass(iClass);
+    Class<?> reflectorClass =
+        PerfStatsCollector.getInstance()
+            .measure("createReflectorClass", () -> createReflectorClass(iClass, targetClass));
+    try {
+      Constructor<?> ctor = reflectorClass.getConstructor(targetClass);
+      ctor.setAccessible(true);
+      return MethodHandles.lookup()
+          .unreflectConstructor(ctor)
+          .asType(MethodType.methodType(Object.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
       throw new IllegalStateException(e);
     }
   }
@@ -139,7 +162,8 @@ public class Reflector {
 
   private static <T> byte[] getBytecode(
       Class<T> iClass, Class<?> targetClass, String reflectorClassName) {
-    ReflectorClassWriter writer = new ReflectorClassWriter(iClass, targetClass, reflectorClassName);
+    ReflectorClassWriter writer =
+        new ReflectorClassWriter(iClass, targetClass, reflectorClassName, USE_METHOD_HANDLES);
     writer.write();
 
     return writer.toByteArray();
@@ -0,0 +1,70 @@
+package org.robolectric.util.reflector;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Bootstrap methods for the dynamic constants used by generated reflector classes. Each returns a
+ * {@link MethodHandle} for a member of the target class, adapted to {@code callType}, the signature
+ * used at the call site. For methods and fields, the first parameter of {@code callType} is the
+ * receiver, which is ignored for static members.
+ *
+ * <p>This class is only public so that generated reflectors in other packages can link to it.
+ */
+@SuppressWarnings("NewApi")
+public final class ReflectorBootstraps {
+
+  public static MethodHandle method(
+      MethodHandles.Lookup lookup,
+      String methodName,
+      Class<?> type,
+      Class<?> targetClass,
+      MethodType callType,
+      MethodType targetParams)
+      throws ReflectiveOperationException {
+    Method method = targetClass.getDeclaredMethod(methodName, targetParams.parameterArray());
+    method.setAccessible(true);
+    MethodHandle handle = lookup.unreflect(method).asFixedArity();
+    if (Modifier.isStatic(method.getModifiers())) {
+      handle = MethodHandles.dropArguments(handle, 0, callType.parameterType(0));
+    }
+    return handle.asType(callType);
+  }
+
+  public static MethodHandle constructor(
+      MethodHandles.Lookup lookup,
+      String name,
+      Class<?> type,
+      Class<?> targetClass,
+      MethodType callType,
+      MethodType targetParams)
+      throws ReflectiveOperationException {
+    java.lang.reflect.Constructor<?> constructor =
+        targetClass.getDeclaredConstructor(targetParams.parameterArray());
+    constructor.setAccessible(true);
+    return lookup.unreflectConstructor(constructor).asFixedArity().asType(callType);
+  }
+
+  public static MethodHandle field(
+      MethodHandles.Lookup lookup,
+      String fieldName,
+      Class<?> type,
+      Class<?> targetClass,
+      MethodType callType)
+      throws ReflectiveOperationException {
+    Field field = targetClass.getDeclaredField(fieldName);
+    field.setAccessible(true);
+    boolean isSetter = callType.returnType() == void.class;
+    MethodHandle handle = isSetter ? lookup.unreflectSetter(field) : lookup.unreflectGetter(field);
+    if (Modifier.isStatic(field.getModifiers())) {
+      handle = MethodHandles.dropArguments(handle, 0, callType.parameterType(0));
+    }
+    return handle.asType(callType);
+  }
+
+  private ReflectorBootstraps() {}
+}
@@ -6,9 +6,12 @@ import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
 import static org.objectweb.asm.Opcodes.ACC_SUPER;
 import static org.objectweb.asm.Opcodes.ACC_VOLATILE;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.V11;
 import static org.objectweb.asm.Opcodes.V1_5;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -18,6 +21,8 @@ import java.util.HashSet;
 import java.util.Set;
 import javax.annotation.Nullable;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -40,6 +45,9 @@ class ReflectorClassWriter extends ClassWriter {
   private static final Type THROWABLE_TYPE = Type.getType(Throwable.class);
   private static final Type ASSERTION_ERROR_TYPE = Type.getType(AssertionError.class);
 
+  private static final Type METHOD_HANDLE_TYPE = Type.getType(MethodHandle.class);
+  private static final Type BOOTSTRAP_METHOD_ERROR_TYPE = Type.getType(BootstrapMethodError.class);
+
   private static final Type INVOCATION_TARGET_EXCEPTION_TYPE =
       Type.getType(InvocationTargetException.class);
 
@@ -80,6 +88,10 @@ class ReflectorClassWriter extends ClassWriter {
           "<init>", Type.VOID_TYPE, new Type[] {STRING_TYPE, THROWABLE_TYPE});
   private static final String TARGET_FIELD = "__target__";
 
+  private static final Handle METHOD_BOOTSTRAP = findBootstrap("method");
+  private static final Handle CONSTRUCTOR_BOOTSTRAP = findBootstrap("constructor");
+  private static final Handle FIELD_BOOTSTRAP = findBootstrap("field");
+
   private static org.objectweb.asm.commons.Method findMethod(
       Class<?> clazz, String methodName, Class<?>[] paramTypes) {
     try {
@@ -89,19 +101,40 @@ class ReflectorClassWriter extends ClassWriter {
     }
   }
 
+  private static Handle findBootstrap(String methodName) {
+    for (Method method : ReflectorBootstraps.class.getMethods()) {
+      if (method.getName().equals(methodName)) {
+        return new Handle(
+            H_INVOKESTATIC,
+            Type.getInternalName(ReflectorBootstraps.class),
+            methodName,
+            Type.getMethodDescriptor(method),
+            false);
+      }
+    }
+    throw new AssertionError("no bootstrap method " + methodName);
+  }
+
   private final Class<?> iClass;
   private final Type iType;
   private final Type reflectorType;
   private final Type targetType;
   private final boolean directModifier;
+  private final boolean useMethodHandles;
 
   private int nextMethodNumber = 0;
   private final Set<String> fieldRefs = new HashSet<>();
 
-  ReflectorClassWriter(Class<?> iClass, Class<?> targetClass, String reflectorName) {
+  /**
+   * @param useMethodHandles whether to call target members through lazily resolved {@link
+   *     MethodHandle} constants, which the JIT can inline, rather than through reflection
+   */
+  ReflectorClassWriter(
+      Class<?> iClass, Class<?> targetClass, String reflectorName, boolean useMethodHandles) {
     super(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
 
     this.iClass = iClass;
+    this.useMethodHandles = useMethodHandles;
     iType = Type.getType(iClass);
     reflectorType = asType(reflectorName);
     targetType = Type.getType(targetClass);
@@ -113,7 +146,8 @@ class ReflectorClassWriter extends ClassWriter {
   void write() {
     int accessModifiers = iClass.getModifiers() & Modifier.PUBLIC;
     visit(
-        V1_5,
+        // Dynamic constants require Java 11 class files.
+        useMethodHandles ? V11 : V1_5,
         accessModifiers | ACC_SUPER | ACC_FINAL,
         reflectorType.getInternalName(),
         null,
@@ -141,6 +175,12 @@ class ReflectorClassWriter extends ClassWriter {
     visitEnd();
   }
 
+  @Override
+  protected ClassLoader getClassLoader() {
+    // Used to compute stack map frames, which may refer to the interface's types.
+    return iClass.getClassLoader();
+  }
+
   private void writeTargetField() {
     visitField(ACC_PRIVATE, TARGET_FIELD, targetType.getDescriptor(), null, null);
   }
@@ -198,6 +238,14 @@ class ReflectorClassWriter extends ClassWriter {
     }
 
     void write() {
+      if (useMethodHandles) {
+        visitCode();
+        // Resolution failures (e.g. NoSuchFieldException) are rethrown as is.
+        invokeMethodHandleConstant(targetFieldName, FIELD_BOOTSTRAP, true, true);
+        endMethod();
+        return;
+      }
+
       // write our field to hold target field reference (but just once)...
       if (fieldRefs.add(targetFieldName)) {
         visitField(
@@ -282,6 +330,14 @@ class ReflectorClassWriter extends ClassWriter {
     }
 
     void write() {
+      if (useMethodHandles) {
+        visitCode();
+        invokeMethodHandleConstant(
+            "new", CONSTRUCTOR_BOOTSTRAP, false, false, targetParamsMethodType(targetParamTypes));
+        endMethod();
+        return;
+      }
+
       // write field to hold method reference...
       visitField(
           ACC_PRIVATE | ACC_STATIC | ACC_VOLATILE,
@@ -335,24 +391,7 @@ class ReflectorClassWriter extends ClassWriter {
       mark(handleReflectiveOperationException);
       exceptionLocalVar = newLocal(REFLECTIVE_OPERATION_EXCEPTION_TYPE);
       storeLocal(exceptionLocalVar);
-      newInstance(STRINGBUILDER_TYPE);
-      dup();
-      invokeConstructor(STRINGBUILDER_TYPE, OBJECT_INIT);
-      push("Error invoking reflector method in ClassLoader ");
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
-      push(targetType);
-      invokeVirtual(CLASS_TYPE, CLASS$GET_CLASS_LOADER);
-      invokeStatic(STRING_TYPE, STRING$VALUE_OF);
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$TO_STRING);
-      int messageLocalVar = newLocal(STRING_TYPE);
-      storeLocal(messageLocalVar);
-      newInstance(ASSERTION_ERROR_TYPE);
-      dup();
-      loadLocal(messageLocalVar);
-      loadLocal(exceptionLocalVar);
-      invokeConstructor(ASSERTION_ERROR_TYPE, ASSERTION_ERROR_INIT);
-      throwException();
+      throwAssertionError(exceptionLocalVar);
 
       endMethod();
     }
@@ -411,6 +450,18 @@ class ReflectorClassWriter extends ClassWriter {
     }
 
     void write() {
+      if (useMethodHandles) {
+        visitCode();
+        invokeMethodHandleConstant(
+            getMethodName(),
+            METHOD_BOOTSTRAP,
+            true,
+            false,
+            targetParamsMethodType(targetParamTypes));
+        endMethod();
+        return;
+      }
+
       // write field to hold method reference...
       visitField(
           ACC_PRIVATE | ACC_STATIC | ACC_VOLATILE,
@@ -465,24 +516,7 @@ class ReflectorClassWriter extends ClassWriter {
       mark(handleReflectiveOperationException);
       exceptionLocalVar = newLocal(REFLECTIVE_OPERATION_EXCEPTION_TYPE);
       storeLocal(exceptionLocalVar);
-      newInstance(STRINGBUILDER_TYPE);
-      dup();
-      invokeConstructor(STRINGBUILDER_TYPE, OBJECT_INIT);
-      push("Error invoking reflector method in ClassLoader ");
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
-      push(targetType);
-      invokeVirtual(CLASS_TYPE, CLASS$GET_CLASS_LOADER);
-      invokeStatic(STRING_TYPE, STRING$VALUE_OF);
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
-      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$TO_STRING);
-      int messageLocalVar = newLocal(STRING_TYPE);
-      storeLocal(messageLocalVar);
-      newInstance(ASSERTION_ERROR_TYPE);
-      dup();
-      loadLocal(messageLocalVar);
-      loadLocal(exceptionLocalVar);
-      invokeConstructor(ASSERTION_ERROR_TYPE, ASSERTION_ERROR_INIT);
-      throwException();
+      throwAssertionError(exceptionLocalVar);
 
       endMethod();
     }
@@ -571,7 +605,7 @@ class ReflectorClassWriter extends ClassWriter {
     private BaseAdapter(
         Method method, org.objectweb.asm.commons.Method asmMethod, MethodVisitor methodVisitor) {
       super(
-          Opcodes.ASM6,
+          Opcodes.ASM9,
           methodVisitor,
           Opcodes.ACC_PUBLIC,
           asmMethod.getName(),
@@ -580,6 +614,107 @@ class ReflectorClassWriter extends ClassWriter {
       this.iMethod = method;
     }
 
+    /**
+     * Generates a call to a {@link MethodHandle} constant, which is resolved by {@code bootstrap}
+     * the first time it's used, passing the target (if {@code withTarget}) followed by this
+     * method's arguments, and returns the result.
+     *
+     * <p>If resolution fails, the cause is rethrown if {@code rethrowCause}, and otherwise wrapped
+     * in an {@link AssertionError}, as with reflective calls.
+     */
+    void invokeMethodHandleConstant(
+        String name,
+        Handle bootstrap,
+        boolean withTarget,
+        boolean rethrowCause,
+        Object... extraBootstrapArgs) {
+      Type[] argTypes = Type.getArgumentTypes(iMethod);
+      Type[] callArgTypes = argTypes;
+      if (withTarget) {
+        // The receiver is passed as Object and cast by the method handle, so that the call site
+        // doesn't need to resolve the target class.
+        callArgTypes = new Type[argTypes.length + 1];
+        callArgTypes[0] = OBJECT_TYPE;
+        System.arraycopy(argTypes, 0, callArgTypes, 1, argTypes.length);
+      }
+      Type callType = Type.getMethodType(Type.getReturnType(iMethod), callArgTypes);
+
+      Object[] bootstrapArgs = new Object[extraBootstrapArgs.length + 2];
+      bootstrapArgs[0] = targetType;
+      bootstrapArgs[1] = callType;
+      System.arraycopy(extraBootstrapArgs, 0, bootstrapArgs, 2, extraBootstrapArgs.length);
+
+      Label tryStart = new Label();
+      Label tryEnd = new Label();
+      Label handleBootstrapMethodError = new Label();
+      visitTryCatchBlock(
+          tryStart,
+          tryEnd,
+          handleBootstrapMethodError,
+          BOOTSTRAP_METHOD_ERROR_TYPE.getInternalName());
+
+      // pseudocode:
+      //   MethodHandle handle;
+      //   try {
+      //     handle = <constant>;
+      //   } catch (BootstrapMethodError e) {
+      //     throw e.getCause(); // or: throw new AssertionError("Error invoking...", e.getCause());
+      //   }
+      //   return handle.invokeExact(target, *args);
+      mark(tryStart);
+      visitLdcInsn(
+          new ConstantDynamic(name, METHOD_HANDLE_TYPE.getDescriptor(), bootstrap, bootstrapArgs));
+      mark(tryEnd);
+      if (withTarget) {
+        loadTarget();
+      }
+      loadArgs();
+      invokeVirtual(
+          METHOD_HANDLE_TYPE,
+          new org.objectweb.asm.commons.Method("invokeExact", callType.getDescriptor()));
+      returnValue();
+
+      mark(handleBootstrapMethodError);
+      invokeVirtual(THROWABLE_TYPE, THROWABLE$GET_CAUSE);
+      if (rethrowCause) {
+        throwException();
+      } else {
+        int causeLocalVar = newLocal(THROWABLE_TYPE);
+        storeLocal(causeLocalVar);
+        throwAssertionError(causeLocalVar);
+      }
+    }
+
+    /** Returns a method type with the given parameters, for passing them as a constant. */
+    Type targetParamsMethodType(Type[] paramTypes) {
+      return Type.getMethodType(Type.VOID_TYPE, paramTypes);
+    }
+
+    /**
+     * Throws an {@link AssertionError} identifying the target's class loader, caused by the
+     * exception in the given local.
+     */
+    void throwAssertionError(int causeLocalVar) {
+      newInstance(STRINGBUILDER_TYPE);
+      dup();
+      invokeConstructor(STRINGBUILDER_TYPE, OBJECT_INIT);
+      push("Error invoking reflector method in ClassLoader ");
+      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
+      push(targetType);
+      invokeVirtual(CLASS_TYPE, CLASS$GET_CLASS_LOADER);
+      invokeStatic(STRING_TYPE, STRING$VALUE_OF);
+      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$APPEND);
+      invokeVirtual(STRINGBUILDER_TYPE, STRINGBUILDER$TO_STRING);
+      int messageLocalVar = newLocal(STRING_TYPE);
+      storeLocal(messageLocalVar);
+      newInstance(ASSERTION_ERROR_TYPE);
+      dup();
+      loadLocal(messageLocalVar);
+      loadLocal(causeLocalVar);
+      invokeConstructor(ASSERTION_ERROR_TYPE, ASSERTION_ERROR_INIT);
+      throwException();
+    }
+
     void loadTarget() {
       if (isAnnotatedStatic()) {
         loadNull();
@@ -161,6 +161,11 @@ public class ReflectorTest {
     assertThat(ex).hasCauseThat().isInstanceOf(NoSuchMethodException.class);
   }
 
+  @Test
+  public void nonExistentField_throwsNoSuchFieldException() {
+    assertThrows(NoSuchFieldException.class, () -> reflector.getNonExistentField());
+  }
+
   @Test
   public void reflector_constructor() {
     assertThat(staticReflector.newSomeClass("sdfsdf")).isNotNull();
@@ -202,6 +207,9 @@ public class ReflectorTest {
 
     String nonExistentMethod(String a, String b, String c);
 
+    @Accessor("nonExistentField")
+    String getNonExistentField();
+
     String anotherMethod(@WithType("java.lang.String") Object a, String b);
 
     default String defaultMethod(String which, String a, String b) {
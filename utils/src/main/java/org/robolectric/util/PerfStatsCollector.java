@@ -90,6 +90,22 @@ public class PerfStatsCollector {
     metric.incrementCount();
   }
 
+  /**
+   * Adds the given amount to the count for the given event, e.g. for events that come in batches.
+   */
+  public void incrementCount(String eventName, int delta) {
+    if (!enabled.get()) {
+      return;
+    }
+
+    MetricKey key = new MetricKey(eventName, true);
+    Metric metric = metricMap.get(key);
+    if (metric == null) {
+      metric = metricMap.computeIfAbsent(key, k -> new Metric(k.name, k.success));
+    }
+    metric.incrementCount(delta);
+  }
+
   /**
    * Records a precise count for the given event.
    *
@@ -120,6 +120,13 @@ class PerfStatsCollectorTest {
     assertThat(collector.metrics).containsExactly(Metric("changing event", 7, 0, true))
   }
 
+  @Test
+  fun shouldIncrementCountByDelta() {
+    collector.incrementCount("batched event")
+    collector.incrementCount("batched event", 5)
+    assertThat(collector.metrics).containsExactly(Metric("batched event", 6, 0, true))
+  }
+
   private class FakeClock : Clock {
     private var timeNs = 0
 